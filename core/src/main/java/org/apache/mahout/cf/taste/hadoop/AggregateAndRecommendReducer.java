@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.mahout.cf.taste.impl.model.GenericItem;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sums the partial estimates from {@link PartialMultiplyReducer} for each of a user's candidate items,
+ * skips items the user already has a preference for, and outputs those with the highest estimates.
+ */
+public final class AggregateAndRecommendReducer
+    extends MapReduceBase
+    implements Reducer<Text, ItemPrefWritable, Text, RecommendedItemsWritable> {
+
+  private int recommendationsPerUser;
+
+  @Override
+  public void configure(JobConf jobConf) {
+    recommendationsPerUser = Integer.parseInt(jobConf.get(RecommenderMapper.RECOMMENDATIONS_PER_USER));
+  }
+
+  @Override
+  public void reduce(Text userID,
+                     Iterator<ItemPrefWritable> values,
+                     OutputCollector<Text, RecommendedItemsWritable> output,
+                     Reporter reporter) throws IOException {
+    List<ItemPrefWritable> top = TopItemPrefs.getTop(TopItemPrefs.sumByItem(values), recommendationsPerUser);
+    List<RecommendedItem> recommendedItems = new ArrayList<RecommendedItem>(top.size());
+    for (ItemPrefWritable itemPref : top) {
+      recommendedItems.add(
+          new GenericRecommendedItem(new GenericItem<String>(itemPref.getItemID()), itemPref.getPrefValue()));
+    }
+    output.collect(userID, new RecommendedItemsWritable(recommendedItems));
+    reporter.incrCounter(ReducerMetrics.USERS_PROCESSED, 1L);
+    reporter.incrCounter(ReducerMetrics.RECOMMENDATIONS_MADE, recommendedItems.size());
+  }
+
+}
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * For each pair of distinct items a user has preferences for, outputs each item as key with the other as
+ * value, counting one co-occurrence.
+ */
+public final class CooccurrenceMapper
+    extends MapReduceBase
+    implements Mapper<Text, ItemPrefsWritable, Text, ItemPrefWritable> {
+
+  @Override
+  public void map(Text userID,
+                  ItemPrefsWritable userVector,
+                  OutputCollector<Text, ItemPrefWritable> output,
+                  Reporter reporter) throws IOException {
+    List<ItemPrefWritable> prefs = userVector.getPrefs();
+    int size = prefs.size();
+    for (int i = 0; i < size; i++) {
+      String itemAID = prefs.get(i).getItemID();
+      Text itemA = new Text(itemAID);
+      for (int j = 0; j < size; j++) {
+        String itemBID = prefs.get(j).getItemID();
+        if (!itemAID.equals(itemBID)) {
+          output.collect(itemA, new ItemPrefWritable(itemBID, 1.0));
+        }
+      }
+    }
+  }
+
+}
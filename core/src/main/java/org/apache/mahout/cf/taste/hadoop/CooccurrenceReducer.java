@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Counts how often an item co-occurs with each other item, and outputs the most frequently co-occurring
+ * items, with their counts, as the item's row of similar items.
+ */
+public final class CooccurrenceReducer
+    extends MapReduceBase
+    implements Reducer<Text, ItemPrefWritable, Text, ItemPrefsWritable> {
+
+  static final String MAX_SIMILAR_ITEMS = "maxSimilarItemsPerItem";
+
+  private int maxSimilarItems;
+
+  @Override
+  public void configure(JobConf jobConf) {
+    maxSimilarItems = jobConf.getInt(MAX_SIMILAR_ITEMS, 100);
+  }
+
+  @Override
+  public void reduce(Text itemID,
+                     Iterator<ItemPrefWritable> values,
+                     OutputCollector<Text, ItemPrefsWritable> output,
+                     Reporter reporter) throws IOException {
+    output.collect(itemID,
+                   new ItemPrefsWritable(TopItemPrefs.getTop(TopItemPrefs.sumByItem(values), maxSimilarItems)));
+  }
+
+}
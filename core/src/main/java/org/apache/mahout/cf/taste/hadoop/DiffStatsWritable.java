@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A {@link Writable} accumulating the count, sum and sum of squares of a series of preference diffs, from
+ * which their average and standard deviation follow. Partial statistics from several sources can be merged,
+ * so diffs can be aggregated before they are shuffled.
+ */
+public final class DiffStatsWritable implements Writable {
+
+  private long count;
+  private double sum;
+  private double sumOfSquares;
+
+  public DiffStatsWritable() {
+    // do nothing
+  }
+
+  public DiffStatsWritable(long count, double sum, double sumOfSquares) {
+    this.count = count;
+    this.sum = sum;
+    this.sumOfSquares = sumOfSquares;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getSum() {
+    return sum;
+  }
+
+  public double getSumOfSquares() {
+    return sumOfSquares;
+  }
+
+  public double getAverage() {
+    return count == 0L ? Double.NaN : sum / count;
+  }
+
+  public void addDatum(double datum) {
+    count++;
+    sum += datum;
+    sumOfSquares += datum * datum;
+  }
+
+  public void merge(DiffStatsWritable other) {
+    count += other.count;
+    sum += other.sum;
+    sumOfSquares += other.sumOfSquares;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeLong(count);
+    out.writeDouble(sum);
+    out.writeDouble(sumOfSquares);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    count = in.readLong();
+    sum = in.readDouble();
+    sumOfSquares = in.readDouble();
+  }
+
+  public static DiffStatsWritable read(DataInput in) throws IOException {
+    DiffStatsWritable writable = new DiffStatsWritable();
+    writable.readFields(in);
+    return writable;
+  }
+
+  @Override
+  public String toString() {
+    return count + "\t" + sum + '\t' + sumOfSquares;
+  }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.MultipleInputs;
+
+import java.io.IOException;
+
+/**
+ * <p>Computes item-based recommendations for all users with a series of MapReduce jobs. Unlike
+ * {@link RecommenderJob}, no task needs all the data in memory, so this scales with the size of the data
+ * rather than the size of a task's heap. The jobs are:</p>
+ *
+ * <ol>
+ *  <li>user vectors: collects each user's preferences, using {@link SlopeOnePrefsToDiffsMapper} to parse
+ *   them and {@link UserVectorReducer}</li>
+ *  <li>similarity rows: counts how often each pair of items is preferred by the same user, and keeps the
+ *   items co-occurring most often with each item, using {@link CooccurrenceMapper} and
+ *   {@link CooccurrenceReducer}</li>
+ *  <li>partial products: joins each item's row with the users' preferences for it, using
+ *   {@link SimilarityRowMapper}, {@link UserVectorToItemsMapper} and {@link PartialMultiplyReducer}</li>
+ *  <li>recommendations: sums partial products for each user and item, and keeps the highest, using
+ *   {@link AggregateAndRecommendReducer}</li>
+ * </ol>
+ *
+ * <p>The estimate for a user and an item is the sum, over the user's preferences, of the preference value
+ * times the number of users who have preferences for both items.</p>
+ *
+ * <p>Command line arguments are:</p>
+ * <ol>
+ *  <li>Location of a preference file in "userID,itemID,value" format</li>
+ *  <li>Output path where recommendations should go</li>
+ *  <li>Path under which intermediate output should go</li>
+ *  <li>Number of recommendations to compute per user</li>
+ *  <li>Number of similar items to keep per item</li>
+ * </ol>
+ *
+ * <p>Example:</p>
+ *
+ * <p><code>path/to/data.csv path/to/outputDir path/to/tempDir 10 100</code></p>
+ */
+public final class ItemBasedRecommenderJob {
+  private ItemBasedRecommenderJob() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    String prefsFile = args[0];
+    String outputPath = args[1];
+    String tempPath = args[2];
+    int recommendationsPerUser = Integer.parseInt(args[3]);
+    int maxSimilarItemsPerItem = Integer.parseInt(args[4]);
+    runJobs(prefsFile, outputPath, tempPath, recommendationsPerUser, maxSimilarItemsPerItem);
+  }
+
+  public static void runJobs(String prefsFile,
+                             String outputPath,
+                             String tempPath,
+                             int recommendationsPerUser,
+                             int maxSimilarItemsPerItem) throws IOException {
+    String userVectorsPath = tempPath + "/userVectors";
+    String similarityRowsPath = tempPath + "/similarityRows";
+    String partialProductsPath = tempPath + "/partialProducts";
+    JobClient.runJob(buildUserVectorsJobConf(prefsFile, userVectorsPath));
+    JobClient.runJob(buildSimilarityRowsJobConf(userVectorsPath, similarityRowsPath, maxSimilarItemsPerItem));
+    JobClient.runJob(buildPartialProductsJobConf(userVectorsPath, similarityRowsPath, partialProductsPath));
+    JobClient.runJob(buildRecommendationsJobConf(partialProductsPath, outputPath, recommendationsPerUser));
+  }
+
+  public static JobConf buildUserVectorsJobConf(String prefsFile, String outputPath) throws IOException {
+    JobConf jobConf = newJobConf(outputPath);
+
+    jobConf.setInputFormat(TextInputFormat.class);
+    FileInputFormat.setInputPaths(jobConf, new Path(prefsFile));
+
+    jobConf.setMapperClass(SlopeOnePrefsToDiffsMapper.class);
+    jobConf.setMapOutputKeyClass(Text.class);
+    jobConf.setMapOutputValueClass(ItemPrefWritable.class);
+
+    jobConf.setReducerClass(UserVectorReducer.class);
+    jobConf.setOutputKeyClass(Text.class);
+    jobConf.setOutputValueClass(ItemPrefsWritable.class);
+
+    jobConf.setOutputFormat(SequenceFileOutputFormat.class);
+    return jobConf;
+  }
+
+  public static JobConf buildSimilarityRowsJobConf(String userVectorsPath,
+                                                   String outputPath,
+                                                   int maxSimilarItemsPerItem) throws IOException {
+    if (maxSimilarItemsPerItem < 1) {
+      throw new IllegalArgumentException("maxSimilarItemsPerItem must be at least 1");
+    }
+    JobConf jobConf = newJobConf(outputPath);
+    jobConf.setInt(CooccurrenceReducer.MAX_SIMILAR_ITEMS, maxSimilarItemsPerItem);
+
+    jobConf.setInputFormat(SequenceFileInputFormat.class);
+    FileInputFormat.setInputPaths(jobConf, new Path(userVectorsPath));
+
+    jobConf.setMapperClass(CooccurrenceMapper.class);
+    jobConf.setMapOutputKeyClass(Text.class);
+    jobConf.setMapOutputValueClass(ItemPrefWritable.class);
+
+    jobConf.setCombinerClass(ItemPrefSumCombiner.class);
+    jobConf.setReducerClass(CooccurrenceReducer.class);
+    jobConf.setOutputKeyClass(Text.class);
+    jobConf.setOutputValueClass(ItemPrefsWritable.class);
+
+    jobConf.setOutputFormat(SequenceFileOutputFormat.class);
+    return jobConf;
+  }
+
+  public static JobConf buildPartialProductsJobConf(String userVectorsPath,
+                                                    String similarityRowsPath,
+                                                    String outputPath) throws IOException {
+    JobConf jobConf = newJobConf(outputPath);
+
+    MultipleInputs.addInputPath(jobConf,
+                                new Path(similarityRowsPath),
+                                SequenceFileInputFormat.class,
+                                SimilarityRowMapper.class);
+    MultipleInputs.addInputPath(jobConf,
+                                new Path(userVectorsPath),
+                                SequenceFileInputFormat.class,
+                                UserVectorToItemsMapper.class);
+    jobConf.setMapOutputKeyClass(TaggedItemIDWritable.class);
+    jobConf.setMapOutputValueClass(SimilarityRowOrPrefWritable.class);
+    jobConf.setOutputValueGroupingComparator(TaggedItemIDGroupingComparator.class);
+
+    jobConf.setReducerClass(PartialMultiplyReducer.class);
+    jobConf.setOutputKeyClass(Text.class);
+    jobConf.setOutputValueClass(ItemPrefWritable.class);
+
+    jobConf.setOutputFormat(SequenceFileOutputFormat.class);
+    return jobConf;
+  }
+
+  public static JobConf buildRecommendationsJobConf(String partialProductsPath,
+                                                    String outputPath,
+                                                    int recommendationsPerUser) throws IOException {
+    if (recommendationsPerUser < 1) {
+      throw new IllegalArgumentException("recommendationsPerUser must be at least 1");
+    }
+    JobConf jobConf = newJobConf(outputPath);
+    jobConf.set(RecommenderMapper.RECOMMENDATIONS_PER_USER, String.valueOf(recommendationsPerUser));
+
+    jobConf.setInputFormat(SequenceFileInputFormat.class);
+    FileInputFormat.setInputPaths(jobConf, new Path(partialProductsPath));
+
+    jobConf.setMapperClass(IdentityMapper.class);
+    jobConf.setMapOutputKeyClass(Text.class);
+    jobConf.setMapOutputValueClass(ItemPrefWritable.class);
+
+    jobConf.setCombinerClass(ItemPrefSumCombiner.class);
+    jobConf.setReducerClass(AggregateAndRecommendReducer.class);
+    jobConf.setOutputKeyClass(Text.class);
+    jobConf.setOutputValueClass(RecommendedItemsWritable.class);
+
+    jobConf.setOutputFormat(TextOutputFormat.class);
+    return jobConf;
+  }
+
+  private static JobConf newJobConf(String outputPath) throws IOException {
+    Path outputPathPath = new Path(outputPath);
+    JobConf jobConf = new JobConf(ItemBasedRecommenderJob.class);
+    FileSystem fs = FileSystem.get(jobConf);
+    if (fs.exists(outputPathPath)) {
+      fs.delete(outputPathPath, true);
+    }
+    FileOutputFormat.setOutputPath(jobConf, outputPathPath);
+    return jobConf;
+  }
+
+}
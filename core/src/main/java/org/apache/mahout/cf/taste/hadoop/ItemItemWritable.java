@@ -17,17 +17,29 @@
 
 package org.apache.mahout.cf.taste.hadoop;
 
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
 /**
- * A {@link WritableComparable} encapsulating two {@link org.apache.mahout.cf.taste.model.Item}s.
+ * <p>A {@link WritableComparable} encapsulating two {@link org.apache.mahout.cf.taste.model.Item}s.</p>
+ *
+ * <p>Each ID is written as a variable-length byte count followed by its UTF-8 bytes, as {@link Text} does.
+ * A {@link Comparator} registered for this class compares serialized keys directly, so that sorting them
+ * during the shuffle does not deserialize them. Serialized keys are ordered by the bytes of the first ID,
+ * then of the second.</p>
  */
 public final class ItemItemWritable implements WritableComparable<ItemItemWritable> {
 
+  static {
+    WritableComparator.define(ItemItemWritable.class, new Comparator());
+  }
+
   private String itemAID;
   private String itemBID;
 
@@ -50,14 +62,14 @@ public final class ItemItemWritable implements WritableComparable<ItemItemWritab
 
   @Override
   public void write(DataOutput out) throws IOException {
-    out.writeUTF(getItemAID());
-    out.writeUTF(getItemBID());
+    Text.writeString(out, itemAID);
+    Text.writeString(out, itemBID);
   }
 
   @Override
   public void readFields(DataInput in) throws IOException {
-    itemAID = in.readUTF();
-    itemBID = in.readUTF();
+    itemAID = Text.readString(in);
+    itemBID = Text.readString(in);
   }
 
   public static ItemItemWritable read(DataInput in) throws IOException {
@@ -94,4 +106,36 @@ public final class ItemItemWritable implements WritableComparable<ItemItemWritab
     return itemAID + '\t' + itemBID;
   }
 
+  /**
+   * Compares serialized {@link ItemItemWritable}s without deserializing them.
+   */
+  public static final class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(ItemItemWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      try {
+        int aSize1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int aLength1 = readVInt(b1, s1);
+        int aSize2 = WritableUtils.decodeVIntSize(b2[s2]);
+        int aLength2 = readVInt(b2, s2);
+        int compare = compareBytes(b1, s1 + aSize1, aLength1, b2, s2 + aSize2, aLength2);
+        if (compare != 0) {
+          return compare;
+        }
+        int bStart1 = s1 + aSize1 + aLength1;
+        int bStart2 = s2 + aSize2 + aLength2;
+        int bSize1 = WritableUtils.decodeVIntSize(b1[bStart1]);
+        int bSize2 = WritableUtils.decodeVIntSize(b2[bStart2]);
+        return compareBytes(b1, bStart1 + bSize1, readVInt(b1, bStart1),
+                            b2, bStart2 + bSize2, readVInt(b2, bStart2));
+      } catch (IOException ioe) {
+        throw new IllegalArgumentException(ioe);
+      }
+    }
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Writable} encapsulating a list of {@link ItemPrefWritable}s, such as all of a user's preferences,
+ * or a row of item-item similarities.
+ */
+public final class ItemPrefsWritable implements Writable {
+
+  private List<ItemPrefWritable> prefs;
+
+  public ItemPrefsWritable() {
+    // do nothing
+  }
+
+  public ItemPrefsWritable(List<ItemPrefWritable> prefs) {
+    this.prefs = prefs;
+  }
+
+  public List<ItemPrefWritable> getPrefs() {
+    return prefs;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(prefs.size());
+    for (ItemPrefWritable pref : prefs) {
+      pref.write(out);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int size = in.readInt();
+    prefs = new ArrayList<ItemPrefWritable>(size);
+    for (int i = 0; i < size; i++) {
+      prefs.add(ItemPrefWritable.read(in));
+    }
+  }
+
+  public static ItemPrefsWritable read(DataInput in) throws IOException {
+    ItemPrefsWritable writable = new ItemPrefsWritable();
+    writable.readFields(in);
+    return writable;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    result.append('[');
+    boolean first = true;
+    for (ItemPrefWritable pref : prefs) {
+      if (first) {
+        first = false;
+      } else {
+        result.append(',');
+      }
+      result.append(pref.getItemID());
+      result.append(':');
+      result.append(pref.getPrefValue());
+    }
+    result.append(']');
+    return result.toString();
+  }
+
+}
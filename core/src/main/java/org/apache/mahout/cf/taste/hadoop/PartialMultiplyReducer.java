@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <p>Joins an item's row of similar items with each user's preference for the item. For each such user, and
+ * each similar item, outputs the user's preference times the similarity: that item's share of the user's
+ * estimated preference for the similar item. Also outputs {@link Double#NaN} for the item itself, marking it
+ * as one the user already has a preference for, and so not to be recommended.</p>
+ *
+ * <p>The row arrives first, thanks to {@link TaggedItemIDWritable}'s ordering; preferences are then
+ * streamed without being held in memory.</p>
+ */
+public final class PartialMultiplyReducer
+    extends MapReduceBase
+    implements Reducer<TaggedItemIDWritable, SimilarityRowOrPrefWritable, Text, ItemPrefWritable> {
+
+  @Override
+  public void reduce(TaggedItemIDWritable key,
+                     Iterator<SimilarityRowOrPrefWritable> values,
+                     OutputCollector<Text, ItemPrefWritable> output,
+                     Reporter reporter) throws IOException {
+    String itemID = key.getItemID();
+    List<ItemPrefWritable> similarityRow = null;
+    while (values.hasNext()) {
+      SimilarityRowOrPrefWritable value = values.next();
+      ItemPrefsWritable row = value.getSimilarityRow();
+      if (row != null) {
+        similarityRow = row.getPrefs();
+        continue;
+      }
+      Text userID = new Text(value.getUserID());
+      double prefValue = value.getPrefValue();
+      output.collect(userID, new ItemPrefWritable(itemID, Double.NaN));
+      if (similarityRow != null) {
+        for (ItemPrefWritable similar : similarityRow) {
+          output.collect(userID, new ItemPrefWritable(similar.getItemID(), prefValue * similar.getPrefValue()));
+        }
+      }
+    }
+  }
+
+}
@@ -25,7 +25,6 @@ import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 
 import java.io.DataInput;
 import java.io.DataOutput;
-import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -53,26 +52,25 @@ public final class RecommendedItemsWritable implements Writable {
 
   @Override
   public void write(DataOutput out) throws IOException {
+    // The count comes first so that values can be read back from the middle of a stream, as between
+    // mapper and reducer
+    out.writeInt(recommended.size());
     for (RecommendedItem item : recommended) {
       out.writeUTF(item.getItem().getID().toString());
       out.writeDouble(item.getValue());
     }
-
   }
 
   @Override
   public void readFields(DataInput in) throws IOException {
-    recommended = new ArrayList<RecommendedItem>();
-    try {
-      do {
-        String itemID = in.readUTF();
-        double value = in.readDouble();
-        Item item = new GenericItem<String>(itemID);
-        RecommendedItem recommendedItem = new GenericRecommendedItem(item, value);
-        recommended.add(recommendedItem);
-      } while (true);
-    } catch (EOFException eofe) {
-      // continue; done
+    int size = in.readInt();
+    recommended = new ArrayList<RecommendedItem>(size);
+    for (int i = 0; i < size; i++) {
+      String itemID = in.readUTF();
+      double value = in.readDouble();
+      Item item = new GenericItem<String>(itemID);
+      RecommendedItem recommendedItem = new GenericRecommendedItem(item, value);
+      recommended.add(recommendedItem);
     }
   }
 
@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.hadoop;
 
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
@@ -32,7 +33,11 @@ import org.apache.mahout.cf.taste.recommender.Recommender;
 import java.io.IOException;
 
 /**
- * <p>This class configures and runs a {@link RecommenderMapper} using Hadoop.</p>
+ * <p>This class configures and runs a {@link RecommenderMapper} using Hadoop, or a
+ * {@link RecommenderMapRunner} when more than one thread per mapper is requested.</p>
+ *
+ * <p>The data model file is distributed with the {@link DistributedCache}, and task JVMs are reused, so that
+ * each node copies the data and builds a {@link Recommender} only once.</p>
  *
  * <p>Command line arguments are:</p>
  * <ol>
@@ -45,12 +50,13 @@ import java.io.IOException;
  *   {@link org.apache.mahout.cf.taste.impl.model.file.FileDataModel}</li>
  *  <li>Output path where reducer output should go</li>
  *  <li>Number of mapper tasks to use</li>
+ *  <li>Optionally, number of threads each mapper computes recommendations with; defaults to 1</li>
  * </ol>
  *
  * <p>Example:</p>
  *
  * <p><code>org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender 10 path/to/users.txt
- *  path/to/data.csv path/to/reducerOutputDir 5</code></p>
+ *  path/to/data.csv path/to/reducerOutputDir 5 16</code></p>
  *
  * <p>TODO I am not a bit sure this works yet in a real distributed environment.</p>
  */
@@ -64,8 +70,15 @@ public final class RecommenderJob {
     String userIDFile = args[2];
     String dataModelFile = args[3];
     String outputPath = args[4];
-    JobConf jobConf =
-        buildJobConf(recommendClassName, recommendationsPerUser, userIDFile, dataModelFile, outputPath);
+    int numMapTasks = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+    int numThreads = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+    JobConf jobConf = buildJobConf(recommendClassName,
+                                   recommendationsPerUser,
+                                   userIDFile,
+                                   dataModelFile,
+                                   outputPath,
+                                   numMapTasks,
+                                   numThreads);
     JobClient.runJob(jobConf);
   }
 
@@ -74,6 +87,26 @@ public final class RecommenderJob {
                                      String userIDFile,
                                      String dataModelFile,
                                      String outputPath) throws IOException {
+    return buildJobConf(recommendClassName, recommendationsPerUser, userIDFile, dataModelFile, outputPath, 0, 1);
+  }
+
+  /**
+   * @param numMapTasks number of mapper tasks to use, or 0 to leave this to Hadoop
+   * @param numThreads number of threads each mapper computes recommendations with
+   */
+  public static JobConf buildJobConf(String recommendClassName,
+                                     int recommendationsPerUser,
+                                     String userIDFile,
+                                     String dataModelFile,
+                                     String outputPath,
+                                     int numMapTasks,
+                                     int numThreads) throws IOException {
+    if (numMapTasks < 0) {
+      throw new IllegalArgumentException("numMapTasks is negative");
+    }
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
 
     Path userIDFilePath = new Path(userIDFile);
     Path outputPathPath = new Path(outputPath);
@@ -88,11 +121,21 @@ public final class RecommenderJob {
     jobConf.set(RecommenderMapper.RECOMMENDER_CLASS_NAME, recommendClassName);
     jobConf.set(RecommenderMapper.RECOMMENDATIONS_PER_USER, String.valueOf(recommendationsPerUser));
     jobConf.set(RecommenderMapper.DATA_MODEL_FILE, dataModelFile);
+    DistributedCache.addCacheFile(new Path(dataModelFile).makeQualified(fs).toUri(), jobConf);
+    // Reuse JVMs without limit, so tasks share the Recommender built by the first one
+    jobConf.setNumTasksToExecutePerJvm(-1);
 
     jobConf.setInputFormat(TextInputFormat.class);
     FileInputFormat.setInputPaths(jobConf, userIDFilePath);
 
     jobConf.setMapperClass(RecommenderMapper.class);
+    if (numMapTasks > 0) {
+      jobConf.setNumMapTasks(numMapTasks);
+    }
+    if (numThreads > 1) {
+      jobConf.setMapRunnerClass(RecommenderMapRunner.class);
+      jobConf.setInt(RecommenderMapRunner.NUM_THREADS, numThreads);
+    }
     jobConf.setMapOutputKeyClass(Text.class);
     jobConf.setMapOutputValueClass(RecommendedItemsWritable.class);
 
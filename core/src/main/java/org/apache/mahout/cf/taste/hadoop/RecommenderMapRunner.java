@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.Pair;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>A {@link MapRunnable} which computes recommendations like {@link RecommenderMapper}, but for several
+ * users at once, on a pool of threads sharing one {@link org.apache.mahout.cf.taste.recommender.Recommender}.
+ * Output is collected in the same order as the input, from the calling thread. At most a few user IDs per
+ * thread are read ahead of the output.</p>
+ *
+ * <p>The number of threads is read from {@link #NUM_THREADS}, and defaults to the number of processors.</p>
+ */
+public final class RecommenderMapRunner
+    implements MapRunnable<LongWritable, Text, Text, RecommendedItemsWritable> {
+
+  static final String NUM_THREADS = "recommenderMapRunnerThreads";
+
+  private static final int MAX_PENDING_PER_THREAD = 4;
+  private static final long PROGRESS_INTERVAL_SECONDS = 10L;
+
+  private RecommenderMapper mapper;
+  private int numThreads;
+
+  @Override
+  public void configure(JobConf jobConf) {
+    mapper = new RecommenderMapper();
+    mapper.configure(jobConf);
+    numThreads = jobConf.getInt(NUM_THREADS, Runtime.getRuntime().availableProcessors());
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least 1");
+    }
+  }
+
+  @Override
+  public void run(RecordReader<LongWritable, Text> input,
+                  OutputCollector<Text, RecommendedItemsWritable> output,
+                  Reporter reporter) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    Queue<Pair<String, Future<List<RecommendedItem>>>> pending =
+        new LinkedList<Pair<String, Future<List<RecommendedItem>>>>();
+    int maxPending = numThreads * MAX_PENDING_PER_THREAD;
+    try {
+      LongWritable key = input.createKey();
+      Text value = input.createValue();
+      while (input.next(key, value)) {
+        final String userID = value.toString();
+        Future<List<RecommendedItem>> future = executor.submit(new Callable<List<RecommendedItem>>() {
+          @Override
+          public List<RecommendedItem> call() throws TasteException {
+            return mapper.recommend(userID);
+          }
+        });
+        pending.add(new Pair<String, Future<List<RecommendedItem>>>(userID, future));
+        // Collect whatever is done at the head of the queue, and wait when too far ahead
+        while (!pending.isEmpty() && (pending.size() >= maxPending || pending.peek().getSecond().isDone())) {
+          collectNext(pending, output, reporter);
+        }
+      }
+      while (!pending.isEmpty()) {
+        collectNext(pending, output, reporter);
+      }
+    } finally {
+      executor.shutdownNow();
+      mapper.close();
+    }
+  }
+
+  private static void collectNext(Queue<Pair<String, Future<List<RecommendedItem>>>> pending,
+                                  OutputCollector<Text, RecommendedItemsWritable> output,
+                                  Reporter reporter) throws IOException {
+    Pair<String, Future<List<RecommendedItem>>> next = pending.remove();
+    List<RecommendedItem> recommendedItems;
+    try {
+      while (true) {
+        try {
+          recommendedItems = next.getSecond().get(PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+          break;
+        } catch (TimeoutException te) {
+          // Still working; keep the task from timing out
+          reporter.progress();
+        }
+      }
+    } catch (InterruptedException ie) {
+      throw new RuntimeException(ie);
+    } catch (ExecutionException ee) {
+      throw new RuntimeException(ee.getCause());
+    }
+    RecommenderMapper.collect(next.getFirst(), recommendedItems, output, reporter);
+  }
+
+}
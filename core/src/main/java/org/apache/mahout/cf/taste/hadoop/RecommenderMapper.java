@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.hadoop;
 
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
@@ -46,6 +47,11 @@ import java.util.List;
  * <p>Note that there is no corresponding {@link org.apache.hadoop.mapred.Reducer}; this
  * implementation can only partially take advantage of the mapreduce paradigm and only
  * really leverages it for easy parallelization.</p>
+ *
+ * <p>The {@link Recommender} is built once per JVM and shared by all tasks which that JVM runs, and by
+ * all threads of a {@link RecommenderMapRunner}. The data model file is read from the
+ * {@link DistributedCache} if {@link RecommenderJob} put it there, so it is copied once per node rather
+ * than once per task.</p>
  */
 public final class RecommenderMapper
     extends MapReduceBase
@@ -55,6 +61,10 @@ public final class RecommenderMapper
   static final String RECOMMENDATIONS_PER_USER = "recommendadtionsPerUser";
   static final String DATA_MODEL_FILE = "dataModelFile";
 
+  private static final Object sharedLock = new Object();
+  private static String sharedRecommenderKey;
+  private static Recommender sharedRecommender;
+
   private Recommender recommender;
   private int recommendationsPerUser;
 
@@ -66,10 +76,25 @@ public final class RecommenderMapper
     String userID = value.toString();
     List<RecommendedItem> recommendedItems;
     try {
-      recommendedItems = recommender.recommend(userID, recommendationsPerUser);
+      recommendedItems = recommend(userID);
     } catch (TasteException te) {
       throw new RuntimeException(te);
     }
+    collect(userID, recommendedItems, output, reporter);
+  }
+
+  Recommender getRecommender() {
+    return recommender;
+  }
+
+  List<RecommendedItem> recommend(String userID) throws TasteException {
+    return recommender.recommend(userID, recommendationsPerUser);
+  }
+
+  static void collect(String userID,
+                      List<RecommendedItem> recommendedItems,
+                      OutputCollector<Text, RecommendedItemsWritable> output,
+                      Reporter reporter) throws IOException {
     RecommendedItemsWritable writable = new RecommendedItemsWritable(recommendedItems);
     output.collect(new Text(userID), writable);
     reporter.incrCounter(ReducerMetrics.USERS_PROCESSED, 1L);
@@ -78,22 +103,59 @@ public final class RecommenderMapper
 
   @Override
   public void configure(JobConf jobConf) {
+    recommender = getSharedRecommender(jobConf);
+    recommendationsPerUser = Integer.parseInt(jobConf.get(RECOMMENDATIONS_PER_USER));
+  }
+
+  /**
+   * @return {@link Recommender} built earlier in this JVM for the same recommender class and data model
+   *  file, or a new one
+   */
+  private static Recommender getSharedRecommender(JobConf jobConf) {
     String dataModelFile = jobConf.get(DATA_MODEL_FILE);
     String recommenderClassName = jobConf.get(RECOMMENDER_CLASS_NAME);
-    FileDataModel fileDataModel;
-    try {
-      FileSystem fs = FileSystem.get(jobConf);
-      File tempDataFile = File.createTempFile("mahout-taste-hadoop", "txt");
-      tempDataFile.deleteOnExit();
-      fs.copyToLocalFile(new Path(dataModelFile), new Path(tempDataFile.getAbsolutePath()));
-      fileDataModel = new FileDataModel(tempDataFile);
-    } catch (IOException ioe) {
-      throw new RuntimeException(ioe);
+    String key = recommenderClassName + ' ' + dataModelFile;
+    synchronized (sharedLock) {
+      if (!key.equals(sharedRecommenderKey)) {
+        // Let go of the old one before building the new one
+        sharedRecommender = null;
+        sharedRecommenderKey = null;
+        FileDataModel fileDataModel;
+        try {
+          fileDataModel = new FileDataModel(getLocalDataFile(jobConf, dataModelFile));
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+        sharedRecommender = buildRecommender(recommenderClassName, fileDataModel);
+        sharedRecommenderKey = key;
+      }
+      return sharedRecommender;
     }
+  }
+
+  private static File getLocalDataFile(JobConf jobConf, String dataModelFile) throws IOException {
+    String name = new Path(dataModelFile).getName();
+    Path[] localFiles = DistributedCache.getLocalCacheFiles(jobConf);
+    if (localFiles != null) {
+      for (Path localFile : localFiles) {
+        if (localFile.getName().equals(name)) {
+          return new File(localFile.toUri().getPath());
+        }
+      }
+    }
+    // Not in the distributed cache, so copy it
+    FileSystem fs = FileSystem.get(jobConf);
+    File tempDataFile = File.createTempFile("mahout-taste-hadoop", "txt");
+    tempDataFile.deleteOnExit();
+    fs.copyToLocalFile(new Path(dataModelFile), new Path(tempDataFile.getAbsolutePath()));
+    return tempDataFile;
+  }
+
+  private static Recommender buildRecommender(String recommenderClassName, DataModel dataModel) {
     try {
       Class<? extends Recommender> recommenderClass = Class.forName(recommenderClassName).asSubclass(Recommender.class);
       Constructor<? extends Recommender> constructor = recommenderClass.getConstructor(DataModel.class);
-      recommender = constructor.newInstance(fileDataModel);
+      return constructor.newInstance(dataModel);
     } catch (NoSuchMethodException nsme) {
       throw new RuntimeException(nsme);
     } catch (ClassNotFoundException cnfe) {
@@ -105,7 +167,6 @@ public final class RecommenderMapper
     } catch (InvocationTargetException ite) {
       throw new RuntimeException(ite.getCause());
     }
-    recommendationsPerUser = Integer.parseInt(jobConf.get(RECOMMENDATIONS_PER_USER));
   }
 
 }
@@ -18,7 +18,7 @@
 package org.apache.mahout.cf.taste.hadoop;
 
 /**
- * Custom metrics collected by {@link RecommenderMapper}.
+ * Custom metrics collected by {@link RecommenderMapper} and {@link AggregateAndRecommendReducer}.
  */
 public enum ReducerMetrics {
 
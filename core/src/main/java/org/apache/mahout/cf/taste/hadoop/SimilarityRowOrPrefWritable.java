@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A {@link Writable} holding either an item's row of similar items, or one user's preference for that
+ * item, so that both can be joined by item in {@link PartialMultiplyReducer}.
+ */
+public final class SimilarityRowOrPrefWritable implements Writable {
+
+  private ItemPrefsWritable similarityRow;
+  private String userID;
+  private double prefValue;
+
+  public SimilarityRowOrPrefWritable() {
+    // do nothing
+  }
+
+  public SimilarityRowOrPrefWritable(ItemPrefsWritable similarityRow) {
+    this.similarityRow = similarityRow;
+  }
+
+  public SimilarityRowOrPrefWritable(String userID, double prefValue) {
+    this.userID = userID;
+    this.prefValue = prefValue;
+  }
+
+  /**
+   * @return similar items and their similarities, or <code>null</code> if this holds a preference
+   */
+  public ItemPrefsWritable getSimilarityRow() {
+    return similarityRow;
+  }
+
+  public String getUserID() {
+    return userID;
+  }
+
+  public double getPrefValue() {
+    return prefValue;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    if (similarityRow == null) {
+      out.writeBoolean(false);
+      out.writeUTF(userID);
+      out.writeDouble(prefValue);
+    } else {
+      out.writeBoolean(true);
+      similarityRow.write(out);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    if (in.readBoolean()) {
+      similarityRow = ItemPrefsWritable.read(in);
+      userID = null;
+      prefValue = 0.0;
+    } else {
+      similarityRow = null;
+      userID = in.readUTF();
+      prefValue = in.readDouble();
+    }
+  }
+
+  public static SimilarityRowOrPrefWritable read(DataInput in) throws IOException {
+    SimilarityRowOrPrefWritable writable = new SimilarityRowOrPrefWritable();
+    writable.readFields(in);
+    return writable;
+  }
+
+}
@@ -49,7 +49,7 @@ public final class SlopeOneDiffsToAveragesJob {
     Path prefsFilePath = new Path(prefsFile);
     Path outputPathPath = new Path(outputPath);
 
-    JobConf jobConf = new JobConf(SlopeOnePrefsToDiffsJob.class);
+    JobConf jobConf = new JobConf(SlopeOneDiffsToAveragesJob.class);
 
     FileSystem fs = FileSystem.get(jobConf);
     if (fs.exists(outputPathPath)) {
@@ -61,7 +61,10 @@ public final class SlopeOneDiffsToAveragesJob {
 
     jobConf.setMapperClass(IdentityMapper.class);
     jobConf.setMapOutputKeyClass(ItemItemWritable.class);
-    jobConf.setMapOutputValueClass(DoubleWritable.class);
+    jobConf.setOutputKeyComparatorClass(ItemItemWritable.Comparator.class);
+    jobConf.setMapOutputValueClass(DiffStatsWritable.class);
+
+    jobConf.setCombinerClass(SlopeOneDiffsToAveragesCombiner.class);
 
     jobConf.setReducerClass(SlopeOneDiffsToAveragesReducer.class);
     jobConf.setOutputKeyClass(ItemItemWritable.class);
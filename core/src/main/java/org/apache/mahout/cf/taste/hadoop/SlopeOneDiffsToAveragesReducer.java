@@ -28,20 +28,18 @@ import java.util.Iterator;
 
 public final class SlopeOneDiffsToAveragesReducer
     extends MapReduceBase
-    implements Reducer<ItemItemWritable, DoubleWritable, ItemItemWritable, DoubleWritable> {
+    implements Reducer<ItemItemWritable, DiffStatsWritable, ItemItemWritable, DoubleWritable> {
 
   @Override
   public void reduce(ItemItemWritable key,
-                     Iterator<DoubleWritable> values,
+                     Iterator<DiffStatsWritable> values,
                      OutputCollector<ItemItemWritable, DoubleWritable> output,
                      Reporter reporter) throws IOException {
-    int count = 0;
-    double total = 0.0;
+    DiffStatsWritable merged = new DiffStatsWritable();
     while (values.hasNext()) {
-      total += values.next().get();
-      count++;
+      merged.merge(values.next());
     }
-    output.collect(key, new DoubleWritable((total / count)));
+    output.collect(key, new DoubleWritable(merged.getAverage()));
   }
 
 }
\ No newline at end of file
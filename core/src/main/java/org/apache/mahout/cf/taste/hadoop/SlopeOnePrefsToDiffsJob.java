@@ -19,7 +19,6 @@ package org.apache.mahout.cf.taste.hadoop;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.mapred.FileInputFormat;
@@ -66,7 +65,7 @@ public final class SlopeOnePrefsToDiffsJob {
 
     jobConf.setReducerClass(SlopeOnePrefsToDiffsReducer.class);
     jobConf.setOutputKeyClass(ItemItemWritable.class);
-    jobConf.setOutputValueClass(DoubleWritable.class);
+    jobConf.setOutputValueClass(DiffStatsWritable.class);
 
     jobConf.setOutputFormat(SequenceFileOutputFormat.class);
     SequenceFileOutputFormat.setOutputCompressionType(jobConf, SequenceFile.CompressionType.RECORD);
@@ -17,8 +17,8 @@
 
 package org.apache.mahout.cf.taste.hadoop;
 
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
@@ -27,22 +27,67 @@ import org.apache.hadoop.mapred.Reporter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
+/**
+ * <p>Emits, for each pair of items a user has expressed a preference for, statistics on the diffs between
+ * those preferences. Diffs for the same pair are summed in memory across users, and flushed whenever
+ * {@link #MAX_BUFFERED_PAIRS} pairs are buffered and at the end of the task, so that much less is written
+ * than one record per pair per user.</p>
+ *
+ * <p>Since the number of pairs grows with the square of a user's preference count, a few heavy users can
+ * dominate the job. If {@link #MAX_PREFS_PER_USER} is set, a random sample of that many preferences is used
+ * for users with more. The sample depends only on the user ID and preferences, so that a task which is run
+ * again, or speculatively, emits the same diffs.</p>
+ */
 public final class SlopeOnePrefsToDiffsReducer
     extends MapReduceBase
-    implements Reducer<Text, ItemPrefWritable, ItemItemWritable, DoubleWritable> {
+    implements Reducer<Text, ItemPrefWritable, ItemItemWritable, DiffStatsWritable> {
+
+  static final String MAX_BUFFERED_PAIRS = "slopeOneMaxBufferedPairs";
+  static final String MAX_PREFS_PER_USER = "slopeOneMaxPrefsPerUser";
+
+  private static final int DEFAULT_MAX_BUFFERED_PAIRS = 100000;
+
+  private int maxBufferedPairs;
+  private int maxPrefsPerUser;
+  private final Map<ItemItemWritable, DiffStatsWritable> buffer =
+      new HashMap<ItemItemWritable, DiffStatsWritable>();
+  private OutputCollector<ItemItemWritable, DiffStatsWritable> output;
+
+  @Override
+  public void configure(JobConf jobConf) {
+    maxBufferedPairs = jobConf.getInt(MAX_BUFFERED_PAIRS, DEFAULT_MAX_BUFFERED_PAIRS);
+    maxPrefsPerUser = jobConf.getInt(MAX_PREFS_PER_USER, Integer.MAX_VALUE);
+    if (maxBufferedPairs < 0) {
+      throw new IllegalArgumentException("Maximum buffered pairs must not be negative");
+    }
+    if (maxPrefsPerUser < 2) {
+      throw new IllegalArgumentException("Maximum preferences per user must be at least 2");
+    }
+  }
 
   @Override
   public void reduce(Text key,
                      Iterator<ItemPrefWritable> values,
-                     OutputCollector<ItemItemWritable, DoubleWritable> output,
+                     OutputCollector<ItemItemWritable, DiffStatsWritable> output,
                      Reporter reporter) throws IOException {
+    this.output = output;
     List<ItemPrefWritable> prefs = new ArrayList<ItemPrefWritable>();
     while (values.hasNext()) {
       prefs.add(new ItemPrefWritable(values.next()));
     }
+    if (prefs.size() > maxPrefsPerUser) {
+      // Values arrive in no particular order, so sort them before the seeded shuffle
+      Collections.sort(prefs, ByItemIDComparator.getInstance());
+      Collections.shuffle(prefs, new Random(key.toString().hashCode()));
+      prefs = prefs.subList(0, maxPrefsPerUser);
+    }
+    // Sorting makes each pair's key canonical, with the lesser item ID first
     Collections.sort(prefs, ByItemIDComparator.getInstance());
     int size = prefs.size();
     for (int i = 0; i < size; i++) {
@@ -51,11 +96,31 @@ public final class SlopeOnePrefsToDiffsReducer
       double itemAValue = first.getPrefValue();
       for (int j = i + 1; j < size; j++) {
         ItemPrefWritable second = prefs.get(j);
-        String itemBID = second.getItemID();
-        double itemBValue = second.getPrefValue();
-        output.collect(new ItemItemWritable(itemAID, itemBID), new DoubleWritable(itemBValue - itemAValue));
+        ItemItemWritable pair = new ItemItemWritable(itemAID, second.getItemID());
+        DiffStatsWritable stats = buffer.get(pair);
+        if (stats == null) {
+          stats = new DiffStatsWritable();
+          buffer.put(pair, stats);
+        }
+        stats.addDatum(second.getPrefValue() - itemAValue);
+      }
+      if (buffer.size() >= maxBufferedPairs) {
+        flush();
+        reporter.progress();
       }
     }
   }
 
-}
\ No newline at end of file
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+
+  private void flush() throws IOException {
+    for (Map.Entry<ItemItemWritable, DiffStatsWritable> entry : buffer.entrySet()) {
+      output.collect(entry.getKey(), entry.getValue());
+    }
+    buffer.clear();
+  }
+
+}
@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Groups {@link TaggedItemIDWritable}s by item ID alone, so that values for all tags of an item reach the
+ * same reduce call, in order of tag.
+ */
+public final class TaggedItemIDGroupingComparator extends WritableComparator {
+
+  public TaggedItemIDGroupingComparator() {
+    super(TaggedItemIDWritable.class, true);
+  }
+
+  /**
+   * Overrides Hadoop's raw-typed signature, which leaves no generic alternative.
+   */
+  @Override
+  @SuppressWarnings("rawtypes")
+  public int compare(WritableComparable a, WritableComparable b) {
+    return ((TaggedItemIDWritable) a).getItemID().compareTo(((TaggedItemIDWritable) b).getItemID());
+  }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A {@link WritableComparable} encapsulating an {@link org.apache.mahout.cf.taste.model.Item} ID and a tag,
+ * used to join records by item while controlling the order in which they reach the reducer. Keys sort by
+ * item ID, then by tag; they hash by item ID only, so all tags of an item go to the same reducer, and
+ * {@link TaggedItemIDGroupingComparator} groups them into one reduce call.
+ */
+public final class TaggedItemIDWritable implements WritableComparable<TaggedItemIDWritable> {
+
+  private String itemID;
+  private int tag;
+
+  public TaggedItemIDWritable() {
+    // do nothing
+  }
+
+  public TaggedItemIDWritable(String itemID, int tag) {
+    this.itemID = itemID;
+    this.tag = tag;
+  }
+
+  public String getItemID() {
+    return itemID;
+  }
+
+  public int getTag() {
+    return tag;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeUTF(itemID);
+    out.writeInt(tag);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    itemID = in.readUTF();
+    tag = in.readInt();
+  }
+
+  public static TaggedItemIDWritable read(DataInput in) throws IOException {
+    TaggedItemIDWritable writable = new TaggedItemIDWritable();
+    writable.readFields(in);
+    return writable;
+  }
+
+  @Override
+  public int compareTo(TaggedItemIDWritable that) {
+    if (this == that) {
+      return 0;
+    }
+    int compare = itemID.compareTo(that.itemID);
+    return compare == 0 ? (tag < that.tag ? -1 : tag > that.tag ? 1 : 0) : compare;
+  }
+
+  @Override
+  public int hashCode() {
+    return itemID.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof TaggedItemIDWritable) {
+      TaggedItemIDWritable that = (TaggedItemIDWritable) o;
+      return this == that || (itemID.equals(that.itemID) && tag == that.tag);
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return itemID + '\t' + tag;
+  }
+
+}
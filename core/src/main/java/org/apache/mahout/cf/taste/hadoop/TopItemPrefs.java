@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Helpers for summing {@link ItemPrefWritable}s by item, and picking those with the highest values.
+ */
+final class TopItemPrefs {
+
+  private TopItemPrefs() {
+  }
+
+  /**
+   * @return sum of values for each item ID; sums including {@link Double#NaN} are {@link Double#NaN}
+   */
+  static Map<String, Double> sumByItem(Iterator<ItemPrefWritable> values) {
+    Map<String, Double> sums = new HashMap<String, Double>();
+    while (values.hasNext()) {
+      ItemPrefWritable value = values.next();
+      String itemID = value.getItemID();
+      Double sum = sums.get(itemID);
+      sums.put(itemID, sum == null ? value.getPrefValue() : sum + value.getPrefValue());
+    }
+    return sums;
+  }
+
+  /**
+   * @return up to howMany items with the highest values, highest first, ignoring {@link Double#NaN} values
+   */
+  static List<ItemPrefWritable> getTop(Map<String, Double> values, int howMany) {
+    PriorityQueue<ItemPrefWritable> top =
+        new PriorityQueue<ItemPrefWritable>(howMany + 1, ByPrefValueComparator.getInstance());
+    for (Map.Entry<String, Double> entry : values.entrySet()) {
+      double value = entry.getValue();
+      if (Double.isNaN(value)) {
+        continue;
+      }
+      if (top.size() < howMany) {
+        top.add(new ItemPrefWritable(entry.getKey(), value));
+      } else if (value > top.peek().getPrefValue()) {
+        top.poll();
+        top.add(new ItemPrefWritable(entry.getKey(), value));
+      }
+    }
+    List<ItemPrefWritable> result = new ArrayList<ItemPrefWritable>(top);
+    Collections.sort(result, Collections.reverseOrder(ByPrefValueComparator.getInstance()));
+    return result;
+  }
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+
+/**
+ * Splits a user's preferences up by item, for {@link PartialMultiplyReducer} to join with each item's
+ * row of similar items.
+ */
+public final class UserVectorToItemsMapper
+    extends MapReduceBase
+    implements Mapper<Text, ItemPrefsWritable, TaggedItemIDWritable, SimilarityRowOrPrefWritable> {
+
+  static final int PREF_TAG = 1;
+
+  @Override
+  public void map(Text userID,
+                  ItemPrefsWritable userVector,
+                  OutputCollector<TaggedItemIDWritable, SimilarityRowOrPrefWritable> output,
+                  Reporter reporter) throws IOException {
+    String theUserID = userID.toString();
+    for (ItemPrefWritable pref : userVector.getPrefs()) {
+      output.collect(new TaggedItemIDWritable(pref.getItemID(), PREF_TAG),
+                     new SimilarityRowOrPrefWritable(theUserID, pref.getPrefValue()));
+    }
+  }
+
+}
@@ -19,20 +19,55 @@ package org.apache.mahout.cf.taste.impl.common;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * <p>An efficient Map-like class which caches values for keys. Values are not "put" into a {@link Cache};
  * instead the caller supplies the instance with an implementation of {@link Retriever} which can load the
  * value for a given key.</p>
  *
- * <p>The cache does not support <code>null</code> values or keys.</p>
+ * <p>The cache is safe for use by many threads at once. Keys are spread over several independently
+ * locked "stripes", so that threads working on different keys rarely contend. When several threads miss
+ * on the same key at once, only one of them calls the {@link Retriever}; the others wait for and share
+ * its result.</p>
+ *
+ * <p>When a maximum size is given, entries are evicted to stay within it. The limit applies to the cache as a
+ * whole; each new entry evicts the least-recently-used entries of its own stripe, or of the next ones if its
+ * stripe has no others. Entries may also be given a maximum age, after which they are loaded again.</p>
+ *
+ * <p>The cache does not support <code>null</code> values or keys. A {@link Retriever} must not ask the cache
+ * for the key it is loading, which would otherwise wait for itself forever; this throws
+ * {@link IllegalStateException} instead. Asking for other keys is fine.</p>
  *
  * <p>Thanks to Amila Jayasooriya for helping evaluate performance of the rewrite of this class, as part of a
  * Google Summer of Code 2007 project.</p>
  */
 public final class Cache<K, V> implements Retriever<K, V> {
 
-  private final FastMap<K, V> cache;
+  public static final int NO_MAX_SIZE = Integer.MAX_VALUE;
+  public static final long NO_EXPIRATION = 0L;
+
+  private static final int MAX_STRIPES = 16;
+
+  private final List<Stripe<K, V>> stripes;
   private final Retriever<? super K, ? extends V> retriever;
+  private final int maxEntries;
+  private final long expireAfterNanos;
+  private final AtomicInteger size;
+  private final AtomicLong hitCount;
+  private final AtomicLong missCount;
+  private final AtomicLong evictionCount;
+  private final AtomicLong totalLoadTimeNanos;
 
   /**
    * <p>Creates a new cache based on the given {@link Retriever}.</p>
@@ -40,7 +75,7 @@ public final class Cache<K, V> implements Retriever<K, V> {
    * @param retriever object which can retrieve values for keys
    */
   public Cache(Retriever<? super K, ? extends V> retriever) {
-    this(retriever, FastMap.NO_MAX_SIZE);
+    this(retriever, NO_MAX_SIZE);
   }
 
   /**
@@ -50,33 +85,173 @@ public final class Cache<K, V> implements Retriever<K, V> {
    * @param maxEntries maximum number of entries the cache will store before evicting some
    */
   public Cache(Retriever<? super K, ? extends V> retriever, int maxEntries) {
+    this(retriever, maxEntries, NO_EXPIRATION);
+  }
+
+  /**
+   * <p>Creates a new cache based on the given {@link Retriever}, with given maximum size and maximum
+   * entry age.</p>
+   *
+   * @param retriever object which can retrieve values for keys
+   * @param maxEntries maximum number of entries the cache will store before evicting some
+   * @param expireAfterMillis entries older than this many milliseconds are loaded again when requested,
+   *  or {@link #NO_EXPIRATION}
+   */
+  public Cache(Retriever<? super K, ? extends V> retriever, int maxEntries, long expireAfterMillis) {
     if (retriever == null) {
       throw new IllegalArgumentException("retriever is null");
     }
     if (maxEntries < 1) {
       throw new IllegalArgumentException("maxEntries must be at least 1");
     }
-    cache = new FastMap<K, V>(11, maxEntries);
+    if (expireAfterMillis < 0L) {
+      throw new IllegalArgumentException("expireAfterMillis must not be negative");
+    }
+    // Use a power of two, and no more stripes than entries, so that keeping one entry per stripe
+    // never exceeds maxEntries
+    int numStripes = 1;
+    while (numStripes < MAX_STRIPES && numStripes << 1 <= maxEntries) {
+      numStripes <<= 1;
+    }
     this.retriever = retriever;
+    this.maxEntries = maxEntries;
+    this.expireAfterNanos = expireAfterMillis * 1000000L;
+    this.size = new AtomicInteger();
+    this.hitCount = new AtomicLong();
+    this.missCount = new AtomicLong();
+    this.evictionCount = new AtomicLong();
+    this.totalLoadTimeNanos = new AtomicLong();
+    this.stripes = new ArrayList<Stripe<K, V>>(numStripes);
+    for (int i = 0; i < numStripes; i++) {
+      stripes.add(new Stripe<K, V>());
+    }
+  }
+
+  private int stripeIndexFor(Object key) {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return hash & (stripes.size() - 1);
+  }
+
+  private Stripe<K, V> stripeFor(Object key) {
+    return stripes.get(stripeIndexFor(key));
   }
 
   /**
-   * <p>Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.</p>
+   * <p>Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.
+   * If another thread is already loading the value, this waits for that result instead.</p>
    *
    * @param key cache key
    * @return value for that key
    * @throws TasteException if an exception occurs while retrieving a new cached value
+   * @throws IllegalStateException if called by the {@link Retriever} for the key it is loading
    */
   @Override
   public V get(K key) throws TasteException {
-    V value;
-    synchronized (cache) {
-      value = cache.get(key);
+    int stripeIndex = stripeIndexFor(key);
+    Stripe<K, V> stripe = stripes.get(stripeIndex);
+    Load<V> load;
+    boolean loadHere = false;
+    stripe.lock.lock();
+    try {
+      CacheEntry<V> entry = stripe.entries.get(key);
+      if (entry != null) {
+        if (expireAfterNanos == NO_EXPIRATION || System.nanoTime() - entry.loadedAt < expireAfterNanos) {
+          hitCount.incrementAndGet();
+          return entry.value;
+        }
+        stripe.entries.remove(key);
+        size.decrementAndGet();
+      }
+      missCount.incrementAndGet();
+      load = stripe.loading.get(key);
+      if (load == null) {
+        load = new Load<V>(new Loader(key));
+        stripe.loading.put(key, load);
+        loadHere = true;
+      } else if (load.thread == Thread.currentThread()) {
+        throw new IllegalStateException("Retriever asked for the key it is loading: " + key);
+      }
+    } finally {
+      stripe.lock.unlock();
     }
-    if (value == null) {
-      return getAndCacheValue(key);
+
+    if (loadHere) {
+      long start = System.nanoTime();
+      load.run();
+      long end = System.nanoTime();
+      totalLoadTimeNanos.addAndGet(end - start);
+      stripe.lock.lock();
+      try {
+        // Only publish if nobody removed the key or cleared the cache while loading
+        if (stripe.loading.get(key) == load) {
+          stripe.loading.remove(key);
+          V value = valueOf(load);
+          if (value != null && stripe.entries.put(key, new CacheEntry<V>(value, end)) == null) {
+            size.incrementAndGet();
+          }
+        }
+      } catch (TasteException te) {
+        // Don't cache failures; the caller below sees the same exception
+      } finally {
+        stripe.lock.unlock();
+      }
+      if (size.get() > maxEntries) {
+        evict(stripeIndex);
+      }
+    }
+    return valueOf(load);
+  }
+
+  /**
+   * Evicts least-recently-used entries until the cache is within its maximum size, starting with the given
+   * stripe. Each stripe keeps its most recent entry, such as one just added. Only one stripe is locked at a
+   * time.
+   */
+  private void evict(int stripeIndex) {
+    int numStripes = stripes.size();
+    for (int i = 0; i < numStripes && size.get() > maxEntries; i++) {
+      Stripe<K, V> stripe = stripes.get((stripeIndex + i) & (numStripes - 1));
+      stripe.lock.lock();
+      try {
+        Iterator<CacheEntry<V>> it = stripe.entries.values().iterator();
+        while (size.get() > maxEntries && stripe.entries.size() > 1) {
+          it.next();
+          it.remove();
+          size.decrementAndGet();
+          evictionCount.incrementAndGet();
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  private static <V> V valueOf(FutureTask<V> load) throws TasteException {
+    return FutureUtils.getUninterruptibly(load);
+  }
+
+  /**
+   * <p>Returns the cached value for a key if there is one, without loading it otherwise. This does not count
+   * as a hit or miss.</p>
+   *
+   * @param key cache key
+   * @return value for that key, or <code>null</code> if it is not cached or has expired
+   */
+  public V peek(K key) {
+    Stripe<K, V> stripe = stripeFor(key);
+    stripe.lock.lock();
+    try {
+      CacheEntry<V> entry = stripe.entries.get(key);
+      if (entry == null ||
+          (expireAfterNanos != NO_EXPIRATION && System.nanoTime() - entry.loadedAt >= expireAfterNanos)) {
+        return null;
+      }
+      return entry.value;
+    } finally {
+      stripe.lock.unlock();
     }
-    return value;
   }
 
   /**
@@ -85,31 +260,167 @@ public final class Cache<K, V> implements Retriever<K, V> {
    * @param key cache key
    */
   public void remove(K key) {
-    synchronized (cache) {
-      cache.remove(key);
+    Stripe<K, V> stripe = stripeFor(key);
+    stripe.lock.lock();
+    try {
+      if (stripe.entries.remove(key) != null) {
+        size.decrementAndGet();
+      }
+      stripe.loading.remove(key);
+    } finally {
+      stripe.lock.unlock();
     }
   }
 
+  /**
+   * <p>Uncaches any existing values for keys matching the given predicate. This looks at every cached key,
+   * so it is only cheap relative to reloading what would otherwise be cleared.</p>
+   *
+   * @param predicate decides which keys to uncache
+   */
+  public void removeKeysMatching(MatchPredicate<? super K> predicate) {
+    if (predicate == null) {
+      throw new IllegalArgumentException("predicate is null");
+    }
+    for (Stripe<K, V> stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        size.addAndGet(-removeKeysMatching(stripe.entries.keySet(), predicate));
+        removeKeysMatching(stripe.loading.keySet(), predicate);
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  private static <K> int removeKeysMatching(Iterable<K> keys, MatchPredicate<? super K> predicate) {
+    int removed = 0;
+    Iterator<K> it = keys.iterator();
+    while (it.hasNext()) {
+      if (predicate.matches(it.next())) {
+        it.remove();
+        removed++;
+      }
+    }
+    return removed;
+  }
+
   /**
    * <p>Clears the cache.</p>
    */
   public void clear() {
-    synchronized (cache) {
-      cache.clear();
+    for (Stripe<K, V> stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        size.addAndGet(-stripe.entries.size());
+        stripe.entries.clear();
+        stripe.loading.clear();
+      } finally {
+        stripe.lock.unlock();
+      }
     }
   }
 
-  private V getAndCacheValue(K key) throws TasteException {
-    V value = retriever.get(key);
-    synchronized (cache) {
-      cache.put(key, value);
-    }
-    return value;
+  /**
+   * @return number of entries currently cached
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * @return number of requests answered from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return number of requests not answered from the cache, including those which waited on
+   *  another thread's load of the same key
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * @return number of entries evicted to stay within the maximum size
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * @return total time spent in the {@link Retriever}, in nanoseconds
+   */
+  public long getTotalLoadTimeNanos() {
+    return totalLoadTimeNanos.get();
   }
 
   @Override
   public String toString() {
-    return "Cache[retriever:" + retriever + ']';
+    return "Cache[retriever:" + retriever + ",hits:" + hitCount + ",misses:" + missCount + ']';
+  }
+
+  /**
+   * Selects keys to remove in {@link Cache#removeKeysMatching(MatchPredicate)}.
+   */
+  public interface MatchPredicate<T> {
+
+    boolean matches(T key);
+
+  }
+
+  private final class Loader implements Callable<V> {
+
+    private final K key;
+
+    private Loader(K key) {
+      this.key = key;
+    }
+
+    @Override
+    public V call() throws TasteException {
+      return retriever.get(key);
+    }
+  }
+
+  /**
+   * A pending load, which knows the thread running it.
+   */
+  private static final class Load<V> extends FutureTask<V> {
+
+    private final Thread thread;
+
+    private Load(Callable<V> loader) {
+      super(loader);
+      this.thread = Thread.currentThread();
+    }
+  }
+
+  private static final class CacheEntry<V> {
+
+    private final V value;
+    private final long loadedAt;
+
+    private CacheEntry(V value, long loadedAt) {
+      this.value = value;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  private static final class Stripe<K, V> {
+
+    private final ReentrantLock lock;
+    private final Map<K, CacheEntry<V>> entries;
+    private final Map<K, Load<V>> loading;
+
+    private Stripe() {
+      this.lock = new ReentrantLock();
+      // Access-ordered, so the eldest entry is the least recently used
+      this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true);
+      this.loading = new HashMap<K, Load<V>>();
+    }
   }
 
 }
@@ -0,0 +1,370 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A variant of {@link FastByIDMap} mapping <code>long</code> keys to <code>double</code> values, such as
+ * scores or similarities keyed by user or item ID. Neither keys nor values are boxed.</p>
+ *
+ * <p>{@link #get(long)} returns {@link Double#NaN} for keys which are not present, so <code>NaN</code>
+ * may not be stored as a value.</p>
+ *
+ * <p>This class is not a bit thread-safe.</p>
+ *
+ * @see FastByIDMap
+ */
+public final class FastByIDDoubleMap implements Serializable, Cloneable {
+
+  public static final int NO_MAX_SIZE = Integer.MAX_VALUE;
+
+  private static final long NULL = Long.MIN_VALUE;
+  private static final long REMOVED = Long.MAX_VALUE;
+
+  private long[] keys;
+  private double[] values;
+  private int numEntries;
+  private int numSlotsUsed;
+  private int maxSize;
+  private BitSet recentlyAccessed;
+  private final boolean countingAccesses;
+
+  /**
+   * Creates a new {@link FastByIDDoubleMap} with default capacity.
+   */
+  public FastByIDDoubleMap() {
+    this(5, NO_MAX_SIZE);
+  }
+
+  public FastByIDDoubleMap(int size) {
+    this(size, NO_MAX_SIZE);
+  }
+
+  /**
+   * Creates a new {@link FastByIDDoubleMap} whose capacity can accommodate the given number of entries
+   * without rehash.
+   *
+   * @param size desired capacity
+   * @param maxSize max capacity
+   * @throws IllegalArgumentException if size is less than 1 or at least half of
+   *  {@link RandomUtils#MAX_INT_SMALLER_TWIN_PRIME}
+   */
+  public FastByIDDoubleMap(int size, int maxSize) {
+    if (size < 1) {
+      throw new IllegalArgumentException("size must be at least 1");
+    }
+    if (size >= RandomUtils.MAX_INT_SMALLER_TWIN_PRIME >> 1) {
+      throw new IllegalArgumentException("size must be less than " + (RandomUtils.MAX_INT_SMALLER_TWIN_PRIME >> 1));
+    }
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be at least 1");
+    }
+    int hashSize = RandomUtils.nextTwinPrime(2 * size);
+    keys = new long[hashSize];
+    Arrays.fill(keys, NULL);
+    values = new double[hashSize];
+    this.maxSize = maxSize;
+    this.countingAccesses = maxSize != Integer.MAX_VALUE;
+    this.recentlyAccessed = countingAccesses ? new BitSet(hashSize) : null;
+  }
+
+  /**
+   * This is for the benefit of inner classes. Without it the compiler would just generate a similar synthetic
+   * accessor. Might as well make it explicit.
+   */
+  long[] getKeys() {
+    return keys;
+  }
+
+  private int find(long key) {
+    int theHashCode = FastByIDMap.hash(key);
+    long[] keys = this.keys;
+    int hashSize = keys.length;
+    int jump = 1 + theHashCode % (hashSize - 2);
+    int index = theHashCode % hashSize;
+    long currentKey = keys[index];
+    while (currentKey != NULL && (currentKey == REMOVED || key != currentKey)) {
+      if (index < jump) {
+        index += hashSize - jump;
+      } else {
+        index -= jump;
+      }
+      currentKey = keys[index];
+    }
+    return index;
+  }
+
+  /**
+   * @return value for key, or {@link Double#NaN} if not present
+   */
+  public double get(long key) {
+    if (key == NULL || key == REMOVED) {
+      return Double.NaN;
+    }
+    int index = find(key);
+    if (keys[index] == NULL) {
+      return Double.NaN;
+    }
+    if (countingAccesses) {
+      recentlyAccessed.set(index);
+    }
+    return values[index];
+  }
+
+  public int size() {
+    return numEntries;
+  }
+
+  public boolean isEmpty() {
+    return numEntries == 0;
+  }
+
+  public boolean containsKey(long key) {
+    return key != NULL && key != REMOVED && keys[find(key)] != NULL;
+  }
+
+  /**
+   * @return previous value for key, or {@link Double#NaN} if not present
+   * @throws IllegalArgumentException if key is {@link Long#MIN_VALUE} or {@link Long#MAX_VALUE},
+   *  or value is {@link Double#NaN}
+   */
+  public double put(long key, double value) {
+    if (Double.isNaN(value)) {
+      throw new IllegalArgumentException("Invalid value: " + value);
+    }
+    int index = findForInsert(key);
+    if (keys[index] == NULL) {
+      keys[index] = key;
+      values[index] = value;
+      numEntries++;
+      numSlotsUsed++;
+      return Double.NaN;
+    }
+    double oldValue = values[index];
+    values[index] = value;
+    return oldValue;
+  }
+
+  /**
+   * Adds delta to the value for key, treating an absent key as having value 0.
+   *
+   * @return new value for key
+   * @throws IllegalArgumentException if key is {@link Long#MIN_VALUE} or {@link Long#MAX_VALUE},
+   *  or the result is {@link Double#NaN}
+   */
+  public double increment(long key, double delta) {
+    // Check before inserting, so that a failed increment leaves no entry behind
+    if (Double.isNaN(delta)) {
+      throw new IllegalArgumentException("Invalid value: " + delta);
+    }
+    int index = findForInsert(key);
+    if (keys[index] == NULL) {
+      keys[index] = key;
+      values[index] = delta;
+      numEntries++;
+      numSlotsUsed++;
+      return delta;
+    }
+    // Infinities of opposite sign still add up to NaN
+    double newValue = values[index] + delta;
+    if (Double.isNaN(newValue)) {
+      throw new IllegalArgumentException("Invalid value: " + newValue);
+    }
+    values[index] = newValue;
+    return newValue;
+  }
+
+  /**
+   * @return index at which key is, or should be inserted, having made room first if needed
+   */
+  private int findForInsert(long key) {
+    if (key == NULL || key == REMOVED) {
+      throw new IllegalArgumentException("Reserved key: " + key);
+    }
+    // If less than half the slots are open, let's clear it up
+    if (numSlotsUsed >= keys.length >> 1) {
+      // If over half the slots used are actual entries, let's grow
+      if (numEntries >= numSlotsUsed >> 1) {
+        growAndRehash();
+      } else {
+        // Otherwise just rehash to clear REMOVED entries and don't grow
+        rehash();
+      }
+    }
+    int index = find(key);
+    // If size is limited, and we're too large, clear some old-ish entry
+    if (keys[index] == NULL && countingAccesses && numEntries >= maxSize) {
+      clearStaleEntry(index);
+    }
+    return index;
+  }
+
+  private void clearStaleEntry(int index) {
+    while (true) {
+      long currentKey;
+      do {
+        if (index == 0) {
+          index = keys.length - 1;
+        } else {
+          index--;
+        }
+        currentKey = keys[index];
+      } while (currentKey == NULL || currentKey == REMOVED);
+      if (recentlyAccessed.get(index)) {
+        recentlyAccessed.clear(index);
+      } else {
+        break;
+      }
+    }
+    // Delete the entry
+    keys[index] = REMOVED;
+    numEntries--;
+  }
+
+  /**
+   * @return previous value for key, or {@link Double#NaN} if not present
+   */
+  public double remove(long key) {
+    if (key == NULL || key == REMOVED) {
+      return Double.NaN;
+    }
+    int index = find(key);
+    if (keys[index] == NULL) {
+      return Double.NaN;
+    }
+    keys[index] = REMOVED;
+    numEntries--;
+    // don't decrement numSlotsUsed
+    return values[index];
+  }
+
+  public void clear() {
+    numEntries = 0;
+    numSlotsUsed = 0;
+    Arrays.fill(keys, NULL);
+    if (countingAccesses) {
+      recentlyAccessed.clear();
+    }
+  }
+
+  public LongPrimitiveIterator keySetIterator() {
+    return new KeyIterator();
+  }
+
+  public void rehash() {
+    rehash(RandomUtils.nextTwinPrime(Math.max(2, numEntries << 1)));
+  }
+
+  private void growAndRehash() {
+    if (keys.length >= RandomUtils.MAX_INT_SMALLER_TWIN_PRIME >> 1) {
+      throw new IllegalStateException("Can't grow any more");
+    }
+    rehash(RandomUtils.nextTwinPrime(keys.length << 1));
+  }
+
+  private void rehash(int newHashSize) {
+    long[] oldKeys = keys;
+    double[] oldValues = values;
+    numEntries = 0;
+    numSlotsUsed = 0;
+    if (countingAccesses) {
+      recentlyAccessed = new BitSet(newHashSize);
+    }
+    keys = new long[newHashSize];
+    Arrays.fill(keys, NULL);
+    values = new double[newHashSize];
+    int length = oldKeys.length;
+    for (int i = 0; i < length; i++) {
+      long key = oldKeys[i];
+      if (key != NULL && key != REMOVED) {
+        int index = find(key);
+        keys[index] = key;
+        values[index] = oldValues[i];
+        numEntries++;
+        numSlotsUsed++;
+      }
+    }
+  }
+
+  @Override
+  public FastByIDDoubleMap clone() {
+    FastByIDDoubleMap clone;
+    try {
+      clone = (FastByIDDoubleMap) super.clone();
+    } catch (CloneNotSupportedException cnse) {
+      throw new AssertionError();
+    }
+    clone.keys = keys.clone();
+    clone.values = values.clone();
+    clone.recentlyAccessed = countingAccesses ? new BitSet(keys.length) : null;
+    return clone;
+  }
+
+  private final class KeyIterator implements LongPrimitiveIterator {
+
+    private int position;
+    private int lastNext = -1;
+
+    @Override
+    public boolean hasNext() {
+      goToNext();
+      return position < getKeys().length;
+    }
+
+    @Override
+    public long nextLong() {
+      goToNext();
+      lastNext = position;
+      long[] keys = getKeys();
+      if (position >= keys.length) {
+        throw new NoSuchElementException();
+      }
+      return keys[position++];
+    }
+
+    @Override
+    public Long next() {
+      return nextLong();
+    }
+
+    private void goToNext() {
+      long[] keys = getKeys();
+      int length = keys.length;
+      while (position < length && (keys[position] == NULL || keys[position] == REMOVED)) {
+        position++;
+      }
+    }
+
+    @Override
+    public void remove() {
+      long[] keys = getKeys();
+      if (lastNext >= keys.length) {
+        throw new NoSuchElementException();
+      }
+      if (lastNext < 0) {
+        throw new IllegalStateException();
+      }
+      keys[lastNext] = REMOVED;
+      numEntries--;
+    }
+  }
+
+}
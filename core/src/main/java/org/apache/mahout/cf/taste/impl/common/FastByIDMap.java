@@ -0,0 +1,465 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A variant of {@link FastMap} whose keys are <code>long</code>s, like user and item IDs. Keys are
+ * never boxed, and are held in a <code>long[]</code> rather than an <code>Object[]</code>. Like
+ * {@link FastMap}, it supports a "max size" beyond which old entries are evicted.</p>
+ *
+ * <p>This class is not a bit thread-safe.</p>
+ *
+ * <p>This implementation does not allow <code>null</code> as a value, nor {@link Long#MIN_VALUE} or
+ * {@link Long#MAX_VALUE} as keys, since these are used internally to mark empty and removed slots.</p>
+ *
+ * @see FastMap
+ */
+public final class FastByIDMap<V> implements Serializable, Cloneable {
+
+  public static final int NO_MAX_SIZE = Integer.MAX_VALUE;
+
+  /** Marks an empty slot. */
+  private static final long NULL = Long.MIN_VALUE;
+  /** Marks a slot whose key has been removed. */
+  private static final long REMOVED = Long.MAX_VALUE;
+
+  private long[] keys;
+  private V[] values;
+  private int numEntries;
+  private int numSlotsUsed;
+  private int maxSize;
+  private BitSet recentlyAccessed;
+  private final boolean countingAccesses;
+
+  /**
+   * Creates a new {@link FastByIDMap} with default capacity.
+   */
+  public FastByIDMap() {
+    this(5, NO_MAX_SIZE);
+  }
+
+  public FastByIDMap(int size) {
+    this(size, NO_MAX_SIZE);
+  }
+
+  /**
+   * Creates a new {@link FastByIDMap} whose capacity can accommodate the given number of entries without rehash.
+   *
+   * @param size desired capacity
+   * @param maxSize max capacity
+   * @throws IllegalArgumentException if size is less than 1 or at least half of
+   *  {@link RandomUtils#MAX_INT_SMALLER_TWIN_PRIME}
+   */
+  @SuppressWarnings("unchecked")
+  public FastByIDMap(int size, int maxSize) {
+    if (size < 1) {
+      throw new IllegalArgumentException("size must be at least 1");
+    }
+    if (size >= RandomUtils.MAX_INT_SMALLER_TWIN_PRIME >> 1) {
+      throw new IllegalArgumentException("size must be less than " + (RandomUtils.MAX_INT_SMALLER_TWIN_PRIME >> 1));
+    }
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be at least 1");
+    }
+    int hashSize = RandomUtils.nextTwinPrime(2 * size);
+    keys = new long[hashSize];
+    Arrays.fill(keys, NULL);
+    values = (V[]) new Object[hashSize];
+    this.maxSize = maxSize;
+    this.countingAccesses = maxSize != Integer.MAX_VALUE;
+    this.recentlyAccessed = countingAccesses ? new BitSet(hashSize) : null;
+  }
+
+  /**
+   * This is for the benefit of inner classes. Without it the compiler would just generate a similar synthetic
+   * accessor. Might as well make it explicit.
+   */
+  long[] getKeys() {
+    return keys;
+  }
+
+  /**
+   * This is for the benefit of inner classes. Without it the compiler would just generate a similar synthetic
+   * accessor. Might as well make it explicit.
+   */
+  V[] getValues() {
+    return values;
+  }
+
+  static int hash(long key) {
+    return ((int) (key >> 32) ^ (int) key) & 0x7FFFFFFF; // make sure it's positive
+  }
+
+  private int find(long key) {
+    int theHashCode = hash(key);
+    long[] keys = this.keys;
+    int hashSize = keys.length;
+    int jump = 1 + theHashCode % (hashSize - 2);
+    int index = theHashCode % hashSize;
+    long currentKey = keys[index];
+    while (currentKey != NULL && (currentKey == REMOVED || key != currentKey)) {
+      if (index < jump) {
+        index += hashSize - jump;
+      } else {
+        index -= jump;
+      }
+      currentKey = keys[index];
+    }
+    return index;
+  }
+
+  public V get(long key) {
+    if (key == NULL) {
+      return null;
+    }
+    int index = find(key);
+    if (countingAccesses) {
+      recentlyAccessed.set(index);
+    }
+    return values[index];
+  }
+
+  public int size() {
+    return numEntries;
+  }
+
+  public boolean isEmpty() {
+    return numEntries == 0;
+  }
+
+  public boolean containsKey(long key) {
+    return key != NULL && key != REMOVED && keys[find(key)] != NULL;
+  }
+
+  public boolean containsValue(Object value) {
+    if (value == null) {
+      return false;
+    }
+    for (V theValue : values) {
+      if (theValue != null && value.equals(theValue)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @throws IllegalArgumentException if key is {@link Long#MIN_VALUE} or {@link Long#MAX_VALUE}
+   * @throws NullPointerException if value is null
+   */
+  public V put(long key, V value) {
+    if (key == NULL || key == REMOVED) {
+      throw new IllegalArgumentException("Reserved key: " + key);
+    }
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    // If less than half the slots are open, let's clear it up
+    if (numSlotsUsed >= keys.length >> 1) {
+      // If over half the slots used are actual entries, let's grow
+      if (numEntries >= numSlotsUsed >> 1) {
+        growAndRehash();
+      } else {
+        // Otherwise just rehash to clear REMOVED entries and don't grow
+        rehash();
+      }
+    }
+    int index = find(key);
+    if (keys[index] == NULL) {
+      // If size is limited,
+      if (countingAccesses && numEntries >= maxSize) {
+        // and we're too large, clear some old-ish entry
+        clearStaleEntry(index);
+      }
+      keys[index] = key;
+      values[index] = value;
+      numEntries++;
+      numSlotsUsed++;
+      return null;
+    } else {
+      V oldValue = values[index];
+      values[index] = value;
+      return oldValue;
+    }
+  }
+
+  private void clearStaleEntry(int index) {
+    while (true) {
+      long currentKey;
+      do {
+        if (index == 0) {
+          index = keys.length - 1;
+        } else {
+          index--;
+        }
+        currentKey = keys[index];
+      } while (currentKey == NULL || currentKey == REMOVED);
+      if (recentlyAccessed.get(index)) {
+        recentlyAccessed.clear(index);
+      } else {
+        break;
+      }
+    }
+    // Delete the entry
+    keys[index] = REMOVED;
+    numEntries--;
+    values[index] = null;
+  }
+
+  public V remove(long key) {
+    if (key == NULL || key == REMOVED) {
+      return null;
+    }
+    int index = find(key);
+    if (keys[index] == NULL) {
+      return null;
+    } else {
+      keys[index] = REMOVED;
+      numEntries--;
+      V oldValue = values[index];
+      values[index] = null;
+      // don't decrement numSlotsUsed
+      return oldValue;
+    }
+  }
+
+  public void clear() {
+    numEntries = 0;
+    numSlotsUsed = 0;
+    Arrays.fill(keys, NULL);
+    Arrays.fill(values, null);
+    if (countingAccesses) {
+      recentlyAccessed.clear();
+    }
+  }
+
+  /**
+   * @return an iterator over all keys, which does not box them unless {@link Iterator#next()} is used
+   */
+  public LongPrimitiveIterator keySetIterator() {
+    return new KeyIterator();
+  }
+
+  public Collection<V> values() {
+    return new ValueCollection();
+  }
+
+  public void rehash() {
+    rehash(RandomUtils.nextTwinPrime(Math.max(2, numEntries << 1)));
+  }
+
+  private void growAndRehash() {
+    if (keys.length >= RandomUtils.MAX_INT_SMALLER_TWIN_PRIME >> 1) {
+      throw new IllegalStateException("Can't grow any more");
+    }
+    rehash(RandomUtils.nextTwinPrime(keys.length << 1));
+  }
+
+  @SuppressWarnings("unchecked")
+  private void rehash(int newHashSize) {
+    long[] oldKeys = keys;
+    V[] oldValues = values;
+    numEntries = 0;
+    numSlotsUsed = 0;
+    if (countingAccesses) {
+      recentlyAccessed = new BitSet(newHashSize);
+    }
+    keys = new long[newHashSize];
+    Arrays.fill(keys, NULL);
+    values = (V[]) new Object[newHashSize];
+    int length = oldKeys.length;
+    for (int i = 0; i < length; i++) {
+      long key = oldKeys[i];
+      if (key != NULL && key != REMOVED) {
+        put(key, oldValues[i]);
+      }
+    }
+  }
+
+  void iteratorRemove(int lastNext) {
+    if (lastNext >= values.length) {
+      throw new NoSuchElementException();
+    }
+    if (lastNext < 0) {
+      throw new IllegalStateException();
+    }
+    values[lastNext] = null;
+    keys[lastNext] = REMOVED;
+    numEntries--;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public FastByIDMap<V> clone() {
+    FastByIDMap<V> clone;
+    try {
+      clone = (FastByIDMap<V>) super.clone();
+    } catch (CloneNotSupportedException cnse) {
+      throw new AssertionError();
+    }
+    int length = keys.length;
+    clone.keys = new long[length];
+    clone.values = (V[]) new Object[length];
+    System.arraycopy(keys, 0, clone.keys, 0, length);
+    System.arraycopy(values, 0, clone.values,  0, length);
+    clone.recentlyAccessed = countingAccesses ? new BitSet(length) : null;
+    return clone;
+  }
+
+  @Override
+  public String toString() {
+    if (isEmpty()) {
+      return "{}";
+    }
+    StringBuilder result = new StringBuilder();
+    result.append('{');
+    for (int i = 0; i < keys.length; i++) {
+      long key = keys[i];
+      if (key != NULL && key != REMOVED) {
+        result.append(key).append('=').append(values[i]).append(',');
+      }
+    }
+    result.setCharAt(result.length() - 1, '}');
+    return result.toString();
+  }
+
+  private final class KeyIterator implements LongPrimitiveIterator {
+
+    private int position;
+    private int lastNext = -1;
+
+    @Override
+    public boolean hasNext() {
+      goToNext();
+      return position < getKeys().length;
+    }
+
+    @Override
+    public long nextLong() {
+      goToNext();
+      lastNext = position;
+      long[] keys = getKeys();
+      if (position >= keys.length) {
+        throw new NoSuchElementException();
+      }
+      return keys[position++];
+    }
+
+    @Override
+    public Long next() {
+      return nextLong();
+    }
+
+    private void goToNext() {
+      V[] values = getValues();
+      int length = values.length;
+      while (position < length && values[position] == null) {
+        position++;
+      }
+    }
+
+    @Override
+    public void remove() {
+      iteratorRemove(lastNext);
+    }
+  }
+
+  private final class ValueCollection extends AbstractCollection<V> {
+
+    @Override
+    public int size() {
+      return FastByIDMap.this.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return FastByIDMap.this.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return containsValue(o);
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      return new ValueIterator();
+    }
+
+    @Override
+    public boolean add(V v) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+      FastByIDMap.this.clear();
+    }
+
+    private final class ValueIterator implements Iterator<V> {
+
+      private int position;
+      private int lastNext = -1;
+
+      @Override
+      public boolean hasNext() {
+        goToNext();
+        return position < getValues().length;
+      }
+
+      @Override
+      public V next() {
+        goToNext();
+        lastNext = position;
+        V[] values = getValues();
+        if (position >= values.length) {
+          throw new NoSuchElementException();
+        }
+        return values[position++];
+      }
+
+      private void goToNext() {
+        V[] values = getValues();
+        int length = values.length;
+        while (position < length && values[position] == null) {
+          position++;
+        }
+      }
+
+      @Override
+      public void remove() {
+        iteratorRemove(lastNext);
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,288 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A variant of {@link FastSet} holding <code>long</code>s, like user and item IDs, without boxing them.</p>
+ *
+ * <p>This class is not a bit thread-safe.</p>
+ *
+ * <p>This implementation does not allow {@link Long#MIN_VALUE} or {@link Long#MAX_VALUE} as members,
+ * since these are used internally to mark empty and removed slots.</p>
+ *
+ * @see FastSet
+ * @see FastByIDMap
+ */
+public final class FastIDSet implements Serializable, Cloneable {
+
+  private static final long NULL = Long.MIN_VALUE;
+  private static final long REMOVED = Long.MAX_VALUE;
+
+  private long[] keys;
+  private int numEntries;
+  private int numSlotsUsed;
+
+  /**
+   * Creates a new {@link FastIDSet} with default capacity.
+   */
+  public FastIDSet() {
+    this(5);
+  }
+
+  public FastIDSet(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("size must be at least 1");
+    }
+    if (size >= RandomUtils.MAX_INT_SMALLER_TWIN_PRIME >> 1) {
+      throw new IllegalArgumentException("size must be less than " + (RandomUtils.MAX_INT_SMALLER_TWIN_PRIME >> 1));
+    }
+    int hashSize = RandomUtils.nextTwinPrime(2 * size);
+    keys = new long[hashSize];
+    Arrays.fill(keys, NULL);
+  }
+
+  /**
+   * This is for the benefit of inner classes. Without it the compiler would just generate a similar synthetic
+   * accessor. Might as well make it explicit.
+   */
+  long[] getKeys() {
+    return keys;
+  }
+
+  private int find(long key) {
+    int theHashCode = FastByIDMap.hash(key);
+    long[] keys = this.keys;
+    int hashSize = keys.length;
+    int jump = 1 + theHashCode % (hashSize - 2);
+    int index = theHashCode % hashSize;
+    long currentKey = keys[index];
+    while (currentKey != NULL && (currentKey == REMOVED || key != currentKey)) {
+      if (index < jump) {
+        index += hashSize - jump;
+      } else {
+        index -= jump;
+      }
+      currentKey = keys[index];
+    }
+    return index;
+  }
+
+  public int size() {
+    return numEntries;
+  }
+
+  public boolean isEmpty() {
+    return numEntries == 0;
+  }
+
+  public boolean contains(long key) {
+    return key != NULL && key != REMOVED && keys[find(key)] != NULL;
+  }
+
+  /**
+   * @throws IllegalArgumentException if key is {@link Long#MIN_VALUE} or {@link Long#MAX_VALUE}
+   */
+  public boolean add(long key) {
+    if (key == NULL || key == REMOVED) {
+      throw new IllegalArgumentException("Reserved key: " + key);
+    }
+    // If less than half the slots are open, let's clear it up
+    if (numSlotsUsed >= keys.length >> 1) {
+      // If over half the slots used are actual entries, let's grow
+      if (numEntries >= numSlotsUsed >> 1) {
+        growAndRehash();
+      } else {
+        // Otherwise just rehash to clear REMOVED entries and don't grow
+        rehash();
+      }
+    }
+    int index = find(key);
+    if (keys[index] == NULL) {
+      keys[index] = key;
+      numEntries++;
+      numSlotsUsed++;
+      return true;
+    }
+    return false;
+  }
+
+  public LongPrimitiveIterator iterator() {
+    return new KeyIterator();
+  }
+
+  public boolean remove(long key) {
+    if (key == NULL || key == REMOVED) {
+      return false;
+    }
+    int index = find(key);
+    if (keys[index] == NULL) {
+      return false;
+    } else {
+      keys[index] = REMOVED;
+      numEntries--;
+      return true;
+    }
+  }
+
+  public boolean addAll(FastIDSet c) {
+    boolean changed = false;
+    for (long k : c.keys) {
+      if (k != NULL && k != REMOVED && add(k)) {
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  public boolean retainAll(FastIDSet c) {
+    boolean changed = false;
+    for (int i = 0; i < keys.length; i++) {
+      long k = keys[i];
+      if (k != NULL && k != REMOVED && !c.contains(k)) {
+        keys[i] = REMOVED;
+        numEntries--;
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  public void clear() {
+    numEntries = 0;
+    numSlotsUsed = 0;
+    Arrays.fill(keys, NULL);
+  }
+
+  /**
+   * @return members of this set, in no particular order
+   */
+  public long[] toArray() {
+    long[] result = new long[numEntries];
+    int position = 0;
+    for (long key : keys) {
+      if (key != NULL && key != REMOVED) {
+        result[position++] = key;
+      }
+    }
+    return result;
+  }
+
+  private void growAndRehash() {
+    if (keys.length >= RandomUtils.MAX_INT_SMALLER_TWIN_PRIME >> 1) {
+      throw new IllegalStateException("Can't grow any more");
+    }
+    rehash(RandomUtils.nextTwinPrime(keys.length << 1));
+  }
+
+  public void rehash() {
+    rehash(RandomUtils.nextTwinPrime(Math.max(2, numEntries << 1)));
+  }
+
+  private void rehash(int newHashSize) {
+    long[] oldKeys = keys;
+    numEntries = 0;
+    numSlotsUsed = 0;
+    keys = new long[newHashSize];
+    Arrays.fill(keys, NULL);
+    for (long key : oldKeys) {
+      if (key != NULL && key != REMOVED) {
+        add(key);
+      }
+    }
+  }
+
+  /**
+   * Convenience method to quickly compute just the size of the intersection with another {@link FastIDSet}.
+   */
+  public int intersectionSize(FastIDSet other) {
+    int count = 0;
+    for (long key : other.keys) {
+      if (key != NULL && key != REMOVED && keys[find(key)] != NULL) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public FastIDSet clone() {
+    FastIDSet clone;
+    try {
+      clone = (FastIDSet) super.clone();
+    } catch (CloneNotSupportedException cnse) {
+      throw new AssertionError();
+    }
+    clone.keys = keys.clone();
+    return clone;
+  }
+
+  private final class KeyIterator implements LongPrimitiveIterator {
+
+    private int position;
+    private int lastNext = -1;
+
+    @Override
+    public boolean hasNext() {
+      goToNext();
+      return position < getKeys().length;
+    }
+
+    @Override
+    public long nextLong() {
+      goToNext();
+      lastNext = position;
+      long[] keys = getKeys();
+      if (position >= keys.length) {
+        throw new NoSuchElementException();
+      }
+      return keys[position++];
+    }
+
+    @Override
+    public Long next() {
+      return nextLong();
+    }
+
+    private void goToNext() {
+      long[] keys = getKeys();
+      int length = keys.length;
+      while (position < length && (keys[position] == NULL || keys[position] == REMOVED)) {
+        position++;
+      }
+    }
+
+    @Override
+    public void remove() {
+      long[] keys = getKeys();
+      if (lastNext >= keys.length) {
+        throw new NoSuchElementException();
+      }
+      if (lastNext < 0) {
+        throw new IllegalStateException();
+      }
+      keys[lastNext] = REMOVED;
+      numEntries--;
+    }
+
+  }
+
+}
@@ -282,7 +282,7 @@ public final class FastMap<K, V> implements Map<K, V>, Serializable, Cloneable {
   }
 
   public void rehash() {
-    rehash(RandomUtils.nextTwinPrime(numEntries << 1));
+    rehash(RandomUtils.nextTwinPrime(Math.max(2, numEntries << 1)));
   }
 
   private void growAndRehash() {
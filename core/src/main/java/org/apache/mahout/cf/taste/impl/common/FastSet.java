@@ -248,7 +248,7 @@ public final class FastSet<K> implements Set<K>, Serializable, Cloneable {
   }
 
   public void rehash() {
-    rehash(RandomUtils.nextTwinPrime(numEntries << 1));
+    rehash(RandomUtils.nextTwinPrime(Math.max(2, numEntries << 1)));
   }
 
   @SuppressWarnings("unchecked")
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Utility methods for getting the results of {@link Future}s, which rethrow the exception a task failed
+ * with as itself where possible: {@link TasteException}s, {@link RuntimeException}s and {@link Error}s are
+ * rethrown unchanged, and any other exception is wrapped in a {@link TasteException}.</p>
+ */
+public final class FutureUtils {
+
+  private FutureUtils() {
+  }
+
+  /**
+   * @return the result of the {@link Future}
+   * @throws TasteException if the task failed with one, or with another checked exception, or if this
+   *  thread is interrupted while waiting; in that case the thread's interrupted status is set again
+   */
+  public static <T> T get(Future<T> future) throws TasteException {
+    try {
+      return future.get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw unwrap(ee);
+    }
+  }
+
+  /**
+   * Like {@link #get(Future)}, but keeps waiting if this thread is interrupted, and then sets its
+   * interrupted status again before returning. This suits tasks which other threads may also be waiting
+   * for, or which can't usefully be abandoned.
+   *
+   * @return the result of the {@link Future}
+   * @throws TasteException if the task failed with one, or with another checked exception
+   */
+  public static <T> T getUninterruptibly(Future<T> future) throws TasteException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException ee) {
+      throw unwrap(ee);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @return the {@link TasteException} to throw for the failure; {@link RuntimeException}s and
+   *  {@link Error}s are thrown directly instead
+   */
+  private static TasteException unwrap(ExecutionException ee) {
+    Throwable cause = ee.getCause();
+    if (cause instanceof TasteException) {
+      return (TasteException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new TasteException(cause);
+  }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>A file mapped read-only into memory, read as a header followed by consecutive sections. Each section is
+ * returned as its own {@link ByteBuffer}, so that typed views of it, such as {@link ByteBuffer#asIntBuffer()},
+ * can be indexed from zero.</p>
+ *
+ * <p>Files must be smaller than 2GB. The mapping remains valid after this is discarded, for as long as the
+ * buffers it returned are reachable.</p>
+ */
+public final class MappedFile {
+
+  private final File file;
+  private final String description;
+  private final ByteBuffer buffer;
+  private long position;
+
+  /**
+   * @param file file to map
+   * @param description what the file is, for error messages, like "Snapshot"
+   * @throws IOException if the file can't be mapped, or is too large
+   */
+  public MappedFile(File file, String description) throws IOException {
+    if (file == null || description == null) {
+      throw new IllegalArgumentException("file or description is null");
+    }
+    this.file = file;
+    this.description = description;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      long length = raf.length();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException(description + " too large: " + file);
+      }
+      // The mapping remains valid after the file is closed
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, length);
+    } finally {
+      IOUtils.quietClose(raf);
+    }
+  }
+
+  /**
+   * @return the whole file, for reading the header
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Moves to the given position, normally the end of the header.
+   */
+  public void seek(long position) {
+    this.position = position;
+  }
+
+  /**
+   * @return the next section, of the given length
+   * @throws IOException if the file ends before it
+   */
+  public ByteBuffer nextSection(long bytes) throws IOException {
+    if (position + bytes > buffer.capacity()) {
+      throw new IOException(description + " is truncated: " + file);
+    }
+    ByteBuffer section = buffer.duplicate();
+    section.position((int) position);
+    section.limit((int) (position + bytes));
+    position += bytes;
+    return section.slice();
+  }
+
+}
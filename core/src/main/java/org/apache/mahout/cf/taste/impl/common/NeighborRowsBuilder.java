@@ -0,0 +1,436 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Computes, for each of a number of users or items, its most similar others according to some similarity,
+ * up to a fixed number, using several threads, and writes them to a compact binary file. This is what
+ * {@link org.apache.mahout.cf.taste.impl.neighborhood.PrecomputedUserNeighborhoodBuilder} and
+ * {@link org.apache.mahout.cf.taste.impl.similarity.PrecomputedItemSimilarityBuilder} have in common;
+ * subclasses supply IDs and similarities. Each one of these is called a row here.</p>
+ *
+ * <p>Given the rows of a previously built file and the IDs of rows whose preferences have changed since,
+ * neighbors of the changed rows are computed again; for other rows, only similarities to the changed rows are
+ * computed, unless a changed row dropped out of a full list of neighbors, in which case that list is computed
+ * again too. This relies on the similarity between two rows depending only on the preferences of those two,
+ * as is the case for the usual similarity metrics.</p>
+ *
+ * <p>The file is written big-endian, in this order:</p>
+ *
+ * <ol>
+ *  <li>header: <code>int</code> magic number, version, number of rows, total number of neighbors</li>
+ *  <li><code>int[numRows + 1]</code>: start of each row's neighbors</li>
+ *  <li><code>int[numNeighbors]</code>: index of each neighbor, for each row either ascending or most similar
+ *   first</li>
+ *  <li><code>float[numNeighbors]</code>: similarity to each neighbor</li>
+ *  <li><code>int[numRows + 1]</code>: start of each row ID in the row ID characters</li>
+ *  <li><code>char[]</code>: row ID characters; rows are sorted by ID</li>
+ * </ol>
+ */
+public abstract class NeighborRowsBuilder<T> {
+
+  private static final Logger log = LoggerFactory.getLogger(NeighborRowsBuilder.class);
+
+  private static final int HEADER_BYTES = 4 * 4;
+  private static final int[] NO_NEIGHBORS = new int[0];
+  private static final float[] NO_VALUES = new float[0];
+
+  private final int magic;
+  private final int version;
+  private final int maxNeighbors;
+  private final double minSimilarity;
+  private final int numThreads;
+  private final boolean mostSimilarFirst;
+
+  /**
+   * @param magic magic number to write at the start of the file
+   * @param version file format version to write after it
+   * @param maxNeighbors maximum number of most similar others to keep for each row
+   * @param minSimilarity similarities below this are not kept
+   * @param numThreads number of threads to compute with
+   * @param mostSimilarFirst if true, each row's neighbors are written most similar first; otherwise in
+   *  ascending order of index
+   */
+  protected NeighborRowsBuilder(int magic,
+                                int version,
+                                int maxNeighbors,
+                                double minSimilarity,
+                                int numThreads,
+                                boolean mostSimilarFirst) {
+    if (maxNeighbors < 1) {
+      throw new IllegalArgumentException("maxNeighbors must be at least 1");
+    }
+    if (Double.isNaN(minSimilarity)) {
+      throw new IllegalArgumentException("minSimilarity is NaN");
+    }
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
+    this.magic = magic;
+    this.version = version;
+    this.maxNeighbors = maxNeighbors;
+    this.minSimilarity = minSimilarity;
+    this.numThreads = numThreads;
+    this.mostSimilarFirst = mostSimilarFirst;
+  }
+
+  protected abstract Object getID(T row);
+
+  protected abstract double similarity(T row1, T row2) throws TasteException;
+
+  /**
+   * Computes neighbors of all rows and writes them to the given file.
+   *
+   * @param rows users or items to compute neighbors for
+   * @param previous rows of a previously built file, or <code>null</code> to compute everything
+   * @param changedIDs IDs of rows whose preferences have changed since <code>previous</code> was built,
+   *  including rows added or removed since; ignored if <code>previous</code> is <code>null</code>
+   * @param file file to write to, which may be the file <code>previous</code> was read from
+   * @throws TasteException if an error occurs while computing similarity
+   * @throws IOException if an error occurs while writing the file
+   */
+  public final void build(Iterable<? extends T> rows, PreviousRows previous, Collection<?> changedIDs, File file)
+      throws TasteException, IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("file is null");
+    }
+
+    final List<T> sortedRows = new ArrayList<T>();
+    for (T row : rows) {
+      sortedRows.add(row);
+    }
+    Collections.sort(sortedRows, new Comparator<T>() {
+      @Override
+      public int compare(T a, T b) {
+        return getID(a).toString().compareTo(getID(b).toString());
+      }
+    });
+    int numRows = sortedRows.size();
+    String[] ids = new String[numRows];
+    for (int i = 0; i < numRows; i++) {
+      ids[i] = getID(sortedRows.get(i)).toString();
+    }
+
+    boolean[] changed = new boolean[numRows];
+    int[] changedIndices;
+    if (previous == null) {
+      Arrays.fill(changed, true);
+      changedIndices = NO_NEIGHBORS;
+    } else {
+      Set<String> changedIDStrings = new FastSet<String>();
+      for (Object id : changedIDs) {
+        changedIDStrings.add(id.toString());
+      }
+      int numChanged = 0;
+      for (int i = 0; i < numRows; i++) {
+        changed[i] = changedIDStrings.contains(ids[i]) || previous.ids.indexOf(ids[i]) < 0;
+        if (changed[i]) {
+          numChanged++;
+        }
+      }
+      changedIndices = new int[numChanged];
+      numChanged = 0;
+      for (int i = 0; i < numRows; i++) {
+        if (changed[i]) {
+          changedIndices[numChanged++] = i;
+        }
+      }
+      log.info("Rebuilding neighbors for {} rows, of which {} changed", numRows, numChanged);
+    }
+
+    int[][] neighbors = new int[numRows][];
+    float[][] values = new float[numRows][];
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      AtomicInteger nextIndex = new AtomicInteger();
+      List<Future<Object>> futures = new ArrayList<Future<Object>>(numThreads);
+      for (int t = 0; t < numThreads; t++) {
+        futures.add(executor.submit(
+            new RowBuilder(sortedRows, ids, changed, changedIndices, previous, neighbors, values, nextIndex)));
+      }
+      for (Future<Object> future : futures) {
+        FutureUtils.get(future);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Write next to the file and rename over it, so that it is never seen half-written. Mapped buffers
+    // don't depend on the file's name, so readers of the old file, including previous, are unaffected.
+    File newFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    try {
+      write(ids, neighbors, values, newFile);
+      if (!newFile.renameTo(file) && !(file.delete() && newFile.renameTo(file))) {
+        throw new IOException("Unable to replace " + file + " with " + newFile);
+      }
+    } finally {
+      if (newFile.exists()) {
+        newFile.delete();
+      }
+    }
+  }
+
+  private void write(String[] ids, int[][] neighbors, float[][] values, File file) throws IOException {
+    long numEntries = 0L;
+    for (int[] row : neighbors) {
+      numEntries += row.length;
+    }
+    long numIDChars = 0L;
+    for (String id : ids) {
+      numIDChars += id.length();
+    }
+    // The whole file is mapped as one buffer when read
+    long numBytes = HEADER_BYTES + 2L * 4L * (ids.length + 1) + 2L * 4L * numEntries + 2L * numIDChars;
+    if (numBytes > Integer.MAX_VALUE) {
+      throw new IOException("Too many neighbors: " + numEntries + " for " + ids.length + " rows need " + numBytes +
+                            " bytes");
+    }
+    log.info("Writing {} neighbors for {} rows to {}", new Object[] {numEntries, ids.length, file});
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    try {
+      out.writeInt(magic);
+      out.writeInt(version);
+      out.writeInt(ids.length);
+      out.writeInt((int) numEntries);
+      int position = 0;
+      for (int[] row : neighbors) {
+        out.writeInt(position);
+        position += row.length;
+      }
+      out.writeInt(position);
+      for (int[] row : neighbors) {
+        for (int neighbor : row) {
+          out.writeInt(neighbor);
+        }
+      }
+      for (float[] row : values) {
+        for (float value : row) {
+          out.writeFloat(value);
+        }
+      }
+      SortedIDIndex.writeStarts(ids, out);
+      SortedIDIndex.writeChars(ids, out);
+      out.flush();
+    } finally {
+      IOUtils.quietClose(out);
+    }
+  }
+
+  /**
+   * Neighbors from a previously built file, as read back from it.
+   */
+  public static final class PreviousRows {
+
+    private final IntBuffer rowStarts;
+    private final IntBuffer neighbors;
+    private final FloatBuffer values;
+    private final SortedIDIndex ids;
+
+    /**
+     * @param rowStarts start of each row's neighbors, followed by the total number of neighbors
+     * @param neighbors index of each neighbor
+     * @param values similarity to each neighbor
+     * @param ids row IDs
+     */
+    public PreviousRows(IntBuffer rowStarts, IntBuffer neighbors, FloatBuffer values, SortedIDIndex ids) {
+      this.rowStarts = rowStarts;
+      this.neighbors = neighbors;
+      this.values = values;
+      this.ids = ids;
+    }
+  }
+
+  /**
+   * Takes rows one at a time until none are left, and computes each one's neighbors.
+   */
+  private final class RowBuilder implements Callable<Object> {
+
+    private final List<T> rows;
+    private final String[] ids;
+    private final boolean[] changed;
+    private final int[] changedIndices;
+    private final PreviousRows previous;
+    private final int[][] neighbors;
+    private final float[][] values;
+    private final AtomicInteger nextIndex;
+
+    private RowBuilder(List<T> rows,
+                       String[] ids,
+                       boolean[] changed,
+                       int[] changedIndices,
+                       PreviousRows previous,
+                       int[][] neighbors,
+                       float[][] values,
+                       AtomicInteger nextIndex) {
+      this.rows = rows;
+      this.ids = ids;
+      this.changed = changed;
+      this.changedIndices = changedIndices;
+      this.previous = previous;
+      this.neighbors = neighbors;
+      this.values = values;
+      this.nextIndex = nextIndex;
+    }
+
+    @Override
+    public Object call() throws TasteException {
+      int numRows = rows.size();
+      int index;
+      while ((index = nextIndex.getAndIncrement()) < numRows) {
+        T row = rows.get(index);
+        TopNeighbors top = new TopNeighbors();
+        if (changed[index] || !updateRow(index, top)) {
+          top = new TopNeighbors();
+          for (int other = 0; other < numRows; other++) {
+            if (other != index) {
+              top.offer(other, similarity(row, rows.get(other)));
+            }
+          }
+        }
+        top.toRow(index, neighbors, values);
+      }
+      return null;
+    }
+
+    /**
+     * Offers the unchanged neighbors from the previous file, and similarities to changed rows.
+     *
+     * @return false if this isn't enough to get the right result, and the row must be computed in full
+     */
+    private boolean updateRow(int index, TopNeighbors top) throws TasteException {
+      int previousRow = previous.ids.indexOf(ids[index]);
+      int start = previous.rowStarts.get(previousRow);
+      int end = previous.rowStarts.get(previousRow + 1);
+      boolean lostNeighbor = false;
+      for (int i = start; i < end; i++) {
+        String neighborID = previous.ids.get(previous.neighbors.get(i));
+        int neighbor = Arrays.binarySearch(ids, neighborID);
+        if (neighbor < 0 || changed[neighbor]) {
+          lostNeighbor = true;
+        } else {
+          top.offer(neighbor, previous.values.get(i));
+        }
+      }
+      if (lostNeighbor && end - start >= maxNeighbors) {
+        // Something that was not kept before may now belong in the list
+        return false;
+      }
+      T row = rows.get(index);
+      for (int other : changedIndices) {
+        if (other != index) {
+          top.offer(other, similarity(row, rows.get(other)));
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Keeps the most similar neighbors offered, up to the maximum, in a min-heap.
+   */
+  private final class TopNeighbors {
+
+    private final PriorityQueue<Neighbor> heap = new PriorityQueue<Neighbor>(maxNeighbors + 1);
+
+    void offer(int index, double value) {
+      if (Double.isNaN(value) || value < minSimilarity) {
+        return;
+      }
+      if (heap.size() < maxNeighbors) {
+        heap.add(new Neighbor(index, (float) value));
+      } else if (value > heap.peek().value) {
+        heap.poll();
+        heap.add(new Neighbor(index, (float) value));
+      }
+    }
+
+    void toRow(int index, int[][] neighbors, float[][] values) {
+      int size = heap.size();
+      if (size == 0) {
+        neighbors[index] = NO_NEIGHBORS;
+        values[index] = NO_VALUES;
+        return;
+      }
+      Neighbor[] sorted = heap.toArray(new Neighbor[size]);
+      if (mostSimilarFirst) {
+        Arrays.sort(sorted, Collections.reverseOrder());
+      } else {
+        Arrays.sort(sorted, new Comparator<Neighbor>() {
+          @Override
+          public int compare(Neighbor a, Neighbor b) {
+            return a.index < b.index ? -1 : a.index > b.index ? 1 : 0;
+          }
+        });
+      }
+      int[] rowNeighbors = new int[size];
+      float[] rowValues = new float[size];
+      for (int i = 0; i < size; i++) {
+        rowNeighbors[i] = sorted[i].index;
+        rowValues[i] = sorted[i].value;
+      }
+      neighbors[index] = rowNeighbors;
+      values[index] = rowValues;
+    }
+  }
+
+  private static final class Neighbor implements Comparable<Neighbor> {
+
+    private final int index;
+    private final float value;
+
+    private Neighbor(int index, float value) {
+      this.index = index;
+      this.value = value;
+    }
+
+    /**
+     * Orders from least to most similar.
+     */
+    @Override
+    public int compareTo(Neighbor other) {
+      return value < other.value ? -1 : value > other.value ? 1 : 0;
+    }
+  }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * <p>A sorted list of {@link String} IDs stored as one run of characters plus the start of each ID in it,
+ * typically in buffers mapped from a file. IDs are found by binary search, comparing characters in place as
+ * {@link String#compareTo(String)} would, so no {@link String}s need be created to look one up.</p>
+ *
+ * <p>Only absolute gets are used on the buffers, which do not change their state, so an instance may be
+ * shared by any number of threads.</p>
+ */
+public final class SortedIDIndex {
+
+  private final IntBuffer starts;
+  private final CharBuffer chars;
+  private final int size;
+
+  /**
+   * @param starts start of each ID in chars, followed by the end of the last one
+   * @param chars characters of all IDs, in sorted order
+   */
+  public SortedIDIndex(IntBuffer starts, CharBuffer chars) {
+    if (starts == null || chars == null) {
+      throw new IllegalArgumentException("starts or chars is null");
+    }
+    if (starts.limit() < 1) {
+      throw new IllegalArgumentException("starts is empty");
+    }
+    this.starts = starts;
+    this.chars = chars;
+    this.size = starts.limit() - 1;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return ID at given index
+   */
+  public String get(int index) {
+    int start = starts.get(index);
+    int length = starts.get(index + 1) - start;
+    char[] id = new char[length];
+    for (int i = 0; i < length; i++) {
+      id[i] = chars.get(start + i);
+    }
+    return new String(id);
+  }
+
+  /**
+   * @return index of the ID, or -1 if not present
+   */
+  public int indexOf(String id) {
+    int idLength = id.length();
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int start = starts.get(mid);
+      int length = starts.get(mid + 1) - start;
+      int limit = Math.min(length, idLength);
+      int comparison = length - idLength;
+      for (int i = 0; i < limit; i++) {
+        int difference = chars.get(start + i) - id.charAt(i);
+        if (difference != 0) {
+          comparison = difference;
+          break;
+        }
+      }
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Writes the start of each ID, then the end of the last one, as <code>int</code>s.
+   */
+  public static void writeStarts(String[] sortedIDs, DataOutput out) throws IOException {
+    int position = 0;
+    for (String id : sortedIDs) {
+      out.writeInt(position);
+      position += id.length();
+    }
+    out.writeInt(position);
+  }
+
+  /**
+   * Writes the characters of all IDs.
+   */
+  public static void writeChars(String[] sortedIDs, DataOutput out) throws IOException {
+    for (String id : sortedIDs) {
+      out.writeChars(id);
+    }
+  }
+
+}
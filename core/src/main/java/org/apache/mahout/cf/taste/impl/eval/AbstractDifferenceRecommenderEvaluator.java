@@ -17,11 +17,16 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderEvaluator;
 import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.FutureUtils;
 import org.apache.mahout.cf.taste.impl.common.RandomUtils;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUser;
@@ -37,18 +42,39 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>Abstract superclass of a couple implementations, providing shared functionality.</p>
+ *
+ * <p>Test preferences are estimated on a pool of threads sharing the one {@link Recommender} built on the
+ * training data; see {@link #setNumThreads(int)}. The {@link Recommender} must then be safe for use by
+ * several threads, as Taste's implementations are. Estimates are combined in the same order regardless of
+ * the number of threads, so the result does not depend on it.</p>
  */
 abstract class AbstractDifferenceRecommenderEvaluator implements RecommenderEvaluator {
 
   private static final Logger log = LoggerFactory.getLogger(AbstractDifferenceRecommenderEvaluator.class);
 
   private final Random random;
+  private int numThreads;
 
   AbstractDifferenceRecommenderEvaluator() {
     random = RandomUtils.getRandom();
+    numThreads = 1;
+  }
+
+  /**
+   * @param numThreads number of threads estimating test preferences; defaults to 1
+   */
+  public void setNumThreads(int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
+    this.numThreads = numThreads;
   }
 
   @Override
@@ -118,7 +144,84 @@ abstract class AbstractDifferenceRecommenderEvaluator implements RecommenderEval
     }
   }
 
-  abstract double getEvaluation(Map<User, Collection<Preference>> testUserPrefs, Recommender recommender)
-      throws TasteException;
+  private double getEvaluation(Map<User, Collection<Preference>> testUserPrefs, Recommender recommender)
+      throws TasteException {
+    EvaluationProgress progress = new EvaluationProgress(log, testUserPrefs.size());
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Collection<Preference>> allRealPrefs = new ArrayList<Collection<Preference>>(testUserPrefs.size());
+      List<Future<double[]>> futures = new ArrayList<Future<double[]>>(testUserPrefs.size());
+      for (Map.Entry<User, Collection<Preference>> entry : testUserPrefs.entrySet()) {
+        allRealPrefs.add(entry.getValue());
+        futures.add(executor.submit(new Estimator(entry.getKey(), entry.getValue(), recommender, progress)));
+      }
+      RunningAverage average = new FullRunningAverage();
+      for (int i = 0; i < futures.size(); i++) {
+        double[] estimates = FutureUtils.get(futures.get(i));
+        int j = 0;
+        for (Preference realPref : allRealPrefs.get(i)) {
+          double estimatedPreference = estimates[j++];
+          if (!Double.isNaN(estimatedPreference)) {
+            processOneEstimate(estimatedPreference, realPref, average);
+          }
+        }
+      }
+      progress.logProgress();
+      return computeFinalEvaluation(average);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Incorporates one available estimate into the running evaluation.
+   */
+  abstract void processOneEstimate(double estimatedPreference, Preference realPref, RunningAverage average);
+
+  abstract double computeFinalEvaluation(RunningAverage average);
+
+  /**
+   * Estimates one test user's preferences, returning NaN for those which can't be estimated.
+   */
+  private static final class Estimator implements Callable<double[]> {
+
+    private final User testUser;
+    private final Collection<Preference> realPrefs;
+    private final Recommender recommender;
+    private final EvaluationProgress progress;
+
+    private Estimator(User testUser,
+                      Collection<Preference> realPrefs,
+                      Recommender recommender,
+                      EvaluationProgress progress) {
+      this.testUser = testUser;
+      this.realPrefs = realPrefs;
+      this.recommender = recommender;
+      this.progress = progress;
+    }
+
+    @Override
+    public double[] call() throws TasteException {
+      double[] estimates = new double[realPrefs.size()];
+      int i = 0;
+      for (Preference realPref : realPrefs) {
+        double estimatedPreference;
+        try {
+          estimatedPreference = recommender.estimatePreference(testUser.getID(), realPref.getItem().getID());
+        } catch (NoSuchUserException nsue) {
+          // It's possible that an item exists in the test data but not training data in which case
+          // NSEE will be thrown. Just ignore it and move on.
+          log.debug("User exists in test data but not training data: {}", testUser.getID(), nsue);
+          estimatedPreference = Double.NaN;
+        } catch (NoSuchItemException nsie) {
+          log.debug("Item exists in test data but not training data: {}", realPref.getItem().getID(), nsie);
+          estimatedPreference = Double.NaN;
+        }
+        estimates[i++] = estimatedPreference;
+      }
+      progress.userDone(estimates.length);
+      return estimates;
+    }
+  }
 
 }
@@ -17,19 +17,8 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
-import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.common.NoSuchUserException;
-import org.apache.mahout.cf.taste.common.NoSuchItemException;
-import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.model.Preference;
-import org.apache.mahout.cf.taste.model.User;
-import org.apache.mahout.cf.taste.recommender.Recommender;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.Collection;
-import java.util.Map;
 
 /**
  * <p>A {@link org.apache.mahout.cf.taste.eval.RecommenderEvaluator} which computes the average absolute difference
@@ -39,31 +28,13 @@ import java.util.Map;
  */
 public final class AverageAbsoluteDifferenceRecommenderEvaluator extends AbstractDifferenceRecommenderEvaluator {
 
-  private static final Logger log = LoggerFactory.getLogger(AverageAbsoluteDifferenceRecommenderEvaluator.class);
+  @Override
+  void processOneEstimate(double estimatedPreference, Preference realPref, RunningAverage average) {
+    average.addDatum(Math.abs(realPref.getValue() - estimatedPreference));
+  }
 
   @Override
-  double getEvaluation(Map<User, Collection<Preference>> testUserPrefs,
-                       Recommender recommender)
-          throws TasteException {
-    RunningAverage average = new FullRunningAverage();
-    for (Map.Entry<User, Collection<Preference>> entry : testUserPrefs.entrySet()) {
-      for (Preference realPref : entry.getValue()) {
-        User testUser = entry.getKey();
-        try {
-          double estimatedPreference =
-                  recommender.estimatePreference(testUser.getID(), realPref.getItem().getID());
-          if (!Double.isNaN(estimatedPreference)) {
-            average.addDatum(Math.abs(realPref.getValue() - estimatedPreference));
-          }
-        } catch (NoSuchUserException nsue) {
-          // It's possible that an item exists in the test data but not training data in which case
-          // NSEE will be thrown. Just ignore it and move on.
-          log.debug("User exists in test data but not training data: {}", testUser.getID(), nsue);
-        } catch (NoSuchItemException nsie) {
-          log.debug("Item exists in test data but not training data: {}", realPref.getItem().getID(), nsie);
-        }
-      }
-    }
+  double computeFinalEvaluation(RunningAverage average) {
     return average.getAverage();
   }
 
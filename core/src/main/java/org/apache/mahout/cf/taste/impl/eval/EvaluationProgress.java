@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Tracks how many users an evaluation has processed, and periodically logs progress and throughput.
+ * Safe for use by several threads at once.</p>
+ */
+final class EvaluationProgress {
+
+  private static final long LOG_INTERVAL_MS = 10000L;
+
+  private final Logger log;
+  private final int numUsers;
+  private final long start;
+  private final AtomicInteger usersDone;
+  private final AtomicLong estimatesDone;
+  private final AtomicLong lastLogged;
+
+  EvaluationProgress(Logger log, int numUsers) {
+    this.log = log;
+    this.numUsers = numUsers;
+    this.start = System.currentTimeMillis();
+    this.usersDone = new AtomicInteger();
+    this.estimatesDone = new AtomicLong();
+    this.lastLogged = new AtomicLong(start);
+  }
+
+  /**
+   * @param numEstimates number of estimates or recommendations computed for the user just finished
+   */
+  void userDone(int numEstimates) {
+    usersDone.incrementAndGet();
+    estimatesDone.addAndGet(numEstimates);
+    long now = System.currentTimeMillis();
+    long last = lastLogged.get();
+    // Only one thread gets to log for each interval
+    if (now - last >= LOG_INTERVAL_MS && lastLogged.compareAndSet(last, now)) {
+      logProgress(now);
+    }
+  }
+
+  void logProgress() {
+    logProgress(System.currentTimeMillis());
+  }
+
+  private void logProgress(long now) {
+    double seconds = Math.max(now - start, 1L) / 1000.0;
+    int users = usersDone.get();
+    long estimates = estimatesDone.get();
+    log.info("Evaluated {} of {} users; {} users/s, {} estimates/s", new Object[] {
+        users, numUsers, (int) (users / seconds), (int) (estimates / seconds)
+    });
+  }
+
+}
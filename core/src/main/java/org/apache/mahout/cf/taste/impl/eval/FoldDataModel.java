@@ -0,0 +1,391 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>A read-only {@link DataModel} presenting the preferences of a {@link PreferenceLog} accepted by a
+ * {@link PreferenceLog.Filter}. Nothing is copied from the log up front, so any number of these can share one
+ * log. A user's or item's accepted preferences are gathered the first time they are requested, and kept, so
+ * that later requests cost about what they do in
+ * {@link org.apache.mahout.cf.taste.impl.model.GenericDataModel}. Users and items with no accepted preferences
+ * do not appear.</p>
+ */
+final class FoldDataModel implements DataModel {
+
+  private static final Preference[] NO_PREFS = new Preference[0];
+
+  private final PreferenceLog preferenceLog;
+  private final PreferenceLog.Filter filter;
+  private final boolean[] userPresent;
+  private final boolean[] itemPresent;
+  private final int numUsers;
+  private final List<Item> items;
+  private final AtomicReferenceArray<FoldUser> users;
+  private final AtomicReferenceArray<Preference[]> itemPrefs;
+
+  FoldDataModel(PreferenceLog preferenceLog, PreferenceLog.Filter filter) {
+    this.preferenceLog = preferenceLog;
+    this.filter = filter;
+    userPresent = new boolean[preferenceLog.getNumUsers()];
+    itemPresent = new boolean[preferenceLog.getNumItems()];
+    int userCount = 0;
+    for (int u = 0; u < userPresent.length; u++) {
+      for (int p = preferenceLog.getUserStart(u); p < preferenceLog.getUserEnd(u); p++) {
+        if (filter.accept(p)) {
+          userPresent[u] = true;
+          itemPresent[preferenceLog.getPreferenceItem(p)] = true;
+        }
+      }
+      if (userPresent[u]) {
+        userCount++;
+      }
+    }
+    numUsers = userCount;
+    List<Item> presentItems = new ArrayList<Item>();
+    for (int i = 0; i < itemPresent.length; i++) {
+      if (itemPresent[i]) {
+        presentItems.add(preferenceLog.getItem(i));
+      }
+    }
+    items = Collections.unmodifiableList(presentItems);
+    users = new AtomicReferenceArray<FoldUser>(userPresent.length);
+    itemPrefs = new AtomicReferenceArray<Preference[]>(itemPresent.length);
+  }
+
+  /**
+   * @return the one {@link FoldUser} for this user, so that its preferences are gathered only once
+   */
+  private FoldUser user(int user) {
+    FoldUser foldUser = users.get(user);
+    if (foldUser == null) {
+      // Another thread may create one too; only the first is kept
+      users.compareAndSet(user, null, new FoldUser(user));
+      foldUser = users.get(user);
+    }
+    return foldUser;
+  }
+
+  @Override
+  public Iterable<? extends User> getUsers() {
+    return new Iterable<User>() {
+      @Override
+      public Iterator<User> iterator() {
+        return new UserIterator();
+      }
+    };
+  }
+
+  @Override
+  public User getUser(Object id) throws NoSuchUserException {
+    int user = preferenceLog.userIndexOf(id);
+    if (user < 0 || !userPresent[user]) {
+      throw new NoSuchUserException();
+    }
+    return user(user);
+  }
+
+  @Override
+  public Iterable<? extends Item> getItems() {
+    return items;
+  }
+
+  @Override
+  public Item getItem(Object id) throws NoSuchItemException {
+    int item = preferenceLog.itemIndexOf(id);
+    if (item < 0 || !itemPresent[item]) {
+      throw new NoSuchItemException();
+    }
+    return preferenceLog.getItem(item);
+  }
+
+  @Override
+  public Iterable<? extends Preference> getPreferencesForItem(Object itemID) throws NoSuchItemException {
+    return Arrays.asList(getPreferencesForItemAsArray(itemID));
+  }
+
+  @Override
+  public Preference[] getPreferencesForItemAsArray(Object itemID) throws NoSuchItemException {
+    int item = preferenceLog.itemIndexOf(itemID);
+    if (item < 0 || !itemPresent[item]) {
+      throw new NoSuchItemException();
+    }
+    Preference[] prefs = itemPrefs.get(item);
+    if (prefs == null) {
+      Item theItem = preferenceLog.getItem(item);
+      List<Preference> prefsList = new ArrayList<Preference>();
+      for (int i = preferenceLog.getItemStart(item); i < preferenceLog.getItemEnd(item); i++) {
+        int pref = preferenceLog.getItemPreference(i);
+        if (filter.accept(pref)) {
+          User user = user(preferenceLog.getPreferenceUser(pref));
+          prefsList.add(new FoldPreference(user, theItem, preferenceLog.getPreferenceValue(pref)));
+        }
+      }
+      prefs = prefsList.toArray(new Preference[prefsList.size()]);
+      itemPrefs.set(item, prefs);
+    }
+    return prefs;
+  }
+
+  @Override
+  public int getNumItems() {
+    return items.size();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return numUsers;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(Object... itemIDs) {
+    int[] users = null;
+    int numUsersSoFar = 0;
+    for (Object itemID : itemIDs) {
+      int item = preferenceLog.itemIndexOf(itemID);
+      if (item < 0) {
+        return 0;
+      }
+      // Each item's preferences are ordered by user, so intersect as sorted lists
+      int[] itemUsers = new int[preferenceLog.getItemEnd(item) - preferenceLog.getItemStart(item)];
+      int numItemUsers = 0;
+      int j = 0;
+      for (int i = preferenceLog.getItemStart(item); i < preferenceLog.getItemEnd(item); i++) {
+        int pref = preferenceLog.getItemPreference(i);
+        if (filter.accept(pref)) {
+          int user = preferenceLog.getPreferenceUser(pref);
+          if (users == null) {
+            itemUsers[numItemUsers++] = user;
+          } else {
+            while (j < numUsersSoFar && users[j] < user) {
+              j++;
+            }
+            if (j < numUsersSoFar && users[j] == user) {
+              itemUsers[numItemUsers++] = user;
+            }
+          }
+        }
+      }
+      users = itemUsers;
+      numUsersSoFar = numItemUsers;
+    }
+    return numUsersSoFar;
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void setPreference(Object userID, Object itemID, double value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void removePreference(Object userID, Object itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public String toString() {
+    return "FoldDataModel[users:" + numUsers + ",items:" + items.size() + ']';
+  }
+
+  private final class UserIterator implements Iterator<User> {
+
+    private int next;
+
+    private UserIterator() {
+      advance();
+    }
+
+    private void advance() {
+      while (next < userPresent.length && !userPresent[next]) {
+        next++;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < userPresent.length;
+    }
+
+    @Override
+    public User next() {
+      if (next >= userPresent.length) {
+        throw new NoSuchElementException();
+      }
+      User user = user(next++);
+      advance();
+      return user;
+    }
+
+    /**
+     * @throws UnsupportedOperationException
+     */
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * A {@link User} whose accepted preferences are read from the log when first requested.
+   */
+  private final class FoldUser implements User {
+
+    private final int user;
+    private volatile Preference[] prefs;
+
+    private FoldUser(int user) {
+      this.user = user;
+    }
+
+    @Override
+    public Object getID() {
+      return preferenceLog.getUserID(user);
+    }
+
+    @Override
+    public Preference getPreferenceFor(Object itemID) {
+      int item = preferenceLog.itemIndexOf(itemID);
+      if (item < 0) {
+        return null;
+      }
+      int pref = preferenceLog.findPreference(user, item);
+      if (pref < 0 || !filter.accept(pref)) {
+        return null;
+      }
+      return new FoldPreference(this, preferenceLog.getItem(item), preferenceLog.getPreferenceValue(pref));
+    }
+
+    @Override
+    public Iterable<Preference> getPreferences() {
+      return Arrays.asList(getPreferencesAsArray());
+    }
+
+    @Override
+    public Preference[] getPreferencesAsArray() {
+      Preference[] thePrefs = prefs;
+      if (thePrefs == null) {
+        int start = preferenceLog.getUserStart(user);
+        int end = preferenceLog.getUserEnd(user);
+        thePrefs = new Preference[end - start];
+        int size = 0;
+        for (int p = start; p < end; p++) {
+          if (filter.accept(p)) {
+            Item item = preferenceLog.getItem(preferenceLog.getPreferenceItem(p));
+            thePrefs[size++] = new FoldPreference(this, item, preferenceLog.getPreferenceValue(p));
+          }
+        }
+        if (size == 0) {
+          thePrefs = NO_PREFS;
+        } else if (size < thePrefs.length) {
+          thePrefs = Arrays.copyOf(thePrefs, size);
+        }
+        prefs = thePrefs;
+      }
+      return thePrefs;
+    }
+
+    @Override
+    public int compareTo(User other) {
+      return preferenceLog.getUserID(user).compareTo(other.getID().toString());
+    }
+
+    @Override
+    public int hashCode() {
+      return getID().hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof User && ((User) obj).getID().equals(getID());
+    }
+
+    @Override
+    public String toString() {
+      return "User[id:" + getID() + ']';
+    }
+  }
+
+  private static final class FoldPreference implements Preference {
+
+    private final User user;
+    private final Item item;
+    private final double value;
+
+    private FoldPreference(User user, Item item, double value) {
+      this.user = user;
+      this.item = item;
+      this.value = value;
+    }
+
+    @Override
+    public User getUser() {
+      return user;
+    }
+
+    @Override
+    public Item getItem() {
+      return item;
+    }
+
+    @Override
+    public double getValue() {
+      return value;
+    }
+
+    /**
+     * @throws UnsupportedOperationException
+     */
+    @Override
+    public void setValue(double value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String toString() {
+      return "Preference[user:" + user.getID() + ", item:" + item.getID() + ", value:" + value + ']';
+    }
+  }
+
+}
@@ -27,8 +27,10 @@ import org.apache.mahout.cf.taste.impl.common.RandomUtils;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.FutureUtils;
 import org.apache.mahout.cf.taste.impl.common.FastSet;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUser;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Item;
@@ -44,6 +46,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>For each {@link User}, these implementation determine the top <code>n</code> preferences,
@@ -51,6 +57,17 @@ import java.util.Random;
  * This number <code>n</code> is the "at" value, as in "precision at 5". For example, this would mean precision
  * evaluated by removing the top 5 preferences for a {@link User} and then finding the percentage of those 5
  * {@link Item}s included in the top 5 recommendations for that user.</p>
+ *
+ * <p>By default a new {@link DataModel} and {@link Recommender} are built for each evaluated {@link User}. In
+ * incremental mode (see {@link #setIncremental(boolean)}) one {@link Recommender} is built instead, on a model
+ * which hides the evaluated user's relevant preferences only while that user is being evaluated. This is
+ * much faster, but is only accurate for recommenders which read the user's preferences from the model when
+ * recommending, and do not precompute or cache anything derived from them -- for example a
+ * {@link org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender} with a similarity
+ * computed on the fly.</p>
+ *
+ * <p>Users are evaluated on a pool of threads; see {@link #setNumThreads(int)}. Results are combined in the
+ * same order regardless of the number of threads.</p>
  */
 public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRStatsEvaluator {
 
@@ -64,9 +81,30 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
   public static final double CHOOSE_THRESHOLD = Double.NaN;
 
   private final Random random;
+  private int numThreads;
+  private boolean incremental;
 
   public GenericRecommenderIRStatsEvaluator() {
     random = RandomUtils.getRandom();
+    numThreads = 1;
+  }
+
+  /**
+   * @param numThreads number of threads evaluating users; defaults to 1
+   */
+  public void setNumThreads(int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * @param incremental if true, build one {@link Recommender} and hide each evaluated user's relevant
+   *  preferences from it, rather than building a new one for each user; defaults to false
+   */
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
   }
 
   @Override
@@ -94,72 +132,72 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     }
 
     int numItems = dataModel.getNumItems();
-    RunningAverage precision = new FullRunningAverage();
-    RunningAverage recall = new FullRunningAverage();
-    RunningAverage fallOut = new FullRunningAverage();
+    List<User> evaluatedUsers = new ArrayList<User>();
     for (User user : dataModel.getUsers()) {
       if (random.nextDouble() < evaluationPercentage) {
-        Object id = user.getID();
-        Collection<Item> relevantItems = new FastSet<Item>(at);
-        Preference[] prefs = user.getPreferencesAsArray();
-        double theRelevanceThreshold = Double.isNaN(relevanceThreshold) ? computeThreshold(prefs) : relevanceThreshold;
-        for (Preference pref : prefs) {
-          if (pref.getValue() >= theRelevanceThreshold) {
-            relevantItems.add(pref.getItem());
-          }
-        }
-        int numRelevantItems = relevantItems.size();
-        if (numRelevantItems > 0) {
-          List<User> trainingUsers = new ArrayList<User>(dataModel.getNumUsers());
-          for (User user2 : dataModel.getUsers()) {
-            processOtherUser(id, relevantItems, trainingUsers, user2);
-          }
-          DataModel trainingModel = new GenericDataModel(trainingUsers);
-          Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
-
-          try {
-            trainingModel.getUser(id);
-          } catch (NoSuchUserException nsee) {
-            continue; // Oops we excluded all prefs for the user -- just move on
-          }
+        evaluatedUsers.add(user);
+      }
+    }
 
-          int intersectionSize = 0;
-          List<RecommendedItem> recommendedItems = recommender.recommend(id, at, rescorer);
-          for (RecommendedItem recommendedItem : recommendedItems) {
-            if (relevantItems.contains(recommendedItem.getItem())) {
-              intersectionSize++;
-            }
-          }
-          int numRecommendedItems = recommendedItems.size();
-          if (numRecommendedItems > 0) {
-            precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
-          }
-          recall.addDatum((double) intersectionSize / (double) numRelevantItems);
-          if (numRelevantItems < prefs.length) {
-            fallOut.addDatum((double) (numRecommendedItems - intersectionSize) /
-                             (double) (numItems - numRelevantItems));
-          }
+    PreferenceMaskingDataModel maskingModel = null;
+    Recommender sharedRecommender = null;
+    if (incremental) {
+      maskingModel = new PreferenceMaskingDataModel(dataModel);
+      sharedRecommender = recommenderBuilder.buildRecommender(maskingModel);
+    }
 
-          log.info("Precision/recall/fall-out: {} / {} / {}", new Object[] {
-              precision.getAverage(), recall.getAverage(), fallOut.getAverage()
-          });
+    RunningAverage precision = new FullRunningAverage();
+    RunningAverage recall = new FullRunningAverage();
+    RunningAverage fallOut = new FullRunningAverage();
+    EvaluationProgress progress = new EvaluationProgress(log, evaluatedUsers.size());
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<UserResult>> futures = new ArrayList<Future<UserResult>>(evaluatedUsers.size());
+      for (User user : evaluatedUsers) {
+        futures.add(executor.submit(new UserEvaluation(user, dataModel, recommenderBuilder, maskingModel,
+                                                       sharedRecommender, rescorer, at, relevanceThreshold,
+                                                       progress)));
+      }
+      for (Future<UserResult> future : futures) {
+        UserResult result = FutureUtils.get(future);
+        if (result == null) {
+          continue;
+        }
+        int intersectionSize = result.intersectionSize;
+        int numRecommendedItems = result.numRecommendedItems;
+        int numRelevantItems = result.numRelevantItems;
+        if (numRecommendedItems > 0) {
+          precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
         }
+        recall.addDatum((double) intersectionSize / (double) numRelevantItems);
+        if (numRelevantItems < result.numPrefs) {
+          fallOut.addDatum((double) (numRecommendedItems - intersectionSize) /
+                           (double) (numItems - numRelevantItems));
+        }
+
+        log.info("Precision/recall/fall-out: {} / {} / {}", new Object[] {
+            precision.getAverage(), recall.getAverage(), fallOut.getAverage()
+        });
       }
+    } finally {
+      executor.shutdownNow();
     }
+    progress.logProgress();
 
     return new IRStatisticsImpl(precision.getAverage(), recall.getAverage(), fallOut.getAverage());
   }
 
-  private void processOtherUser(Object id,
-                                Collection<Item> relevantItems,
-                                Collection<User> trainingUsers,
-                                User user2) {
+  private static void processOtherUser(Object id,
+                                       Collection<Item> relevantItems,
+                                       Collection<User> trainingUsers,
+                                       User user2) {
     if (id.equals(user2.getID())) {
       List<Preference> trainingPrefs = new ArrayList<Preference>();
       Preference[] prefs2 = user2.getPreferencesAsArray();
       for (Preference pref : prefs2) {
         if (!relevantItems.contains(pref.getItem())) {
-          trainingPrefs.add(pref);
+          // Copy, since the new user takes ownership of its preferences, and others may be evaluating
+          trainingPrefs.add(new GenericPreference(null, pref.getItem(), pref.getValue()));
         }
       }
       if (!trainingPrefs.isEmpty()) {
@@ -183,4 +221,113 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     return stdDev.getAverage() + stdDev.getStandardDeviation();
   }
 
+  /**
+   * Evaluates one {@link User}, returning null if it can't be evaluated.
+   */
+  private static final class UserEvaluation implements Callable<UserResult> {
+
+    private final User user;
+    private final DataModel dataModel;
+    private final RecommenderBuilder recommenderBuilder;
+    private final PreferenceMaskingDataModel maskingModel;
+    private final Recommender sharedRecommender;
+    private final Rescorer<Item> rescorer;
+    private final int at;
+    private final double relevanceThreshold;
+    private final EvaluationProgress progress;
+
+    private UserEvaluation(User user,
+                           DataModel dataModel,
+                           RecommenderBuilder recommenderBuilder,
+                           PreferenceMaskingDataModel maskingModel,
+                           Recommender sharedRecommender,
+                           Rescorer<Item> rescorer,
+                           int at,
+                           double relevanceThreshold,
+                           EvaluationProgress progress) {
+      this.user = user;
+      this.dataModel = dataModel;
+      this.recommenderBuilder = recommenderBuilder;
+      this.maskingModel = maskingModel;
+      this.sharedRecommender = sharedRecommender;
+      this.rescorer = rescorer;
+      this.at = at;
+      this.relevanceThreshold = relevanceThreshold;
+      this.progress = progress;
+    }
+
+    @Override
+    public UserResult call() throws TasteException {
+      Object id = user.getID();
+      Collection<Item> relevantItems = new FastSet<Item>(at);
+      Preference[] prefs = user.getPreferencesAsArray();
+      double theRelevanceThreshold = Double.isNaN(relevanceThreshold) ? computeThreshold(prefs) : relevanceThreshold;
+      for (Preference pref : prefs) {
+        if (pref.getValue() >= theRelevanceThreshold) {
+          relevantItems.add(pref.getItem());
+        }
+      }
+      int numRelevantItems = relevantItems.size();
+      if (numRelevantItems == 0) {
+        progress.userDone(0);
+        return null;
+      }
+
+      List<RecommendedItem> recommendedItems;
+      if (maskingModel == null) {
+        List<User> trainingUsers = new ArrayList<User>(dataModel.getNumUsers());
+        for (User user2 : dataModel.getUsers()) {
+          processOtherUser(id, relevantItems, trainingUsers, user2);
+        }
+        DataModel trainingModel = new GenericDataModel(trainingUsers);
+        Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+
+        try {
+          trainingModel.getUser(id);
+        } catch (NoSuchUserException nsee) {
+          progress.userDone(0);
+          return null; // Oops we excluded all prefs for the user -- just move on
+        }
+        recommendedItems = recommender.recommend(id, at, rescorer);
+      } else {
+        maskingModel.mask(user, relevantItems);
+        try {
+          try {
+            maskingModel.getUser(id);
+          } catch (NoSuchUserException nsee) {
+            progress.userDone(0);
+            return null;
+          }
+          recommendedItems = sharedRecommender.recommend(id, at, rescorer);
+        } finally {
+          maskingModel.unmask();
+        }
+      }
+
+      int intersectionSize = 0;
+      for (RecommendedItem recommendedItem : recommendedItems) {
+        if (relevantItems.contains(recommendedItem.getItem())) {
+          intersectionSize++;
+        }
+      }
+      progress.userDone(recommendedItems.size());
+      return new UserResult(intersectionSize, recommendedItems.size(), numRelevantItems, prefs.length);
+    }
+  }
+
+  private static final class UserResult {
+
+    private final int intersectionSize;
+    private final int numRecommendedItems;
+    private final int numRelevantItems;
+    private final int numPrefs;
+
+    private UserResult(int intersectionSize, int numRecommendedItems, int numRelevantItems, int numPrefs) {
+      this.intersectionSize = intersectionSize;
+      this.numRecommendedItems = numRecommendedItems;
+      this.numRelevantItems = numRelevantItems;
+      this.numPrefs = numPrefs;
+    }
+  }
+
 }
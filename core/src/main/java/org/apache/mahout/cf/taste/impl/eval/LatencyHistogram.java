@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+/**
+ * <p>Counts latencies in a fixed number of buckets, so that percentiles can be reported without keeping every
+ * latency. Latencies below 128 nanoseconds are counted exactly; above that, each power of two is split into
+ * 64 buckets, so a reported percentile is within about 1% of the exact one. This takes about 30KB however
+ * many latencies are added.</p>
+ *
+ * <p>Not thread-safe.</p>
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int EXACT_BUCKETS = SUB_BUCKETS << 1;
+  private static final int NUM_BUCKETS = EXACT_BUCKETS + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+  private final long[] counts;
+  private long count;
+
+  LatencyHistogram() {
+    counts = new long[NUM_BUCKETS];
+  }
+
+  /**
+   * @param nanos latency to count; negative values count as zero
+   */
+  void add(long nanos) {
+    counts[bucketOf(Math.max(nanos, 0L))]++;
+    count++;
+  }
+
+  /**
+   * Adds all the latencies counted by another histogram.
+   */
+  void addAll(LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+  }
+
+  long getCount() {
+    return count;
+  }
+
+  /**
+   * @param percentile between 0 (exclusive) and 100 (inclusive)
+   * @return time within which that percentage of latencies fall, in milliseconds, or {@link Double#NaN} if
+   *  none were added
+   */
+  double getPercentileMS(double percentile) {
+    if (Double.isNaN(percentile) || percentile <= 0.0 || percentile > 100.0) {
+      throw new IllegalArgumentException("Invalid percentile: " + percentile);
+    }
+    if (count == 0L) {
+      return Double.NaN;
+    }
+    // Nearest rank
+    long rank = Math.max((long) Math.ceil(percentile / 100.0 * count), 1L);
+    long seen = 0L;
+    int bucket = 0;
+    while (true) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        break;
+      }
+      bucket++;
+    }
+    return midpointOf(bucket) / 1000000.0;
+  }
+
+  private static int bucketOf(long nanos) {
+    if (nanos < EXACT_BUCKETS) {
+      return (int) nanos;
+    }
+    // Keep the top SUB_BUCKET_BITS + 1 bits, of which the highest is always set
+    int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+    int top = (int) (nanos >>> shift);
+    return EXACT_BUCKETS + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+  }
+
+  private static double midpointOf(int bucket) {
+    if (bucket < EXACT_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - EXACT_BUCKETS) / SUB_BUCKETS + 1;
+    long top = SUB_BUCKETS + (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+    return (top << shift) + ((1L << shift) - 1L) / 2.0;
+  }
+
+}
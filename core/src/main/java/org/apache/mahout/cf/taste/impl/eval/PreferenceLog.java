@@ -0,0 +1,347 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.impl.common.FileLineIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericItem;
+import org.apache.mahout.cf.taste.model.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>All preferences in a log file, read once and held compactly in arrays: users and items are numbered
+ * in order of their IDs, and preferences are stored grouped by user and ordered by item, along with an index
+ * of them grouped by item and ordered by user. Any number of {@link FoldDataModel}s can then present
+ * different subsets of these preferences without copying them.</p>
+ *
+ * <p>Each line of the file holds a user ID, item ID, preference value and optionally a timestamp, separated by
+ * commas or tabs. If a user and item appear together more than once, the last line counts.</p>
+ */
+final class PreferenceLog {
+
+  private static final Logger log = LoggerFactory.getLogger(PreferenceLog.class);
+
+  private final String[] userIDs;
+  private final Item[] items;
+  private final Map<Object, Integer> userIndex;
+  private final Map<Object, Integer> itemIndex;
+  /** Start of each user's preferences; user u's are from userStarts[u] to userStarts[u+1] */
+  private final int[] userStarts;
+  private final int[] prefItems;
+  private final float[] prefValues;
+  private final long[] prefTimestamps;
+  /** Start of each item's entries in itemPrefs */
+  private final int[] itemStarts;
+  private final int[] itemPrefs;
+  private final boolean hasTimestamps;
+
+  PreferenceLog(File file) throws IOException {
+    Map<String, Integer> userNumbers = new FastMap<String, Integer>();
+    Map<String, Integer> itemNumbers = new FastMap<String, Integer>();
+    IntArray users = new IntArray();
+    IntArray itemsRead = new IntArray();
+    float[] values = new float[16];
+    long[] timestamps = new long[16];
+    int numPrefs = 0;
+    boolean allTimestamped = true;
+    char delimiter = 0;
+
+    FileLineIterator lines = new FileLineIterator(file, false);
+    try {
+      while (lines.hasNext()) {
+        String line = lines.next();
+        if (line.length() == 0) {
+          continue;
+        }
+        if (delimiter == 0) {
+          delimiter = line.indexOf(',') >= 0 ? ',' : '\t';
+        }
+        String[] tokens = split(line, delimiter);
+        if (tokens.length < 3 || tokens.length > 4 || tokens[2].length() == 0) {
+          throw new IllegalArgumentException("Bad line: " + line);
+        }
+        users.add(number(tokens[0], userNumbers));
+        itemsRead.add(number(tokens[1], itemNumbers));
+        if (numPrefs == values.length) {
+          values = Arrays.copyOf(values, numPrefs << 1);
+          timestamps = Arrays.copyOf(timestamps, numPrefs << 1);
+        }
+        values[numPrefs] = Float.parseFloat(tokens[2]);
+        if (tokens.length == 4) {
+          timestamps[numPrefs] = Long.parseLong(tokens[3]);
+        } else {
+          allTimestamped = false;
+        }
+        numPrefs++;
+        if (numPrefs % 1000000 == 0) {
+          log.info("Read {} preferences", numPrefs);
+        }
+      }
+    } finally {
+      lines.close();
+    }
+    hasTimestamps = allTimestamped && numPrefs > 0;
+
+    // Renumber users and items in order of their IDs
+    userIDs = sortedIDs(userNumbers);
+    int[] userRanks = ranks(userIDs, userNumbers);
+    String[] itemIDs = sortedIDs(itemNumbers);
+    int[] itemRanks = ranks(itemIDs, itemNumbers);
+    items = new Item[itemIDs.length];
+    userIndex = new FastMap<Object, Integer>(userIDs.length);
+    itemIndex = new FastMap<Object, Integer>(itemIDs.length);
+    for (int u = 0; u < userIDs.length; u++) {
+      userIndex.put(userIDs[u], u);
+    }
+    for (int i = 0; i < itemIDs.length; i++) {
+      items[i] = new GenericItem<String>(itemIDs[i]);
+      itemIndex.put(itemIDs[i], i);
+    }
+
+    // Group preferences by user with a counting sort, then order each user's by item and then position in
+    // the file, packed together so that a primitive sort does it; the last of duplicates comes last
+    int numUsers = userIDs.length;
+    userStarts = new int[numUsers + 1];
+    for (int p = 0; p < numPrefs; p++) {
+      userStarts[userRanks[users.get(p)] + 1]++;
+    }
+    for (int u = 0; u < numUsers; u++) {
+      userStarts[u + 1] += userStarts[u];
+    }
+    long[] keys = new long[numPrefs];
+    int[] nextByUser = Arrays.copyOf(userStarts, numUsers);
+    for (int p = 0; p < numPrefs; p++) {
+      keys[nextByUser[userRanks[users.get(p)]]++] = ((long) itemRanks[itemsRead.get(p)] << 32) | (long) p;
+    }
+
+    IntArray sortedItems = new IntArray();
+    float[] sortedValues = new float[numPrefs];
+    long[] sortedTimestamps = new long[numPrefs];
+    int size = 0;
+    int start = 0;
+    for (int u = 0; u < numUsers; u++) {
+      int end = userStarts[u + 1];
+      Arrays.sort(keys, start, end);
+      for (int i = start; i < end; i++) {
+        int item = (int) (keys[i] >>> 32);
+        if (i + 1 < end && (int) (keys[i + 1] >>> 32) == item) {
+          continue; // superseded by a later line
+        }
+        int p = (int) keys[i];
+        sortedItems.add(item);
+        sortedValues[size] = values[p];
+        sortedTimestamps[size] = timestamps[p];
+        size++;
+      }
+      start = end;
+      // Now the start of the next user's deduplicated preferences
+      userStarts[u + 1] = size;
+    }
+    prefItems = sortedItems.toArray();
+    prefValues = Arrays.copyOf(sortedValues, size);
+    prefTimestamps = Arrays.copyOf(sortedTimestamps, size);
+
+    // Index by item; visiting preferences in user order keeps each item's entries ordered by user
+    itemStarts = new int[items.length + 1];
+    for (int p = 0; p < size; p++) {
+      itemStarts[prefItems[p] + 1]++;
+    }
+    for (int i = 0; i < items.length; i++) {
+      itemStarts[i + 1] += itemStarts[i];
+    }
+    itemPrefs = new int[size];
+    int[] next = Arrays.copyOf(itemStarts, items.length);
+    for (int p = 0; p < size; p++) {
+      itemPrefs[next[prefItems[p]]++] = p;
+    }
+    log.info("Read {} preferences from {} users for {} items",
+             new Object[] {size, userIDs.length, items.length});
+  }
+
+  private static String[] split(String line, char delimiter) {
+    int numTokens = 1;
+    for (int i = 0; i < line.length(); i++) {
+      if (line.charAt(i) == delimiter) {
+        numTokens++;
+      }
+    }
+    String[] tokens = new String[numTokens];
+    int start = 0;
+    for (int t = 0; t < numTokens - 1; t++) {
+      int end = line.indexOf(delimiter, start);
+      tokens[t] = line.substring(start, end);
+      start = end + 1;
+    }
+    tokens[numTokens - 1] = line.substring(start);
+    return tokens;
+  }
+
+  private static int number(String id, Map<String, Integer> numbers) {
+    Integer number = numbers.get(id);
+    if (number == null) {
+      number = numbers.size();
+      numbers.put(id, number);
+    }
+    return number;
+  }
+
+  private static String[] sortedIDs(Map<String, Integer> numbers) {
+    String[] ids = numbers.keySet().toArray(new String[numbers.size()]);
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  /**
+   * @return for each number assigned while reading, the position of its ID in sorted order
+   */
+  private static int[] ranks(String[] sortedIDs, Map<String, Integer> numbers) {
+    int[] ranks = new int[sortedIDs.length];
+    for (int rank = 0; rank < sortedIDs.length; rank++) {
+      ranks[numbers.get(sortedIDs[rank])] = rank;
+    }
+    return ranks;
+  }
+
+  int getNumUsers() {
+    return userIDs.length;
+  }
+
+  int getNumItems() {
+    return items.length;
+  }
+
+  int getNumPreferences() {
+    return prefItems.length;
+  }
+
+  boolean hasTimestamps() {
+    return hasTimestamps;
+  }
+
+  String getUserID(int user) {
+    return userIDs[user];
+  }
+
+  Item getItem(int item) {
+    return items[item];
+  }
+
+  /**
+   * @return number of the user with this ID, or -1 if there is none
+   */
+  int userIndexOf(Object userID) {
+    Integer index = userIndex.get(userID);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * @return number of the item with this ID, or -1 if there is none
+   */
+  int itemIndexOf(Object itemID) {
+    Integer index = itemIndex.get(itemID);
+    return index == null ? -1 : index;
+  }
+
+  int getUserStart(int user) {
+    return userStarts[user];
+  }
+
+  int getUserEnd(int user) {
+    return userStarts[user + 1];
+  }
+
+  /**
+   * @return the preference of the given user for the given item, or -1 if there is none
+   */
+  int findPreference(int user, int item) {
+    int found = Arrays.binarySearch(prefItems, userStarts[user], userStarts[user + 1], item);
+    return found < 0 ? -1 : found;
+  }
+
+  int getItemStart(int item) {
+    return itemStarts[item];
+  }
+
+  int getItemEnd(int item) {
+    return itemStarts[item + 1];
+  }
+
+  /**
+   * @param i position in the index by item, between {@link #getItemStart(int)} and {@link #getItemEnd(int)}
+   * @return the preference at that position
+   */
+  int getItemPreference(int i) {
+    return itemPrefs[i];
+  }
+
+  int getPreferenceItem(int pref) {
+    return prefItems[pref];
+  }
+
+  /**
+   * @return user of the given preference, found by binary search
+   */
+  int getPreferenceUser(int pref) {
+    // Every user has a preference, so starts are distinct
+    int found = Arrays.binarySearch(userStarts, pref);
+    return found < 0 ? -found - 2 : found;
+  }
+
+  float getPreferenceValue(int pref) {
+    return prefValues[pref];
+  }
+
+  long getPreferenceTimestamp(int pref) {
+    return prefTimestamps[pref];
+  }
+
+  /**
+   * Selects some of a {@link PreferenceLog}'s preferences.
+   */
+  interface Filter {
+    boolean accept(int pref);
+  }
+
+  private static final class IntArray {
+
+    private int[] values = new int[16];
+    private int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size << 1);
+      }
+      values[size++] = value;
+    }
+
+    int get(int index) {
+      return values[index];
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+
+}
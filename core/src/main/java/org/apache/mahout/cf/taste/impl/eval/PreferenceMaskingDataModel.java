@@ -0,0 +1,317 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A {@link DataModel} which, for the calling thread only, hides some of one {@link User}'s preferences in
+ * another {@link DataModel}. This lets {@link GenericRecommenderIRStatsEvaluator} evaluate users one after
+ * another, or several at once on different threads, against one model and one recommender, instead of
+ * building both again for every user.</p>
+ *
+ * <p>This is only equivalent to rebuilding when the recommender reads the evaluated user's data from the model
+ * as it recommends. Anything it computed or cached beforehand still reflects the hidden preferences.</p>
+ */
+final class PreferenceMaskingDataModel implements DataModel {
+
+  private final DataModel delegate;
+  private final ThreadLocal<Mask> masks;
+
+  PreferenceMaskingDataModel(DataModel delegate) {
+    this.delegate = delegate;
+    this.masks = new ThreadLocal<Mask>();
+  }
+
+  /**
+   * Hides the given user's preferences for the given items from the calling thread, until {@link #unmask()}.
+   */
+  void mask(User user, Collection<Item> maskedItems) {
+    FastSet<Object> maskedItemIDs = new FastSet<Object>(maskedItems.size());
+    for (Item item : maskedItems) {
+      maskedItemIDs.add(item.getID());
+    }
+    MaskedUser maskedUser = new MaskedUser(user, maskedItemIDs);
+    masks.set(new Mask(user, maskedUser.prefs.length == 0 ? null : maskedUser, maskedItemIDs));
+  }
+
+  void unmask() {
+    masks.remove();
+  }
+
+  @Override
+  public Iterable<? extends User> getUsers() throws TasteException {
+    final Mask mask = masks.get();
+    final Iterable<? extends User> users = delegate.getUsers();
+    if (mask == null) {
+      return users;
+    }
+    return new Iterable<User>() {
+      @Override
+      public Iterator<User> iterator() {
+        return new MaskingIterator(users.iterator(), mask);
+      }
+    };
+  }
+
+  @Override
+  public User getUser(Object id) throws TasteException {
+    Mask mask = masks.get();
+    if (mask != null && mask.isMaskedUser(id)) {
+      if (mask.maskedUser == null) {
+        throw new NoSuchUserException();
+      }
+      return mask.maskedUser;
+    }
+    return delegate.getUser(id);
+  }
+
+  @Override
+  public Iterable<? extends Item> getItems() throws TasteException {
+    return delegate.getItems();
+  }
+
+  @Override
+  public Item getItem(Object id) throws TasteException {
+    return delegate.getItem(id);
+  }
+
+  @Override
+  public Iterable<? extends Preference> getPreferencesForItem(Object itemID) throws TasteException {
+    return Arrays.asList(getPreferencesForItemAsArray(itemID));
+  }
+
+  @Override
+  public Preference[] getPreferencesForItemAsArray(Object itemID) throws TasteException {
+    Preference[] prefs = delegate.getPreferencesForItemAsArray(itemID);
+    Mask mask = masks.get();
+    if (mask == null || !mask.maskedItemIDs.contains(itemID)) {
+      return prefs;
+    }
+    List<Preference> remaining = new ArrayList<Preference>(prefs.length);
+    for (Preference pref : prefs) {
+      User user = pref.getUser();
+      if (user == null || !mask.isMaskedUser(user.getID())) {
+        remaining.add(pref);
+      }
+    }
+    return remaining.toArray(new Preference[remaining.size()]);
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return delegate.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return delegate.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(Object... itemIDs) throws TasteException {
+    int count = delegate.getNumUsersWithPreferenceFor(itemIDs);
+    Mask mask = masks.get();
+    if (mask != null) {
+      boolean hasAll = true;
+      boolean anyMasked = false;
+      for (Object itemID : itemIDs) {
+        hasAll &= mask.user.getPreferenceFor(itemID) != null;
+        anyMasked |= mask.maskedItemIDs.contains(itemID);
+      }
+      if (hasAll && anyMasked) {
+        count--;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void setPreference(Object userID, Object itemID, double value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void removePreference(Object userID, Object itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public String toString() {
+    return "PreferenceMaskingDataModel[dataModel:" + delegate + ']';
+  }
+
+  private static final class Mask {
+
+    private final User user;
+    private final User maskedUser;
+    private final FastSet<Object> maskedItemIDs;
+
+    private Mask(User user, User maskedUser, FastSet<Object> maskedItemIDs) {
+      this.user = user;
+      this.maskedUser = maskedUser;
+      this.maskedItemIDs = maskedItemIDs;
+    }
+
+    private boolean isMaskedUser(Object id) {
+      return user.getID().equals(id);
+    }
+  }
+
+  /**
+   * A {@link User} without its masked preferences, but otherwise like the original, including the type of its
+   * ID.
+   */
+  private static final class MaskedUser implements User {
+
+    private final User user;
+    private final Map<Object, Preference> data;
+    private final Preference[] prefs;
+
+    private MaskedUser(User user, FastSet<Object> maskedItemIDs) {
+      this.user = user;
+      data = new FastMap<Object, Preference>();
+      List<Preference> remainingPrefs = new ArrayList<Preference>();
+      for (Preference pref : user.getPreferencesAsArray()) {
+        Object itemID = pref.getItem().getID();
+        if (!maskedItemIDs.contains(itemID)) {
+          Preference remainingPref = new GenericPreference(this, pref.getItem(), pref.getValue());
+          remainingPrefs.add(remainingPref);
+          data.put(itemID, remainingPref);
+        }
+      }
+      prefs = remainingPrefs.toArray(new Preference[remainingPrefs.size()]);
+    }
+
+    @Override
+    public Object getID() {
+      return user.getID();
+    }
+
+    @Override
+    public Preference getPreferenceFor(Object itemID) {
+      return data.get(itemID);
+    }
+
+    @Override
+    public Iterable<Preference> getPreferences() {
+      return Arrays.asList(prefs);
+    }
+
+    @Override
+    public Preference[] getPreferencesAsArray() {
+      return prefs;
+    }
+
+    @Override
+    public int compareTo(User other) {
+      return user.compareTo(other);
+    }
+
+    @Override
+    public int hashCode() {
+      return user.getID().hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof User && ((User) obj).getID().equals(user.getID());
+    }
+
+    @Override
+    public String toString() {
+      return "User[id:" + user.getID() + ']';
+    }
+  }
+
+  /**
+   * Substitutes the masked {@link User}, or skips it if it has no preferences left.
+   */
+  private static final class MaskingIterator implements Iterator<User> {
+
+    private final Iterator<? extends User> delegate;
+    private final Mask mask;
+    private User next;
+
+    private MaskingIterator(Iterator<? extends User> delegate, Mask mask) {
+      this.delegate = delegate;
+      this.mask = mask;
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (next == null && delegate.hasNext()) {
+        User user = delegate.next();
+        next = mask.isMaskedUser(user.getID()) ? mask.maskedUser : user;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public User next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      User result = next;
+      advance();
+      return result;
+    }
+
+    /**
+     * @throws UnsupportedOperationException
+     */
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
@@ -17,18 +17,8 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
-import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.common.NoSuchUserException;
-import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.model.Preference;
-import org.apache.mahout.cf.taste.model.User;
-import org.apache.mahout.cf.taste.recommender.Recommender;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.Collection;
-import java.util.Map;
 
 /**
  * <p>A {@link org.apache.mahout.cf.taste.eval.RecommenderEvaluator} which computes the "root mean squared" difference
@@ -37,30 +27,14 @@ import java.util.Map;
  */
 public final class RMSRecommenderEvaluator extends AbstractDifferenceRecommenderEvaluator {
 
-  private static final Logger log = LoggerFactory.getLogger(RMSRecommenderEvaluator.class);
+  @Override
+  void processOneEstimate(double estimatedPreference, Preference realPref, RunningAverage average) {
+    double diff = realPref.getValue() - estimatedPreference;
+    average.addDatum(diff * diff);
+  }
 
   @Override
-  double getEvaluation(Map<User, Collection<Preference>> testUserPrefs,
-                       Recommender recommender)
-          throws TasteException {
-    RunningAverage average = new FullRunningAverage();
-    for (Map.Entry<User, Collection<Preference>> entry : testUserPrefs.entrySet()) {
-      for (Preference realPref : entry.getValue()) {
-        User testUser = entry.getKey();
-        try {
-          double estimatedPreference =
-                  recommender.estimatePreference(testUser.getID(), realPref.getItem().getID());
-          if (!Double.isNaN(estimatedPreference)) {
-            double diff = realPref.getValue() - estimatedPreference;
-            average.addDatum(diff * diff);
-          }
-        } catch (NoSuchUserException nsee) {
-          // It's possible that an item exists in the test data but not training data in which case
-          // NSEE will be thrown. Just ignore it and move on.
-          log.info("Element exists in test data but not training data: {}", testUser.getID(), nsee);
-        }
-      }
-    }
+  double computeFinalEvaluation(RunningAverage average) {
     return Math.sqrt(average.getAverage());
   }
 
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Accuracy and latency of a {@link org.apache.mahout.cf.taste.recommender.Recommender} as measured by
+ * {@link StreamingRecommenderEvaluator}, for one fold or for all folds together. Errors and latencies of
+ * all folds are pooled, rather than averaged per fold.</p>
+ */
+public final class StreamingEvaluationResult {
+
+  private final String description;
+  private final long numEstimates;
+  private final long numUnestimated;
+  private final double sumSquaredError;
+  private final double sumAbsoluteError;
+  private final int numPrecision;
+  private final double sumPrecision;
+  private final int numRecall;
+  private final double sumRecall;
+  private final LatencyHistogram estimateLatencies;
+  private final LatencyHistogram recommendLatencies;
+  private final List<StreamingEvaluationResult> foldResults;
+
+  StreamingEvaluationResult(String description,
+                            long numEstimates,
+                            long numUnestimated,
+                            double sumSquaredError,
+                            double sumAbsoluteError,
+                            int numPrecision,
+                            double sumPrecision,
+                            int numRecall,
+                            double sumRecall,
+                            LatencyHistogram estimateLatencies,
+                            LatencyHistogram recommendLatencies,
+                            List<StreamingEvaluationResult> foldResults) {
+    this.description = description;
+    this.numEstimates = numEstimates;
+    this.numUnestimated = numUnestimated;
+    this.sumSquaredError = sumSquaredError;
+    this.sumAbsoluteError = sumAbsoluteError;
+    this.numPrecision = numPrecision;
+    this.sumPrecision = sumPrecision;
+    this.numRecall = numRecall;
+    this.sumRecall = sumRecall;
+    this.estimateLatencies = estimateLatencies;
+    this.recommendLatencies = recommendLatencies;
+    this.foldResults = foldResults;
+  }
+
+  /**
+   * Pools the results of several folds.
+   */
+  static StreamingEvaluationResult merge(String description, List<StreamingEvaluationResult> foldResults) {
+    long numEstimates = 0L;
+    long numUnestimated = 0L;
+    double sumSquaredError = 0.0;
+    double sumAbsoluteError = 0.0;
+    int numPrecision = 0;
+    double sumPrecision = 0.0;
+    int numRecall = 0;
+    double sumRecall = 0.0;
+    LatencyHistogram estimateLatencies = new LatencyHistogram();
+    LatencyHistogram recommendLatencies = new LatencyHistogram();
+    for (StreamingEvaluationResult result : foldResults) {
+      numEstimates += result.numEstimates;
+      numUnestimated += result.numUnestimated;
+      sumSquaredError += result.sumSquaredError;
+      sumAbsoluteError += result.sumAbsoluteError;
+      numPrecision += result.numPrecision;
+      sumPrecision += result.sumPrecision;
+      numRecall += result.numRecall;
+      sumRecall += result.sumRecall;
+      estimateLatencies.addAll(result.estimateLatencies);
+      recommendLatencies.addAll(result.recommendLatencies);
+    }
+    return new StreamingEvaluationResult(description, numEstimates, numUnestimated, sumSquaredError,
+        sumAbsoluteError, numPrecision, sumPrecision, numRecall, sumRecall, estimateLatencies, recommendLatencies,
+        Collections.unmodifiableList(foldResults));
+  }
+
+  /**
+   * @return root mean squared difference between estimated and actual preferences
+   */
+  public double getRMSE() {
+    return numEstimates == 0L ? Double.NaN : Math.sqrt(sumSquaredError / numEstimates);
+  }
+
+  /**
+   * @return mean absolute difference between estimated and actual preferences
+   */
+  public double getMeanAbsoluteError() {
+    return numEstimates == 0L ? Double.NaN : sumAbsoluteError / numEstimates;
+  }
+
+  /**
+   * @return average over users of the fraction of recommended items which were relevant test items
+   */
+  public double getPrecision() {
+    return numPrecision == 0 ? Double.NaN : sumPrecision / numPrecision;
+  }
+
+  /**
+   * @return average over users of the fraction of relevant test items which were recommended
+   */
+  public double getRecall() {
+    return numRecall == 0 ? Double.NaN : sumRecall / numRecall;
+  }
+
+  /**
+   * @return number of test preferences which the recommender could estimate
+   */
+  public long getNumEstimates() {
+    return numEstimates;
+  }
+
+  /**
+   * @return number of test preferences which the recommender could not estimate
+   */
+  public long getNumUnestimated() {
+    return numUnestimated;
+  }
+
+  /**
+   * @param percentile between 0 (exclusive) and 100 (inclusive)
+   * @return time within which that percentage of preference estimates completed, in milliseconds, to within
+   *  about 1%
+   */
+  public double getEstimateLatencyMS(double percentile) {
+    return estimateLatencies.getPercentileMS(percentile);
+  }
+
+  /**
+   * @param percentile between 0 (exclusive) and 100 (inclusive)
+   * @return time within which that percentage of recommendation requests completed, in milliseconds, to
+   *  within about 1%
+   */
+  public double getRecommendLatencyMS(double percentile) {
+    return recommendLatencies.getPercentileMS(percentile);
+  }
+
+  /**
+   * @return results of each fold, if this pools several folds, or else an empty list
+   */
+  public List<StreamingEvaluationResult> getFoldResults() {
+    return foldResults;
+  }
+
+  @Override
+  public String toString() {
+    return description + "[RMSE:" + getRMSE() + ",MAE:" + getMeanAbsoluteError() +
+        ",precision:" + getPrecision() + ",recall:" + getRecall() +
+        ",estimates:" + numEstimates + ",unestimated:" + numUnestimated +
+        ",estimate ms p50/p90/p99:" + latencies(estimateLatencies) +
+        ",recommend ms p50/p90/p99:" + latencies(recommendLatencies) + ']';
+  }
+
+  private static String latencies(LatencyHistogram histogram) {
+    return histogram.getPercentileMS(50.0) + "/" + histogram.getPercentileMS(90.0) + '/' +
+        histogram.getPercentileMS(99.0);
+  }
+
+}
@@ -0,0 +1,370 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.impl.common.FutureUtils;
+import org.apache.mahout.cf.taste.impl.common.RandomUtils;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Evaluates a {@link Recommender} against a log of preferences, split into several folds, each of which
+ * holds out some preferences as test data and trains on others:</p>
+ *
+ * <ul>
+ *  <li>{@link #evaluateKFold(RecommenderBuilder, int)} assigns each preference to one of <code>k</code> folds at
+ *   random, and for each fold, trains on the others</li>
+ *  <li>{@link #evaluateTimeSplit(RecommenderBuilder, long...)} trains on preferences before each of several
+ *   cutoff times, and tests on those from then until the next cutoff</li>
+ * </ul>
+ *
+ * <p>The log is read once, when this is created, into a compact form which all folds share; see
+ * {@link PreferenceLog}. Each line holds a user ID, item ID, preference value and, for time splits, a
+ * timestamp, separated by commas or tabs.</p>
+ *
+ * <p>For each fold, every test preference is estimated, and every user with relevant test preferences (see
+ * {@link #setRelevanceThreshold(double)}) is recommended {@link #setAt(int)} items. The result reports RMSE,
+ * mean absolute error, precision and recall, along with percentiles of the time taken by each estimate and
+ * recommendation. Latencies are counted in a fixed-size histogram, so percentiles are within about 1%.
+ * Folds are evaluated concurrently, on {@link #setNumThreads(int)} threads; note that latencies then reflect
+ * contention between folds.</p>
+ */
+public final class StreamingRecommenderEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(StreamingRecommenderEvaluator.class);
+
+  private final PreferenceLog preferenceLog;
+  private final Random random;
+  private int numThreads;
+  private int at;
+  private double relevanceThreshold;
+
+  /**
+   * @param preferenceFile log of preferences to read
+   * @throws IOException if the file can't be read
+   */
+  public StreamingRecommenderEvaluator(File preferenceFile) throws IOException {
+    if (preferenceFile == null) {
+      throw new IllegalArgumentException("preferenceFile is null");
+    }
+    this.preferenceLog = new PreferenceLog(preferenceFile);
+    this.random = RandomUtils.getRandom();
+    this.numThreads = Runtime.getRuntime().availableProcessors();
+    this.at = 10;
+    this.relevanceThreshold = Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * <p>Each fold being evaluated keeps the training preferences of the users and items its
+   * {@link Recommender} has asked about, until the fold is done. That can approach two
+   * {@link org.apache.mahout.cf.taste.model.Preference} objects, about 80 bytes, per training preference, so
+   * memory use grows with the number of threads.</p>
+   *
+   * @param numThreads number of folds to evaluate at once; defaults to the number of processors
+   */
+  public void setNumThreads(int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * @param at number of items to recommend to each user when computing precision and recall; defaults to 10
+   */
+  public void setAt(int at) {
+    if (at < 1) {
+      throw new IllegalArgumentException("at must be at least 1");
+    }
+    this.at = at;
+  }
+
+  /**
+   * @param relevanceThreshold test preferences with at least this value are considered relevant when
+   *  computing precision and recall; by default all are
+   */
+  public void setRelevanceThreshold(double relevanceThreshold) {
+    if (Double.isNaN(relevanceThreshold)) {
+      throw new IllegalArgumentException("relevanceThreshold is NaN");
+    }
+    this.relevanceThreshold = relevanceThreshold;
+  }
+
+  /**
+   * @param recommenderBuilder builds the {@link Recommender} to evaluate on each fold's training data
+   * @param numFolds number of folds, between 2 and 127
+   * @return pooled results, including the result of each fold
+   * @throws TasteException if an error occurs while building or querying a {@link Recommender}
+   */
+  public StreamingEvaluationResult evaluateKFold(RecommenderBuilder recommenderBuilder, int numFolds)
+      throws TasteException {
+    if (recommenderBuilder == null) {
+      throw new IllegalArgumentException("recommenderBuilder is null");
+    }
+    if (numFolds < 2 || numFolds > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid numFolds: " + numFolds);
+    }
+    final byte[] folds = new byte[preferenceLog.getNumPreferences()];
+    for (int p = 0; p < folds.length; p++) {
+      folds[p] = (byte) random.nextInt(numFolds);
+    }
+    List<FoldEvaluation> evaluations = new ArrayList<FoldEvaluation>(numFolds);
+    for (int f = 0; f < numFolds; f++) {
+      final byte fold = (byte) f;
+      evaluations.add(new FoldEvaluation("fold " + (f + 1) + '/' + numFolds, recommenderBuilder,
+          new PreferenceLog.Filter() {
+            @Override
+            public boolean accept(int pref) {
+              return folds[pref] != fold;
+            }
+          },
+          new PreferenceLog.Filter() {
+            @Override
+            public boolean accept(int pref) {
+              return folds[pref] == fold;
+            }
+          }));
+    }
+    return evaluate(numFolds + "-fold", evaluations);
+  }
+
+  /**
+   * @param recommenderBuilder builds the {@link Recommender} to evaluate on each fold's training data
+   * @param cutoffs increasing timestamps; for each, a fold trains on earlier preferences, and tests on those
+   *  from the cutoff until the next one, or to the end for the last
+   * @return pooled results, including the result of each fold
+   * @throws TasteException if an error occurs while building or querying a {@link Recommender}
+   */
+  public StreamingEvaluationResult evaluateTimeSplit(RecommenderBuilder recommenderBuilder, long... cutoffs)
+      throws TasteException {
+    if (recommenderBuilder == null) {
+      throw new IllegalArgumentException("recommenderBuilder is null");
+    }
+    if (cutoffs == null || cutoffs.length == 0) {
+      throw new IllegalArgumentException("No cutoffs");
+    }
+    for (int i = 1; i < cutoffs.length; i++) {
+      if (cutoffs[i] <= cutoffs[i - 1]) {
+        throw new IllegalArgumentException("Cutoffs are not increasing");
+      }
+    }
+    if (!preferenceLog.hasTimestamps()) {
+      throw new IllegalArgumentException("Not all preferences have a timestamp");
+    }
+    List<FoldEvaluation> evaluations = new ArrayList<FoldEvaluation>(cutoffs.length);
+    for (int i = 0; i < cutoffs.length; i++) {
+      final long cutoff = cutoffs[i];
+      final long end = i + 1 < cutoffs.length ? cutoffs[i + 1] : Long.MAX_VALUE;
+      evaluations.add(new FoldEvaluation("split at " + cutoff, recommenderBuilder,
+          new PreferenceLog.Filter() {
+            @Override
+            public boolean accept(int pref) {
+              return preferenceLog.getPreferenceTimestamp(pref) < cutoff;
+            }
+          },
+          new PreferenceLog.Filter() {
+            @Override
+            public boolean accept(int pref) {
+              long timestamp = preferenceLog.getPreferenceTimestamp(pref);
+              return timestamp >= cutoff && timestamp < end;
+            }
+          }));
+    }
+    return evaluate("time split", evaluations);
+  }
+
+  private StreamingEvaluationResult evaluate(String description, Collection<FoldEvaluation> evaluations)
+      throws TasteException {
+    int numTestUsers = 0;
+    for (FoldEvaluation evaluation : evaluations) {
+      numTestUsers += evaluation.countTestUsers();
+    }
+    log.info("Beginning {} evaluation of {} test users in {} folds",
+             new Object[] {description, numTestUsers, evaluations.size()});
+    EvaluationProgress progress = new EvaluationProgress(log, numTestUsers);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<StreamingEvaluationResult>> futures =
+          new ArrayList<Future<StreamingEvaluationResult>>(evaluations.size());
+      for (FoldEvaluation evaluation : evaluations) {
+        evaluation.progress = progress;
+        futures.add(executor.submit(evaluation));
+      }
+      List<StreamingEvaluationResult> foldResults = new ArrayList<StreamingEvaluationResult>(futures.size());
+      for (Future<StreamingEvaluationResult> future : futures) {
+        foldResults.add(FutureUtils.get(future));
+      }
+      progress.logProgress();
+      StreamingEvaluationResult result = StreamingEvaluationResult.merge(description, foldResults);
+      log.info("Evaluation result: {}", result);
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Builds a {@link Recommender} on one fold's training preferences, and evaluates it on its test preferences.
+   */
+  private final class FoldEvaluation implements Callable<StreamingEvaluationResult> {
+
+    private final String description;
+    private final RecommenderBuilder recommenderBuilder;
+    private final PreferenceLog.Filter training;
+    private final PreferenceLog.Filter test;
+    private EvaluationProgress progress;
+
+    private FoldEvaluation(String description,
+                           RecommenderBuilder recommenderBuilder,
+                           PreferenceLog.Filter training,
+                           PreferenceLog.Filter test) {
+      this.description = description;
+      this.recommenderBuilder = recommenderBuilder;
+      this.training = training;
+      this.test = test;
+    }
+
+    private int countTestUsers() {
+      int count = 0;
+      for (int u = 0; u < preferenceLog.getNumUsers(); u++) {
+        for (int p = preferenceLog.getUserStart(u); p < preferenceLog.getUserEnd(u); p++) {
+          if (test.accept(p)) {
+            count++;
+            break;
+          }
+        }
+      }
+      return count;
+    }
+
+    @Override
+    public StreamingEvaluationResult call() throws TasteException {
+      DataModel trainingModel = new FoldDataModel(preferenceLog, training);
+      Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+
+      long numEstimates = 0L;
+      long numUnestimated = 0L;
+      double sumSquaredError = 0.0;
+      double sumAbsoluteError = 0.0;
+      int numPrecision = 0;
+      double sumPrecision = 0.0;
+      int numRecall = 0;
+      double sumRecall = 0.0;
+      LatencyHistogram estimateLatencies = new LatencyHistogram();
+      LatencyHistogram recommendLatencies = new LatencyHistogram();
+
+      for (int u = 0; u < preferenceLog.getNumUsers(); u++) {
+        String userID = preferenceLog.getUserID(u);
+        Collection<Item> relevantItems = null;
+        int numTestPrefs = 0;
+        for (int p = preferenceLog.getUserStart(u); p < preferenceLog.getUserEnd(u); p++) {
+          if (!test.accept(p)) {
+            continue;
+          }
+          numTestPrefs++;
+          Item item = preferenceLog.getItem(preferenceLog.getPreferenceItem(p));
+          double actual = preferenceLog.getPreferenceValue(p);
+          if (actual >= relevanceThreshold) {
+            if (relevantItems == null) {
+              relevantItems = new FastSet<Item>();
+            }
+            relevantItems.add(item);
+          }
+          double estimate;
+          long start = System.nanoTime();
+          try {
+            estimate = recommender.estimatePreference(userID, item.getID());
+          } catch (NoSuchUserException nsue) {
+            estimate = Double.NaN;
+          } catch (NoSuchItemException nsie) {
+            estimate = Double.NaN;
+          }
+          estimateLatencies.add(System.nanoTime() - start);
+          if (Double.isNaN(estimate)) {
+            numUnestimated++;
+          } else {
+            double diff = actual - estimate;
+            numEstimates++;
+            sumSquaredError += diff * diff;
+            sumAbsoluteError += Math.abs(diff);
+          }
+        }
+        if (numTestPrefs == 0) {
+          continue;
+        }
+
+        if (relevantItems != null && isTrainingUser(trainingModel, userID)) {
+          long start = System.nanoTime();
+          List<RecommendedItem> recommendedItems = recommender.recommend(userID, at);
+          recommendLatencies.add(System.nanoTime() - start);
+          int intersectionSize = 0;
+          for (RecommendedItem recommendedItem : recommendedItems) {
+            if (relevantItems.contains(recommendedItem.getItem())) {
+              intersectionSize++;
+            }
+          }
+          if (!recommendedItems.isEmpty()) {
+            numPrecision++;
+            sumPrecision += (double) intersectionSize / (double) recommendedItems.size();
+          }
+          numRecall++;
+          sumRecall += (double) intersectionSize / (double) relevantItems.size();
+        }
+        progress.userDone(numTestPrefs);
+      }
+
+      StreamingEvaluationResult result = new StreamingEvaluationResult(description, numEstimates, numUnestimated,
+          sumSquaredError, sumAbsoluteError, numPrecision, sumPrecision, numRecall, sumRecall,
+          estimateLatencies, recommendLatencies,
+          Collections.<StreamingEvaluationResult>emptyList());
+      log.info("Evaluated {}: {}", description, result);
+      return result;
+    }
+  }
+
+  private static boolean isTrainingUser(DataModel trainingModel, Object userID) throws TasteException {
+    try {
+      trainingModel.getUser(userID);
+      return true;
+    } catch (NoSuchUserException nsue) {
+      return false;
+    }
+  }
+
+}
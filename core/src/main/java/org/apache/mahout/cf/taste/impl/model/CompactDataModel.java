@@ -0,0 +1,391 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.ArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A {@link DataModel} like {@link GenericDataModel}, which holds all data in memory, but which
+ * is designed to use as little memory as possible. User and item IDs are held as <code>long</code>s,
+ * each user's preferences are held as parallel sorted <code>long[]</code> / <code>float[]</code> arrays
+ * (see {@link CompactUser} and {@link GenericUserPreferenceArray}), and likewise for each item
+ * (see {@link GenericItemPreferenceArray}). Users and items are found by binary search over sorted
+ * ID arrays rather than through a {@link java.util.Map}.</p>
+ *
+ * <p>No {@link Preference} objects are retained; they are created on demand when requested through
+ * the {@link DataModel} or {@link User} API. Callers that can work on the primitive representation
+ * directly should use {@link #getCompactUser(long)} and {@link #getPreferenceArrayForItem(long)}.</p>
+ *
+ * <p>All user and item IDs must be {@link Number}s, or {@link String}s which can be parsed as a
+ * <code>long</code>. IDs are exposed through the API as {@link Long}s.</p>
+ *
+ * <p>Like {@link GenericDataModel}, this model is effectively immutable.</p>
+ */
+public final class CompactDataModel implements DataModel, Serializable {
+
+  private static final Preference[] NO_PREFS_ARRAY = new Preference[0];
+
+  private final long[] userIDs;
+  private final CompactUser[] users;
+  private final long[] itemIDs;
+  private final Item[] items;
+  private final GenericItemPreferenceArray[] prefsForItems;
+
+  /**
+   * <p>Creates a new {@link CompactDataModel} from the given {@link User}s (and their preferences).</p>
+   *
+   * @param users {@link User}s to include in this {@link CompactDataModel}
+   * @throws IllegalArgumentException if any user or item ID can't be converted to a <code>long</code>
+   */
+  public CompactDataModel(Iterable<? extends User> users) {
+    if (users == null) {
+      throw new IllegalArgumentException("users is null");
+    }
+
+    List<CompactUser> usersList = new ArrayList<CompactUser>();
+    FastByIDMap<Item> itemMap = new FastByIDMap<Item>();
+    for (User user : users) {
+      CompactUser compactUser;
+      if (user instanceof CompactUser) {
+        compactUser = (CompactUser) user;
+      } else {
+        Preference[] prefs = user.getPreferencesAsArray();
+        int length = prefs.length;
+        long[] prefItemIDs = new long[length];
+        float[] prefValues = new float[length];
+        for (int i = 0; i < length; i++) {
+          Preference pref = prefs[i];
+          Item item = pref.getItem();
+          long itemID = toLongID(item.getID());
+          prefItemIDs[i] = itemID;
+          prefValues[i] = (float) pref.getValue();
+          if (!itemMap.containsKey(itemID)) {
+            itemMap.put(itemID, new GenericItem<Long>(itemID, item.isRecommendable()));
+          }
+        }
+        compactUser = new CompactUser(toLongID(user.getID()), new GenericUserPreferenceArray(prefItemIDs, prefValues));
+      }
+      usersList.add(compactUser);
+    }
+
+    // Stable sort, so that when a user ID appears twice, the later one comes second and wins below
+    Collections.sort(usersList);
+    int numUsers = usersList.size();
+    for (int i = numUsers - 2; i >= 0; i--) {
+      if (usersList.get(i).getUserID() == usersList.get(i + 1).getUserID()) {
+        usersList.remove(i);
+      }
+    }
+    numUsers = usersList.size();
+    this.users = usersList.toArray(new CompactUser[numUsers]);
+    this.userIDs = new long[numUsers];
+    for (int i = 0; i < numUsers; i++) {
+      userIDs[i] = this.users[i].getUserID();
+    }
+
+    // Items which arrived already inside CompactUsers haven't been seen yet
+    for (CompactUser user : this.users) {
+      for (long itemID : user.getPreferenceArray().getItemIDs()) {
+        if (!itemMap.containsKey(itemID)) {
+          itemMap.put(itemID, new GenericItem<Long>(itemID));
+        }
+      }
+    }
+    int numItems = itemMap.size();
+    this.itemIDs = new long[numItems];
+    int n = 0;
+    LongPrimitiveIterator it = itemMap.keySetIterator();
+    while (it.hasNext()) {
+      itemIDs[n++] = it.nextLong();
+    }
+    Arrays.sort(itemIDs);
+    this.items = new Item[numItems];
+    for (int i = 0; i < numItems; i++) {
+      items[i] = itemMap.get(itemIDs[i]);
+    }
+    linkPreferenceArrays();
+
+    // Invert into per-item arrays. Users are visited in order of ID, so each item's
+    // user IDs end up sorted without further work.
+    int[] counts = new int[numItems];
+    for (CompactUser user : this.users) {
+      for (long itemID : user.getPreferenceArray().getItemIDs()) {
+        counts[Arrays.binarySearch(itemIDs, itemID)]++;
+      }
+    }
+    this.prefsForItems = new GenericItemPreferenceArray[numItems];
+    for (int i = 0; i < numItems; i++) {
+      prefsForItems[i] = new GenericItemPreferenceArray(counts[i]);
+      prefsForItems[i].setItem(0, items[i]);
+    }
+    Arrays.fill(counts, 0);
+    for (CompactUser user : this.users) {
+      long userID = user.getUserID();
+      GenericUserPreferenceArray prefs = user.getPreferenceArray();
+      int length = prefs.length();
+      for (int j = 0; j < length; j++) {
+        int itemIndex = Arrays.binarySearch(itemIDs, prefs.getItemID(j));
+        int position = counts[itemIndex]++;
+        GenericItemPreferenceArray itemPrefs = prefsForItems[itemIndex];
+        itemPrefs.setUserID(position, userID);
+        itemPrefs.setValue(position, prefs.getValue(j));
+      }
+    }
+  }
+
+  /**
+   * Lets each user's preferences return this model's {@link Item}s, which are shared and keep
+   * {@link Item#isRecommendable()}, rather than new ones.
+   */
+  private void linkPreferenceArrays() {
+    for (CompactUser user : users) {
+      user.getPreferenceArray().setDataModel(this);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    linkPreferenceArrays();
+  }
+
+  /**
+   * <p>Creates a new {@link CompactDataModel} containing a compact copy of the data from another
+   * given {@link DataModel}.</p>
+   *
+   * @param dataModel {@link DataModel} to copy
+   * @throws TasteException if an error occurs while retrieving the other {@link DataModel}'s users
+   */
+  public CompactDataModel(DataModel dataModel) throws TasteException {
+    this(dataModel.getUsers());
+  }
+
+  /**
+   * @param id a user or item ID
+   * @return that ID as a <code>long</code>
+   * @throws IllegalArgumentException if the ID is <code>null</code> or can't be converted
+   */
+  public static long toLongID(Object id) {
+    if (id instanceof Number) {
+      return ((Number) id).longValue();
+    }
+    if (id == null) {
+      throw new IllegalArgumentException("id is null");
+    }
+    return Long.parseLong(id.toString());
+  }
+
+  @Override
+  public Iterable<? extends User> getUsers() {
+    return new ArrayIterator<CompactUser>(users);
+  }
+
+  /**
+   * @throws NoSuchUserException if there is no such {@link User}
+   */
+  @Override
+  public User getUser(Object id) throws NoSuchUserException {
+    long longID;
+    try {
+      longID = toLongID(id);
+    } catch (IllegalArgumentException iae) {
+      throw new NoSuchUserException();
+    }
+    CompactUser user = getCompactUser(longID);
+    if (user == null) {
+      throw new NoSuchUserException();
+    }
+    return user;
+  }
+
+  /**
+   * @param id user ID
+   * @return {@link CompactUser} with that ID, or <code>null</code> if there is none
+   */
+  public CompactUser getCompactUser(long id) {
+    int index = Arrays.binarySearch(userIDs, id);
+    return index < 0 ? null : users[index];
+  }
+
+  @Override
+  public Iterable<? extends Item> getItems() {
+    return new ArrayIterator<Item>(items);
+  }
+
+  /**
+   * @throws NoSuchItemException if there is no such {@link Item}
+   */
+  @Override
+  public Item getItem(Object id) throws NoSuchItemException {
+    int index = itemIndex(id);
+    if (index < 0) {
+      throw new NoSuchItemException();
+    }
+    return items[index];
+  }
+
+  @Override
+  public Iterable<? extends Preference> getPreferencesForItem(Object itemID) {
+    return new ArrayIterator<Preference>(getPreferencesForItemAsArray(itemID));
+  }
+
+  /**
+   * @return a newly created array of {@link Preference}s, ordered by user ID
+   */
+  @Override
+  public Preference[] getPreferencesForItemAsArray(Object itemID) {
+    int index = itemIndex(itemID);
+    if (index < 0) {
+      return NO_PREFS_ARRAY;
+    }
+    GenericItemPreferenceArray prefs = prefsForItems[index];
+    Item item = items[index];
+    int length = prefs.length();
+    Preference[] result = new Preference[length];
+    for (int i = 0; i < length; i++) {
+      CompactUser user = getCompactUser(prefs.getUserID(i));
+      result[i] = new GenericPreference(user, item, prefs.getValue(i));
+    }
+    return result;
+  }
+
+  /**
+   * @param itemID item ID
+   * @return all preferences for that item, sorted by user ID, or <code>null</code> if there is no such item
+   */
+  public GenericItemPreferenceArray getPreferenceArrayForItem(long itemID) {
+    int index = Arrays.binarySearch(itemIDs, itemID);
+    return index < 0 ? null : prefsForItems[index];
+  }
+
+  /**
+   * @param itemID item ID
+   * @return {@link Item} with that ID, or <code>null</code> if there is none
+   */
+  public Item getItemOrNull(long itemID) {
+    int index = Arrays.binarySearch(itemIDs, itemID);
+    return index < 0 ? null : items[index];
+  }
+
+  private int itemIndex(Object itemID) {
+    long longID;
+    try {
+      longID = toLongID(itemID);
+    } catch (IllegalArgumentException iae) {
+      return -1;
+    }
+    return Arrays.binarySearch(itemIDs, longID);
+  }
+
+  @Override
+  public int getNumItems() {
+    return items.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return users.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(Object... itemIDs) {
+    if (itemIDs == null) {
+      throw new IllegalArgumentException("itemIDs is null");
+    }
+    int length = itemIDs.length;
+    if (length == 0 || length > 2) {
+      throw new IllegalArgumentException("Illegal number of item IDs: " + length);
+    }
+    int index1 = itemIndex(itemIDs[0]);
+    if (index1 < 0) {
+      return 0;
+    }
+    if (length == 1) {
+      return prefsForItems[index1].length();
+    }
+    int index2 = itemIndex(itemIDs[1]);
+    if (index2 < 0) {
+      return 0;
+    }
+    // Both are sorted by user ID, so just count the intersection with a merge
+    long[] users1 = prefsForItems[index1].getUserIDs();
+    long[] users2 = prefsForItems[index2].getUserIDs();
+    int i = 0;
+    int j = 0;
+    int count = 0;
+    while (i < users1.length && j < users2.length) {
+      long user1 = users1[i];
+      long user2 = users2[j];
+      if (user1 < user2) {
+        i++;
+      } else if (user1 > user2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void setPreference(Object userID, Object itemID, double value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void removePreference(Object userID, Object itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public String toString() {
+    return "CompactDataModel[users:" + users.length + ",items:" + items.length + ']';
+  }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.impl.common.ArrayIterator;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.io.Serializable;
+
+/**
+ * <p>A {@link User} with a <code>long</code> ID whose preferences are stored in a
+ * {@link GenericUserPreferenceArray}, sorted by item ID. {@link Preference} objects are only
+ * created when requested through the {@link User} API; callers which can work on the primitive
+ * representation should use {@link #getPreferenceArray()} instead.</p>
+ */
+public final class CompactUser implements User, Serializable {
+
+  private final long id;
+  private final Long boxedID;
+  private final GenericUserPreferenceArray prefs;
+
+  /**
+   * @param id user ID
+   * @param prefs user's preferences; these will be sorted by item ID
+   */
+  public CompactUser(long id, GenericUserPreferenceArray prefs) {
+    if (prefs == null) {
+      throw new IllegalArgumentException("prefs is null");
+    }
+    this.id = id;
+    this.boxedID = id;
+    prefs.sortByItem();
+    prefs.setUser(0, this);
+    this.prefs = prefs;
+  }
+
+  /**
+   * @return user ID as a {@link Long}
+   */
+  @Override
+  public Long getID() {
+    return boxedID;
+  }
+
+  public long getUserID() {
+    return id;
+  }
+
+  /**
+   * @return underlying preferences, sorted by item ID
+   */
+  public GenericUserPreferenceArray getPreferenceArray() {
+    return prefs;
+  }
+
+  @Override
+  public Preference getPreferenceFor(Object itemID) {
+    long longItemID;
+    try {
+      longItemID = CompactDataModel.toLongID(itemID);
+    } catch (IllegalArgumentException iae) {
+      return null;
+    }
+    int index = prefs.indexOf(longItemID);
+    return index < 0 ? null : prefs.get(index);
+  }
+
+  @Override
+  public Iterable<Preference> getPreferences() {
+    return new ArrayIterator<Preference>(getPreferencesAsArray());
+  }
+
+  /**
+   * @return a newly created array of {@link Preference}s, ordered by item ID
+   */
+  @Override
+  public Preference[] getPreferencesAsArray() {
+    int length = prefs.length();
+    Preference[] result = new Preference[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = prefs.get(i);
+    }
+    return result;
+  }
+
+  @Override
+  public int hashCode() {
+    return boxedID.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj instanceof CompactUser) {
+      return ((CompactUser) obj).id == id;
+    }
+    return obj instanceof User && boxedID.equals(((User) obj).getID());
+  }
+
+  @Override
+  public String toString() {
+    return "User[id:" + id + ']';
+  }
+
+  @Override
+  public int compareTo(User o) {
+    long otherID = o instanceof CompactUser ? ((CompactUser) o).id : CompactDataModel.toLongID(o.getID());
+    return id < otherID ? -1 : id > otherID ? 1 : 0;
+  }
+
+}
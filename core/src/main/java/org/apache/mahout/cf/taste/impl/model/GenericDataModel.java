@@ -25,6 +25,8 @@ import org.apache.mahout.cf.taste.impl.common.ArrayIterator;
 import org.apache.mahout.cf.taste.impl.common.EmptyIterable;
 import org.apache.mahout.cf.taste.impl.common.FastMap;
 import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.impl.common.FutureUtils;
+import org.apache.mahout.cf.taste.impl.common.Pair;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Item;
 import org.apache.mahout.cf.taste.model.Preference;
@@ -38,6 +40,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>A simple {@link DataModel} which uses a given {@link List} of {@link User}s as
@@ -61,14 +67,38 @@ public final class GenericDataModel implements DataModel, Serializable {
    *
    * @param users {@link User}s to include in this {@link GenericDataModel}
    */
-  @SuppressWarnings("unchecked")
   public GenericDataModel(Iterable<? extends User> users) {
+    this(users, 1);
+  }
+
+  /**
+   * <p>Creates a new {@link GenericDataModel} from the given {@link User}s (and their preferences),
+   * using several threads to index and sort preferences by item.</p>
+   *
+   * @param users {@link User}s to include in this {@link GenericDataModel}
+   * @param numThreads number of threads to use
+   */
+  @SuppressWarnings("unchecked")
+  public GenericDataModel(Iterable<? extends User> users, int numThreads) {
     if (users == null) {
       throw new IllegalArgumentException("users is null");
     }
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
 
     this.userMap = new FastMap<Object, User>();
     this.itemMap = new FastMap<Object, Item>();
+    if (numThreads > 1) {
+      for (User user : users) {
+        userMap.put(user.getID(), user);
+      }
+      this.preferenceForItems = indexByItem(userMap.values(), itemMap, numThreads);
+      this.users = sortedUnmodifiableList(userMap.values());
+      this.items = sortedUnmodifiableList(itemMap.values());
+      return;
+    }
+
     // I'm abusing generics a little here since I want to use this (huge) map to hold Lists,
     // then arrays, and don't want to allocate two Maps at once here.
     Map<Object, Object> prefsForItems = new FastMap<Object, Object>();
@@ -88,13 +118,8 @@ public final class GenericDataModel implements DataModel, Serializable {
       }
     }
 
-    List<User> usersCopy = new ArrayList<User>(userMap.values());
-    Collections.sort(usersCopy);
-    this.users = Collections.unmodifiableList(usersCopy);
-
-    List<Item> itemsCopy = new ArrayList<Item>(itemMap.values());
-    Collections.sort(itemsCopy);
-    this.items = Collections.unmodifiableList(itemsCopy);
+    this.users = sortedUnmodifiableList(userMap.values());
+    this.items = sortedUnmodifiableList(itemMap.values());
 
     // Swap out lists for arrays here -- using the same Map. This is why the generics mess is worth it.
     for (Map.Entry<Object, Object> entry : prefsForItems.entrySet()) {
@@ -107,6 +132,58 @@ public final class GenericDataModel implements DataModel, Serializable {
     this.preferenceForItems = (Map<Object, Preference[]>) (Map<Object, ?>) prefsForItems;
   }
 
+  private static <T extends Comparable<? super T>> List<T> sortedUnmodifiableList(Collection<T> values) {
+    List<T> copy = new ArrayList<T>(values);
+    Collections.sort(copy);
+    return Collections.unmodifiableList(copy);
+  }
+
+  /**
+   * Builds the mapping from item IDs to preferences for the item, sorted by user, and fills in the map of
+   * items. Items are divided among threads by hash: preferences are first split into one bucket per thread in
+   * a single pass, then each thread indexes and sorts just its own bucket.
+   */
+  private static Map<Object, Preference[]> indexByItem(Collection<User> users,
+                                                       Map<Object, Item> itemMap,
+                                                       int numThreads) {
+    List<List<Preference>> buckets = new ArrayList<List<Preference>>(numThreads);
+    for (int partition = 0; partition < numThreads; partition++) {
+      buckets.add(new ArrayList<Preference>());
+    }
+    for (User user : users) {
+      for (Preference preference : user.getPreferencesAsArray()) {
+        int partition = (preference.getItem().getID().hashCode() & 0x7FFFFFFF) % numThreads;
+        buckets.get(partition).add(preference);
+      }
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Pair<Map<Object, Item>, Map<Object, Preference[]>>>> futures =
+          new ArrayList<Future<Pair<Map<Object, Item>, Map<Object, Preference[]>>>>(numThreads);
+      for (List<Preference> bucket : buckets) {
+        futures.add(executor.submit(new ItemPartitionIndexer(bucket)));
+      }
+      Map<Object, Preference[]> preferenceForItems = new FastMap<Object, Preference[]>();
+      for (Future<Pair<Map<Object, Item>, Map<Object, Preference[]>>> future : futures) {
+        Pair<Map<Object, Item>, Map<Object, Preference[]>> partial = getUninterruptibly(future);
+        itemMap.putAll(partial.getFirst());
+        preferenceForItems.putAll(partial.getSecond());
+      }
+      return preferenceForItems;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static <T> T getUninterruptibly(Future<T> future) {
+    try {
+      return FutureUtils.getUninterruptibly(future);
+    } catch (TasteException te) {
+      // Indexing throws no checked exceptions
+      throw new IllegalStateException(te);
+    }
+  }
+
   /**
    * <p>Creates a new {@link GenericDataModel} containing an immutable copy of the data from another
    * given {@link DataModel}.</p>
@@ -231,4 +308,39 @@ public final class GenericDataModel implements DataModel, Serializable {
     return "GenericDataModel[users:" + users + ']';
   }
 
+  private static final class ItemPartitionIndexer
+      implements Callable<Pair<Map<Object, Item>, Map<Object, Preference[]>>> {
+
+    private final List<Preference> prefs;
+
+    private ItemPartitionIndexer(List<Preference> prefs) {
+      this.prefs = prefs;
+    }
+
+    @Override
+    public Pair<Map<Object, Item>, Map<Object, Preference[]>> call() {
+      Map<Object, Item> items = new FastMap<Object, Item>();
+      Map<Object, List<Preference>> prefsForItems = new FastMap<Object, List<Preference>>();
+      for (Preference preference : prefs) {
+        Item item = preference.getItem();
+        Object itemID = item.getID();
+        items.put(itemID, item);
+        List<Preference> prefsForItem = prefsForItems.get(itemID);
+        if (prefsForItem == null) {
+          prefsForItem = new ArrayList<Preference>();
+          prefsForItems.put(itemID, prefsForItem);
+        }
+        prefsForItem.add(preference);
+      }
+      Map<Object, Preference[]> result = new FastMap<Object, Preference[]>(Math.max(1, prefsForItems.size()));
+      for (Map.Entry<Object, List<Preference>> entry : prefsForItems.entrySet()) {
+        List<Preference> list = entry.getValue();
+        Preference[] prefsAsArray = list.toArray(new Preference[list.size()]);
+        Arrays.sort(prefsAsArray, ByUserPreferenceComparator.getInstance());
+        result.put(entry.getKey(), prefsAsArray);
+      }
+      return new Pair<Map<Object, Item>, Map<Object, Preference[]>>(items, result);
+    }
+  }
+
 }
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * <p>Like {@link GenericUserPreferenceArray} but holds all preferences for one {@link Item}:
+ * user IDs as <code>long</code>s and values as <code>float</code>s in two parallel arrays.</p>
+ *
+ * <p>Since only user IDs are stored, this class cannot produce {@link User} objects by itself;
+ * {@link #getUser(int)} and {@link #get(int)} are not supported. A {@link org.apache.mahout.cf.taste.model.DataModel}
+ * like {@link CompactDataModel} resolves user IDs to {@link User}s when building {@link Preference}s.</p>
+ */
+public final class GenericItemPreferenceArray implements PreferenceArray, Serializable {
+
+  private Item item;
+  private final long[] userIDs;
+  private final float[] values;
+
+  public GenericItemPreferenceArray(int size) {
+    this(new long[size], new float[size]);
+  }
+
+  /**
+   * @param userIDs user IDs; the array is used directly, not copied
+   * @param values preference values; the array is used directly, not copied
+   */
+  public GenericItemPreferenceArray(long[] userIDs, float[] values) {
+    if (userIDs == null || values == null) {
+      throw new IllegalArgumentException("userIDs or values is null");
+    }
+    if (userIDs.length != values.length) {
+      throw new IllegalArgumentException("userIDs and values have different lengths");
+    }
+    this.userIDs = userIDs;
+    this.values = values;
+  }
+
+  @Override
+  public int length() {
+    return userIDs.length;
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public Preference get(int i) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void set(int i, Preference pref) {
+    setUser(i, pref.getUser());
+    values[i] = (float) pref.getValue();
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public User getUser(int i) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setUser(int i, User user) {
+    userIDs[i] = CompactDataModel.toLongID(user.getID());
+  }
+
+  /**
+   * @return the one {@link Item} whose preferences this array holds
+   * @throws IllegalStateException if the {@link Item} was never set
+   */
+  @Override
+  public Item getItem(int i) {
+    if (item == null) {
+      throw new IllegalStateException("Item was never set");
+    }
+    return item;
+  }
+
+  /**
+   * Sets the {@link Item} for all preferences in this array, since they all pertain to one {@link Item}.
+   */
+  @Override
+  public void setItem(int i, Item item) {
+    if (item == null) {
+      throw new IllegalArgumentException("item is null");
+    }
+    this.item = item;
+  }
+
+  public long getUserID(int i) {
+    return userIDs[i];
+  }
+
+  public void setUserID(int i, long userID) {
+    userIDs[i] = userID;
+  }
+
+  /**
+   * @return underlying user IDs; callers must not modify this array
+   */
+  public long[] getUserIDs() {
+    return userIDs;
+  }
+
+  @Override
+  public double getValue(int i) {
+    return values[i];
+  }
+
+  @Override
+  public void setValue(int i, double value) {
+    values[i] = (float) value;
+  }
+
+  /**
+   * @return underlying preference values; callers must not modify this array
+   */
+  public float[] getValues() {
+    return values;
+  }
+
+  /**
+   * @param userID user ID to search for
+   * @return index of the preference from that user, or a negative value if there is none. This
+   *  requires that the array was previously sorted with {@link #sortByUser()}.
+   */
+  public int indexOf(long userID) {
+    return Arrays.binarySearch(userIDs, userID);
+  }
+
+  /**
+   * Sorts preferences by user ID, ascending.
+   */
+  public void sortByUser() {
+    GenericUserPreferenceArray.sortByID(userIDs, values);
+  }
+
+  @Override
+  public String toString() {
+    return "GenericItemPreferenceArray[item:" + item + ",userIDs:" + Arrays.toString(userIDs) + ']';
+  }
+
+}
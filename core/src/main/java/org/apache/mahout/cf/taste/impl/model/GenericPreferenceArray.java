@@ -29,8 +29,6 @@ import java.io.Serializable;
  * The idea is to save allocating {@link Preference} objects themselves.
  * On a 64-bit virtual machine, this should save 12 bytes per element (the overhead of an
  * enclosing {@link Preference} object reference and object header).
- *
- * This is not used yet.
  */
 public final class GenericPreferenceArray implements PreferenceArray, Serializable {
 
@@ -44,6 +42,11 @@ public final class GenericPreferenceArray implements PreferenceArray, Serializab
     values = new double[size];
   }
 
+  @Override
+  public int length() {
+    return values.length;
+  }
+
   @Override
   public Preference get(int i) {
     return new GenericPreference(users[i], items[i], values[i]);
@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * <p>A {@link PreferenceArray} holding all preferences of one {@link User}. Item IDs are kept as
+ * <code>long</code>s and values as <code>float</code>s in two parallel arrays, so no {@link Preference}
+ * or {@link Item} objects are held at all. {@link Preference}s are created only when {@link #get(int)} is
+ * called; {@link Item}s are looked up in the {@link CompactDataModel} holding this array, if any.</p>
+ *
+ * <p>Once {@link #sortByItem()} has been called, preferences are ordered by item ID, which
+ * allows {@link #indexOf(long)} to use a binary search.</p>
+ */
+public final class GenericUserPreferenceArray implements PreferenceArray, Serializable {
+
+  private User user;
+  private transient CompactDataModel dataModel;
+  private final long[] itemIDs;
+  private final float[] values;
+
+  public GenericUserPreferenceArray(int size) {
+    this(new long[size], new float[size]);
+  }
+
+  /**
+   * @param itemIDs item IDs; the array is used directly, not copied
+   * @param values preference values; the array is used directly, not copied
+   */
+  public GenericUserPreferenceArray(long[] itemIDs, float[] values) {
+    if (itemIDs == null || values == null) {
+      throw new IllegalArgumentException("itemIDs or values is null");
+    }
+    if (itemIDs.length != values.length) {
+      throw new IllegalArgumentException("itemIDs and values have different lengths");
+    }
+    this.itemIDs = itemIDs;
+    this.values = values;
+  }
+
+  @Override
+  public int length() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public Preference get(int i) {
+    return new GenericPreference(getUser(i), getItem(i), values[i]);
+  }
+
+  @Override
+  public void set(int i, Preference pref) {
+    setItem(i, pref.getItem());
+    values[i] = (float) pref.getValue();
+  }
+
+  /**
+   * @return the one {@link User} whose preferences this array holds
+   * @throws IllegalStateException if the {@link User} was never set
+   */
+  @Override
+  public User getUser(int i) {
+    if (user == null) {
+      throw new IllegalStateException("User was never set");
+    }
+    return user;
+  }
+
+  /**
+   * Sets the {@link User} for all preferences in this array, since they all belong to one {@link User}.
+   */
+  @Override
+  public void setUser(int i, User user) {
+    if (user == null) {
+      throw new IllegalArgumentException("user is null");
+    }
+    this.user = user;
+  }
+
+  /**
+   * @return the {@link Item} for the item ID at this index from the {@link CompactDataModel} holding this
+   *  array, or a new {@link GenericItem} if there is none
+   */
+  @Override
+  public Item getItem(int i) {
+    long itemID = itemIDs[i];
+    CompactDataModel theDataModel = dataModel;
+    if (theDataModel != null) {
+      Item item = theDataModel.getItemOrNull(itemID);
+      if (item != null) {
+        return item;
+      }
+    }
+    return new GenericItem<Long>(itemID);
+  }
+
+  /**
+   * Sets the {@link CompactDataModel} in which {@link #getItem(int)} looks up {@link Item}s.
+   */
+  void setDataModel(CompactDataModel dataModel) {
+    this.dataModel = dataModel;
+  }
+
+  @Override
+  public void setItem(int i, Item item) {
+    itemIDs[i] = CompactDataModel.toLongID(item.getID());
+  }
+
+  public long getItemID(int i) {
+    return itemIDs[i];
+  }
+
+  public void setItemID(int i, long itemID) {
+    itemIDs[i] = itemID;
+  }
+
+  /**
+   * @return underlying item IDs; callers must not modify this array
+   */
+  public long[] getItemIDs() {
+    return itemIDs;
+  }
+
+  @Override
+  public double getValue(int i) {
+    return values[i];
+  }
+
+  @Override
+  public void setValue(int i, double value) {
+    values[i] = (float) value;
+  }
+
+  /**
+   * @return underlying preference values; callers must not modify this array
+   */
+  public float[] getValues() {
+    return values;
+  }
+
+  /**
+   * @param itemID item ID to search for
+   * @return index of the preference for that item, or a negative value if there is none. This
+   *  requires that the array was previously sorted with {@link #sortByItem()}.
+   * @see Arrays#binarySearch(long[], long)
+   */
+  public int indexOf(long itemID) {
+    return Arrays.binarySearch(itemIDs, itemID);
+  }
+
+  /**
+   * Sorts preferences by item ID, ascending.
+   */
+  public void sortByItem() {
+    sortByID(itemIDs, values);
+  }
+
+  /**
+   * Shell sort over the parallel arrays; simple, in-place, and fast enough on typical per-user
+   * arrays, which are short and often nearly sorted already.
+   */
+  static void sortByID(long[] ids, float[] values) {
+    int length = ids.length;
+    int gap = 1;
+    while (gap < length / 3) {
+      gap = 3 * gap + 1;
+    }
+    while (gap > 0) {
+      for (int i = gap; i < length; i++) {
+        long id = ids[i];
+        float value = values[i];
+        int j = i;
+        while (j >= gap && ids[j - gap] > id) {
+          ids[j] = ids[j - gap];
+          values[j] = values[j - gap];
+          j -= gap;
+        }
+        ids[j] = id;
+        values[j] = value;
+      }
+      gap /= 3;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "GenericUserPreferenceArray[user:" + user + ",itemIDs:" + Arrays.toString(itemIDs) + ']';
+  }
+
+}
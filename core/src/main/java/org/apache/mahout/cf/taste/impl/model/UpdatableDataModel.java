@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.ArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.EmptyIterable;
+import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * <p>An in-memory {@link DataModel} like {@link GenericDataModel}, but which can be updated in place while it
+ * is being read. It is used by {@link org.apache.mahout.cf.taste.impl.model.file.FileDataModel} to apply update
+ * files incrementally, and by {@link org.apache.mahout.cf.taste.impl.model.jdbc.SnapshotJDBCDataModel} to apply
+ * changed rows.</p>
+ *
+ * <p>Updates are copy-on-write per {@link User} and per {@link Item}: a changed user is replaced by a new
+ * {@link User} object, and a changed item's preferences by a new array, so readers always see a consistent
+ * view of any one user or item. A reader may however briefly see a user's new preferences before the
+ * corresponding items' preferences are updated.</p>
+ *
+ * <p>Updates must come from one thread at a time. IDs must be {@link Comparable} with each other.</p>
+ */
+public final class UpdatableDataModel implements DataModel {
+
+  private static final Preference[] NO_PREFS_ARRAY = new Preference[0];
+  private static final Iterable<Preference> NO_PREFS_ITERABLE = new EmptyIterable<Preference>();
+
+  private final ConcurrentNavigableMap<Object, User> userMap;
+  private final ConcurrentNavigableMap<Object, Item> itemMap;
+  private final ConcurrentMap<Object, Preference[]> preferenceForItems;
+  // Sizes of the skip lists above are kept separately, since computing them takes linear time
+  private volatile int numUsers;
+  private volatile int numItems;
+
+  public UpdatableDataModel(Iterable<? extends User> users) {
+    userMap = new ConcurrentSkipListMap<Object, User>();
+    itemMap = new ConcurrentSkipListMap<Object, Item>();
+    preferenceForItems = new ConcurrentHashMap<Object, Preference[]>();
+    Map<Object, List<Preference>> prefsForItems = new FastMap<Object, List<Preference>>();
+    for (User user : users) {
+      setUser(user);
+      for (Preference preference : user.getPreferencesAsArray()) {
+        Item item = preference.getItem();
+        Object itemID = item.getID();
+        if (itemMap.put(itemID, item) == null) {
+          numItems++;
+        }
+        List<Preference> prefsForItem = prefsForItems.get(itemID);
+        if (prefsForItem == null) {
+          prefsForItem = new ArrayList<Preference>();
+          prefsForItems.put(itemID, prefsForItem);
+        }
+        prefsForItem.add(preference);
+      }
+    }
+    for (Map.Entry<Object, List<Preference>> entry : prefsForItems.entrySet()) {
+      List<Preference> list = entry.getValue();
+      Preference[] prefsAsArray = list.toArray(new Preference[list.size()]);
+      Arrays.sort(prefsAsArray, ByUserPreferenceComparator.getInstance());
+      preferenceForItems.put(entry.getKey(), prefsAsArray);
+    }
+  }
+
+  public User getUserOrNull(Object id) {
+    return userMap.get(id);
+  }
+
+  public Item getItemOrNull(Object id) {
+    return itemMap.get(id);
+  }
+
+  /**
+   * Adds a {@link User}, or replaces the existing {@link User} with the same ID. This does not update
+   * preferences for items; see {@link #setPreferencesForItem(Item, Preference[])}.
+   */
+  public void setUser(User user) {
+    if (userMap.put(user.getID(), user) == null) {
+      numUsers++;
+    }
+  }
+
+  /**
+   * Removes the {@link User} with the given ID, if any. Like {@link #setUser(User)}, this does not update
+   * preferences for items.
+   */
+  public void removeUser(Object id) {
+    if (userMap.remove(id) != null) {
+      numUsers--;
+    }
+  }
+
+  /**
+   * Sets all preferences for an {@link Item}, which must be sorted by {@link User}, or removes the
+   * {@link Item} if there are none.
+   */
+  public void setPreferencesForItem(Item item, Preference[] prefs) {
+    Object itemID = item.getID();
+    if (prefs.length == 0) {
+      if (itemMap.remove(itemID) != null) {
+        numItems--;
+      }
+      preferenceForItems.remove(itemID);
+    } else {
+      if (itemMap.put(itemID, item) == null) {
+        numItems++;
+      }
+      preferenceForItems.put(itemID, prefs);
+    }
+  }
+
+  @Override
+  public Iterable<? extends User> getUsers() {
+    return userMap.values();
+  }
+
+  /**
+   * @throws NoSuchUserException if there is no such {@link User}
+   */
+  @Override
+  public User getUser(Object id) throws NoSuchUserException {
+    User user = id == null ? null : userMap.get(id);
+    if (user == null) {
+      throw new NoSuchUserException();
+    }
+    return user;
+  }
+
+  @Override
+  public Iterable<? extends Item> getItems() {
+    return itemMap.values();
+  }
+
+  /**
+   * @throws NoSuchItemException if there is no such {@link Item}
+   */
+  @Override
+  public Item getItem(Object id) throws NoSuchItemException {
+    Item item = id == null ? null : itemMap.get(id);
+    if (item == null) {
+      throw new NoSuchItemException();
+    }
+    return item;
+  }
+
+  @Override
+  public Iterable<? extends Preference> getPreferencesForItem(Object itemID) {
+    Preference[] prefs = itemID == null ? null : preferenceForItems.get(itemID);
+    return prefs == null ? NO_PREFS_ITERABLE : new ArrayIterator<Preference>(prefs);
+  }
+
+  @Override
+  public Preference[] getPreferencesForItemAsArray(Object itemID) {
+    Preference[] prefs = itemID == null ? null : preferenceForItems.get(itemID);
+    return prefs == null ? NO_PREFS_ARRAY : prefs;
+  }
+
+  @Override
+  public int getNumItems() {
+    return numItems;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return numUsers;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(Object... itemIDs) {
+    if (itemIDs == null) {
+      throw new IllegalArgumentException("itemIDs is null");
+    }
+    int length = itemIDs.length;
+    if (length == 0 || length > 2) {
+      throw new IllegalArgumentException("Illegal number of item IDs: " + length);
+    }
+    Preference[] prefs1 = getPreferencesForItemAsArray(itemIDs[0]);
+    if (length == 1) {
+      return prefs1.length;
+    }
+    Preference[] prefs2 = getPreferencesForItemAsArray(itemIDs[1]);
+    if (prefs1.length == 0 || prefs2.length == 0) {
+      return 0;
+    }
+    Set<Object> users1 = new FastSet<Object>(prefs1.length);
+    for (Preference aPrefs1 : prefs1) {
+      users1.add(aPrefs1.getUser().getID());
+    }
+    Set<Object> users2 = new FastSet<Object>(prefs2.length);
+    for (Preference aPrefs2 : prefs2) {
+      users2.add(aPrefs2.getUser().getID());
+    }
+    users1.retainAll(users2);
+    return users1.size();
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void setPreference(Object userID, Object itemID, double value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void removePreference(Object userID, Object itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public String toString() {
+    return "UpdatableDataModel[users:" + numUsers + ",items:" + numItems + ']';
+  }
+
+}
@@ -20,29 +20,48 @@ package org.apache.mahout.cf.taste.impl.model.file;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
 import org.apache.mahout.cf.taste.impl.common.FileLineIterable;
+import org.apache.mahout.cf.taste.impl.common.FutureUtils;
+import org.apache.mahout.cf.taste.impl.common.IOUtils;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericItem;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUser;
 import org.apache.mahout.cf.taste.impl.model.BooleanPreference;
+import org.apache.mahout.cf.taste.impl.model.ByUserPreferenceComparator;
+import org.apache.mahout.cf.taste.impl.model.UpdatableDataModel;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Item;
 import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceChangeListener;
 import org.apache.mahout.cf.taste.model.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Iterator;
-import java.util.Collections;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p>A {@link DataModel} backed by a comma-delimited file. This class typically expects a file where each
@@ -61,6 +80,20 @@ import java.util.concurrent.atomic.AtomicInteger;
  * that supersedes what is in the main data file. This is a mechanism that allows an application to push
  * updates to {@link FileDataModel} without re-copying the entire data file.</p>
  *
+ * <p>Normally, any change to these files causes all data to be reloaded on the next
+ * {@link #refresh(Collection)}. In "incremental" mode, when only new update files have appeared, just those
+ * files are read and applied to the data already in memory, so that the cost of a refresh is proportional
+ * to the size of the update. Each changed user and item is replaced atomically, and any registered
+ * {@link PreferenceChangeListener}s are told which user and item IDs changed. If the main data file, or an
+ * update file which was already applied, has changed then all data is reloaded as usual. Note that in this
+ * mode update files are read by {@link #processUpdateLine(String, Map, Map)}, not
+ * {@link #processLine(String, Map, Map)}.</p>
+ *
+ * <p>The main data file may be read by several threads at once, each parsing a range of the file; see
+ * {@link #FileDataModel(File, boolean, int)}. In this case {@link #processLine(String, Map, Map)} is called
+ * concurrently, though never concurrently on the same {@link Map}s, and must be thread-safe accordingly.
+ * Compressed files are always read by one thread.</p>
+ *
  * <p>The line may contain a blank preference value (e.g. "123,ABC,"). This is interpreted to mean "delete
  * preference", and is only useful in the context of an update delta file (see above).</p>
  *
@@ -84,11 +117,16 @@ public class FileDataModel implements DataModel {
   private static final char UNKNOWN_DELIMITER = '\0';
 
   private final File dataFile;
+  private final boolean incremental;
+  private final int numLoadThreads;
   private long lastModified;
+  private long dataFileLastModified;
+  private final Map<String, Long> appliedUpdateFiles;
   private char delimiter;
   private boolean loaded;
-  private DataModel delegate;
+  private volatile DataModel delegate;
   private final ReentrantLock reloadLock;
+  private final List<PreferenceChangeListener> listeners;
 
   /**
    * @param dataFile file containing preferences data. If file is compressed (and name ends in .gz
@@ -96,38 +134,90 @@ public class FileDataModel implements DataModel {
    * @throws FileNotFoundException if dataFile does not exist
    */
   public FileDataModel(File dataFile) throws FileNotFoundException {
+    this(dataFile, false);
+  }
+
+  /**
+   * @param dataFile file containing preferences data. If file is compressed (and name ends in .gz
+   *  or .zip accordingly) it will be decompressed as it is read)
+   * @param incremental if true, apply new update files to the data in memory on refresh rather than
+   *  reloading everything
+   * @throws FileNotFoundException if dataFile does not exist
+   */
+  public FileDataModel(File dataFile, boolean incremental) throws FileNotFoundException {
+    this(dataFile, incremental, 1);
+  }
+
+  /**
+   * @param dataFile file containing preferences data. If file is compressed (and name ends in .gz
+   *  or .zip accordingly) it will be decompressed as it is read)
+   * @param incremental if true, apply new update files to the data in memory on refresh rather than
+   *  reloading everything
+   * @param numLoadThreads number of threads used to parse the main data file and index the data
+   * @throws FileNotFoundException if dataFile does not exist
+   */
+  public FileDataModel(File dataFile, boolean incremental, int numLoadThreads) throws FileNotFoundException {
     if (dataFile == null) {
       throw new IllegalArgumentException("dataFile is null");
     }
     if (!dataFile.exists() || dataFile.isDirectory()) {
       throw new FileNotFoundException(dataFile.toString());
     }
+    if (numLoadThreads < 1) {
+      throw new IllegalArgumentException("numLoadThreads must be at least 1");
+    }
 
     this.delimiter = UNKNOWN_DELIMITER;
 
     log.info("Creating FileDataModel for file " + dataFile);
 
     this.dataFile = dataFile.getAbsoluteFile();
+    this.incremental = incremental;
+    this.numLoadThreads = numLoadThreads;
     this.lastModified = dataFile.lastModified();
+    this.appliedUpdateFiles = new FastMap<String, Long>();
     this.reloadLock = new ReentrantLock();
+    this.listeners = new CopyOnWriteArrayList<PreferenceChangeListener>();
   }
 
   public File getDataFile() {
     return dataFile;
   }
 
+  /**
+   * @param listener to be notified of data applied incrementally from update files
+   */
+  public void addPreferenceChangeListener(PreferenceChangeListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("listener is null");
+    }
+    listeners.add(listener);
+  }
+
+  public void removePreferenceChangeListener(PreferenceChangeListener listener) {
+    listeners.remove(listener);
+  }
+
   protected void reload() {
     if (!reloadLock.isLocked()) {
       reloadLock.lock();
       try {
-        Map<String, List<Preference>> data = new FastMap<String, List<Preference>>();
-
-        processFile(dataFile, data);
+        dataFileLastModified = dataFile.lastModified();
+        Map<String, List<Preference>> data;
+        if (numLoadThreads > 1 && isSplittable(dataFile)) {
+          data = processFileInParallel(dataFile);
+        } else {
+          data = new FastMap<String, List<Preference>>();
+          processFile(dataFile, data);
+        }
+        appliedUpdateFiles.clear();
         for (File updateFile : findUpdateFiles()) {
+          appliedUpdateFiles.put(updateFile.getName(), updateFile.lastModified());
           processFile(updateFile, data);
         }
 
-        delegate = new GenericDataModel(new UserIteratableOverData(data));
+        Iterable<User> users = new UserIteratableOverData(data);
+        delegate = incremental ? new UpdatableDataModel(users) : new GenericDataModel(users, numLoadThreads);
         loaded = true;
 
       } finally {
@@ -177,6 +267,76 @@ public class FileDataModel implements DataModel {
     }
   }
 
+  private static boolean isSplittable(File file) {
+    String name = file.getName();
+    return !name.endsWith(".gz") && !name.endsWith(".zip");
+  }
+
+  /**
+   * Splits the file into one byte range per thread, parses each range into its own partial data
+   * {@link Map} with {@link #processLine(String, Map, Map)}, and then merges these in order. A line
+   * belongs to the range in which it starts.
+   */
+  private Map<String, List<Preference>> processFileInParallel(File file) {
+    log.info("Reading file info with {} threads...", numLoadThreads);
+    if (delimiter == UNKNOWN_DELIMITER) {
+      for (String line : new FileLineIterable(file, false)) {
+        if (line.length() > 0) {
+          delimiter = determineDelimiter(line);
+          break;
+        }
+      }
+    }
+    long length = file.length();
+    ExecutorService executor = Executors.newFixedThreadPool(numLoadThreads);
+    try {
+      List<Future<ParsedRange>> futures = new ArrayList<Future<ParsedRange>>(numLoadThreads);
+      for (int i = 0; i < numLoadThreads; i++) {
+        long start = length * i / numLoadThreads;
+        long end = length * (i + 1) / numLoadThreads;
+        futures.add(executor.submit(new RangeParser(file, start, end)));
+      }
+      Map<String, List<Preference>> data = new FastMap<String, List<Preference>>();
+      for (Future<ParsedRange> future : futures) {
+        ParsedRange range;
+        try {
+          range = FutureUtils.get(future);
+        } catch (TasteException te) {
+          throw new IllegalStateException(te);
+        }
+        mergeRange(range, data);
+      }
+      return data;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void mergeRange(ParsedRange range, Map<String, List<Preference>> data) {
+    for (Map.Entry<String, List<Preference>> entry : range.data.entrySet()) {
+      String userID = entry.getKey();
+      List<Preference> prefs = data.get(userID);
+      if (prefs == null) {
+        data.put(userID, entry.getValue());
+      } else {
+        // Removals in this range could not see preferences from earlier ranges, so apply them now
+        List<String> removedItemIDs = range.removedItemIDs.get(userID);
+        if (removedItemIDs != null) {
+          for (String itemID : removedItemIDs) {
+            Iterator<Preference> prefsIterator = prefs.iterator();
+            while (prefsIterator.hasNext()) {
+              if (prefsIterator.next().getItem().getID().equals(itemID)) {
+                prefsIterator.remove();
+                break;
+              }
+            }
+          }
+        }
+        prefs.addAll(entry.getValue());
+      }
+    }
+  }
+
   private static char determineDelimiter(String line) {
     if (line.indexOf(',') >= 0) {
       return ',';
@@ -254,6 +414,177 @@ public class FileDataModel implements DataModel {
     }
   }
 
+  /**
+   * Reads and applies any update files which haven't been applied yet to the data in memory.
+   *
+   * @return false if data must be reloaded instead, because the main data file or an update file which
+   *  was already applied has changed
+   */
+  private boolean applyNewUpdateFiles() {
+    if (dataFile.lastModified() != dataFileLastModified) {
+      return false;
+    }
+    List<File> newUpdateFiles = new ArrayList<File>();
+    for (File updateFile : findUpdateFiles()) {
+      Long applied = appliedUpdateFiles.get(updateFile.getName());
+      if (applied == null) {
+        newUpdateFiles.add(updateFile);
+      } else if (applied != updateFile.lastModified()) {
+        return false;
+      }
+    }
+    if (newUpdateFiles.isEmpty()) {
+      return true;
+    }
+
+    UpdatableDataModel model = (UpdatableDataModel) delegate;
+    // User ID -> item ID -> new preference, or null to remove the preference
+    Map<String, Map<String, Preference>> changes = new FastMap<String, Map<String, Preference>>();
+    Map<String, Item> itemCache = new FastMap<String, Item>(1001);
+    for (File updateFile : newUpdateFiles) {
+      long updateFileLastModified = updateFile.lastModified();
+      log.info("Applying update file {}", updateFile);
+      for (String line : new FileLineIterable(updateFile, false)) {
+        if (line.length() > 0) {
+          processUpdateLine(line, changes, itemCache);
+        }
+      }
+      appliedUpdateFiles.put(updateFile.getName(), updateFileLastModified);
+      lastModified = Math.max(lastModified, updateFileLastModified);
+    }
+
+    // Item ID -> user ID -> new preference, or null to remove the preference
+    Map<Object, Map<Object, Preference>> itemChanges = new FastMap<Object, Map<Object, Preference>>();
+    Set<Object> changedItemIDs = new FastSet<Object>();
+    List<Object> changedUserIDs = new ArrayList<Object>(changes.size());
+    for (Map.Entry<String, Map<String, Preference>> entry : changes.entrySet()) {
+      String userID = entry.getKey();
+      Map<String, Preference> userChanges = entry.getValue();
+      List<Preference> prefs = new ArrayList<Preference>();
+      User oldUser = model.getUserOrNull(userID);
+      if (oldUser != null) {
+        // Unchanged preferences are copied, since building the new User points its preferences at it, and
+        // the old ones are still visible to readers of the current data. Their items are then updated to
+        // refer to the copies too, though their preferences did not change.
+        for (Preference pref : oldUser.getPreferencesAsArray()) {
+          Object itemID = pref.getItem().getID();
+          if (!userChanges.containsKey(itemID)) {
+            Preference copy = buildPreference(null, pref.getItem(), pref.getValue());
+            prefs.add(copy);
+            addItemChange(itemChanges, itemID, userID, copy);
+          }
+        }
+      }
+      for (Map.Entry<String, Preference> change : userChanges.entrySet()) {
+        Preference pref = change.getValue();
+        if (pref != null) {
+          prefs.add(pref);
+        }
+        addItemChange(itemChanges, change.getKey(), userID, pref);
+        changedItemIDs.add(change.getKey());
+      }
+      model.setUser(buildUser(userID, prefs));
+      changedUserIDs.add(userID);
+    }
+
+    for (Map.Entry<Object, Map<Object, Preference>> entry : itemChanges.entrySet()) {
+      Object itemID = entry.getKey();
+      Map<Object, Preference> usersChanges = entry.getValue();
+      Item item = model.getItemOrNull(itemID);
+      Preference[] oldPrefs = model.getPreferencesForItemAsArray(itemID);
+      List<Preference> prefs = new ArrayList<Preference>(oldPrefs.length + usersChanges.size());
+      for (Preference pref : oldPrefs) {
+        if (!usersChanges.containsKey(pref.getUser().getID())) {
+          prefs.add(pref);
+        }
+      }
+      for (Preference pref : usersChanges.values()) {
+        if (pref != null) {
+          prefs.add(pref);
+          item = pref.getItem();
+        }
+      }
+      if (item != null) {
+        Preference[] prefsAsArray = prefs.toArray(new Preference[prefs.size()]);
+        Arrays.sort(prefsAsArray, ByUserPreferenceComparator.getInstance());
+        model.setPreferencesForItem(item, prefsAsArray);
+      }
+    }
+
+    log.info("Applied changes for {} users and {} items", changedUserIDs.size(), changedItemIDs.size());
+    for (PreferenceChangeListener listener : listeners) {
+      listener.preferencesChanged(this, changedUserIDs, changedItemIDs);
+    }
+    return true;
+  }
+
+  private static void addItemChange(Map<Object, Map<Object, Preference>> itemChanges,
+                                    Object itemID,
+                                    Object userID,
+                                    Preference pref) {
+    Map<Object, Preference> usersForItem = itemChanges.get(itemID);
+    if (usersForItem == null) {
+      usersForItem = new HashMap<Object, Preference>();
+      itemChanges.put(itemID, usersForItem);
+    }
+    usersForItem.put(userID, pref);
+  }
+
+  /**
+   * <p>Reads one line from an update file, when applying update files incrementally, and records the change
+   * it describes in a {@link Map} from user IDs to a {@link Map} from item IDs to new {@link Preference}s.
+   * A removed preference is recorded as a <code>null</code> {@link Preference}. The line has the same
+   * format as those read by {@link #processLine(String, Map, Map)}.</p>
+   *
+   * @param line line from update file
+   * @param changes all changes read so far
+   * @param itemCache {@link Item}s created so far, by ID
+   */
+  protected void processUpdateLine(String line, Map<String, Map<String, Preference>> changes,
+                                   Map<String, Item> itemCache) {
+    int delimiterOne = line.indexOf((int) delimiter);
+    if (delimiterOne < 0) {
+      throw new IllegalArgumentException("Bad line: " + line);
+    }
+    int delimiterTwo = line.indexOf((int) delimiter, delimiterOne + 1);
+
+    String userID = line.substring(0, delimiterOne);
+    String itemID;
+    String preferenceValueString;
+    if (delimiterTwo >= 0) {
+      itemID = line.substring(delimiterOne + 1, delimiterTwo);
+      preferenceValueString = line.substring(delimiterTwo + 1);
+    } else {
+      itemID = line.substring(delimiterOne + 1);
+      preferenceValueString = null;
+    }
+    Map<String, Preference> userChanges = changes.get(userID);
+    if (userChanges == null) {
+      // Allows null values, which mark removals
+      userChanges = new HashMap<String, Preference>();
+      changes.put(userID, userChanges);
+    }
+
+    if (preferenceValueString != null && preferenceValueString.length() == 0) {
+      userChanges.put(itemID, null);
+    } else {
+      Item item = itemCache.get(itemID);
+      if (item == null) {
+        item = ((UpdatableDataModel) delegate).getItemOrNull(itemID);
+        if (item == null) {
+          item = buildItem(itemID);
+        }
+        itemCache.put(itemID, item);
+      }
+      if (preferenceValueString == null) {
+        userChanges.put(itemID, new BooleanPreference(null, item));
+      } else {
+        double preferenceValue = Double.parseDouble(preferenceValueString);
+        userChanges.put(itemID, buildPreference(null, item, preferenceValue));
+      }
+    }
+  }
+
   private void checkLoaded() {
     if (!loaded) {
       reload();
@@ -332,6 +663,15 @@ public class FileDataModel implements DataModel {
 
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (incremental && loaded && reloadLock.tryLock()) {
+      try {
+        if (applyNewUpdateFiles()) {
+          return;
+        }
+      } finally {
+        reloadLock.unlock();
+      }
+    }
     long mostRecentModification = dataFile.lastModified();
     for (File updateFile : findUpdateFiles()) {
       mostRecentModification = Math.max(mostRecentModification, updateFile.lastModified());
@@ -389,6 +729,99 @@ public class FileDataModel implements DataModel {
   }
 
 
+  private static final class ParsedRange {
+    private final Map<String, List<Preference>> data;
+    private final Map<String, List<String>> removedItemIDs;
+    private ParsedRange(Map<String, List<Preference>> data, Map<String, List<String>> removedItemIDs) {
+      this.data = data;
+      this.removedItemIDs = removedItemIDs;
+    }
+  }
+
+  private final class RangeParser implements Callable<ParsedRange> {
+
+    private final File file;
+    private final long start;
+    private final long end;
+
+    private RangeParser(File file, long start, long end) {
+      this.file = file;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public ParsedRange call() throws IOException {
+      Map<String, List<Preference>> data = new FastMap<String, List<Preference>>();
+      Map<String, List<String>> removedItemIDs = new FastMap<String, List<String>>();
+      Map<String, Item> itemCache = new FastMap<String, Item>(1001);
+      Charset utf8 = Charset.forName("UTF-8");
+      FileInputStream fileIn = new FileInputStream(file);
+      try {
+        long position = start;
+        if (start > 0L) {
+          // Skip the rest of the line which starts in the previous range (if the previous byte
+          // ends a line, this just reads that newline)
+          position--;
+          fileIn.getChannel().position(position);
+        }
+        InputStream in = new BufferedInputStream(fileIn, 1 << 16);
+        if (start > 0L) {
+          int b;
+          do {
+            b = in.read();
+            position++;
+          } while (b >= 0 && b != '\n');
+        }
+        byte[] buffer = new byte[256];
+        while (position < end) {
+          int length = 0;
+          int b;
+          while ((b = in.read()) >= 0) {
+            position++;
+            if (b == '\n') {
+              break;
+            }
+            if (length == buffer.length) {
+              byte[] newBuffer = new byte[length << 1];
+              System.arraycopy(buffer, 0, newBuffer, 0, length);
+              buffer = newBuffer;
+            }
+            buffer[length++] = (byte) b;
+          }
+          if (length > 0 && buffer[length - 1] == '\r') {
+            length--;
+          }
+          if (length > 0) {
+            String line = new String(buffer, 0, length, utf8);
+            processLine(line, data, itemCache);
+            recordRemoval(line, removedItemIDs);
+          }
+          if (b < 0) {
+            break;
+          }
+        }
+      } finally {
+        IOUtils.quietClose(fileIn);
+      }
+      return new ParsedRange(data, removedItemIDs);
+    }
+
+    private void recordRemoval(String line, Map<String, List<String>> removedItemIDs) {
+      int delimiterOne = line.indexOf((int) delimiter);
+      int delimiterTwo = delimiterOne < 0 ? -1 : line.indexOf((int) delimiter, delimiterOne + 1);
+      if (delimiterTwo >= 0 && delimiterTwo == line.length() - 1) {
+        String userID = line.substring(0, delimiterOne);
+        List<String> itemIDs = removedItemIDs.get(userID);
+        if (itemIDs == null) {
+          itemIDs = new ArrayList<String>(1);
+          removedItemIDs.put(userID, itemIDs);
+        }
+        itemIDs.add(line.substring(delimiterOne + 1, delimiterTwo));
+      }
+    }
+  }
+
   private final class UserIteratableOverData implements Iterable<User> {
     private final Map<String, List<Preference>> data;
     private UserIteratableOverData(Map<String, List<Preference>> data) {
@@ -0,0 +1,458 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.ArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.MappedFile;
+import org.apache.mahout.cf.taste.impl.common.SortedIDIndex;
+import org.apache.mahout.cf.taste.impl.model.GenericItem;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A read-only {@link DataModel} backed by a binary snapshot file written by {@link SnapshotCompiler}. The
+ * file is memory-mapped rather than read, so opening it takes about as long as reading its header, and
+ * several JVMs serving the same snapshot share one copy of it in the operating system's page cache.</p>
+ *
+ * <p>Nothing is copied onto the heap up front. Users and items are found by binary search over the sorted
+ * IDs in the file, and {@link User}, {@link Item} and {@link Preference} objects are created only as they
+ * are requested. As with {@link FileDataModel}, IDs are {@link String}s. Preferences without a value, which
+ * {@link FileDataModel} represents as {@link org.apache.mahout.cf.taste.impl.model.BooleanPreference}s,
+ * have value 1.0.</p>
+ *
+ * <p>{@link #refresh(Collection)} maps the file again if it has been modified. To replace a snapshot which is
+ * in use, write the new one to a different file and rename it over the old one; rewriting the mapped file
+ * in place has undefined results.</p>
+ *
+ * <p>A snapshot may not exceed 2GB.</p>
+ */
+public final class MappedSnapshotDataModel implements DataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedSnapshotDataModel.class);
+
+  private static final Preference[] NO_PREFS_ARRAY = new Preference[0];
+
+  private final File snapshotFile;
+  private long lastModified;
+  private long lastLength;
+  private volatile Snapshot snapshot;
+
+  /**
+   * @param snapshotFile file written by {@link SnapshotCompiler}
+   * @throws FileNotFoundException if snapshotFile does not exist
+   * @throws IOException if the file can't be mapped, or is not a valid snapshot
+   */
+  public MappedSnapshotDataModel(File snapshotFile) throws IOException {
+    if (snapshotFile == null) {
+      throw new IllegalArgumentException("snapshotFile is null");
+    }
+    if (!snapshotFile.exists() || snapshotFile.isDirectory()) {
+      throw new FileNotFoundException(snapshotFile.toString());
+    }
+    log.info("Creating MappedSnapshotDataModel for file " + snapshotFile);
+    this.snapshotFile = snapshotFile.getAbsoluteFile();
+    this.lastModified = snapshotFile.lastModified();
+    this.lastLength = snapshotFile.length();
+    this.snapshot = new Snapshot(this.snapshotFile);
+  }
+
+  public File getSnapshotFile() {
+    return snapshotFile;
+  }
+
+  @Override
+  public Iterable<? extends User> getUsers() {
+    final Snapshot snapshot = this.snapshot;
+    return new Iterable<User>() {
+      @Override
+      public Iterator<User> iterator() {
+        return new IndexIterator<User>(snapshot.numUsers) {
+          @Override
+          User get(int index) {
+            return new MappedUser(snapshot, index);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * @throws NoSuchUserException if there is no such {@link User}
+   */
+  @Override
+  public User getUser(Object id) throws NoSuchUserException {
+    Snapshot snapshot = this.snapshot;
+    int index = id == null ? -1 : snapshot.userIndex(id.toString());
+    if (index < 0) {
+      throw new NoSuchUserException();
+    }
+    return new MappedUser(snapshot, index);
+  }
+
+  @Override
+  public Iterable<? extends Item> getItems() {
+    final Snapshot snapshot = this.snapshot;
+    return new Iterable<Item>() {
+      @Override
+      public Iterator<Item> iterator() {
+        return new IndexIterator<Item>(snapshot.numItems) {
+          @Override
+          Item get(int index) {
+            return snapshot.item(index);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * @throws NoSuchItemException if there is no such {@link Item}
+   */
+  @Override
+  public Item getItem(Object id) throws NoSuchItemException {
+    Snapshot snapshot = this.snapshot;
+    int index = id == null ? -1 : snapshot.itemIndex(id.toString());
+    if (index < 0) {
+      throw new NoSuchItemException();
+    }
+    return snapshot.item(index);
+  }
+
+  @Override
+  public Iterable<? extends Preference> getPreferencesForItem(Object itemID) {
+    return new ArrayIterator<Preference>(getPreferencesForItemAsArray(itemID));
+  }
+
+  /**
+   * @return a newly created array of {@link Preference}s, ordered by user ID
+   */
+  @Override
+  public Preference[] getPreferencesForItemAsArray(Object itemID) {
+    Snapshot snapshot = this.snapshot;
+    int index = itemID == null ? -1 : snapshot.itemIndex(itemID.toString());
+    if (index < 0) {
+      return NO_PREFS_ARRAY;
+    }
+    Item item = snapshot.item(index);
+    int start = snapshot.itemColumnStarts.get(index);
+    int end = snapshot.itemColumnStarts.get(index + 1);
+    Preference[] result = new Preference[end - start];
+    for (int i = start; i < end; i++) {
+      User user = new MappedUser(snapshot, snapshot.itemUsers.get(i));
+      result[i - start] = new GenericPreference(user, item, snapshot.itemValues.get(i));
+    }
+    return result;
+  }
+
+  @Override
+  public int getNumItems() {
+    return snapshot.numItems;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return snapshot.numUsers;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(Object... itemIDs) {
+    if (itemIDs == null) {
+      throw new IllegalArgumentException("itemIDs is null");
+    }
+    int length = itemIDs.length;
+    if (length == 0 || length > 2) {
+      throw new IllegalArgumentException("Illegal number of item IDs: " + length);
+    }
+    Snapshot snapshot = this.snapshot;
+    IntBuffer columnStarts = snapshot.itemColumnStarts;
+    int index1 = itemIDs[0] == null ? -1 : snapshot.itemIndex(itemIDs[0].toString());
+    if (index1 < 0) {
+      return 0;
+    }
+    if (length == 1) {
+      return columnStarts.get(index1 + 1) - columnStarts.get(index1);
+    }
+    int index2 = itemIDs[1] == null ? -1 : snapshot.itemIndex(itemIDs[1].toString());
+    if (index2 < 0) {
+      return 0;
+    }
+    // Both columns are sorted by user index, so just count the intersection with a merge
+    IntBuffer itemUsers = snapshot.itemUsers;
+    int i = columnStarts.get(index1);
+    int end1 = columnStarts.get(index1 + 1);
+    int j = columnStarts.get(index2);
+    int end2 = columnStarts.get(index2 + 1);
+    int count = 0;
+    while (i < end1 && j < end2) {
+      int user1 = itemUsers.get(i);
+      int user2 = itemUsers.get(j);
+      if (user1 < user2) {
+        i++;
+      } else if (user1 > user2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void setPreference(Object userID, Object itemID, double value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void removePreference(Object userID, Object itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized void refresh(Collection<Refreshable> alreadyRefreshed) {
+    long modified = snapshotFile.lastModified();
+    long length = snapshotFile.length();
+    // Any difference means a new file; its time may be older, or within the clock's resolution
+    if (modified != lastModified || length != lastLength) {
+      log.debug("Snapshot has changed; mapping again...");
+      try {
+        snapshot = new Snapshot(snapshotFile);
+        lastModified = modified;
+        lastLength = length;
+      } catch (IOException ioe) {
+        log.warn("Unable to map new snapshot; keeping the old one", ioe);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MappedSnapshotDataModel[snapshotFile:" + snapshotFile + ']';
+  }
+
+  /**
+   * The mapped contents of one snapshot file. Only absolute gets are used on the buffers, which do not
+   * change their state, so this may be shared by any number of threads.
+   */
+  private static final class Snapshot {
+
+    private final int numUsers;
+    private final int numItems;
+    private final IntBuffer userRowStarts;
+    private final IntBuffer userItems;
+    private final FloatBuffer userValues;
+    private final IntBuffer itemColumnStarts;
+    private final IntBuffer itemUsers;
+    private final FloatBuffer itemValues;
+    private final SortedIDIndex userIDs;
+    private final SortedIDIndex itemIDs;
+
+    private Snapshot(File snapshotFile) throws IOException {
+      MappedFile mapped = new MappedFile(snapshotFile, "Snapshot");
+      ByteBuffer buffer = mapped.getBuffer();
+      if (buffer.capacity() < SnapshotCompiler.HEADER_BYTES || buffer.getInt(0) != SnapshotCompiler.MAGIC) {
+        throw new IOException("Not a snapshot: " + snapshotFile);
+      }
+      int version = buffer.getInt(4);
+      if (version != SnapshotCompiler.VERSION) {
+        throw new IOException("Unsupported snapshot version " + version + ": " + snapshotFile);
+      }
+      numUsers = buffer.getInt(8);
+      numItems = buffer.getInt(12);
+      int numPrefs = buffer.getInt(16);
+
+      mapped.seek(SnapshotCompiler.HEADER_BYTES);
+      userRowStarts = mapped.nextSection(4L * (numUsers + 1)).asIntBuffer();
+      userItems = mapped.nextSection(4L * numPrefs).asIntBuffer();
+      userValues = mapped.nextSection(4L * numPrefs).asFloatBuffer();
+      itemColumnStarts = mapped.nextSection(4L * (numItems + 1)).asIntBuffer();
+      itemUsers = mapped.nextSection(4L * numPrefs).asIntBuffer();
+      itemValues = mapped.nextSection(4L * numPrefs).asFloatBuffer();
+      IntBuffer userIDStarts = mapped.nextSection(4L * (numUsers + 1)).asIntBuffer();
+      IntBuffer itemIDStarts = mapped.nextSection(4L * (numItems + 1)).asIntBuffer();
+      CharBuffer userIDChars = mapped.nextSection(2L * userIDStarts.get(numUsers)).asCharBuffer();
+      CharBuffer itemIDChars = mapped.nextSection(2L * itemIDStarts.get(numItems)).asCharBuffer();
+      userIDs = new SortedIDIndex(userIDStarts, userIDChars);
+      itemIDs = new SortedIDIndex(itemIDStarts, itemIDChars);
+    }
+
+    int userIndex(String id) {
+      return userIDs.indexOf(id);
+    }
+
+    int itemIndex(String id) {
+      return itemIDs.indexOf(id);
+    }
+
+    String userID(int index) {
+      return userIDs.get(index);
+    }
+
+    Item item(int index) {
+      return new GenericItem<String>(itemIDs.get(index));
+    }
+
+  }
+
+  /**
+   * A {@link User} which reads its preferences from a {@link Snapshot} as they are requested.
+   */
+  private static final class MappedUser implements User {
+
+    private final Snapshot snapshot;
+    private final int index;
+    private final String id;
+
+    private MappedUser(Snapshot snapshot, int index) {
+      this.snapshot = snapshot;
+      this.index = index;
+      this.id = snapshot.userID(index);
+    }
+
+    @Override
+    public String getID() {
+      return id;
+    }
+
+    @Override
+    public Preference getPreferenceFor(Object itemID) {
+      if (itemID == null) {
+        return null;
+      }
+      int itemIndex = snapshot.itemIndex(itemID.toString());
+      if (itemIndex < 0) {
+        return null;
+      }
+      // The row is sorted by item index
+      IntBuffer userItems = snapshot.userItems;
+      int low = snapshot.userRowStarts.get(index);
+      int high = snapshot.userRowStarts.get(index + 1) - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int midItemIndex = userItems.get(mid);
+        if (midItemIndex < itemIndex) {
+          low = mid + 1;
+        } else if (midItemIndex > itemIndex) {
+          high = mid - 1;
+        } else {
+          return new GenericPreference(this, snapshot.item(itemIndex), snapshot.userValues.get(mid));
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Iterable<Preference> getPreferences() {
+      return new ArrayIterator<Preference>(getPreferencesAsArray());
+    }
+
+    /**
+     * @return a newly created array of {@link Preference}s, ordered by item ID
+     */
+    @Override
+    public Preference[] getPreferencesAsArray() {
+      int start = snapshot.userRowStarts.get(index);
+      int end = snapshot.userRowStarts.get(index + 1);
+      Preference[] result = new Preference[end - start];
+      for (int i = start; i < end; i++) {
+        Item item = snapshot.item(snapshot.userItems.get(i));
+        result[i - start] = new GenericPreference(this, item, snapshot.userValues.get(i));
+      }
+      return result;
+    }
+
+    @Override
+    public int hashCode() {
+      return id.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof User && ((User) obj).getID().equals(id);
+    }
+
+    @Override
+    public String toString() {
+      return "User[id:" + id + ']';
+    }
+
+    @Override
+    public int compareTo(User o) {
+      return id.compareTo(o.getID().toString());
+    }
+
+  }
+
+  private abstract static class IndexIterator<T> implements Iterator<T> {
+
+    private final int count;
+    private int next;
+
+    IndexIterator(int count) {
+      this.count = count;
+    }
+
+    abstract T get(int index);
+
+    @Override
+    public boolean hasNext() {
+      return next < count;
+    }
+
+    @Override
+    public T next() {
+      if (next >= count) {
+        throw new NoSuchElementException();
+      }
+      return get(next++);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
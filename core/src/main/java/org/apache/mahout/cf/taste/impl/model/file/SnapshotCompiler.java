@@ -0,0 +1,254 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.impl.common.IOUtils;
+import org.apache.mahout.cf.taste.impl.common.SortedIDIndex;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Writes the contents of a {@link DataModel} -- typically a {@link FileDataModel} -- to a compact binary
+ * snapshot file which {@link MappedSnapshotDataModel} can open almost instantly, without parsing.</p>
+ *
+ * <p>User and item IDs are stored as {@link String}s, sorted, and are thereafter referred to by their index
+ * in this sorted order. The snapshot holds each user's preferences as a row of item indices and
+ * <code>float</code> values (compressed sparse rows), and likewise each item's preferences as a column of
+ * user indices and values (compressed sparse columns). All data is written big-endian, in this order:</p>
+ *
+ * <ol>
+ *  <li>header: <code>int</code> magic number, version, number of users, number of items, number of
+ *   preferences</li>
+ *  <li><code>int[numUsers + 1]</code>: start of each user's row</li>
+ *  <li><code>int[numPrefs]</code>: item index of each preference, by user</li>
+ *  <li><code>float[numPrefs]</code>: value of each preference, by user</li>
+ *  <li><code>int[numItems + 1]</code>: start of each item's column</li>
+ *  <li><code>int[numPrefs]</code>: user index of each preference, by item</li>
+ *  <li><code>float[numPrefs]</code>: value of each preference, by item</li>
+ *  <li><code>int[numUsers + 1]</code>: start of each user ID in the user ID characters</li>
+ *  <li><code>int[numItems + 1]</code>: start of each item ID in the item ID characters</li>
+ *  <li><code>char[]</code>: user ID characters</li>
+ *  <li><code>char[]</code>: item ID characters</li>
+ * </ol>
+ *
+ * <p>Usage: <code>SnapshotCompiler dataFile snapshotFile</code></p>
+ */
+public final class SnapshotCompiler {
+
+  private static final Logger log = LoggerFactory.getLogger(SnapshotCompiler.class);
+
+  static final int MAGIC = 0x54534E50; // "TSNP"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 5 * 4;
+
+  private SnapshotCompiler() {
+  }
+
+  /**
+   * @param dataModel {@link DataModel} whose data should be written
+   * @param snapshotFile file to write the snapshot to; it is replaced only once the new snapshot is complete
+   * @throws TasteException if an error occurs while reading from the {@link DataModel}
+   * @throws IOException if an error occurs while writing the snapshot
+   */
+  public static void compile(DataModel dataModel, File snapshotFile) throws TasteException, IOException {
+    if (dataModel == null) {
+      throw new IllegalArgumentException("dataModel is null");
+    }
+    if (snapshotFile == null) {
+      throw new IllegalArgumentException("snapshotFile is null");
+    }
+
+    List<String> itemIDList = new ArrayList<String>();
+    for (Item item : dataModel.getItems()) {
+      itemIDList.add(item.getID().toString());
+    }
+    Collections.sort(itemIDList);
+    String[] itemIDs = itemIDList.toArray(new String[itemIDList.size()]);
+    int numItems = itemIDs.length;
+    Map<String, Integer> itemIndices = new FastMap<String, Integer>(numItems);
+    for (int i = 0; i < numItems; i++) {
+      itemIndices.put(itemIDs[i], i);
+    }
+
+    List<User> usersList = new ArrayList<User>();
+    for (User user : dataModel.getUsers()) {
+      usersList.add(user);
+    }
+    int numUsers = usersList.size();
+    User[] users = usersList.toArray(new User[numUsers]);
+    String[] userIDs = new String[numUsers];
+    for (int i = 0; i < numUsers; i++) {
+      userIDs[i] = users[i].getID().toString();
+    }
+    sortUsers(userIDs, users);
+
+    // Each preference packed as item index (high bits) and float value bits (low bits), so that a plain
+    // sort orders a user's preferences by item index
+    long[][] rows = new long[numUsers][];
+    int[] itemCounts = new int[numItems];
+    long numPrefs = 0L;
+    for (int i = 0; i < numUsers; i++) {
+      Preference[] prefs = users[i].getPreferencesAsArray();
+      long[] row = new long[prefs.length];
+      for (int j = 0; j < prefs.length; j++) {
+        Integer itemIndex = itemIndices.get(prefs[j].getItem().getID().toString());
+        if (itemIndex == null) {
+          throw new TasteException("Item not in data model: " + prefs[j].getItem());
+        }
+        itemCounts[itemIndex]++;
+        row[j] = ((long) itemIndex << 32) | (Float.floatToRawIntBits((float) prefs[j].getValue()) & 0xFFFFFFFFL);
+      }
+      Arrays.sort(row);
+      rows[i] = row;
+      numPrefs += row.length;
+    }
+    if (numPrefs > Integer.MAX_VALUE) {
+      throw new TasteException("Too many preferences: " + numPrefs);
+    }
+
+    log.info("Writing snapshot of {} users and {} items to {}", new Object[] {numUsers, numItems, snapshotFile});
+    // Write next to the snapshot and rename over it, so that it is never seen half-written
+    File newFile = File.createTempFile(snapshotFile.getName(), ".tmp", snapshotFile.getAbsoluteFile().getParentFile());
+    try {
+      writeSnapshot(newFile, numUsers, numItems, numPrefs, rows, itemCounts, userIDs, itemIDs);
+      if (!newFile.renameTo(snapshotFile) && !(snapshotFile.delete() && newFile.renameTo(snapshotFile))) {
+        throw new IOException("Unable to replace " + snapshotFile + " with " + newFile);
+      }
+    } finally {
+      if (newFile.exists()) {
+        newFile.delete();
+      }
+    }
+  }
+
+  private static void writeSnapshot(File file,
+                                    int numUsers,
+                                    int numItems,
+                                    long numPrefs,
+                                    long[][] rows,
+                                    int[] itemCounts,
+                                    String[] userIDs,
+                                    String[] itemIDs) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(numUsers);
+      out.writeInt(numItems);
+      out.writeInt((int) numPrefs);
+
+      int position = 0;
+      for (long[] row : rows) {
+        out.writeInt(position);
+        position += row.length;
+      }
+      out.writeInt(position);
+      for (long[] row : rows) {
+        for (long pref : row) {
+          out.writeInt((int) (pref >>> 32));
+        }
+      }
+      for (long[] row : rows) {
+        for (long pref : row) {
+          out.writeInt((int) pref);
+        }
+      }
+
+      // Invert rows into columns. Users are visited in index order so each column comes out sorted.
+      int[] columnStarts = new int[numItems + 1];
+      for (int i = 0; i < numItems; i++) {
+        columnStarts[i + 1] = columnStarts[i] + itemCounts[i];
+      }
+      int[] columnUsers = new int[(int) numPrefs];
+      int[] columnValues = new int[(int) numPrefs];
+      int[] next = new int[numItems];
+      System.arraycopy(columnStarts, 0, next, 0, numItems);
+      for (int i = 0; i < numUsers; i++) {
+        for (long pref : rows[i]) {
+          int at = next[(int) (pref >>> 32)]++;
+          columnUsers[at] = i;
+          columnValues[at] = (int) pref;
+        }
+      }
+      for (int columnStart : columnStarts) {
+        out.writeInt(columnStart);
+      }
+      for (int columnUser : columnUsers) {
+        out.writeInt(columnUser);
+      }
+      for (int columnValue : columnValues) {
+        out.writeInt(columnValue);
+      }
+
+      SortedIDIndex.writeStarts(userIDs, out);
+      SortedIDIndex.writeStarts(itemIDs, out);
+      SortedIDIndex.writeChars(userIDs, out);
+      SortedIDIndex.writeChars(itemIDs, out);
+      out.flush();
+    } finally {
+      IOUtils.quietClose(out);
+    }
+  }
+
+  private static void sortUsers(String[] userIDs, User[] users) {
+    int length = userIDs.length;
+    Integer[] order = new Integer[length];
+    for (int i = 0; i < length; i++) {
+      order[i] = i;
+    }
+    final String[] unsortedIDs = userIDs.clone();
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return unsortedIDs[a].compareTo(unsortedIDs[b]);
+      }
+    });
+    User[] unsortedUsers = users.clone();
+    for (int i = 0; i < length; i++) {
+      userIDs[i] = unsortedIDs[order[i]];
+      users[i] = unsortedUsers[order[i]];
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("Usage: SnapshotCompiler dataFile snapshotFile");
+      return;
+    }
+    compile(new FileDataModel(new File(args[0])), new File(args[1]));
+  }
+
+}
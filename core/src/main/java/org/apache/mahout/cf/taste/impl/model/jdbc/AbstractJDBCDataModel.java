@@ -20,8 +20,11 @@ package org.apache.mahout.cf.taste.impl.model.jdbc;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastMap;
 import org.apache.mahout.cf.taste.impl.common.IOUtils;
 import org.apache.mahout.cf.taste.impl.common.IteratorIterable;
+import org.apache.mahout.cf.taste.impl.common.Retriever;
 import org.apache.mahout.cf.taste.impl.model.GenericItem;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUser;
@@ -45,6 +48,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
@@ -67,6 +71,13 @@ import java.util.NoSuchElementException;
  * {@link String}s as IDs throughout your code. If your IDs are really numeric, and you use, say, {@link Long}
  * for IDs in the rest of your code, you will run into subtle problems because the {@link Long} values won't
  * be equal to or compare correctly to the underlying {@link String} key values.</p>
+ *
+ * <p>To cut down on round trips to the database, {@link #getUsers(Collection)} and
+ * {@link #getPreferencesForItems(Collection)} fetch data for many users or items with one query, and
+ * {@link #setMaxCachedUsers(int)} keeps recently loaded users in memory. {@link #getUsers()} and
+ * {@link #getItems()} read their results forward-only, in batches of {@link #setFetchSize(int)} rows, so that
+ * drivers which support it can stream results rather than hold them all in memory. Prepared statements are
+ * reused across calls when connections come from a {@link ConnectionPoolDataSource}.</p>
  */
 public abstract class AbstractJDBCDataModel implements JDBCDataModel {
 
@@ -78,6 +89,12 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
   public static final String DEFAULT_ITEM_ID_COLUMN = "item_id";
   public static final String DEFAULT_PREFERENCE_COLUMN = "preference";
 
+  /**
+   * Maximum number of IDs bound into one <code>IN (...)</code> clause; larger batches are split into
+   * several queries.
+   */
+  public static final int MAX_IDS_PER_QUERY = 500;
+
   private final DataSource dataSource;
   private final String preferenceTable;
   private final String userIDColumn;
@@ -94,6 +111,8 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
   private final String getPrefsForItemSQL;
   private final String getNumPreferenceForItemSQL;
   private final String getNumPreferenceForItemsSQL;
+  private volatile int fetchSize;
+  private volatile Cache<Object, User> userCache;
 
   protected AbstractJDBCDataModel(DataSource dataSource,
                                   String getUserSQL,
@@ -243,6 +262,37 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
     return preferenceColumn;
   }
 
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  /**
+   * <p>Sets the number of rows the driver should fetch at once while iterating over all users or items.
+   * The default, 0, leaves this to the driver. Note that some drivers only stream results at all when given
+   * a particular value, such as MySQL's {@link Integer#MIN_VALUE}.</p>
+   *
+   * @param fetchSize fetch size hint passed to {@link java.sql.Statement#setFetchSize(int)}
+   */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * <p>Keeps up to the given number of recently loaded users in memory, so that {@link #getUser(Object)}
+   * need not query the database for them again. A user is dropped from memory when its preferences are set
+   * or removed through this instance, and all are dropped on {@link #refresh(Collection)}; changes made to
+   * the database by other means are not seen until then. 0, the default, turns this off.</p>
+   *
+   * @param maxCachedUsers maximum number of users to keep in memory
+   * @throws IllegalArgumentException if <code>maxCachedUsers</code> is negative
+   */
+  public void setMaxCachedUsers(int maxCachedUsers) {
+    if (maxCachedUsers < 0) {
+      throw new IllegalArgumentException("maxCachedUsers is negative");
+    }
+    userCache = maxCachedUsers == 0 ? null : new Cache<Object, User>(new UserRetriever(), maxCachedUsers);
+  }
+
   @Override
   public Iterable<? extends User> getUsers() throws TasteException {
     log.debug("Retrieving all users...");
@@ -254,6 +304,11 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
    */
   @Override
   public User getUser(Object id) throws TasteException {
+    Cache<Object, User> cache = userCache;
+    return cache == null ? doGetUser(id) : cache.get(id);
+  }
+
+  private User doGetUser(Object id) throws TasteException {
 
     log.debug("Retrieving user ID '{}'", id);
 
@@ -291,6 +346,193 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
 
   }
 
+  /**
+   * <p>Retrieves many users at once, with one query per {@link #MAX_IDS_PER_QUERY} IDs rather than one per
+   * user.</p>
+   *
+   * @param userIDs IDs of users to retrieve
+   * @return users that exist, keyed by user ID; IDs of users that do not exist are simply absent
+   * @throws TasteException if a database error occurs
+   */
+  public Map<Object, User> getUsers(Collection<?> userIDs) throws TasteException {
+    if (userIDs == null) {
+      throw new IllegalArgumentException("userIDs is null");
+    }
+    log.debug("Retrieving {} users", userIDs.size());
+    Map<Object, User> users = new FastMap<Object, User>(Math.max(1, userIDs.size()));
+    Connection conn = null;
+    try {
+      conn = dataSource.getConnection();
+      for (List<?> batch : partition(userIDs)) {
+        int numParams = paddedSize(batch.size());
+        String sql = buildGetUsersByIDSQL(numParams);
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+          stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+          setObjects(stmt, batch, numParams);
+          log.debug("Executing SQL query: {}", sql);
+          rs = stmt.executeQuery();
+          String currentUserID = null;
+          List<Preference> prefs = null;
+          while (rs.next()) {
+            String userID = rs.getString(3);
+            if (!userID.equals(currentUserID)) {
+              if (currentUserID != null) {
+                users.put(currentUserID, buildUser(currentUserID, prefs));
+              }
+              currentUserID = userID;
+              prefs = new ArrayList<Preference>();
+            }
+            addPreference(rs, prefs);
+          }
+          if (currentUserID != null) {
+            users.put(currentUserID, buildUser(currentUserID, prefs));
+          }
+        } finally {
+          IOUtils.quietClose(rs, stmt, null);
+        }
+      }
+      return users;
+    } catch (SQLException sqle) {
+      log.warn("Exception while retrieving users", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(null, null, conn);
+    }
+  }
+
+  /**
+   * <p>Retrieves preferences for many items at once, with one query per {@link #MAX_IDS_PER_QUERY} IDs
+   * rather than one per item.</p>
+   *
+   * @param itemIDs IDs of items whose preferences should be retrieved
+   * @return preferences for each item which has any, keyed by item ID
+   * @throws TasteException if a database error occurs
+   */
+  public Map<Object, Preference[]> getPreferencesForItems(Collection<?> itemIDs) throws TasteException {
+    if (itemIDs == null) {
+      throw new IllegalArgumentException("itemIDs is null");
+    }
+    log.debug("Retrieving preferences for {} items", itemIDs.size());
+    Map<Object, Preference[]> result = new FastMap<Object, Preference[]>(Math.max(1, itemIDs.size()));
+    Connection conn = null;
+    try {
+      conn = dataSource.getConnection();
+      for (List<?> batch : partition(itemIDs)) {
+        int numParams = paddedSize(batch.size());
+        String sql = buildGetPrefsForItemsByIDSQL(numParams);
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+          stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+          setObjects(stmt, batch, numParams);
+          log.debug("Executing SQL query: {}", sql);
+          rs = stmt.executeQuery();
+          Item currentItem = null;
+          List<Preference> prefs = null;
+          while (rs.next()) {
+            String itemID = rs.getString(3);
+            if (currentItem == null || !itemID.equals(currentItem.getID())) {
+              if (currentItem != null) {
+                result.put(currentItem.getID(), prefs.toArray(new Preference[prefs.size()]));
+              }
+              currentItem = buildItem(itemID);
+              prefs = new ArrayList<Preference>();
+            }
+            double preference = rs.getDouble(1);
+            String userID = rs.getString(2);
+            prefs.add(buildPreference(buildUser(userID, null), currentItem, preference));
+          }
+          if (currentItem != null) {
+            result.put(currentItem.getID(), prefs.toArray(new Preference[prefs.size()]));
+          }
+        } finally {
+          IOUtils.quietClose(rs, stmt, null);
+        }
+      }
+      return result;
+    } catch (SQLException sqle) {
+      log.warn("Exception while retrieving prefs for items", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(null, null, conn);
+    }
+  }
+
+  /**
+   * <p>Builds the query used by {@link #getUsers(Collection)}. It must take the given number of user IDs
+   * as parameters, and return item ID, preference value and user ID, in that order, for all their
+   * preferences, ordered by user ID. The default implementation builds this from the table and column names;
+   * subclasses whose schema differs should override it.</p>
+   *
+   * @param numIDs number of user IDs in the query
+   * @return SQL query
+   */
+  protected String buildGetUsersByIDSQL(int numIDs) {
+    return "SELECT " + itemIDColumn + ", " + preferenceColumn + ", " + userIDColumn + " FROM " +
+           preferenceTable + " WHERE " + userIDColumn + " IN (" + placeholders(numIDs) + ") ORDER BY " +
+           userIDColumn + ", " + itemIDColumn;
+  }
+
+  /**
+   * <p>Builds the query used by {@link #getPreferencesForItems(Collection)}. It must take the given number of
+   * item IDs as parameters, and return preference value, user ID and item ID, in that order, for all their
+   * preferences, ordered by item ID. The default implementation builds this from the table and column names;
+   * subclasses whose schema differs should override it.</p>
+   *
+   * @param numIDs number of item IDs in the query
+   * @return SQL query
+   */
+  protected String buildGetPrefsForItemsByIDSQL(int numIDs) {
+    return "SELECT " + preferenceColumn + ", " + userIDColumn + ", " + itemIDColumn + " FROM " +
+           preferenceTable + " WHERE " + itemIDColumn + " IN (" + placeholders(numIDs) + ") ORDER BY " +
+           itemIDColumn + ", " + userIDColumn;
+  }
+
+  private static String placeholders(int count) {
+    StringBuilder result = new StringBuilder(2 * count);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append('?');
+    }
+    return result.toString();
+  }
+
+  /**
+   * Batches are padded to one of a few fixed sizes by repeating their last ID, so that only a few distinct
+   * queries are ever prepared, and pooled by {@link ConnectionPoolDataSource}.
+   */
+  private static int paddedSize(int size) {
+    int padded = 1;
+    while (padded < size) {
+      padded <<= 1;
+    }
+    return Math.min(padded, MAX_IDS_PER_QUERY);
+  }
+
+  private static List<List<?>> partition(Collection<?> ids) {
+    List<List<?>> batches = new ArrayList<List<?>>(1 + ids.size() / MAX_IDS_PER_QUERY);
+    List<Object> batch = null;
+    for (Object id : ids) {
+      if (batch == null || batch.size() == MAX_IDS_PER_QUERY) {
+        batch = new ArrayList<Object>(Math.min(MAX_IDS_PER_QUERY, ids.size()));
+        batches.add(batch);
+      }
+      batch.add(id);
+    }
+    return batches;
+  }
+
+  private static void setObjects(PreparedStatement stmt, List<?> args, int numParams) throws SQLException {
+    int size = args.size();
+    for (int i = 1; i <= numParams; i++) {
+      stmt.setObject(i, args.get(Math.min(i, size) - 1));
+    }
+  }
+
   @Override
   public Iterable<? extends Item> getItems() throws TasteException {
     log.debug("Retrieving all items...");
@@ -453,6 +695,7 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
 
       log.debug("Executing SQL update: {}", setPreferenceSQL);
       stmt.executeUpdate();
+      forgetUser(userID);
 
     } catch (SQLException sqle) {
       log.warn("Exception while setting preference", sqle);
@@ -483,6 +726,7 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
 
       log.debug("Executing SQL update: {}", removePreferenceSQL);
       stmt.executeUpdate();
+      forgetUser(userID);
 
     } catch (SQLException sqle) {
       log.warn("Exception while removing preference", sqle);
@@ -492,9 +736,19 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
     }
   }
 
+  private void forgetUser(Object userID) {
+    Cache<Object, User> cache = userCache;
+    if (cache != null) {
+      cache.remove(userID);
+    }
+  }
+
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    // do nothing
+    Cache<Object, User> cache = userCache;
+    if (cache != null) {
+      cache.clear();
+    }
   }
 
 
@@ -539,26 +793,47 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
     return new GenericPreference(user, item, value);
   }
 
+  private final class UserRetriever implements Retriever<Object, User> {
+    @Override
+    public User get(Object id) throws TasteException {
+      return doGetUser(id);
+    }
+  }
+
+  private PreparedStatement prepareForwardOnly(Connection connection, String sql) throws SQLException {
+    PreparedStatement statement =
+        connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+    int size = fetchSize;
+    if (size != 0) {
+      statement.setFetchSize(size);
+    }
+    return statement;
+  }
+
   /**
    * <p>An {@link java.util.Iterator} which returns {@link org.apache.mahout.cf.taste.model.User}s from a
    * {@link java.sql.ResultSet}. This is a useful
    * way to iterate over all user data since it does not require all data to be read into memory
    * at once. It does however require that the DB connection be held open. Note that this class will
-   * only release database resources after {@link #hasNext()} has been called and has returned false;
-   * callers should make sure to "drain" the entire set of data to avoid tying up database resources.</p>
+   * only release database resources once the last row has been read; callers should make sure to "drain"
+   * the entire set of data to avoid tying up database resources.</p>
+   *
+   * <p>The result set is only read forwards. After one user's rows, the cursor is left on the first row of
+   * the next user, which is then already "pending" when that user is read.</p>
    */
   private final class ResultSetUserIterator implements Iterator<User> {
 
     private final Connection connection;
     private final PreparedStatement statement;
     private final ResultSet resultSet;
+    private boolean rowPending;
     private boolean closed;
 
     private ResultSetUserIterator(DataSource dataSource, String getUsersSQL) throws TasteException {
       try {
         connection = dataSource.getConnection();
-        statement = connection.prepareStatement(getUsersSQL);
-        statement.setFetchDirection(ResultSet.FETCH_UNKNOWN);
+        statement = prepareForwardOnly(connection, getUsersSQL);
         log.debug("Executing SQL query: {}", getUsersSQL);
         resultSet = statement.executeQuery();
       } catch (SQLException sqle) {
@@ -569,49 +844,39 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
 
     @Override
     public boolean hasNext() {
-      boolean nextExists = false;
-      if (!closed) {
+      if (!closed && !rowPending) {
         try {
-          // No more results if cursor is pointing at last row, or after
-          // Thanks to Rolf W. for pointing out an earlier bug in this condition
-          if (resultSet.isLast() || resultSet.isAfterLast()) {
+          rowPending = resultSet.next();
+          if (!rowPending) {
             close();
-          } else {
-            nextExists = true;
           }
         } catch (SQLException sqle) {
           log.warn("Unexpected exception while accessing ResultSet; continuing...", sqle);
           close();
         }
       }
-      return nextExists;
+      return rowPending;
     }
 
     @Override
     public User next() {
 
-      if (closed) {
+      if (!hasNext()) {
         throw new NoSuchElementException();
       }
 
-      String currentUserID = null;
+      String currentUserID;
       List<Preference> prefs = new ArrayList<Preference>();
 
       try {
-        while (resultSet.next()) {
-          String userID = resultSet.getString(3);
-          if (currentUserID == null) {
-            currentUserID = userID;
-          }
-          // Did we move on to a new user?
-          if (!userID.equals(currentUserID)) {
-            // back up one row
-            resultSet.previous();
-            // we're done for now
-            break;
-          }
-          // else add a new preference for the current user
+        currentUserID = resultSet.getString(3);
+        do {
           addPreference(resultSet, prefs);
+          rowPending = resultSet.next();
+          // Stop when we move on to a new user, leaving its first row pending
+        } while (rowPending && currentUserID.equals(resultSet.getString(3)));
+        if (!rowPending) {
+          close();
         }
       } catch (SQLException sqle) {
         // No good way to handle this since we can't throw an exception
@@ -620,11 +885,6 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
         throw new NoSuchElementException("Can't retrieve more due to exception: " + sqle);
       }
 
-      if (currentUserID == null) {
-        // nothing left?
-        throw new NoSuchElementException();
-      }
-
       return buildUser(currentUserID, prefs);
     }
 
@@ -638,6 +898,7 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
 
     private void close() {
       closed = true;
+      rowPending = false;
       IOUtils.quietClose(resultSet, statement, connection);
     }
 
@@ -647,22 +908,24 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
    * <p>An {@link java.util.Iterator} which returns {@link org.apache.mahout.cf.taste.model.Item}s from a
    * {@link java.sql.ResultSet}. This is a useful way to iterate over all user data since it does not require
    * all data to be read into memory at once. It does however require that the DB connection be held open. Note
-   * that this class will only release database resources after {@link #hasNext()} has been called and has returned
-   * <code>false</code>; callers should make sure to "drain" the entire set of data to avoid tying up database
-   * resources.</p>
+   * that this class will only release database resources once the last row has been read; callers should make
+   * sure to "drain" the entire set of data to avoid tying up database resources.</p>
+   *
+   * <p>Like {@link ResultSetUserIterator}, this reads one row ahead, so that resources are released as soon
+   * as the last item is returned.</p>
    */
   private final class ResultSetItemIterator implements Iterator<Item> {
 
     private final Connection connection;
     private final PreparedStatement statement;
     private final ResultSet resultSet;
+    private boolean rowPending;
     private boolean closed;
 
     private ResultSetItemIterator(DataSource dataSource, String getItemsSQL) throws TasteException {
       try {
         connection = dataSource.getConnection();
-        statement = connection.prepareStatement(getItemsSQL);
-        statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+        statement = prepareForwardOnly(connection, getItemsSQL);
         log.debug("Executing SQL query: {}", getItemsSQL);
         resultSet = statement.executeQuery();
       } catch (SQLException sqle) {
@@ -673,37 +936,34 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
 
     @Override
     public boolean hasNext() {
-      boolean nextExists = false;
-      if (!closed) {
+      if (!closed && !rowPending) {
         try {
-          // No more results if cursor is pointing at last row, or after
-          // Thanks to Rolf W. for pointing out an earlier bug in this condition
-          if (resultSet.isLast() || resultSet.isAfterLast()) {
+          rowPending = resultSet.next();
+          if (!rowPending) {
             close();
-          } else {
-            nextExists = true;
           }
         } catch (SQLException sqle) {
           log.warn("Unexpected exception while accessing ResultSet; continuing...", sqle);
           close();
         }
       }
-      return nextExists;
+      return rowPending;
     }
 
     @Override
     public Item next() {
 
-      if (closed) {
+      if (!hasNext()) {
         throw new NoSuchElementException();
       }
 
       try {
-        if (resultSet.next()) {
-          return buildItem(resultSet.getString(1));
-        } else {
-          throw new NoSuchElementException();
+        String itemID = resultSet.getString(1);
+        rowPending = resultSet.next();
+        if (!rowPending) {
+          close();
         }
+        return buildItem(itemID);
       } catch (SQLException sqle) {
         // No good way to handle this since we can't throw an exception
         log.warn("Exception while iterating over items", sqle);
@@ -723,6 +983,7 @@ public abstract class AbstractJDBCDataModel implements JDBCDataModel {
 
     private void close() {
       closed = true;
+      rowPending = false;
       IOUtils.quietClose(resultSet, statement, connection);
     }
 
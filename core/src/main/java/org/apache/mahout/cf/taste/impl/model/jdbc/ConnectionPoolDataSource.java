@@ -17,9 +17,11 @@
 
 package org.apache.mahout.cf.taste.impl.model.jdbc;
 
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.apache.commons.dbcp.PoolableConnectionFactory;
 import org.apache.commons.dbcp.PoolingDataSource;
 import org.apache.commons.pool.ObjectPool;
-import org.apache.commons.pool.PoolableObjectFactory;
+import org.apache.commons.pool.impl.StackKeyedObjectPoolFactory;
 import org.apache.commons.pool.impl.StackObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +33,9 @@ import java.sql.SQLException;
 
 /**
  * <p>A wrapper {@link DataSource} which pools connections. Why can't Jakarta Commons DBCP provide this directly?</p>
+ *
+ * <p>Each pooled connection also pools the {@link java.sql.PreparedStatement}s prepared on it, so that
+ * preparing the same SQL again on a connection from this pool reuses the earlier statement.</p>
  */
 public final class ConnectionPoolDataSource implements DataSource {
 
@@ -42,8 +47,15 @@ public final class ConnectionPoolDataSource implements DataSource {
     if (underlyingDataSource == null) {
       throw new IllegalArgumentException("underlyingDataSource is null");
     }
-    PoolableObjectFactory poolFactory = new DataSourceConnectionFactory(underlyingDataSource);
-    ObjectPool connectionPool = new StackObjectPool(poolFactory);
+    ObjectPool connectionPool = new StackObjectPool();
+    // Sets itself as the pool's factory. Read-only is left as the underlying connections have it; DBCP
+    // always sets auto-commit, so it is set to true, the JDBC default for new connections
+    new PoolableConnectionFactory(new DataSourceConnectionFactory(underlyingDataSource),
+                                  connectionPool,
+                                  new StackKeyedObjectPoolFactory(),
+                                  null,
+                                  (Boolean) null,
+                                  true);
     this.delegate = new PoolingDataSource(connectionPool);
   }
 
@@ -97,7 +109,7 @@ public final class ConnectionPoolDataSource implements DataSource {
     return false;
   }
 
-  private static class DataSourceConnectionFactory implements PoolableObjectFactory {
+  private static class DataSourceConnectionFactory implements ConnectionFactory {
 
     private final DataSource dataSource;
 
@@ -106,31 +118,10 @@ public final class ConnectionPoolDataSource implements DataSource {
     }
 
     @Override
-    public Object makeObject() throws SQLException {
+    public Connection createConnection() throws SQLException {
       log.debug("Obtaining pooled connection");
       return dataSource.getConnection();
     }
-
-    @Override
-    public void destroyObject(Object o) throws SQLException {
-      log.debug("Closing pooled connection");
-      ((Connection) o).close();
-    }
-
-    @Override
-    public boolean validateObject(Object o) {
-      return true;
-    }
-
-    @Override
-    public void activateObject(Object o) {
-      // do nothing
-    }
-
-    @Override
-    public void passivateObject(Object o) {
-      // do nothing
-    }
   }
 
 }
@@ -74,6 +74,10 @@ import javax.sql.DataSource;
  * <li>query_cache_size=64M</li>
  * </ul>
  *
+ * <p>By default, {@link #getUsers()} and {@link #getItems()} stream their results, by setting a fetch size
+ * of {@link Integer#MIN_VALUE}, which is how MySQL's driver is asked to do so. Note that the driver allows no
+ * other statements on the connection until a streamed result set is drained or closed.</p>
+ *
  * <p>Thanks to Amila Jayasooriya for contributing MySQL notes above as part of Google Summer of Code 2007.</p>
  */
 public class MySQLJDBCDataModel extends AbstractJDBCDataModel {
@@ -165,6 +169,7 @@ public class MySQLJDBCDataModel extends AbstractJDBCDataModel {
           "SELECT COUNT(1) FROM " + preferenceTable + " tp1 INNER JOIN " + preferenceColumn + " tp2 " +
           "ON (tp1." + userIDColumn + "=tp2." + userIDColumn + ") " +
           "WHERE tp1." + itemIDColumn + "=? and tp2." + itemIDColumn + "=?");
+    setFetchSize(Integer.MIN_VALUE);
   }
 
 }
@@ -0,0 +1,483 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.impl.common.IOUtils;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.model.ByUserPreferenceComparator;
+import org.apache.mahout.cf.taste.impl.model.UpdatableDataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.JDBCDataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceChangeListener;
+import org.apache.mahout.cf.taste.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A {@link JDBCDataModel} which keeps a copy of all data from another {@link AbstractJDBCDataModel} in
+ * memory, and serves all reads from that copy. The database remains the source of truth: all data is read
+ * once, with one streaming query (see {@link AbstractJDBCDataModel#getUsers()}), and writes through
+ * {@link #setPreference(Object, Object, double)} and {@link #removePreference(Object, Object)} go to the
+ * database before they are applied in memory.</p>
+ *
+ * <p>If the preference table has a column which records when each row was last changed -- a timestamp, or
+ * any value which only increases, such as a sequence number -- then {@link #refresh(Collection)} reads only
+ * rows whose value is at least the greatest value seen so far, and applies them in place. Rows at that value
+ * are read again by the next refresh, since more may be written with the same value; rows whose preference
+ * is already in memory are skipped, so that unchanged users are not rebuilt or reported as changed. Rows
+ * deleted from the database by other means are not noticed this way; {@link #reload()} reads all data again.
+ * Without such a column, every refresh reloads all data.</p>
+ *
+ * <p>A reload builds a new copy of the data and then replaces the old one at once. Changes applied in place
+ * are instead copy-on-write per user and per item, as described in {@link UpdatableDataModel}: each changed
+ * user and item is replaced atomically, but a reader may briefly see a user's new preferences before the
+ * corresponding items' preferences are updated. Either way, readers are never blocked. Users left with no
+ * preferences are removed.</p>
+ *
+ * <p>Registered {@link PreferenceChangeListener}s are told of users and items changed in place.</p>
+ *
+ * <p>The copy holds the {@link User}s, {@link Item}s and {@link Preference}s built by the delegate, so it
+ * takes about as much memory as a {@link org.apache.mahout.cf.taste.impl.model.GenericDataModel}. The more
+ * compact {@link org.apache.mahout.cf.taste.impl.model.CompactDataModel} is not used, because it requires
+ * numeric IDs where JDBC models use {@link String}s, and cannot be changed in place.</p>
+ */
+public final class SnapshotJDBCDataModel implements JDBCDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(SnapshotJDBCDataModel.class);
+
+  private final AbstractJDBCDataModel delegate;
+  private final String getMaxUpdatedSQL;
+  private final String getUpdatedPrefsSQL;
+  private volatile UpdatableDataModel model;
+  private Object highWaterMark;
+  private final ReentrantLock updateLock;
+  private final RefreshHelper refreshHelper;
+  private final List<PreferenceChangeListener> listeners;
+
+  /**
+   * <p>Creates a {@link SnapshotJDBCDataModel} which reads all data again on each refresh.</p>
+   *
+   * @param delegate {@link AbstractJDBCDataModel} to read data from and write changes to
+   * @throws TasteException if an error occurs while reading data
+   */
+  public SnapshotJDBCDataModel(AbstractJDBCDataModel delegate) throws TasteException {
+    this(delegate, null);
+  }
+
+  /**
+   * <p>Creates a {@link SnapshotJDBCDataModel} which reads only changed rows on refresh.</p>
+   *
+   * @param delegate {@link AbstractJDBCDataModel} to read data from and write changes to
+   * @param updatedColumn column of the preference table whose value increases whenever a row is inserted or
+   *  updated, or <code>null</code> to read all data on each refresh
+   * @throws TasteException if an error occurs while reading data
+   */
+  public SnapshotJDBCDataModel(AbstractJDBCDataModel delegate, String updatedColumn) throws TasteException {
+    if (delegate == null) {
+      throw new IllegalArgumentException("delegate is null");
+    }
+    this.delegate = delegate;
+    if (updatedColumn == null) {
+      getMaxUpdatedSQL = null;
+      getUpdatedPrefsSQL = null;
+    } else {
+      String preferenceTable = delegate.getPreferenceTable();
+      getMaxUpdatedSQL = "SELECT MAX(" + updatedColumn + ") FROM " + preferenceTable;
+      getUpdatedPrefsSQL = "SELECT " + delegate.getUserIDColumn() + ", " + delegate.getItemIDColumn() + ", " +
+          delegate.getPreferenceColumn() + ", " + updatedColumn + " FROM " + preferenceTable +
+          " WHERE " + updatedColumn + ">=?";
+    }
+    this.updateLock = new ReentrantLock();
+    this.listeners = new CopyOnWriteArrayList<PreferenceChangeListener>();
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        if (getUpdatedPrefsSQL == null || !applyUpdatedPrefs()) {
+          reload();
+        }
+        return null;
+      }
+    });
+    refreshHelper.addDependency(delegate);
+    reload();
+  }
+
+  public AbstractJDBCDataModel getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * @param listener to be notified of changes applied in place
+   */
+  public void addPreferenceChangeListener(PreferenceChangeListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("listener is null");
+    }
+    listeners.add(listener);
+  }
+
+  public void removePreferenceChangeListener(PreferenceChangeListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * <p>Reads all data from the database again, and replaces the data in memory with it.</p>
+   *
+   * @throws TasteException if an error occurs while reading data
+   */
+  public void reload() throws TasteException {
+    updateLock.lock();
+    try {
+      // Read the high-water mark first; rows changed during the load are then just read again later
+      Object newHighWaterMark = getMaxUpdatedSQL == null ? null : queryMaxUpdated();
+      log.info("Loading all data from {}", delegate);
+      UpdatableDataModel newModel = new UpdatableDataModel(delegate.getUsers());
+      model = newModel;
+      highWaterMark = newHighWaterMark;
+      log.info("Loaded {}", newModel);
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  private Object queryMaxUpdated() throws TasteException {
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      conn = delegate.getDataSource().getConnection();
+      stmt = conn.prepareStatement(getMaxUpdatedSQL);
+      log.debug("Executing SQL query: {}", getMaxUpdatedSQL);
+      rs = stmt.executeQuery();
+      return rs.next() ? rs.getObject(1) : null;
+    } catch (SQLException sqle) {
+      log.warn("Exception while retrieving high-water mark", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+    }
+  }
+
+  /**
+   * @return false if all data must be read instead, because none was read with a high-water mark
+   */
+  private boolean applyUpdatedPrefs() throws TasteException {
+    updateLock.lock();
+    try {
+      if (highWaterMark == null) {
+        return false;
+      }
+      // User ID -> item ID -> new preference
+      Map<String, Map<String, Preference>> changes = new FastMap<String, Map<String, Preference>>();
+      Map<String, Item> itemCache = new FastMap<String, Item>();
+      Object newHighWaterMark = highWaterMark;
+      Connection conn = null;
+      PreparedStatement stmt = null;
+      ResultSet rs = null;
+      try {
+        conn = delegate.getDataSource().getConnection();
+        stmt = conn.prepareStatement(getUpdatedPrefsSQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if (delegate.getFetchSize() != 0) {
+          stmt.setFetchSize(delegate.getFetchSize());
+        }
+        stmt.setObject(1, highWaterMark);
+        log.debug("Executing SQL query: {}", getUpdatedPrefsSQL);
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          newHighWaterMark = max(newHighWaterMark, rs.getObject(4));
+          String userID = rs.getString(1);
+          String itemID = rs.getString(2);
+          double value = rs.getDouble(3);
+          if (isInMemory(userID, itemID, value)) {
+            continue;
+          }
+          Item item = itemCache.get(itemID);
+          if (item == null) {
+            item = model.getItemOrNull(itemID);
+            if (item == null) {
+              item = delegate.buildItem(itemID);
+            }
+            itemCache.put(itemID, item);
+          }
+          recordChange(changes, userID, itemID, delegate.buildPreference(null, item, value));
+        }
+      } catch (SQLException sqle) {
+        log.warn("Exception while retrieving changed preferences", sqle);
+        throw new TasteException(sqle);
+      } finally {
+        IOUtils.quietClose(rs, stmt, conn);
+      }
+      applyChanges(changes);
+      highWaterMark = newHighWaterMark;
+      return true;
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  private boolean isInMemory(String userID, String itemID, double value) {
+    User user = model.getUserOrNull(userID);
+    Preference pref = user == null ? null : user.getPreferenceFor(itemID);
+    return pref != null && pref.getValue() == value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object max(Object a, Object b) {
+    if (b == null) {
+      return a;
+    }
+    return ((Comparable<Object>) b).compareTo(a) > 0 ? b : a;
+  }
+
+  private static void recordChange(Map<String, Map<String, Preference>> changes,
+                                   String userID,
+                                   String itemID,
+                                   Preference pref) {
+    Map<String, Preference> userChanges = changes.get(userID);
+    if (userChanges == null) {
+      // Allows null values, which mark removals
+      userChanges = new HashMap<String, Preference>();
+      changes.put(userID, userChanges);
+    }
+    userChanges.put(itemID, pref);
+  }
+
+  /**
+   * Applies changes, given as a {@link Map} from user IDs to a {@link Map} from item IDs to new
+   * {@link Preference}s, or <code>null</code> for removed preferences, to the data in memory.
+   */
+  private void applyChanges(Map<String, Map<String, Preference>> changes) {
+    if (changes.isEmpty()) {
+      return;
+    }
+    UpdatableDataModel current = model;
+
+    // Item ID -> user ID -> new preference, or null to remove the preference
+    Map<Object, Map<Object, Preference>> itemChanges = new FastMap<Object, Map<Object, Preference>>();
+    Set<Object> changedItemIDs = new FastSet<Object>();
+    List<Object> changedUserIDs = new ArrayList<Object>(changes.size());
+    for (Map.Entry<String, Map<String, Preference>> entry : changes.entrySet()) {
+      String userID = entry.getKey();
+      Map<String, Preference> userChanges = entry.getValue();
+      List<Preference> prefs = new ArrayList<Preference>();
+      User oldUser = current.getUserOrNull(userID);
+      if (oldUser != null) {
+        // Unchanged preferences are copied, since building the new User points its preferences at it, and
+        // the old ones are still visible to readers of the current data. Their items are then updated to
+        // refer to the copies too, though their preferences did not change.
+        for (Preference pref : oldUser.getPreferencesAsArray()) {
+          Object itemID = pref.getItem().getID();
+          if (!userChanges.containsKey(itemID)) {
+            Preference copy = delegate.buildPreference(null, pref.getItem(), pref.getValue());
+            prefs.add(copy);
+            addItemChange(itemChanges, itemID, userID, copy);
+          }
+        }
+      }
+      for (Map.Entry<String, Preference> change : userChanges.entrySet()) {
+        Preference pref = change.getValue();
+        if (pref != null) {
+          prefs.add(pref);
+        }
+        addItemChange(itemChanges, change.getKey(), userID, pref);
+        changedItemIDs.add(change.getKey());
+      }
+      if (prefs.isEmpty()) {
+        current.removeUser(userID);
+      } else {
+        current.setUser(delegate.buildUser(userID, prefs));
+      }
+      changedUserIDs.add(userID);
+    }
+
+    for (Map.Entry<Object, Map<Object, Preference>> entry : itemChanges.entrySet()) {
+      Object itemID = entry.getKey();
+      Map<Object, Preference> usersChanges = entry.getValue();
+      Item item = current.getItemOrNull(itemID);
+      Preference[] oldPrefs = current.getPreferencesForItemAsArray(itemID);
+      List<Preference> prefs = new ArrayList<Preference>(oldPrefs.length + usersChanges.size());
+      for (Preference pref : oldPrefs) {
+        if (!usersChanges.containsKey(pref.getUser().getID())) {
+          prefs.add(pref);
+        }
+      }
+      for (Preference pref : usersChanges.values()) {
+        if (pref != null) {
+          prefs.add(pref);
+          item = pref.getItem();
+        }
+      }
+      if (item != null) {
+        Preference[] prefsAsArray = prefs.toArray(new Preference[prefs.size()]);
+        Arrays.sort(prefsAsArray, ByUserPreferenceComparator.getInstance());
+        current.setPreferencesForItem(item, prefsAsArray);
+      }
+    }
+
+    log.debug("Applied changes for {} users and {} items", changedUserIDs.size(), changedItemIDs.size());
+    for (PreferenceChangeListener listener : listeners) {
+      listener.preferencesChanged(this, changedUserIDs, changedItemIDs);
+    }
+  }
+
+  private static void addItemChange(Map<Object, Map<Object, Preference>> itemChanges,
+                                    Object itemID,
+                                    Object userID,
+                                    Preference pref) {
+    Map<Object, Preference> usersForItem = itemChanges.get(itemID);
+    if (usersForItem == null) {
+      usersForItem = new HashMap<Object, Preference>();
+      itemChanges.put(itemID, usersForItem);
+    }
+    usersForItem.put(userID, pref);
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return delegate.getDataSource();
+  }
+
+  @Override
+  public Iterable<? extends User> getUsers() {
+    return model.getUsers();
+  }
+
+  @Override
+  public User getUser(Object id) throws TasteException {
+    return model.getUser(id);
+  }
+
+  @Override
+  public Iterable<? extends Item> getItems() {
+    return model.getItems();
+  }
+
+  @Override
+  public Item getItem(Object id) throws TasteException {
+    return model.getItem(id);
+  }
+
+  /**
+   * @throws NoSuchItemException if there is no such item in memory, and <code>assumeExists</code> is not set
+   */
+  @Override
+  public Item getItem(Object id, boolean assumeExists) throws TasteException {
+    if (!assumeExists) {
+      return model.getItem(id);
+    }
+    Item item = model.getItemOrNull(id);
+    return item == null ? delegate.getItem(id, true) : item;
+  }
+
+  @Override
+  public Iterable<? extends Preference> getPreferencesForItem(Object itemID) {
+    return model.getPreferencesForItem(itemID);
+  }
+
+  @Override
+  public Preference[] getPreferencesForItemAsArray(Object itemID) {
+    return model.getPreferencesForItemAsArray(itemID);
+  }
+
+  @Override
+  public int getNumItems() {
+    return model.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return model.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(Object... itemIDs) {
+    return model.getNumUsersWithPreferenceFor(itemIDs);
+  }
+
+  /**
+   * <p>Writes the preference to the database, then applies it in memory.</p>
+   */
+  @Override
+  public void setPreference(Object userID, Object itemID, double value) throws TasteException {
+    delegate.setPreference(userID, itemID, value);
+    updateLock.lock();
+    try {
+      String itemIDString = itemID.toString();
+      Item item = model.getItemOrNull(itemIDString);
+      if (item == null) {
+        item = delegate.buildItem(itemIDString);
+      }
+      applyChange(userID, itemIDString, delegate.buildPreference(null, item, value));
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  /**
+   * <p>Removes the preference from the database, then from memory.</p>
+   */
+  @Override
+  public void removePreference(Object userID, Object itemID) throws TasteException {
+    delegate.removePreference(userID, itemID);
+    updateLock.lock();
+    try {
+      applyChange(userID, itemID.toString(), null);
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  private void applyChange(Object userID, String itemID, Preference pref) {
+    Map<String, Map<String, Preference>> changes = new FastMap<String, Map<String, Preference>>(1);
+    recordChange(changes, userID.toString(), itemID, pref);
+    applyChanges(changes);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "SnapshotJDBCDataModel[delegate:" + delegate + ']';
+  }
+
+}
@@ -0,0 +1,232 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.impl.common.RandomUtils;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>Computes a neighborhood consisting of the nearest n {@link User}s to a given {@link User}, like
+ * {@link NearestNUserNeighborhood}, but only considers {@link User}s which a locality-sensitive hash index
+ * suggests are likely to be similar, rather than all {@link User}s.</p>
+ *
+ * <p>The index is built from MinHash signatures of the set of items each {@link User} has a preference
+ * for. Each signature is split into <code>numBands</code> bands of <code>rowsPerBand</code> hash values, and
+ * two {@link User}s are candidate neighbors if all values of any one band are equal. Two {@link User}s whose
+ * item sets have Jaccard similarity <em>s</em> are then candidates with probability
+ * 1 - (1 - <em>s</em><sup><code>rowsPerBand</code></sup>)<sup><code>numBands</code></sup>. More bands
+ * find more of the true neighbors; more rows per band find fewer unlikely ones, and so evaluate fewer
+ * {@link User}s. Candidates are ranked by the given {@link UserSimilarity} as usual.</p>
+ *
+ * <p>The index is built when this is created, and rebuilt on {@link #refresh(Collection)}.</p>
+ */
+public final class LSHUserNeighborhood implements UserNeighborhood {
+
+  private static final Logger log = LoggerFactory.getLogger(LSHUserNeighborhood.class);
+
+  private final int n;
+  private final double minSimilarity;
+  private final UserSimilarity userSimilarity;
+  private final DataModel dataModel;
+  private final int numBands;
+  private final int rowsPerBand;
+  private final long[] hashSeeds;
+  private volatile List<FastByIDMap<List<User>>> bandBuckets;
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * @param n neighborhood size
+   * @param minSimilarity minimal similarity required for neighbors
+   * @param userSimilarity nearness metric
+   * @param dataModel data model
+   * @param numBands number of bands of the MinHash signature to index
+   * @param rowsPerBand number of MinHash values in each band
+   * @throws IllegalArgumentException if n, numBands or rowsPerBand is less than 1, or userSimilarity or
+   *  dataModel are <code>null</code>
+   * @throws TasteException if an error occurs while reading users to build the index
+   */
+  public LSHUserNeighborhood(int n,
+                             double minSimilarity,
+                             UserSimilarity userSimilarity,
+                             DataModel dataModel,
+                             int numBands,
+                             int rowsPerBand) throws TasteException {
+    if (userSimilarity == null || dataModel == null) {
+      throw new IllegalArgumentException("userSimilarity or dataModel is null");
+    }
+    if (n < 1) {
+      throw new IllegalArgumentException("n must be at least 1");
+    }
+    if (numBands < 1 || rowsPerBand < 1) {
+      throw new IllegalArgumentException("numBands and rowsPerBand must be at least 1");
+    }
+    this.n = n;
+    this.minSimilarity = minSimilarity;
+    this.userSimilarity = userSimilarity;
+    this.dataModel = dataModel;
+    this.numBands = numBands;
+    this.rowsPerBand = rowsPerBand;
+    Random random = RandomUtils.getRandom();
+    hashSeeds = new long[numBands * rowsPerBand];
+    for (int i = 0; i < hashSeeds.length; i++) {
+      hashSeeds[i] = random.nextLong();
+    }
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        buildIndex();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    refreshHelper.addDependency(userSimilarity);
+    buildIndex();
+  }
+
+  private void buildIndex() throws TasteException {
+    List<FastByIDMap<List<User>>> newBandBuckets = new ArrayList<FastByIDMap<List<User>>>(numBands);
+    for (int band = 0; band < numBands; band++) {
+      newBandBuckets.add(new FastByIDMap<List<User>>());
+    }
+    int numUsers = 0;
+    for (User user : dataModel.getUsers()) {
+      long[] bandKeys = computeBandKeys(user);
+      if (bandKeys == null) {
+        continue;
+      }
+      for (int band = 0; band < numBands; band++) {
+        FastByIDMap<List<User>> buckets = newBandBuckets.get(band);
+        List<User> bucket = buckets.get(bandKeys[band]);
+        if (bucket == null) {
+          bucket = new ArrayList<User>(2);
+          buckets.put(bandKeys[band], bucket);
+        }
+        bucket.add(user);
+      }
+      numUsers++;
+    }
+    bandBuckets = newBandBuckets;
+    log.info("Indexed {} users in {} bands", numUsers, numBands);
+  }
+
+  /**
+   * @return key of each band of the user's MinHash signature, or <code>null</code> if the user has no
+   *  preferences
+   */
+  private long[] computeBandKeys(User user) {
+    Preference[] prefs = user.getPreferencesAsArray();
+    if (prefs.length == 0) {
+      return null;
+    }
+    int numHashes = hashSeeds.length;
+    long[] minHashes = new long[numHashes];
+    for (int i = 0; i < numHashes; i++) {
+      minHashes[i] = Long.MAX_VALUE;
+    }
+    for (Preference pref : prefs) {
+      long itemHash = pref.getItem().getID().hashCode();
+      for (int i = 0; i < numHashes; i++) {
+        long hash = mix(itemHash ^ hashSeeds[i]);
+        if (hash < minHashes[i]) {
+          minHashes[i] = hash;
+        }
+      }
+    }
+    long[] bandKeys = new long[numBands];
+    for (int band = 0; band < numBands; band++) {
+      long key = band;
+      int offset = band * rowsPerBand;
+      for (int row = 0; row < rowsPerBand; row++) {
+        key = mix(key * 31L + minHashes[offset + row]);
+      }
+      bandKeys[band] = key;
+    }
+    return bandKeys;
+  }
+
+  /**
+   * Finalization step of MurmurHash3's 64-bit hash, which spreads the bits of the argument over the result.
+   */
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+
+  @Override
+  public Collection<User> getUserNeighborhood(Object userID) throws TasteException {
+    log.trace("Computing neighborhood around user ID '{}'", userID);
+
+    User theUser = dataModel.getUser(userID);
+    long[] bandKeys = computeBandKeys(theUser);
+    if (bandKeys == null) {
+      return Collections.emptyList();
+    }
+
+    List<FastByIDMap<List<User>>> theBandBuckets = bandBuckets;
+    Set<User> candidates = new FastSet<User>();
+    for (int band = 0; band < numBands; band++) {
+      List<User> bucket = theBandBuckets.get(band).get(bandKeys[band]);
+      if (bucket != null) {
+        candidates.addAll(bucket);
+      }
+    }
+    log.trace("Evaluating {} candidate neighbors", candidates.size());
+
+    TopItems.Estimator<User> estimator = new UserSimilarityEstimator(userSimilarity, theUser, minSimilarity);
+    List<User> neighborhood = TopItems.getTopUsers(n, candidates, null, estimator);
+
+    log.trace("UserNeighborhood around user ID '{}' is: {}", userID, neighborhood);
+
+    return Collections.unmodifiableList(neighborhood);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "LSHUserNeighborhood[bands:" + numBands + ", rowsPerBand:" + rowsPerBand + ']';
+  }
+
+}
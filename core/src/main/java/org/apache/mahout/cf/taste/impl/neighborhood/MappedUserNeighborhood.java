@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.impl.common.MappedFile;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.SortedIDIndex;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceChangeListener;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>A {@link UserNeighborhood} which serves precomputed neighborhoods from a file written by
+ * {@link PrecomputedUserNeighborhoodBuilder}. The file is memory-mapped, so it is available almost
+ * immediately on startup, survives restarts, and may be shared by several JVMs through the page cache.</p>
+ *
+ * <p>Neighbors are returned most similar first. {@link User}s are looked up in the given {@link DataModel};
+ * neighbors which no longer exist there are skipped, and a {@link User} not in the file has no neighbors.
+ * Users are identified by the {@link String} form of their IDs.</p>
+ *
+ * <p>{@link #refresh(Collection)} maps the file again if it has changed.
+ * {@link PrecomputedUserNeighborhoodBuilder} writes a new file next to the old one and renames it over it, so it may
+ * replace a file which is in use. Do the same to replace it by other means; rewriting the mapped file in
+ * place has undefined results.</p>
+ *
+ * <p>Given a {@link PrecomputedUserNeighborhoodBuilder}, this also keeps the file up to date itself. Registered
+ * as a {@link PreferenceChangeListener} with a {@link DataModel} which applies changes in place, it remembers
+ * which users changed, and {@link #refresh(Collection)} rebuilds the file for just those users before mapping
+ * it again. A {@link DataModel} which reloads all its data reports no changes, so the file should then be
+ * built again from scratch.</p>
+ */
+public final class MappedUserNeighborhood implements UserNeighborhood, PreferenceChangeListener {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedUserNeighborhood.class);
+
+  static final int MAGIC = 0x544E4252; // "TNBR"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 4 * 4;
+
+  private final File file;
+  private final DataModel dataModel;
+  private final PrecomputedUserNeighborhoodBuilder builder;
+  private final Set<Object> changedUserIDs;
+  private long lastModified;
+  private long lastLength;
+  private volatile Index index;
+
+  /**
+   * @param file file written by {@link PrecomputedUserNeighborhoodBuilder}
+   * @param dataModel {@link DataModel} to get {@link User}s from
+   * @throws FileNotFoundException if file does not exist
+   * @throws IOException if the file can't be mapped, or is not a valid neighborhood file
+   */
+  public MappedUserNeighborhood(File file, DataModel dataModel) throws IOException {
+    this(file, dataModel, null);
+  }
+
+  /**
+   * @param file file written by {@link PrecomputedUserNeighborhoodBuilder}
+   * @param dataModel {@link DataModel} to get {@link User}s from
+   * @param builder builder to rebuild the file with after users change, or <code>null</code> to only serve it
+   * @throws FileNotFoundException if file does not exist
+   * @throws IOException if the file can't be mapped, or is not a valid neighborhood file
+   */
+  public MappedUserNeighborhood(File file, DataModel dataModel, PrecomputedUserNeighborhoodBuilder builder)
+      throws IOException {
+    if (file == null || dataModel == null) {
+      throw new IllegalArgumentException("file or dataModel is null");
+    }
+    if (!file.exists() || file.isDirectory()) {
+      throw new FileNotFoundException(file.toString());
+    }
+    this.file = file.getAbsoluteFile();
+    this.dataModel = dataModel;
+    this.builder = builder;
+    this.changedUserIDs = new FastSet<Object>();
+    this.lastModified = file.lastModified();
+    this.lastLength = file.length();
+    this.index = new Index(this.file);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  Index getIndex() {
+    return index;
+  }
+
+  @Override
+  public Collection<User> getUserNeighborhood(Object userID) throws TasteException {
+    log.trace("Reading neighborhood around user ID '{}'", userID);
+    Index index = this.index;
+    int row = index.ids.indexOf(userID.toString());
+    if (row < 0) {
+      return Collections.emptyList();
+    }
+    int start = index.rowStarts.get(row);
+    int end = index.rowStarts.get(row + 1);
+    List<User> neighborhood = new ArrayList<User>(end - start);
+    for (int i = start; i < end; i++) {
+      String neighborID = index.ids.get(index.neighbors.get(i));
+      try {
+        neighborhood.add(dataModel.getUser(neighborID));
+      } catch (NoSuchUserException nsue) {
+        log.debug("Skipping neighbor '{}' which no longer exists", neighborID);
+      }
+    }
+    return Collections.unmodifiableList(neighborhood);
+  }
+
+  @Override
+  public synchronized void refresh(Collection<Refreshable> alreadyRefreshed) {
+    alreadyRefreshed = RefreshHelper.buildRefreshed(alreadyRefreshed);
+    RefreshHelper.maybeRefresh(alreadyRefreshed, dataModel);
+    if (builder != null) {
+      rebuildChangedUsers();
+    }
+    long modified = file.lastModified();
+    long length = file.length();
+    // Any difference means a new file; its time may be older, or within the clock's resolution
+    if (modified != lastModified || length != lastLength) {
+      log.debug("Neighborhood file has changed; mapping again...");
+      try {
+        index = new Index(file);
+        lastModified = modified;
+        lastLength = length;
+      } catch (IOException ioe) {
+        log.warn("Unable to map new neighborhood file; keeping the old one", ioe);
+      }
+    }
+  }
+
+  @Override
+  public void preferencesChanged(DataModel dataModel, Collection<Object> userIDs, Collection<Object> itemIDs) {
+    synchronized (changedUserIDs) {
+      changedUserIDs.addAll(userIDs);
+    }
+  }
+
+  private void rebuildChangedUsers() {
+    Collection<Object> userIDs;
+    synchronized (changedUserIDs) {
+      if (changedUserIDs.isEmpty()) {
+        return;
+      }
+      userIDs = new ArrayList<Object>(changedUserIDs);
+      changedUserIDs.clear();
+    }
+    log.debug("Rebuilding neighborhoods for {} changed users...", userIDs.size());
+    boolean rebuilt = false;
+    try {
+      builder.rebuild(this, userIDs, file);
+      rebuilt = true;
+    } catch (TasteException te) {
+      log.warn("Unable to rebuild neighborhood file; will try again on next refresh", te);
+    } catch (IOException ioe) {
+      log.warn("Unable to rebuild neighborhood file; will try again on next refresh", ioe);
+    } finally {
+      if (!rebuilt) {
+        synchronized (changedUserIDs) {
+          changedUserIDs.addAll(userIDs);
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MappedUserNeighborhood[file:" + file + ']';
+  }
+
+  /**
+   * The mapped contents of one neighborhood file: for each user, in order of ID, the indices of its
+   * neighbors, most similar first, and the similarity to each.
+   */
+  static final class Index {
+
+    final int numUsers;
+    final IntBuffer rowStarts;
+    final IntBuffer neighbors;
+    final FloatBuffer values;
+    final SortedIDIndex ids;
+
+    private Index(File file) throws IOException {
+      MappedFile mapped = new MappedFile(file, "Neighborhood file");
+      ByteBuffer buffer = mapped.getBuffer();
+      if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a neighborhood file: " + file);
+      }
+      int version = buffer.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("Unsupported neighborhood file version " + version + ": " + file);
+      }
+      numUsers = buffer.getInt(8);
+      int numEntries = buffer.getInt(12);
+
+      mapped.seek(HEADER_BYTES);
+      rowStarts = mapped.nextSection(4L * (numUsers + 1)).asIntBuffer();
+      neighbors = mapped.nextSection(4L * numEntries).asIntBuffer();
+      values = mapped.nextSection(4L * numEntries).asFloatBuffer();
+      IntBuffer idStarts = mapped.nextSection(4L * (numUsers + 1)).asIntBuffer();
+      CharBuffer idChars = mapped.nextSection(2L * idStarts.get(numUsers)).asCharBuffer();
+      ids = new SortedIDIndex(idStarts, idChars);
+    }
+
+  }
+
+}
@@ -95,7 +95,7 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
     User theUser = dataModel.getUser(userID);
     UserSimilarity userSimilarityImpl = getUserSimilarity();
 
-    TopItems.Estimator<User> estimator = new Estimator(userSimilarityImpl, theUser, minSimilarity);
+    TopItems.Estimator<User> estimator = new UserSimilarityEstimator(userSimilarityImpl, theUser, minSimilarity);
 
     List<User> neighborhood = TopItems.getTopUsers(n, dataModel.getUsers(), null, estimator);
 
@@ -108,25 +108,4 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
   public String toString() {
     return "NearestNUserNeighborhood";
   }
-
-  private static class Estimator implements TopItems.Estimator<User> {
-    private final UserSimilarity userSimilarityImpl;
-    private final User theUser;
-    private final double minSim;
-
-    private Estimator(UserSimilarity userSimilarityImpl, User theUser, double minSim) {
-      this.userSimilarityImpl = userSimilarityImpl;
-      this.theUser = theUser;
-      this.minSim = minSim;
-    }
-
-    @Override
-    public double estimate(User user) throws TasteException {
-      if (user.equals(theUser)) {
-        return Double.NaN;
-      }
-      double sim = userSimilarityImpl.userSimilarity(theUser, user);
-      return (sim >= minSim) ? sim : Double.NaN; 
-    }
-  }
 }
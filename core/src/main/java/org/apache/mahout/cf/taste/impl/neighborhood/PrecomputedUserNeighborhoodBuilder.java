@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.NeighborRowsBuilder;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * <p>Computes the neighborhood of every user in a {@link DataModel} -- its nearest n users according to
+ * some {@link UserSimilarity}, as {@link NearestNUserNeighborhood} would -- using several threads, and
+ * writes them to a compact binary file which {@link MappedUserNeighborhood} can serve.</p>
+ *
+ * <p>After preferences of some users change, {@link #rebuild(MappedUserNeighborhood, Collection, File)}
+ * produces a new file from the old one, recomputing only what the changes may affect, as described in
+ * {@link NeighborRowsBuilder}, which also describes the file format. Each user's neighbors are stored most
+ * similar first. {@link DataModel}s which apply changes in place report the IDs of changed users to a
+ * {@link org.apache.mahout.cf.taste.model.PreferenceChangeListener}; a {@link MappedUserNeighborhood} given
+ * this builder listens for them, and rebuilds its file on refresh.</p>
+ */
+public final class PrecomputedUserNeighborhoodBuilder {
+
+  private final UserSimilarity similarity;
+  private final DataModel dataModel;
+  private final int n;
+  private final double minSimilarity;
+  private final int numThreads;
+
+  /**
+   * @param n neighborhood size
+   * @param minSimilarity minimal similarity required for neighbors
+   * @param similarity {@link UserSimilarity} to compute similarities with
+   * @param dataModel {@link DataModel} to get {@link User}s from
+   * @param numThreads number of threads to compute with
+   */
+  public PrecomputedUserNeighborhoodBuilder(int n,
+                                            double minSimilarity,
+                                            UserSimilarity similarity,
+                                            DataModel dataModel,
+                                            int numThreads) {
+    if (similarity == null || dataModel == null) {
+      throw new IllegalArgumentException("similarity or dataModel is null");
+    }
+    if (n < 1) {
+      throw new IllegalArgumentException("n must be at least 1");
+    }
+    if (Double.isNaN(minSimilarity)) {
+      throw new IllegalArgumentException("minSimilarity is NaN");
+    }
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
+    this.n = n;
+    this.minSimilarity = minSimilarity;
+    this.similarity = similarity;
+    this.dataModel = dataModel;
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * Computes neighborhoods of all users and writes them to the given file.
+   *
+   * @throws TasteException if an error occurs while accessing the {@link DataModel} or computing similarity
+   * @throws IOException if an error occurs while writing the file
+   */
+  public void build(File file) throws TasteException, IOException {
+    rebuild(null, Collections.emptySet(), file);
+  }
+
+  /**
+   * Writes a new file based on a previously built one, given the IDs of users whose preferences have changed
+   * since. Users added to or removed from the {@link DataModel} since should be included.
+   *
+   * @param previous previously built neighborhoods, or <code>null</code> to compute everything
+   * @param changedUserIDs IDs of users whose preferences have changed
+   * @param file file to write to, which may be the file previous is reading from
+   * @throws TasteException if an error occurs while accessing the {@link DataModel} or computing similarity
+   * @throws IOException if an error occurs while writing the file
+   */
+  public void rebuild(MappedUserNeighborhood previous, Collection<?> changedUserIDs, File file)
+      throws TasteException, IOException {
+    NeighborRowsBuilder.PreviousRows previousRows = null;
+    if (previous != null) {
+      MappedUserNeighborhood.Index index = previous.getIndex();
+      previousRows = new NeighborRowsBuilder.PreviousRows(index.rowStarts, index.neighbors, index.values, index.ids);
+    }
+    new UserRowsBuilder().build(dataModel.getUsers(), previousRows, changedUserIDs, file);
+  }
+
+  private final class UserRowsBuilder extends NeighborRowsBuilder<User> {
+
+    private UserRowsBuilder() {
+      super(MappedUserNeighborhood.MAGIC, MappedUserNeighborhood.VERSION, n, minSimilarity, numThreads, true);
+    }
+
+    @Override
+    protected Object getID(User user) {
+      return user.getID();
+    }
+
+    @Override
+    protected double similarity(User user1, User user2) throws TasteException {
+      return similarity.userSimilarity(user1, user2);
+    }
+  }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+/**
+ * <p>Estimates how near a {@link User} is to a given {@link User} as their similarity, skipping the
+ * {@link User} itself and any {@link User} less similar than a minimum.</p>
+ */
+final class UserSimilarityEstimator implements TopItems.Estimator<User> {
+
+  private final UserSimilarity userSimilarityImpl;
+  private final User theUser;
+  private final double minSim;
+
+  UserSimilarityEstimator(UserSimilarity userSimilarityImpl, User theUser, double minSim) {
+    this.userSimilarityImpl = userSimilarityImpl;
+    this.theUser = theUser;
+    this.minSim = minSim;
+  }
+
+  @Override
+  public double estimate(User user) throws TasteException {
+    if (user.equals(theUser)) {
+      return Double.NaN;
+    }
+    double sim = userSimilarityImpl.userSimilarity(theUser, user);
+    return sim >= minSim ? sim : Double.NaN;
+  }
+
+}
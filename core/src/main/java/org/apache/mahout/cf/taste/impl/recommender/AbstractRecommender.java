@@ -21,9 +21,9 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Item;
 import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
-import org.apache.mahout.cf.taste.impl.common.FastSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,6 +34,8 @@ public abstract class AbstractRecommender implements Recommender {
 
   private static final Logger log = LoggerFactory.getLogger(AbstractRecommender.class);
 
+  private static final CandidateItemsStrategy ALL_OTHER_ITEMS = new AllItemsCandidateItemsStrategy();
+
   private final DataModel dataModel;
 
   protected AbstractRecommender(DataModel dataModel) {
@@ -95,21 +97,15 @@ public abstract class AbstractRecommender implements Recommender {
 
   /**
    * @param theUser {@link User} being evaluated
-   * @return all {@link Item}s in the {@link DataModel} for which the {@link User} has not expressed a preference
+   * @return all {@link Item}s in the {@link DataModel} for which the {@link User} has not expressed a preference,
+   *  as found by {@link AllItemsCandidateItemsStrategy}
    * @throws TasteException if an error occurs while listing {@link Item}s
    */
   protected Set<Item> getAllOtherItems(User theUser) throws TasteException {
     if (theUser == null) {
       throw new IllegalArgumentException("theUser is null");
     }
-    Set<Item> allItems = new FastSet<Item>(dataModel.getNumItems());
-    for (Item item : dataModel.getItems()) {
-      // If not already preferred by the user, add it
-      if (theUser.getPreferenceFor(item.getID()) == null) {
-        allItems.add(item);
-      }
-    }
-    return allItems;
+    return ALL_OTHER_ITEMS.getCandidateItems(theUser, dataModel);
   }
 
 }
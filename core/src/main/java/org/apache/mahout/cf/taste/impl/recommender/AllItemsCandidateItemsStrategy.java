@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+
+import java.util.Set;
+
+/**
+ * <p>A {@link CandidateItemsStrategy} which considers every {@link Item} in the {@link DataModel} that the
+ * {@link User} has not expressed a preference for.</p>
+ */
+public final class AllItemsCandidateItemsStrategy implements CandidateItemsStrategy {
+
+  @Override
+  public Set<Item> getCandidateItems(User user, DataModel dataModel) throws TasteException {
+    Set<Item> allItems = new FastSet<Item>(dataModel.getNumItems());
+    for (Item item : dataModel.getItems()) {
+      // If not already preferred by the user, add it
+      if (user.getPreferenceFor(item.getID()) == null) {
+        allItems.add(item);
+      }
+    }
+    return allItems;
+  }
+
+  @Override
+  public String toString() {
+    return "AllItemsCandidateItemsStrategy";
+  }
+
+}
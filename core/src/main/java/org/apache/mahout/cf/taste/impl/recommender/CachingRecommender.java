@@ -17,9 +17,14 @@
 
 package org.apache.mahout.cf.taste.impl.recommender;
 
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.impl.common.FileLineIterable;
+import org.apache.mahout.cf.taste.impl.common.IOUtils;
 import org.apache.mahout.cf.taste.impl.common.Pair;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.Retriever;
@@ -31,28 +36,62 @@ import org.apache.mahout.cf.taste.recommender.Rescorer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>A {@link Recommender} which caches the results from another {@link Recommender} in memory.
  * Results are held by {@link SoftReference}s so that the JVM may reclaim memory from the recommendationCache
  * in low-memory situations.</p>
+ *
+ * <p>By default, {@link #refresh(Collection)} clears all cached recommendations. After
+ * {@link #setWarming(int, int)}, it instead keeps them, and recomputes those of the most recently seen users
+ * on a background thread pool. Until a user's recommendations are recomputed, the previous ones are
+ * served. Stale recommendations served to any other user are recomputed in the background too.</p>
+ *
+ * <p>With warming enabled, {@link #writeRecommendations(File)} saves the recent users' recommendations, and
+ * {@link #readRecommendations(File)} loads them back after a restart, to be served, and recomputed in the
+ * background, until the cache has filled again.</p>
  */
 public final class CachingRecommender implements Recommender {
 
   private static final Logger log = LoggerFactory.getLogger(CachingRecommender.class);
 
+  private static final int PRELOADED_GENERATION = -1;
+
   private final Recommender recommender;
   private final AtomicInteger maxHowMany;
   private final Cache<Object, Recommendations> recommendationCache;
   private final Cache<Pair<?, ?>, Double> estimatedPrefCache;
   private final RefreshHelper refreshHelper;
   private Rescorer<Item> currentRescorer;
+  private final AtomicInteger generation;
+  private final Map<Object, Recommendations> preloaded;
+  private final Set<Object> warmingUsers;
+  private volatile Map<Object, Object> recentUsers;
+  private volatile ExecutorService warmer;
+  private final AtomicLong staleServedCount;
+  private final AtomicInteger warmTotal;
+  private final AtomicInteger warmDone;
 
   public CachingRecommender(Recommender recommender) throws TasteException {
     if (recommender == null) {
@@ -63,13 +102,24 @@ public final class CachingRecommender implements Recommender {
     // Use "num users" as an upper limit on cache size. Rough guess.
     int numUsers = recommender.getDataModel().getNumUsers();
     this.recommendationCache =
-        new Cache<Object, Recommendations>(new RecommendationRetriever(this.recommender), numUsers);
+        new Cache<Object, Recommendations>(new RecommendationRetriever(), numUsers);
     this.estimatedPrefCache =
             new Cache<Pair<?, ?>, Double>(new EstimatedPrefRetriever(this.recommender), numUsers);
+    this.generation = new AtomicInteger();
+    this.preloaded = new FastMap<Object, Recommendations>();
+    this.warmingUsers = new FastSet<Object>();
+    this.staleServedCount = new AtomicLong();
+    this.warmTotal = new AtomicInteger();
+    this.warmDone = new AtomicInteger();
     this.refreshHelper = new RefreshHelper(new Callable<Object>() {
       @Override
       public Object call() {
-        clear();
+        if (warmer == null) {
+          clear();
+        } else {
+          generation.incrementAndGet();
+          warm();
+        }
         return null;
       }
     });
@@ -122,6 +172,15 @@ public final class CachingRecommender implements Recommender {
       }
     }
 
+    Map<Object, Object> theRecentUsers = recentUsers;
+    if (theRecentUsers != null) {
+      theRecentUsers.put(userID, Boolean.TRUE);
+    }
+    if (recommendations.getGeneration() != generation.get()) {
+      staleServedCount.incrementAndGet();
+      scheduleWarming(userID, false);
+    }
+
     List<RecommendedItem> recommendedItems = recommendations.getItems();
     return recommendedItems.size() > howMany ?
            recommendedItems.subList(0, howMany) :
@@ -163,6 +222,9 @@ public final class CachingRecommender implements Recommender {
   public void clear(Object userID) {
     log.debug("Clearing recommendations for user ID '{}'", userID);
     recommendationCache.remove(userID);
+    synchronized (preloaded) {
+      preloaded.remove(userID);
+    }
   }
 
   /**
@@ -171,6 +233,216 @@ public final class CachingRecommender implements Recommender {
   public void clear() {
     log.debug("Clearing all recommendations...");
     recommendationCache.clear();
+    synchronized (preloaded) {
+      preloaded.clear();
+    }
+  }
+
+  /**
+   * <p>Keeps cached recommendations on refresh, and recomputes them in the background instead.</p>
+   *
+   * @param maxWarmUsers number of most recently seen users whose recommendations are recomputed on refresh
+   * @param numThreads number of threads to recompute recommendations with
+   */
+  public synchronized void setWarming(final int maxWarmUsers, int numThreads) {
+    if (maxWarmUsers < 1 || numThreads < 1) {
+      throw new IllegalArgumentException("maxWarmUsers and numThreads must be at least 1");
+    }
+    stopWarming();
+    // Access-ordered, so the eldest entry is the least recently seen user
+    recentUsers = Collections.synchronizedMap(new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+        return size() > maxWarmUsers;
+      }
+    });
+    warmer = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "CachingRecommender-warmer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * <p>Stops recomputing recommendations in the background; {@link #refresh(Collection)} clears them
+   * again.</p>
+   */
+  public synchronized void stopWarming() {
+    if (warmer != null) {
+      warmer.shutdownNow();
+      warmer = null;
+      recentUsers = null;
+    }
+  }
+
+  /**
+   * <p>Recomputes stale recommendations of the most recently seen users in the background, most recent
+   * first. This happens on refresh anyway, when warming is enabled.</p>
+   */
+  public void warm() {
+    Map<Object, Object> theRecentUsers = recentUsers;
+    if (theRecentUsers == null) {
+      return;
+    }
+    Object[] userIDs;
+    synchronized (theRecentUsers) {
+      userIDs = theRecentUsers.keySet().toArray();
+    }
+    log.debug("Warming recommendations for {} users", userIDs.length);
+    warmDone.set(0);
+    warmTotal.set(userIDs.length);
+    for (int i = userIDs.length - 1; i >= 0; i--) {
+      scheduleWarming(userIDs[i], true);
+    }
+  }
+
+  private void scheduleWarming(Object userID, boolean counted) {
+    ExecutorService theWarmer = warmer;
+    if (theWarmer == null) {
+      return;
+    }
+    boolean added;
+    synchronized (warmingUsers) {
+      added = warmingUsers.add(userID);
+    }
+    if (!added) {
+      // Already being recomputed
+      if (counted) {
+        warmDone.incrementAndGet();
+      }
+      return;
+    }
+    try {
+      theWarmer.execute(new Warming(userID, counted));
+    } catch (RejectedExecutionException ree) {
+      synchronized (warmingUsers) {
+        warmingUsers.remove(userID);
+      }
+    }
+  }
+
+  /**
+   * @return fraction of requests for recommendations answered from the cache, including stale answers
+   */
+  public double getHitRate() {
+    long hits = recommendationCache.getHitCount();
+    long total = hits + recommendationCache.getMissCount();
+    return total == 0L ? Double.NaN : (double) hits / (double) total;
+  }
+
+  /**
+   * @return number of times recommendations computed before the last refresh, or read from a file, were served
+   */
+  public long getStaleServedCount() {
+    return staleServedCount.get();
+  }
+
+  /**
+   * @return fraction of users whose recommendations the last {@link #warm()} has recomputed so far
+   */
+  public double getWarmingProgress() {
+    int total = warmTotal.get();
+    return total == 0 ? 1.0 : Math.min(1.0, (double) warmDone.get() / (double) total);
+  }
+
+  /**
+   * <p>Writes cached recommendations of the most recently seen users to a file, one recommended item per line,
+   * as user ID, item ID and value separated by tabs.</p>
+   *
+   * @throws IllegalStateException if warming is not enabled
+   * @throws IOException if an error occurs while writing
+   */
+  public void writeRecommendations(File file) throws IOException {
+    Map<Object, Object> theRecentUsers = recentUsers;
+    if (theRecentUsers == null) {
+      throw new IllegalStateException("Warming is not enabled");
+    }
+    Object[] userIDs;
+    synchronized (theRecentUsers) {
+      userIDs = theRecentUsers.keySet().toArray();
+    }
+    Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      for (Object userID : userIDs) {
+        Recommendations recommendations = recommendationCache.peek(userID);
+        if (recommendations == null) {
+          continue;
+        }
+        for (RecommendedItem recommendedItem : recommendations.getItems()) {
+          out.write(String.valueOf(userID));
+          out.write('\t');
+          out.write(String.valueOf(recommendedItem.getItem().getID()));
+          out.write('\t');
+          out.write(String.valueOf(recommendedItem.getValue()));
+          out.write('\n');
+        }
+      }
+      out.flush();
+    } finally {
+      IOUtils.quietClose(out);
+    }
+    log.info("Wrote recommendations for up to {} users to {}", userIDs.length, file);
+  }
+
+  /**
+   * <p>Reads recommendations written by {@link #writeRecommendations(File)}. They are served as stale
+   * recommendations until recomputed. User IDs are read as {@link String}s; items are looked up in the
+   * {@link DataModel} by their ID as a {@link String}, and skipped if they no longer exist.</p>
+   *
+   * <p>Warming must be enabled, as nothing else would recompute these recommendations.</p>
+   *
+   * @throws IllegalStateException if warming is not enabled
+   * @throws IOException if an error occurs while reading
+   * @throws TasteException if an error occurs while accessing the {@link DataModel}
+   */
+  public void readRecommendations(File file) throws IOException, TasteException {
+    Map<Object, Object> theRecentUsers = recentUsers;
+    if (theRecentUsers == null) {
+      throw new IllegalStateException("Warming is not enabled");
+    }
+    if (!file.exists() || file.isDirectory()) {
+      throw new IOException("No such file: " + file);
+    }
+    DataModel dataModel = getDataModel();
+    Map<String, List<RecommendedItem>> data = new FastMap<String, List<RecommendedItem>>();
+    for (String line : new FileLineIterable(file, false)) {
+      String[] tokens = line.split("\t");
+      if (tokens.length != 3) {
+        continue;
+      }
+      Item item;
+      try {
+        item = dataModel.getItem(tokens[1]);
+      } catch (NoSuchItemException nsie) {
+        continue;
+      }
+      List<RecommendedItem> items = data.get(tokens[0]);
+      if (items == null) {
+        items = new ArrayList<RecommendedItem>();
+        data.put(tokens[0], items);
+      }
+      items.add(new GenericRecommendedItem(item, Double.parseDouble(tokens[2])));
+    }
+    synchronized (preloaded) {
+      for (Map.Entry<String, List<RecommendedItem>> entry : data.entrySet()) {
+        preloaded.put(entry.getKey(),
+                      new Recommendations(Collections.unmodifiableList(entry.getValue()), PRELOADED_GENERATION));
+        theRecentUsers.put(entry.getKey(), Boolean.TRUE);
+      }
+    }
+    log.info("Read recommendations for {} users from {}", data.size(), file);
+  }
+
+  private List<RecommendedItem> doRecommend(Object userID) throws TasteException {
+    int howMany = maxHowMany.get();
+    Rescorer<Item> rescorer = currentRescorer;
+    List<RecommendedItem> recommendations = rescorer == null ?
+        recommender.recommend(userID, howMany) :
+        recommender.recommend(userID, howMany, rescorer);
+    return Collections.unmodifiableList(recommendations);
   }
 
   @Override
@@ -180,20 +452,53 @@ public final class CachingRecommender implements Recommender {
 
   private final class RecommendationRetriever implements Retriever<Object, Recommendations> {
 
-    private final Recommender recommender;
+    @Override
+    public Recommendations get(Object key) throws TasteException {
+      Recommendations preloadedRecommendations;
+      synchronized (preloaded) {
+        preloadedRecommendations = preloaded.remove(key);
+      }
+      if (preloadedRecommendations != null) {
+        return preloadedRecommendations;
+      }
+      log.debug("Retrieving new recommendations for user ID '{}'", key);
+      int currentGeneration = generation.get();
+      return new Recommendations(doRecommend(key), currentGeneration);
+    }
+  }
 
-    private RecommendationRetriever(Recommender recommender) {
-      this.recommender = recommender;
+  /**
+   * Recomputes one user's recommendations, if they are stale.
+   */
+  private final class Warming implements Runnable {
+
+    private final Object userID;
+    private final boolean counted;
+
+    private Warming(Object userID, boolean counted) {
+      this.userID = userID;
+      this.counted = counted;
     }
 
     @Override
-    public Recommendations get(Object key) throws TasteException {
-      log.debug("Retrieving new recommendations for user ID '{}'", key);
-      int howMany = maxHowMany.get();
-      List<RecommendedItem> recommendations = currentRescorer == null ?
-          recommender.recommend(key, howMany) :
-          recommender.recommend(key, howMany, currentRescorer);
-      return new Recommendations(Collections.unmodifiableList(recommendations));
+    public void run() {
+      try {
+        Recommendations recommendations = recommendationCache.get(userID);
+        int currentGeneration = generation.get();
+        if (recommendations.getGeneration() != currentGeneration) {
+          log.debug("Warming recommendations for user ID '{}'", userID);
+          recommendations.update(doRecommend(userID), currentGeneration);
+        }
+      } catch (TasteException te) {
+        log.warn("Unable to warm recommendations for user ID '" + userID + '\'', te);
+      } finally {
+        synchronized (warmingUsers) {
+          warmingUsers.remove(userID);
+        }
+        if (counted) {
+          warmDone.incrementAndGet();
+        }
+      }
     }
   }
 
@@ -216,11 +521,23 @@ public final class CachingRecommender implements Recommender {
 
   private static final class Recommendations {
 
-    private final List<RecommendedItem> items;
-    private boolean noMoreRecommendableItems;
+    private volatile List<RecommendedItem> items;
+    private volatile boolean noMoreRecommendableItems;
+    private volatile int generation;
+
+    private Recommendations(List<RecommendedItem> items, int generation) {
+      this.items = items;
+      this.generation = generation;
+    }
 
-    private Recommendations(List<RecommendedItem> items) {
+    synchronized void update(List<RecommendedItem> items, int generation) {
       this.items = items;
+      this.noMoreRecommendableItems = false;
+      this.generation = generation;
+    }
+
+    int getGeneration() {
+      return generation;
     }
 
     List<RecommendedItem> getItems() {
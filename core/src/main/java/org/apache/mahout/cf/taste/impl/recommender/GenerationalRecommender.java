@@ -0,0 +1,389 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.recommender.Rescorer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A {@link Recommender} which refreshes by building an entirely new {@link Recommender} -- along with its
+ * {@link DataModel}, similarity, neighborhood and so on -- on a background thread, and then switching to it
+ * in one step. Requests never wait for a refresh, and never see a half-refreshed
+ * {@link Recommender}: each call is served entirely by whichever generation was current when it started.
+ * Callers needing several calls to be answered by the same generation can use
+ * {@link #getCurrentRecommender()}.</p>
+ *
+ * <p>Generations are built by calling the given {@link Callable}, which must return a new, fully loaded
+ * {@link Recommender} each time, for example:</p>
+ *
+ * <pre>
+ * new GenerationalRecommender(new Callable&lt;Recommender&gt;() {
+ *   public Recommender call() throws TasteException {
+ *     DataModel model = new FileDataModel(new File("ratings.txt"));
+ *     UserSimilarity similarity = new PearsonCorrelationSimilarity(model);
+ *     UserNeighborhood neighborhood = new NearestNUserNeighborhood(10, similarity, model);
+ *     return new GenericUserBasedRecommender(model, neighborhood, similarity);
+ *   }
+ * });
+ * </pre>
+ *
+ * <p>{@link #refresh(Collection)} and {@link #requestRefresh()} only schedule a build and return at once.
+ * Requests made while a build is running are coalesced into a single further build. Refreshes may also
+ * be scheduled periodically with {@link #setRefreshInterval(long, TimeUnit)}. If a build fails, the current
+ * generation is kept.</p>
+ *
+ * <p>{@link #setPreference(Object, Object, double)} and {@link #removePreference(Object, Object)} apply to
+ * the current generation only; they survive a refresh only if they are persisted where the next generation
+ * will load them from.</p>
+ */
+public final class GenerationalRecommender implements Recommender {
+
+  private static final Logger log = LoggerFactory.getLogger(GenerationalRecommender.class);
+
+  private final Callable<? extends Recommender> generationBuilder;
+  private final ScheduledExecutorService executor;
+  private volatile Recommender current;
+  private final Object stateLock;
+  private boolean building;
+  private boolean pending;
+  /** Number of the last build started, counting from 1 after the first generation */
+  private long buildsStarted;
+  private long buildsFinished;
+  private long lastSuccessfulBuild;
+  private ScheduledFuture<?> periodicRefresh;
+  private long generation;
+  private int numCoalescedRefreshes;
+  private int numFailedBuilds;
+  private long lastBuildTimeMS;
+  private final RunningAverage buildTimes;
+
+  /**
+   * Builds the first generation before returning.
+   *
+   * @param generationBuilder builds a new {@link Recommender} for each generation
+   * @throws TasteException if the first generation can't be built
+   */
+  public GenerationalRecommender(Callable<? extends Recommender> generationBuilder) throws TasteException {
+    if (generationBuilder == null) {
+      throw new IllegalArgumentException("generationBuilder is null");
+    }
+    this.generationBuilder = generationBuilder;
+    this.stateLock = new Object();
+    this.buildTimes = new FullRunningAverage();
+    try {
+      this.current = buildGeneration();
+    } catch (TasteException te) {
+      throw te;
+    } catch (Exception e) {
+      throw new TasteException(e);
+    }
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "GenerationalRecommender");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * @return the {@link Recommender} of the current generation
+   */
+  public Recommender getCurrentRecommender() {
+    return current;
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(Object userID, int howMany) throws TasteException {
+    return current.recommend(userID, howMany);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(Object userID, int howMany, Rescorer<Item> rescorer)
+      throws TasteException {
+    return current.recommend(userID, howMany, rescorer);
+  }
+
+  @Override
+  public double estimatePreference(Object userID, Object itemID) throws TasteException {
+    return current.estimatePreference(userID, itemID);
+  }
+
+  @Override
+  public void setPreference(Object userID, Object itemID, double value) throws TasteException {
+    current.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(Object userID, Object itemID) throws TasteException {
+    current.removePreference(userID, itemID);
+  }
+
+  @Override
+  public DataModel getDataModel() {
+    return current.getDataModel();
+  }
+
+  /**
+   * Schedules a new generation to be built, like {@link #requestRefresh()}. The current generation's
+   * components are not refreshed themselves.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    requestRefresh();
+  }
+
+  /**
+   * Schedules a new generation to be built and returns immediately. If a build is already running, another
+   * one follows it, so that the new generation reflects data as of this request; any number of requests made
+   * during one build result in just one more build.
+   */
+  public void requestRefresh() {
+    request();
+  }
+
+  /**
+   * @return number of the build which will satisfy this request, or -1 if none will because this is closed
+   */
+  private long request() {
+    long build;
+    synchronized (stateLock) {
+      // Whether or not a build is running, the next one to start satisfies this request
+      build = buildsStarted + 1;
+      if (building) {
+        if (pending) {
+          numCoalescedRefreshes++;
+        }
+        pending = true;
+        return build;
+      }
+      building = true;
+    }
+    try {
+      executor.execute(new GenerationBuild());
+    } catch (RejectedExecutionException ree) {
+      log.warn("Not refreshing; closed");
+      synchronized (stateLock) {
+        building = false;
+        stateLock.notifyAll();
+      }
+      return -1L;
+    }
+    return build;
+  }
+
+  /**
+   * Like {@link #requestRefresh()}, but waits until the new generation is in use.
+   *
+   * @throws TasteException if the build satisfying this request failed, this is closed, or the wait was
+   *  interrupted
+   */
+  public void refreshAndWait() throws TasteException {
+    long build = request();
+    if (build < 0L) {
+      throw new TasteException("Not refreshing; closed");
+    }
+    synchronized (stateLock) {
+      while (buildsFinished < build) {
+        try {
+          stateLock.wait();
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+      }
+      // A later build may have finished too; any success since the request will do
+      if (lastSuccessfulBuild < build) {
+        throw new TasteException("Failed to build new generation; see log");
+      }
+    }
+  }
+
+  /**
+   * Sets how often a refresh is requested automatically. This replaces any previous interval.
+   *
+   * @param interval time between the end of one scheduled request and the next, or 0 to stop refreshing
+   *  automatically
+   * @param unit unit of interval
+   */
+  public void setRefreshInterval(long interval, TimeUnit unit) {
+    if (interval < 0L) {
+      throw new IllegalArgumentException("interval is negative");
+    }
+    synchronized (stateLock) {
+      if (periodicRefresh != null) {
+        periodicRefresh.cancel(false);
+        periodicRefresh = null;
+      }
+      if (interval > 0L) {
+        periodicRefresh = executor.scheduleWithFixedDelay(new Runnable() {
+          @Override
+          public void run() {
+            requestRefresh();
+          }
+        }, interval, interval, unit);
+      }
+    }
+  }
+
+  /**
+   * Stops building generations. The current generation keeps serving requests.
+   */
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return number of generations published since this was created; the first generation is 0
+   */
+  public long getGeneration() {
+    synchronized (stateLock) {
+      return generation;
+    }
+  }
+
+  /**
+   * @return refresh requests which were satisfied by a build requested by someone else
+   */
+  public int getNumCoalescedRefreshes() {
+    synchronized (stateLock) {
+      return numCoalescedRefreshes;
+    }
+  }
+
+  public int getNumFailedBuilds() {
+    synchronized (stateLock) {
+      return numFailedBuilds;
+    }
+  }
+
+  /**
+   * @return time taken to build the current generation, in milliseconds
+   */
+  public long getLastBuildTimeMS() {
+    synchronized (stateLock) {
+      return lastBuildTimeMS;
+    }
+  }
+
+  /**
+   * @return average time taken to build a generation, in milliseconds
+   */
+  public double getAverageBuildTimeMS() {
+    synchronized (stateLock) {
+      return buildTimes.getAverage();
+    }
+  }
+
+  private Recommender buildGeneration() throws Exception {
+    long start = System.currentTimeMillis();
+    Recommender recommender = generationBuilder.call();
+    if (recommender == null) {
+      throw new TasteException("generationBuilder returned null");
+    }
+    long time = System.currentTimeMillis() - start;
+    synchronized (stateLock) {
+      lastBuildTimeMS = time;
+      buildTimes.addDatum((double) time);
+    }
+    log.info("Built new generation in {}ms: {}", time, recommender);
+    return recommender;
+  }
+
+  @Override
+  public String toString() {
+    return "GenerationalRecommender[recommender:" + current + ']';
+  }
+
+  /**
+   * Builds and publishes generations until no more have been requested.
+   */
+  private final class GenerationBuild implements Runnable {
+    @Override
+    public void run() {
+      boolean finished = false;
+      try {
+        boolean more = true;
+        while (more) {
+          long build;
+          synchronized (stateLock) {
+            build = ++buildsStarted;
+            pending = false;
+          }
+          try {
+            Recommender newGeneration = buildGeneration();
+            current = newGeneration;
+            synchronized (stateLock) {
+              generation++;
+              lastSuccessfulBuild = build;
+            }
+          } catch (Exception e) {
+            log.warn("Unable to build new generation; keeping the current one", e);
+            synchronized (stateLock) {
+              numFailedBuilds++;
+            }
+          }
+          synchronized (stateLock) {
+            buildsFinished = build;
+            more = pending;
+            if (!more) {
+              building = false;
+              stateLock.notifyAll();
+            }
+          }
+        }
+        finished = true;
+      } finally {
+        if (!finished) {
+          // An Error escaped, likely OutOfMemoryError; fail this build and any pending one, so that
+          // later requests start a new build and nobody waits forever
+          synchronized (stateLock) {
+            numFailedBuilds++;
+            if (pending) {
+              buildsStarted++;
+              pending = false;
+            }
+            buildsFinished = buildsStarted;
+            building = false;
+            stateLock.notifyAll();
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -29,6 +29,7 @@ import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Item;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Rescorer;
@@ -57,20 +58,40 @@ import java.util.Set;
  * {@link org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity} too, 
  * which computes similarities in real-time,
  * but will probably find this painfully slow for large amounts of data.</p>
+ *
+ * <p>By default every {@link Item} the {@link User} has no preference for is considered for recommendation.
+ * On large catalogs, supply a {@link CandidateItemsStrategy} such as
+ * {@link PreferredItemsNeighborhoodCandidateItemsStrategy} to consider far fewer.</p>
  */
 public final class GenericItemBasedRecommender extends AbstractRecommender implements ItemBasedRecommender {
 
   private static final Logger log = LoggerFactory.getLogger(GenericItemBasedRecommender.class);
 
   private final ItemSimilarity similarity;
+  private final CandidateItemsStrategy candidateItemsStrategy;
   private final RefreshHelper refreshHelper;
 
   public GenericItemBasedRecommender(DataModel dataModel, ItemSimilarity similarity) {
+    this(dataModel, similarity, new AllItemsCandidateItemsStrategy());
+  }
+
+  /**
+   * @param dataModel {@link DataModel} to recommend from
+   * @param similarity {@link ItemSimilarity} used to estimate preferences
+   * @param candidateItemsStrategy chooses which {@link Item}s to consider recommending
+   */
+  public GenericItemBasedRecommender(DataModel dataModel,
+                                     ItemSimilarity similarity,
+                                     CandidateItemsStrategy candidateItemsStrategy) {
     super(dataModel);
     if (similarity == null) {
       throw new IllegalArgumentException("similarity is null");
     }
+    if (candidateItemsStrategy == null) {
+      throw new IllegalArgumentException("candidateItemsStrategy is null");
+    }
     this.similarity = similarity;
+    this.candidateItemsStrategy = candidateItemsStrategy;
     this.refreshHelper = new RefreshHelper(null);
     refreshHelper.addDependency(dataModel);
     refreshHelper.addDependency(similarity);
@@ -94,7 +115,7 @@ public final class GenericItemBasedRecommender extends AbstractRecommender imple
       return Collections.emptyList();
     }
 
-    Set<Item> allItems = getAllOtherItems(theUser);
+    Set<Item> allItems = candidateItemsStrategy.getCandidateItems(theUser, getDataModel());
 
     TopItems.Estimator<Item> estimator = new Estimator(theUser);
 
@@ -226,7 +247,8 @@ public final class GenericItemBasedRecommender extends AbstractRecommender imple
 
   @Override
   public String toString() {
-    return "GenericItemBasedRecommender[similarity:" + similarity + ']';
+    return "GenericItemBasedRecommender[similarity:" + similarity
+        + ",candidateItemsStrategy:" + candidateItemsStrategy + ']';
   }
 
   private static class MostSimilarEstimator implements TopItems.Estimator<Item> {
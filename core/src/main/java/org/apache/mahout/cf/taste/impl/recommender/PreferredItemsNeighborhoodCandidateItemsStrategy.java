@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+
+import java.util.Set;
+
+/**
+ * <p>A {@link CandidateItemsStrategy} which considers only {@link Item}s that co-occur with the
+ * {@link User}'s own: those preferred by some other {@link User} who also prefers one of the {@link User}'s
+ * {@link Item}s. These are found through {@link DataModel#getPreferencesForItemAsArray(Object)}, so the cost
+ * depends on how many preferences surround the {@link User}'s {@link Item}s, not on the size of the
+ * catalog.</p>
+ *
+ * <p>An {@link Item} which co-occurs with none of the {@link User}'s usually could not get a meaningful
+ * estimate anyway, since similarity metrics computed from preference data need co-occurrence. With
+ * precomputed similarities which relate items in other ways, this strategy may omit some
+ * recommendations.</p>
+ */
+public final class PreferredItemsNeighborhoodCandidateItemsStrategy implements CandidateItemsStrategy {
+
+  @Override
+  public Set<Item> getCandidateItems(User user, DataModel dataModel) throws TasteException {
+    Preference[] userPrefs = user.getPreferencesAsArray();
+    Set<Object> seenUserIDs = new FastSet<Object>();
+    seenUserIDs.add(user.getID());
+    Set<Item> candidateItems = new FastSet<Item>();
+    for (Preference userPref : userPrefs) {
+      for (Preference itemPref : dataModel.getPreferencesForItemAsArray(userPref.getItem().getID())) {
+        User otherUser = itemPref.getUser();
+        // Each other user's items only need to be visited once
+        if (seenUserIDs.add(otherUser.getID())) {
+          for (Preference otherPref : otherUser.getPreferencesAsArray()) {
+            candidateItems.add(otherPref.getItem());
+          }
+        }
+      }
+    }
+    for (Preference userPref : userPrefs) {
+      candidateItems.remove(userPref.getItem());
+    }
+    return candidateItems;
+  }
+
+  @Override
+  public String toString() {
+    return "PreferredItemsNeighborhoodCandidateItemsStrategy";
+  }
+
+}
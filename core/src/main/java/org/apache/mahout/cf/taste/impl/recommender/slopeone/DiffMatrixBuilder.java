@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.IOUtils;
+import org.apache.mahout.cf.taste.impl.common.SortedIDIndex;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Computes the average difference between preferences for every pair of items in a {@link DataModel},
+ * as {@link MemoryDiffStorage} does, and writes them to a compact binary file which
+ * {@link MappedDiffStorage} can serve. No object is created per item pair: diffs are accumulated one item
+ * at a time in primitive arrays and written out as they are completed. Like {@link MemoryDiffStorage},
+ * this leaves out diffs with only one data point.</p>
+ *
+ * <p>The file is written big-endian, in this order:</p>
+ *
+ * <ol>
+ *  <li>header: <code>int</code> magic number, version, 1 if standard deviations are included or else 0,
+ *   number of items, number of diffs</li>
+ *  <li>diffs, ordered by first and then second item, each as <code>int</code> index of the second item,
+ *   <code>float</code> average of the second item's preference minus the first's, <code>int</code> count,
+ *   and if included, <code>float</code> standard deviation. Only pairs whose first item comes before the
+ *   second are included.</li>
+ *  <li><code>int[numItems + 1]</code>: start of each item's diffs</li>
+ *  <li><code>float[numItems]</code>: average preference for each item</li>
+ *  <li><code>int[numItems]</code>: number of preferences for each item</li>
+ *  <li><code>int[numItems + 1]</code>: start of each item ID in the item ID characters</li>
+ *  <li><code>char[]</code>: item ID characters; items are sorted by ID</li>
+ * </ol>
+ */
+public final class DiffMatrixBuilder {
+
+  private static final Logger log = LoggerFactory.getLogger(DiffMatrixBuilder.class);
+
+  private final DataModel dataModel;
+  private final boolean stdDevWeighted;
+
+  /**
+   * @param dataModel {@link DataModel} to compute diffs from
+   * @param stdDevWeighted whether to include standard deviations; see {@link SlopeOneRecommender}
+   */
+  public DiffMatrixBuilder(DataModel dataModel, Weighting stdDevWeighted) {
+    if (dataModel == null) {
+      throw new IllegalArgumentException("dataModel is null");
+    }
+    this.dataModel = dataModel;
+    this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
+  }
+
+  /**
+   * @throws TasteException if an error occurs while accessing the {@link DataModel}
+   * @throws IOException if an error occurs while writing the file
+   */
+  public void build(File file) throws TasteException, IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("file is null");
+    }
+
+    List<String> idsList = new ArrayList<String>(dataModel.getNumItems());
+    for (Item item : dataModel.getItems()) {
+      idsList.add(item.getID().toString());
+    }
+    String[] ids = idsList.toArray(new String[idsList.size()]);
+    Arrays.sort(ids);
+    int numItems = ids.length;
+
+    // Each user's preferences as item indices and values, sorted by item index,
+    // and for each item, the users who expressed a preference for it
+    List<int[]> userItemsList = new ArrayList<int[]>(dataModel.getNumUsers());
+    List<float[]> userValuesList = new ArrayList<float[]>(dataModel.getNumUsers());
+    int[] itemCounts = new int[numItems];
+    for (User user : dataModel.getUsers()) {
+      Preference[] prefs = user.getPreferencesAsArray();
+      int length = prefs.length;
+      long[] sortable = new long[length];
+      for (int i = 0; i < length; i++) {
+        int itemIndex = Arrays.binarySearch(ids, prefs[i].getItem().getID().toString());
+        // Pack item index above the position of the preference, so sorting orders by item index
+        sortable[i] = ((long) itemIndex << 32) | (long) i;
+      }
+      Arrays.sort(sortable);
+      int[] userItems = new int[length];
+      float[] userValues = new float[length];
+      for (int i = 0; i < length; i++) {
+        userItems[i] = (int) (sortable[i] >>> 32);
+        userValues[i] = (float) prefs[(int) sortable[i]].getValue();
+        itemCounts[userItems[i]]++;
+      }
+      userItemsList.add(userItems);
+      userValuesList.add(userValues);
+    }
+    int numUsers = userItemsList.size();
+    int[][] itemUsers = new int[numItems][];
+    int[][] itemPositions = new int[numItems][];
+    for (int i = 0; i < numItems; i++) {
+      itemUsers[i] = new int[itemCounts[i]];
+      itemPositions[i] = new int[itemCounts[i]];
+    }
+    int[] filled = new int[numItems];
+    for (int u = 0; u < numUsers; u++) {
+      int[] userItems = userItemsList.get(u);
+      for (int p = 0; p < userItems.length; p++) {
+        int itemIndex = userItems[p];
+        itemUsers[itemIndex][filled[itemIndex]] = u;
+        itemPositions[itemIndex][filled[itemIndex]] = p;
+        filled[itemIndex]++;
+      }
+    }
+    filled = null;
+
+    log.info("Building diffs for {} items and {} users to {}", new Object[] {numItems, numUsers, file});
+    int[] rowStarts = new int[numItems + 1];
+    float[] itemAverages = new float[numItems];
+    // Accumulators for one item's diffs, indexed by the other item
+    int[] counts = new int[numItems];
+    double[] sums = new double[numItems];
+    double[] sumSquares = stdDevWeighted ? new double[numItems] : null;
+    int[] touched = new int[numItems];
+    long numEntries = 0L;
+    // The whole file is mapped as one buffer when read, so it must stay under 2GB: header, entries, and then
+    // the row starts, item averages, item counts and ID tables
+    int entryBytes = stdDevWeighted ? 16 : 12;
+    long numIDChars = 0L;
+    for (String id : ids) {
+      numIDChars += id.length();
+    }
+    long fixedBytes = MappedDiffStorage.HEADER_BYTES + 4L * (numItems + 1) + 4L * numItems + 4L * numItems +
+        4L * (numItems + 1) + 2L * numIDChars;
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    try {
+      out.writeInt(MappedDiffStorage.MAGIC);
+      out.writeInt(MappedDiffStorage.VERSION);
+      out.writeInt(stdDevWeighted ? 1 : 0);
+      out.writeInt(numItems);
+      out.writeInt(0); // number of diffs, filled in at the end
+
+      for (int i = 0; i < numItems; i++) {
+        rowStarts[i] = (int) numEntries;
+        int numTouched = 0;
+        double sumItemValues = 0.0;
+        int[] users = itemUsers[i];
+        int[] positions = itemPositions[i];
+        for (int k = 0; k < users.length; k++) {
+          int[] userItems = userItemsList.get(users[k]);
+          float[] userValues = userValuesList.get(users[k]);
+          int position = positions[k];
+          double valueI = userValues[position];
+          sumItemValues += valueI;
+          // Items after i in this user's preferences are exactly those with a greater index
+          for (int p = position + 1; p < userItems.length; p++) {
+            int j = userItems[p];
+            double diff = userValues[p] - valueI;
+            if (counts[j] == 0) {
+              touched[numTouched++] = j;
+            }
+            counts[j]++;
+            sums[j] += diff;
+            if (sumSquares != null) {
+              sumSquares[j] += diff * diff;
+            }
+          }
+        }
+        itemAverages[i] = users.length == 0 ? Float.NaN : (float) (sumItemValues / users.length);
+
+        Arrays.sort(touched, 0, numTouched);
+        for (int t = 0; t < numTouched; t++) {
+          int j = touched[t];
+          int count = counts[j];
+          // Leave out diffs with one data point, which are possibly unreliable
+          if (count > 1) {
+            double average = sums[j] / count;
+            out.writeInt(j);
+            out.writeFloat((float) average);
+            out.writeInt(count);
+            if (sumSquares != null) {
+              out.writeFloat((float) Math.sqrt(Math.max(0.0, (sumSquares[j] - average * average * count) /
+                                                             (count - 1))));
+            }
+            numEntries++;
+          }
+          counts[j] = 0;
+          sums[j] = 0.0;
+          if (sumSquares != null) {
+            sumSquares[j] = 0.0;
+          }
+        }
+        if (fixedBytes + entryBytes * numEntries > Integer.MAX_VALUE) {
+          throw new IOException("Too many diffs: " + numEntries + " for " + numItems + " items exceed 2GB");
+        }
+      }
+      rowStarts[numItems] = (int) numEntries;
+
+      for (int rowStart : rowStarts) {
+        out.writeInt(rowStart);
+      }
+      for (float itemAverage : itemAverages) {
+        out.writeFloat(itemAverage);
+      }
+      for (int itemCount : itemCounts) {
+        out.writeInt(itemCount);
+      }
+      SortedIDIndex.writeStarts(ids, out);
+      SortedIDIndex.writeChars(ids, out);
+      out.flush();
+    } finally {
+      IOUtils.quietClose(out);
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(4L * 4);
+      raf.writeInt((int) numEntries);
+    } finally {
+      IOUtils.quietClose(raf);
+    }
+    log.info("Wrote {} diffs", numEntries);
+  }
+
+}
@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.impl.common.MappedFile;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.SortedIDIndex;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>A {@link DiffStorage} which keeps every item-item diff in a compact binary file written by
+ * {@link DiffMatrixBuilder}, and memory-maps it. Diffs are held outside the Java heap, at 12 bytes each
+ * (16 with standard deviations), rather than as an object and map entry each as in
+ * {@link MemoryDiffStorage}, so there is no need to limit how many are kept, and they put no load on the
+ * garbage collector. A diff is found by binary search among the first item's diffs.</p>
+ *
+ * <p>If the file already exists when this is created, it is used as is, so that diffs need not be built
+ * again on restart. Otherwise, and on {@link #refresh(Collection)}, diffs are built from the
+ * {@link DataModel} into a new file, which then replaces the old one. Readers keep using the old diffs
+ * until the new ones are ready.</p>
+ *
+ * <p>Diffs are not changed by {@link #updateItemPref(Object, double, boolean)}; changes to preferences
+ * are reflected once the diffs are next built, on refresh.</p>
+ *
+ * <p>Items are identified by the {@link String} form of their IDs.</p>
+ */
+public final class MappedDiffStorage implements DiffStorage {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedDiffStorage.class);
+
+  static final int MAGIC = 0x54444946; // "TDIF"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 5 * 4;
+
+  private final DataModel dataModel;
+  private final boolean stdDevWeighted;
+  private final File file;
+  private volatile Matrix matrix;
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * @param dataModel {@link DataModel} to build diffs from
+   * @param stdDevWeighted see {@link SlopeOneRecommender}
+   * @param file file to keep diffs in. If it exists and was built with the same
+   *  <code>stdDevWeighted</code> setting, its diffs are used; otherwise it is built.
+   * @throws TasteException if an error occurs while building or mapping the file
+   */
+  public MappedDiffStorage(DataModel dataModel, Weighting stdDevWeighted, File file) throws TasteException {
+    if (dataModel == null) {
+      throw new IllegalArgumentException("dataModel is null");
+    }
+    if (file == null) {
+      throw new IllegalArgumentException("file is null");
+    }
+    this.dataModel = dataModel;
+    this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
+    this.file = file.getAbsoluteFile();
+
+    Matrix existing = null;
+    if (this.file.exists()) {
+      try {
+        existing = new Matrix(this.file, dataModel);
+      } catch (IOException ioe) {
+        log.warn("Unable to use existing diff file; building it again", ioe);
+      }
+    }
+    if (existing != null && existing.stdDevWeighted == this.stdDevWeighted) {
+      log.info("Using existing diff file {}", this.file);
+      matrix = existing;
+    } else {
+      buildMatrix();
+    }
+
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        buildMatrix();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  private void buildMatrix() throws TasteException {
+    File parent = file.getParentFile();
+    try {
+      File newFile = File.createTempFile(file.getName(), ".tmp", parent);
+      try {
+        new DiffMatrixBuilder(dataModel, stdDevWeighted ? Weighting.WEIGHTED : Weighting.UNWEIGHTED)
+            .build(newFile);
+        // Mapped buffers don't depend on the file's name, so current readers are unaffected
+        if (!newFile.renameTo(file) && !(file.delete() && newFile.renameTo(file))) {
+          throw new IOException("Unable to replace " + file + " with " + newFile);
+        }
+      } finally {
+        if (newFile.exists()) {
+          newFile.delete();
+        }
+      }
+      matrix = new Matrix(file, dataModel);
+    } catch (IOException ioe) {
+      throw new TasteException(ioe);
+    }
+  }
+
+  @Override
+  public RunningAverage getDiff(Object itemID1, Object itemID2) {
+    Matrix matrix = this.matrix;
+    return matrix.getDiff(matrix.ids.indexOf(itemID1.toString()), matrix.ids.indexOf(itemID2.toString()));
+  }
+
+  @Override
+  public RunningAverage[] getDiffs(Object userID, Object itemID, Preference[] prefs) {
+    Matrix matrix = this.matrix;
+    int itemIndex = matrix.ids.indexOf(itemID.toString());
+    int size = prefs.length;
+    RunningAverage[] result = new RunningAverage[size];
+    if (itemIndex >= 0) {
+      for (int i = 0; i < size; i++) {
+        result[i] = matrix.getDiff(matrix.ids.indexOf(prefs[i].getItem().getID().toString()), itemIndex);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public RunningAverage getAverageItemPref(Object itemID) {
+    Matrix matrix = this.matrix;
+    int index = matrix.ids.indexOf(itemID.toString());
+    if (index < 0) {
+      return null;
+    }
+    int count = matrix.itemCounts.get(index);
+    return count == 0 ? null : new FixedRunningAverage(matrix.itemAverages.get(index), count, Double.NaN);
+  }
+
+  /**
+   * Does nothing; see class documentation.
+   */
+  @Override
+  public void updateItemPref(Object itemID, double prefDelta, boolean remove) {
+    log.debug("Ignoring update to item {} until diffs are built again", itemID);
+  }
+
+  @Override
+  public Set<Item> getRecommendableItems(Object userID) throws TasteException {
+    User user = dataModel.getUser(userID);
+    Set<Item> result = matrix.recommendableItems.clone();
+    Iterator<Item> it = result.iterator();
+    while (it.hasNext()) {
+      if (user.getPreferenceFor(it.next().getID()) != null) {
+        it.remove();
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "MappedDiffStorage[file:" + file + ']';
+  }
+
+  /**
+   * The mapped contents of one diff file.
+   */
+  private static final class Matrix {
+
+    private final boolean stdDevWeighted;
+    private final int entryBytes;
+    private final ByteBuffer entries;
+    private final IntBuffer rowStarts;
+    private final FloatBuffer itemAverages;
+    private final IntBuffer itemCounts;
+    private final SortedIDIndex ids;
+    private final FastSet<Item> recommendableItems;
+
+    private Matrix(File file, DataModel dataModel) throws IOException, TasteException {
+      MappedFile mapped = new MappedFile(file, "Diff file");
+      ByteBuffer buffer = mapped.getBuffer();
+      if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a diff file: " + file);
+      }
+      int version = buffer.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("Unsupported diff file version " + version + ": " + file);
+      }
+      stdDevWeighted = buffer.getInt(8) != 0;
+      entryBytes = stdDevWeighted ? 16 : 12;
+      int numItems = buffer.getInt(12);
+      int numEntries = buffer.getInt(16);
+
+      mapped.seek(HEADER_BYTES);
+      entries = mapped.nextSection((long) entryBytes * numEntries);
+      rowStarts = mapped.nextSection(4L * (numItems + 1)).asIntBuffer();
+      itemAverages = mapped.nextSection(4L * numItems).asFloatBuffer();
+      itemCounts = mapped.nextSection(4L * numItems).asIntBuffer();
+      IntBuffer idStarts = mapped.nextSection(4L * (numItems + 1)).asIntBuffer();
+      CharBuffer idChars = mapped.nextSection(2L * idStarts.get(numItems)).asCharBuffer();
+      ids = new SortedIDIndex(idStarts, idChars);
+
+      // Items are recommendable if they have any diff
+      boolean[] recommendable = new boolean[numItems];
+      for (int i = 0; i < numItems; i++) {
+        int start = rowStarts.get(i);
+        int end = rowStarts.get(i + 1);
+        if (end > start) {
+          recommendable[i] = true;
+        }
+        for (int k = start; k < end; k++) {
+          recommendable[entries.getInt(k * entryBytes)] = true;
+        }
+      }
+      recommendableItems = new FastSet<Item>();
+      for (Item item : dataModel.getItems()) {
+        int index = ids.indexOf(item.getID().toString());
+        if (index >= 0 && recommendable[index]) {
+          recommendableItems.add(item);
+        }
+      }
+      recommendableItems.rehash();
+    }
+
+    /**
+     * @return average of preferences for item at index2 minus those for item at index1, or
+     *  <code>null</code> if there is none
+     */
+    RunningAverage getDiff(int index1, int index2) {
+      if (index1 < 0 || index2 < 0 || index1 == index2) {
+        return null;
+      }
+      // Only diffs from lower to higher index are stored
+      boolean inverted = index1 > index2;
+      int row = inverted ? index2 : index1;
+      int column = inverted ? index1 : index2;
+      int low = rowStarts.get(row);
+      int high = rowStarts.get(row + 1) - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int offset = mid * entryBytes;
+        int midColumn = entries.getInt(offset);
+        if (midColumn < column) {
+          low = mid + 1;
+        } else if (midColumn > column) {
+          high = mid - 1;
+        } else {
+          double average = entries.getFloat(offset + 4);
+          int count = entries.getInt(offset + 8);
+          double stdDev = stdDevWeighted ? entries.getFloat(offset + 12) : Double.NaN;
+          return new FixedRunningAverage(inverted ? -average : average, count, stdDev);
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A {@link RunningAverageAndStdDev} whose values are read from the file and can't be changed.
+   */
+  private static final class FixedRunningAverage implements RunningAverageAndStdDev {
+
+    private final double average;
+    private final int count;
+    private final double stdDev;
+
+    private FixedRunningAverage(double average, int count, double stdDev) {
+      this.average = average;
+      this.count = count;
+      this.stdDev = stdDev;
+    }
+
+    @Override
+    public void addDatum(double datum) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeDatum(double datum) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void changeDatum(double delta) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getCount() {
+      return count;
+    }
+
+    @Override
+    public double getAverage() {
+      return average;
+    }
+
+    @Override
+    public double getStandardDeviation() {
+      return stdDev;
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(average) + ',' + stdDev;
+    }
+  }
+
+}
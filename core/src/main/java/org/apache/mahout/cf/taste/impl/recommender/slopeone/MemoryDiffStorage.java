@@ -25,6 +25,7 @@ import org.apache.mahout.cf.taste.impl.common.CompactRunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.impl.common.FastMap;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.FutureUtils;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
@@ -37,17 +38,27 @@ import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p>An implementation of {@link DiffStorage} that merely stores item-item diffs in memory.
  * It is fast, but can consume a great deal of memory.</p>
+ *
+ * <p>Diffs can be built with several threads. Item pairs are then split into shards by the first item
+ * of the pair, and each thread builds its shards' diffs independently; since shards never share a first
+ * item, merging them is just a matter of collecting them together. A refresh builds entirely new diffs
+ * while the old ones keep serving, and then switches to the new ones at once, so readers never wait on
+ * a refresh.</p>
  */
 public final class MemoryDiffStorage implements DiffStorage {
 
@@ -57,10 +68,9 @@ public final class MemoryDiffStorage implements DiffStorage {
   private final boolean stdDevWeighted;
   private final boolean compactAverages;
   private final long maxEntries;
-  private final FastMap<Object, FastMap<Object, RunningAverage>> averageDiffs;
-  private final Map<Object, RunningAverage> averageItemPref;
-  private final FastSet<Item> allRecommendableItemIDs;
-  private final ReadWriteLock buildAverageDiffsLock;
+  private final int numThreads;
+  private volatile Diffs diffs;
+  private final ReentrantLock buildAverageDiffsLock;
   private final RefreshHelper refreshHelper;
 
   /**
@@ -94,20 +104,40 @@ public final class MemoryDiffStorage implements DiffStorage {
                            Weighting stdDevWeighted,
                            boolean compactAverages,
                            long maxEntries) throws TasteException {
+    this(dataModel, stdDevWeighted, compactAverages, maxEntries, 1);
+  }
+
+  /**
+   * <p>Creates a new {@link MemoryDiffStorage} which builds diffs with the given number of threads.
+   * With more than one thread, each of the item pair shards may track an equal share of
+   * <code>maxEntries</code> diffs, so the pairs ignored when the limit is reached may differ somewhat from
+   * those a single thread would ignore.</p>
+   *
+   * @param numThreads number of threads to build diffs with
+   * @throws IllegalArgumentException if <code>maxEntries</code> is not positive, <code>numThreads</code>
+   *  is less than 1, or <code>dataModel</code> is null
+   * @see #MemoryDiffStorage(DataModel, Weighting, boolean, long)
+   */
+  public MemoryDiffStorage(DataModel dataModel,
+                           Weighting stdDevWeighted,
+                           boolean compactAverages,
+                           long maxEntries,
+                           int numThreads) throws TasteException {
     if (dataModel == null) {
       throw new IllegalArgumentException("dataModel is null");
     }
     if (maxEntries <= 0L) {
       throw new IllegalArgumentException("maxEntries must be positive");
     }
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
     this.dataModel = dataModel;
     this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
     this.compactAverages = compactAverages;
     this.maxEntries = maxEntries;
-    this.averageDiffs = new FastMap<Object, FastMap<Object, RunningAverage>>();
-    this.averageItemPref = new FastMap<Object, RunningAverage>();
-    this.buildAverageDiffsLock = new ReentrantReadWriteLock();
-    this.allRecommendableItemIDs = new FastSet<Item>(dataModel.getNumItems());
+    this.numThreads = numThreads;
+    this.buildAverageDiffsLock = new ReentrantLock();
     this.refreshHelper = new RefreshHelper(new Callable<Object>() {
       @Override
       public Object call() throws TasteException {
@@ -121,14 +151,18 @@ public final class MemoryDiffStorage implements DiffStorage {
 
   @Override
   public RunningAverage getDiff(Object itemID1, Object itemID2) {
-    Map<Object, RunningAverage> level2Map = averageDiffs.get(itemID1);
+    return getDiff(diffs, itemID1, itemID2);
+  }
+
+  private RunningAverage getDiff(Diffs diffs, Object itemID1, Object itemID2) {
+    Map<Object, RunningAverage> level2Map = diffs.averageDiffs.get(itemID1);
     RunningAverage average = null;
     if (level2Map != null) {
       average = level2Map.get(itemID2);
     }
     boolean inverted = false;
     if (average == null) {
-      level2Map = averageDiffs.get(itemID2);
+      level2Map = diffs.averageDiffs.get(itemID2);
       if (level2Map != null) {
         average = level2Map.get(itemID1);
         inverted = true;
@@ -148,63 +182,118 @@ public final class MemoryDiffStorage implements DiffStorage {
 
   @Override
   public RunningAverage[] getDiffs(Object userID, Object itemID, Preference[] prefs) {
-    try {
-      buildAverageDiffsLock.readLock().lock();
-      int size = prefs.length;
-      RunningAverage[] result = new RunningAverage[size];
-      for (int i = 0; i < size; i++) {
-        result[i] = getDiff(prefs[i].getItem().getID(), itemID);
-      }
-      return result;
-    } finally {
-      buildAverageDiffsLock.readLock().unlock();
+    // Read once, so that all diffs come from the same build even if a refresh finishes meanwhile
+    Diffs current = diffs;
+    int size = prefs.length;
+    RunningAverage[] result = new RunningAverage[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = getDiff(current, prefs[i].getItem().getID(), itemID);
     }
+    return result;
   }
 
   @Override
   public RunningAverage getAverageItemPref(Object itemID) {
-    return averageItemPref.get(itemID);
+    return diffs.averageItemPref.get(itemID);
   }
 
+  /**
+   * <p>Only the diffs involving the given item are touched: those where it is the first item are found
+   * directly, and those where it is the second through a reverse index built alongside the diffs.</p>
+   */
   @Override
   public void updateItemPref(Object itemID, double prefDelta, boolean remove) {
     if (!remove && stdDevWeighted) {
       throw new UnsupportedOperationException("Can't update only when stdDevWeighted is set");
     }
+    buildAverageDiffsLock.lock();
+    try {
+      updateItemPref(diffs, itemID, prefDelta, remove);
+    } finally {
+      buildAverageDiffsLock.unlock();
+    }
+  }
+
+  /**
+   * <p>Applies many preference changes at once, as if by calling
+   * {@link #updateItemPref(Object, double, boolean)} for each item ID and delta in turn, but taking the
+   * update lock only once. Changes (not removals) to the same item are first summed, so that diffs
+   * involving an item are visited once no matter how many of its preferences changed.</p>
+   *
+   * @param itemIDs IDs of items whose preferences changed; may repeat
+   * @param prefDeltas corresponding preference value changes, or removed values if <code>remove</code> is set
+   * @param remove if <code>true</code>, all preferences were removed rather than changed
+   * @throws IllegalArgumentException if either array is null or they differ in length
+   * @throws UnsupportedOperationException if <code>remove</code> is not set and diffs are weighted by
+   *  standard deviation
+   */
+  public void updateItemPrefs(Object[] itemIDs, double[] prefDeltas, boolean remove) {
+    if (itemIDs == null || prefDeltas == null) {
+      throw new IllegalArgumentException("itemIDs or prefDeltas is null");
+    }
+    if (itemIDs.length != prefDeltas.length) {
+      throw new IllegalArgumentException("itemIDs and prefDeltas differ in length");
+    }
+    if (!remove && stdDevWeighted) {
+      throw new UnsupportedOperationException("Can't update only when stdDevWeighted is set");
+    }
+    buildAverageDiffsLock.lock();
     try {
-      buildAverageDiffsLock.readLock().lock();
-      for (Map.Entry<Object, FastMap<Object, RunningAverage>> entry : averageDiffs.entrySet()) {
-        boolean matchesItemID1 = itemID.equals(entry.getKey());
-        for (Map.Entry<Object, RunningAverage> entry2 : entry.getValue().entrySet()) {
-          RunningAverage average = entry2.getValue();
-          if (matchesItemID1) {
-            if (remove) {
-              average.removeDatum(prefDelta);
-            } else {
-              average.changeDatum(-prefDelta);
-            }
-          } else if (itemID.equals(entry2.getKey())) {
-            if (remove) {
-              average.removeDatum(-prefDelta);
-            } else {
-              average.changeDatum(prefDelta);
-            }
+      Diffs current = diffs;
+      if (remove) {
+        for (int i = 0; i < itemIDs.length; i++) {
+          updateItemPref(current, itemIDs[i], prefDeltas[i], true);
+        }
+      } else {
+        FastMap<Object, double[]> totalDeltas = new FastMap<Object, double[]>();
+        for (int i = 0; i < itemIDs.length; i++) {
+          double[] totalDelta = totalDeltas.get(itemIDs[i]);
+          if (totalDelta == null) {
+            totalDelta = new double[1];
+            totalDeltas.put(itemIDs[i], totalDelta);
           }
+          totalDelta[0] += prefDeltas[i];
+        }
+        for (Map.Entry<Object, double[]> entry : totalDeltas.entrySet()) {
+          updateItemPref(current, entry.getKey(), entry.getValue()[0], false);
         }
-      }
-      RunningAverage itemAverage = averageItemPref.get(itemID);
-      if (itemAverage != null) {
-        itemAverage.changeDatum(prefDelta);
       }
     } finally {
-      buildAverageDiffsLock.readLock().unlock();
+      buildAverageDiffsLock.unlock();
+    }
+  }
+
+  private static void updateItemPref(Diffs current, Object itemID, double prefDelta, boolean remove) {
+    FastMap<Object, RunningAverage> asFirstItem = current.averageDiffs.get(itemID);
+    if (asFirstItem != null) {
+      for (RunningAverage average : asFirstItem.values()) {
+        if (remove) {
+          average.removeDatum(prefDelta);
+        } else {
+          average.changeDatum(-prefDelta);
+        }
+      }
+    }
+    RunningAverage[] asSecondItem = current.averageDiffsBySecondItem.get(itemID);
+    if (asSecondItem != null) {
+      for (RunningAverage average : asSecondItem) {
+        if (remove) {
+          average.removeDatum(-prefDelta);
+        } else {
+          average.changeDatum(prefDelta);
+        }
+      }
+    }
+    RunningAverage itemAverage = current.averageItemPref.get(itemID);
+    if (itemAverage != null) {
+      itemAverage.changeDatum(prefDelta);
     }
   }
 
   @Override
   public Set<Item> getRecommendableItems(Object userID) throws TasteException {
     User user = dataModel.getUser(userID);
-    Set<Item> result = allRecommendableItemIDs.clone();
+    Set<Item> result = diffs.allRecommendableItems.clone();
     Iterator<Item> it = result.iterator();
     while (it.hasNext()) {
       if (user.getPreferenceFor(it.next().getID()) != null) {
@@ -216,98 +305,85 @@ public final class MemoryDiffStorage implements DiffStorage {
 
   private void buildAverageDiffs() throws TasteException {
     log.info("Building average diffs...");
+    buildAverageDiffsLock.lock();
     try {
-      buildAverageDiffsLock.writeLock().lock();
-      averageDiffs.clear();
-      long averageCount = 0L;
+      List<Preference[]> allPrefs = new ArrayList<Preference[]>(dataModel.getNumUsers());
       for (User user : dataModel.getUsers()) {
-        averageCount = processOneUser(averageCount, user);
+        allPrefs.add(user.getPreferencesAsArray());
       }
 
-      pruneInconsequentialDiffs();
-      updateAllRecommendableItems();
+      Diffs newDiffs;
+      if (numThreads == 1) {
+        newDiffs = new ShardBuilder(allPrefs, 0, 1, maxEntries).call();
+      } else {
+        newDiffs = buildInParallel(allPrefs);
+      }
 
+      FastSet<Item> allRecommendableItems = new FastSet<Item>(newDiffs.recommendableItemIDs.size());
+      for (Object id : newDiffs.recommendableItemIDs) {
+        allRecommendableItems.add(dataModel.getItem(id));
+      }
+      diffs = new Diffs(newDiffs.averageDiffs,
+                        indexBySecondItem(newDiffs.averageDiffs),
+                        newDiffs.averageItemPref,
+                        null,
+                        allRecommendableItems);
+      log.info("Built average diffs for {} items", newDiffs.averageDiffs.size());
     } finally {
-      buildAverageDiffsLock.writeLock().unlock();
+      buildAverageDiffsLock.unlock();
     }
   }
 
-  private void pruneInconsequentialDiffs() {
-    // Go back and prune inconsequential diffs. "Inconsequential" means, here, only represented by one
-    // data point, so possibly unreliable
-    Iterator<FastMap<Object, RunningAverage>> it1 = averageDiffs.values().iterator();
-    while (it1.hasNext()) {
-      FastMap<Object, RunningAverage> map = it1.next();
-      Iterator<RunningAverage> it2 = map.values().iterator();
-      while (it2.hasNext()) {
-        RunningAverage average = it2.next();
-        if (average.getCount() <= 1) {
-          it2.remove();
+  /**
+   * @return the same averages as in the given diffs, keyed by the second rather than first item of their pair
+   */
+  private static FastMap<Object, RunningAverage[]> indexBySecondItem(
+      FastMap<Object, FastMap<Object, RunningAverage>> averageDiffs) {
+    FastMap<Object, List<RunningAverage>> lists = new FastMap<Object, List<RunningAverage>>();
+    for (FastMap<Object, RunningAverage> aMap : averageDiffs.values()) {
+      for (Map.Entry<Object, RunningAverage> entry : aMap.entrySet()) {
+        List<RunningAverage> averages = lists.get(entry.getKey());
+        if (averages == null) {
+          averages = new ArrayList<RunningAverage>(4);
+          lists.put(entry.getKey(), averages);
         }
-      }
-      if (map.isEmpty()) {
-        it1.remove();
-      } else {
-        map.rehash();
-      }
-    }
-    averageDiffs.rehash();
-  }
-
-  private void updateAllRecommendableItems() throws TasteException {
-    FastSet<Object> ids = new FastSet<Object>(dataModel.getNumItems());
-    for (Map.Entry<Object, FastMap<Object, RunningAverage>> entry : averageDiffs.entrySet()) {
-      ids.add(entry.getKey());
-      for (Object id : entry.getValue().keySet()) {
-        ids.add(id);
+        averages.add(entry.getValue());
       }
     }
-    allRecommendableItemIDs.clear();
-    for (Object id : ids) {
-      allRecommendableItemIDs.add(dataModel.getItem(id));
+    FastMap<Object, RunningAverage[]> index = new FastMap<Object, RunningAverage[]>(Math.max(1, lists.size()));
+    for (Map.Entry<Object, List<RunningAverage>> entry : lists.entrySet()) {
+      List<RunningAverage> averages = entry.getValue();
+      index.put(entry.getKey(), averages.toArray(new RunningAverage[averages.size()]));
     }
-    allRecommendableItemIDs.rehash();
+    return index;
   }
 
-  private long processOneUser(long averageCount, User user) {
-    log.debug("Processing prefs for user {}", user);
-    // Save off prefs for the life of this loop iteration
-    Preference[] userPreferences = user.getPreferencesAsArray();
-    int length = userPreferences.length;
-    for (int i = 0; i < length; i++) {
-      Preference prefA = userPreferences[i];
-      double prefAValue = prefA.getValue();
-      Object itemIDA = prefA.getItem().getID();
-      FastMap<Object, RunningAverage> aMap = averageDiffs.get(itemIDA);
-      if (aMap == null) {
-        aMap = new FastMap<Object, RunningAverage>();
-        averageDiffs.put(itemIDA, aMap);
-      }
-      for (int j = i + 1; j < length; j++) {
-        // This is a performance-critical block
-        Preference prefB = userPreferences[j];
-        Object itemIDB = prefB.getItem().getID();
-        RunningAverage average = aMap.get(itemIDB);
-        if (average == null && averageCount < maxEntries) {
-          average = buildRunningAverage();
-          aMap.put(itemIDB, average);
-          averageCount++;
-        }
-        if (average != null) {
-          average.addDatum(prefB.getValue() - prefAValue);
-        }
-
+  private Diffs buildInParallel(List<Preference[]> allPrefs) throws TasteException {
+    long maxEntriesPerShard = Math.max(1L, maxEntries / numThreads);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Diffs>> futures = new ArrayList<Future<Diffs>>(numThreads);
+      for (int shard = 0; shard < numThreads; shard++) {
+        futures.add(executor.submit(new ShardBuilder(allPrefs, shard, numThreads, maxEntriesPerShard)));
       }
-      RunningAverage itemAverage = averageItemPref.get(itemIDA);
-      if (itemAverage == null) {
-        itemAverage = buildRunningAverage();
-        averageItemPref.put(itemIDA, itemAverage);
+      FastMap<Object, FastMap<Object, RunningAverage>> averageDiffs =
+          new FastMap<Object, FastMap<Object, RunningAverage>>();
+      FastMap<Object, RunningAverage> averageItemPref = new FastMap<Object, RunningAverage>();
+      FastSet<Object> recommendableItemIDs = new FastSet<Object>();
+      for (Future<Diffs> future : futures) {
+        Diffs shardDiffs = FutureUtils.getUninterruptibly(future);
+        // Shards are disjoint in first item, so entries never collide
+        averageDiffs.putAll(shardDiffs.averageDiffs);
+        averageItemPref.putAll(shardDiffs.averageItemPref);
+        recommendableItemIDs.addAll(shardDiffs.recommendableItemIDs);
       }
-      itemAverage.addDatum(prefAValue);
+      return new Diffs(averageDiffs, null, averageItemPref, recommendableItemIDs, null);
+    } finally {
+      executor.shutdownNow();
     }
-    return averageCount;
   }
 
+
   private RunningAverage buildRunningAverage() {
     if (stdDevWeighted) {
       return compactAverages ? new CompactRunningAverageAndStdDev() : new FullRunningAverageAndStdDev();
@@ -326,4 +402,135 @@ public final class MemoryDiffStorage implements DiffStorage {
     return "MemoryDiffStorage";
   }
 
+  /**
+   * One complete set of diffs. Once published, the maps are only read, though the averages in them
+   * may be updated by {@link #updateItemPref(Object, double, boolean)}. The same averages are reachable
+   * both through <code>averageDiffs</code>, by first item, and <code>averageDiffsBySecondItem</code>.
+   */
+  private static final class Diffs {
+
+    private final FastMap<Object, FastMap<Object, RunningAverage>> averageDiffs;
+    private final FastMap<Object, RunningAverage[]> averageDiffsBySecondItem;
+    private final FastMap<Object, RunningAverage> averageItemPref;
+    private final FastSet<Object> recommendableItemIDs;
+    private final FastSet<Item> allRecommendableItems;
+
+    private Diffs(FastMap<Object, FastMap<Object, RunningAverage>> averageDiffs,
+                  FastMap<Object, RunningAverage[]> averageDiffsBySecondItem,
+                  FastMap<Object, RunningAverage> averageItemPref,
+                  FastSet<Object> recommendableItemIDs,
+                  FastSet<Item> allRecommendableItems) {
+      this.averageDiffs = averageDiffs;
+      this.averageDiffsBySecondItem = averageDiffsBySecondItem;
+      this.averageItemPref = averageItemPref;
+      this.recommendableItemIDs = recommendableItemIDs;
+      this.allRecommendableItems = allRecommendableItems;
+    }
+  }
+
+  /**
+   * Builds diffs for the item pairs whose first item falls in one shard.
+   */
+  private final class ShardBuilder implements Callable<Diffs> {
+
+    private final List<Preference[]> allPrefs;
+    private final int shard;
+    private final int numShards;
+    private final long maxShardEntries;
+    private final FastMap<Object, FastMap<Object, RunningAverage>> averageDiffs;
+    private final FastMap<Object, RunningAverage> averageItemPref;
+    private long averageCount;
+
+    private ShardBuilder(List<Preference[]> allPrefs, int shard, int numShards, long maxShardEntries) {
+      this.allPrefs = allPrefs;
+      this.shard = shard;
+      this.numShards = numShards;
+      this.maxShardEntries = maxShardEntries;
+      this.averageDiffs = new FastMap<Object, FastMap<Object, RunningAverage>>();
+      this.averageItemPref = new FastMap<Object, RunningAverage>();
+    }
+
+    @Override
+    public Diffs call() {
+      for (Preference[] userPreferences : allPrefs) {
+        processOneUser(userPreferences);
+      }
+      FastSet<Object> recommendableItemIDs = pruneInconsequentialDiffs();
+      return new Diffs(averageDiffs, null, averageItemPref, recommendableItemIDs, null);
+    }
+
+    private boolean inShard(Object itemID) {
+      return numShards == 1 || (itemID.hashCode() & 0x7FFFFFFF) % numShards == shard;
+    }
+
+    private void processOneUser(Preference[] userPreferences) {
+      int length = userPreferences.length;
+      for (int i = 0; i < length; i++) {
+        Preference prefA = userPreferences[i];
+        Object itemIDA = prefA.getItem().getID();
+        if (!inShard(itemIDA)) {
+          continue;
+        }
+        double prefAValue = prefA.getValue();
+        FastMap<Object, RunningAverage> aMap = averageDiffs.get(itemIDA);
+        if (aMap == null) {
+          aMap = new FastMap<Object, RunningAverage>();
+          averageDiffs.put(itemIDA, aMap);
+        }
+        for (int j = i + 1; j < length; j++) {
+          // This is a performance-critical block
+          Preference prefB = userPreferences[j];
+          Object itemIDB = prefB.getItem().getID();
+          RunningAverage average = aMap.get(itemIDB);
+          if (average == null && averageCount < maxShardEntries) {
+            average = buildRunningAverage();
+            aMap.put(itemIDB, average);
+            averageCount++;
+          }
+          if (average != null) {
+            average.addDatum(prefB.getValue() - prefAValue);
+          }
+        }
+        RunningAverage itemAverage = averageItemPref.get(itemIDA);
+        if (itemAverage == null) {
+          itemAverage = buildRunningAverage();
+          averageItemPref.put(itemIDA, itemAverage);
+        }
+        itemAverage.addDatum(prefAValue);
+      }
+    }
+
+    /**
+     * Goes back and prunes inconsequential diffs. "Inconsequential" means, here, only represented by one
+     * data point, so possibly unreliable.
+     *
+     * @return IDs of all items in remaining diffs
+     */
+    private FastSet<Object> pruneInconsequentialDiffs() {
+      FastSet<Object> recommendableItemIDs = new FastSet<Object>();
+      Iterator<Map.Entry<Object, FastMap<Object, RunningAverage>>> it1 = averageDiffs.entrySet().iterator();
+      while (it1.hasNext()) {
+        Map.Entry<Object, FastMap<Object, RunningAverage>> entry = it1.next();
+        FastMap<Object, RunningAverage> map = entry.getValue();
+        Iterator<Map.Entry<Object, RunningAverage>> it2 = map.entrySet().iterator();
+        while (it2.hasNext()) {
+          Map.Entry<Object, RunningAverage> entry2 = it2.next();
+          if (entry2.getValue().getCount() <= 1) {
+            it2.remove();
+          } else {
+            recommendableItemIDs.add(entry2.getKey());
+          }
+        }
+        if (map.isEmpty()) {
+          it1.remove();
+        } else {
+          recommendableItemIDs.add(entry.getKey());
+          map.rehash();
+        }
+      }
+      averageDiffs.rehash();
+      return recommendableItemIDs;
+    }
+  }
+
 }
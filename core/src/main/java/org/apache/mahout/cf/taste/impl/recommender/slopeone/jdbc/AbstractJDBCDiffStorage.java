@@ -19,8 +19,12 @@ package org.apache.mahout.cf.taste.impl.recommender.slopeone.jdbc;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastMap;
 import org.apache.mahout.cf.taste.impl.common.IOUtils;
+import org.apache.mahout.cf.taste.impl.common.Pair;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.Retriever;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.impl.common.FastSet;
 import org.apache.mahout.cf.taste.model.Item;
@@ -36,6 +40,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
@@ -44,6 +49,21 @@ import java.util.concurrent.Callable;
  * this abstract class. Note that this implementation has a fairly particular dependence on the
  * {@link org.apache.mahout.cf.taste.model.DataModel} used; it needs a {@link JDBCDataModel} attached to the same
  * database since its efficent operation depends on accessing preference data in the database directly.</p>
+ *
+ * <p>By default each call queries the database. {@link #setMaxCachedDiffs(int)} keeps recently read
+ * item-item diffs in memory. {@link #setMaxCachedUserDiffs(int)} instead reads all diffs involving a user's
+ * items with one query, the first time {@link #getRecommendableItems(Object)} or
+ * {@link #getDiffs(Object, Object, Preference[])} is called for that user, and answers later calls for that
+ * user from memory; a recommendation then costs one query rather than one per candidate item. Both are
+ * cleared whenever {@link #updateItemPref(Object, double, boolean)} is called or diffs are rebuilt.</p>
+ *
+ * <p>By default diffs are rebuilt in place, by deleting all diffs and computing them again. If given SQL to
+ * do so, {@link #setStagedRebuilds(boolean)} instead rebuilds them into a staging table, in several
+ * partitions, which then replaces the live diffs table, so that the live table is not locked or emptied
+ * while diffs are recomputed.</p>
+ *
+ * <p>Subclasses written for the shorter constructor, whose <code>getDiffsSQL</code> takes an item ID and a
+ * user ID once, keep working through it, without per-user diff caching or staged rebuilds.</p>
  */
 public abstract class AbstractJDBCDiffStorage implements DiffStorage {
 
@@ -59,16 +79,29 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
   private final DataSource dataSource;
   private final String getDiffSQL;
   private final String getDiffsSQL;
+  private final boolean getDiffsSQLTakesIDsTwice;
+  private final String getUserDiffsSQL;
   private final String getAverageItemPrefSQL;
   private final String[] updateDiffSQLs;
   private final String[] removeDiffSQLs;
   private final String getRecommendableItemsSQL;
   private final String deleteDiffsSQL;
   private final String createDiffsSQL;
+  private final String[] prepareStagingSQLs;
+  private final String createStagedDiffsSQL;
+  private final String[] swapStagingSQLs;
   private final String diffsExistSQL;
   private final int minDiffCount;
+  private volatile boolean stagedRebuilds;
+  private volatile int numRebuildPartitions;
+  private volatile Cache<Pair<Object, Object>, RunningAverage> diffCache;
+  private volatile Cache<Object, UserDiffs> userDiffsCache;
   private final RefreshHelper refreshHelper;
 
+  /**
+   * @param getDiffsSQL query taking an item ID and a user ID, and returning count and average diff from
+   *  each of the user's items to that item, followed by the user's item, ordered by the user's item
+   */
   protected AbstractJDBCDiffStorage(JDBCDataModel dataModel,
                                     String getDiffSQL,
                                     String getDiffsSQL,
@@ -80,6 +113,60 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
                                     String createDiffsSQL,
                                     String diffsExistSQL,
                                     int minDiffCount) throws TasteException {
+    this(dataModel, getDiffSQL, getDiffsSQL, false, null, getAverageItemPrefSQL, updateDiffSQLs,
+         removeDiffSQLs, getRecommendableItemsSQL, deleteDiffsSQL, createDiffsSQL, null, null, null,
+         diffsExistSQL, minDiffCount);
+  }
+
+  /**
+   * @param getDiffsSQL query taking an item ID, a user ID, then the same item ID and user ID again, and
+   *  returning count and average diff from each of the user's items to that item, followed by the user's
+   *  item, ordered by the user's item
+   * @param getUserDiffsSQL query taking a user ID twice, and returning item A, item B, count and average diff
+   *  of every diff involving one of the user's items, followed by that item; or <code>null</code> if this
+   *  is not supported
+   * @param prepareStagingSQLs statements which create an empty staging table for diffs, or <code>null</code>
+   *  if this is not supported
+   * @param createStagedDiffsSQL statement which fills the staging table with diffs for one partition of
+   *  item pairs, taking number of partitions, partition number and minimum diff count
+   * @param swapStagingSQLs statements which replace the live diffs table with the staging table
+   */
+  protected AbstractJDBCDiffStorage(JDBCDataModel dataModel,
+                                    String getDiffSQL,
+                                    String getDiffsSQL,
+                                    String getUserDiffsSQL,
+                                    String getAverageItemPrefSQL,
+                                    String[] updateDiffSQLs,
+                                    String[] removeDiffSQLs,
+                                    String getRecommendableItemsSQL,
+                                    String deleteDiffsSQL,
+                                    String createDiffsSQL,
+                                    String[] prepareStagingSQLs,
+                                    String createStagedDiffsSQL,
+                                    String[] swapStagingSQLs,
+                                    String diffsExistSQL,
+                                    int minDiffCount) throws TasteException {
+    this(dataModel, getDiffSQL, getDiffsSQL, true, getUserDiffsSQL, getAverageItemPrefSQL, updateDiffSQLs,
+         removeDiffSQLs, getRecommendableItemsSQL, deleteDiffsSQL, createDiffsSQL, prepareStagingSQLs,
+         createStagedDiffsSQL, swapStagingSQLs, diffsExistSQL, minDiffCount);
+  }
+
+  private AbstractJDBCDiffStorage(JDBCDataModel dataModel,
+                                  String getDiffSQL,
+                                  String getDiffsSQL,
+                                  boolean getDiffsSQLTakesIDsTwice,
+                                  String getUserDiffsSQL,
+                                  String getAverageItemPrefSQL,
+                                  String[] updateDiffSQLs,
+                                  String[] removeDiffSQLs,
+                                  String getRecommendableItemsSQL,
+                                  String deleteDiffsSQL,
+                                  String createDiffsSQL,
+                                  String[] prepareStagingSQLs,
+                                  String createStagedDiffsSQL,
+                                  String[] swapStagingSQLs,
+                                  String diffsExistSQL,
+                                  int minDiffCount) throws TasteException {
     if (dataModel == null) {
       throw new IllegalArgumentException("dataModel is null");
     }
@@ -90,12 +177,18 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
     this.dataSource = dataModel.getDataSource();
     this.getDiffSQL = getDiffSQL;
     this.getDiffsSQL = getDiffsSQL;
+    this.getDiffsSQLTakesIDsTwice = getDiffsSQLTakesIDsTwice;
+    this.getUserDiffsSQL = getUserDiffsSQL;
     this.getAverageItemPrefSQL = getAverageItemPrefSQL;
     this.updateDiffSQLs = updateDiffSQLs;
     this.removeDiffSQLs = removeDiffSQLs;
     this.getRecommendableItemsSQL = getRecommendableItemsSQL;
     this.deleteDiffsSQL = deleteDiffsSQL;
     this.createDiffsSQL = createDiffsSQL;
+    this.prepareStagingSQLs = prepareStagingSQLs;
+    this.createStagedDiffsSQL = createStagedDiffsSQL;
+    this.swapStagingSQLs = swapStagingSQLs;
+    this.numRebuildPartitions = 1;
     this.diffsExistSQL = diffsExistSQL;
     this.minDiffCount = minDiffCount;
     this.refreshHelper = new RefreshHelper(new Callable<Object>() {
@@ -114,8 +207,71 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
     }
   }
 
+  /**
+   * @param maxCachedDiffs maximum number of item-item diffs to keep in memory, or 0 to read each from the
+   *  database every time
+   * @throws IllegalArgumentException if <code>maxCachedDiffs</code> is negative
+   */
+  public void setMaxCachedDiffs(int maxCachedDiffs) {
+    if (maxCachedDiffs < 0) {
+      throw new IllegalArgumentException("maxCachedDiffs is negative");
+    }
+    diffCache = maxCachedDiffs == 0 ? null :
+        new Cache<Pair<Object, Object>, RunningAverage>(new DiffRetriever(), maxCachedDiffs);
+  }
+
+  /**
+   * @param maxCachedUserDiffs maximum number of users whose diffs are read at once and kept in memory, or 0
+   *  to query the database for each item
+   * @throws IllegalArgumentException if <code>maxCachedUserDiffs</code> is negative
+   * @throws UnsupportedOperationException if this implementation cannot read a user's diffs at once
+   */
+  public void setMaxCachedUserDiffs(int maxCachedUserDiffs) {
+    if (maxCachedUserDiffs < 0) {
+      throw new IllegalArgumentException("maxCachedUserDiffs is negative");
+    }
+    if (maxCachedUserDiffs > 0 && getUserDiffsSQL == null) {
+      throw new UnsupportedOperationException();
+    }
+    userDiffsCache = maxCachedUserDiffs == 0 ? null :
+        new Cache<Object, UserDiffs>(new UserDiffsRetriever(), maxCachedUserDiffs);
+  }
+
+  /**
+   * @param stagedRebuilds if true, rebuild diffs into a staging table which then replaces the live table;
+   *  if false, the default, delete and recompute diffs in the live table
+   * @throws UnsupportedOperationException if this implementation cannot rebuild diffs in a staging table
+   */
+  public void setStagedRebuilds(boolean stagedRebuilds) {
+    if (stagedRebuilds && prepareStagingSQLs == null) {
+      throw new UnsupportedOperationException();
+    }
+    this.stagedRebuilds = stagedRebuilds;
+  }
+
+  /**
+   * @param numRebuildPartitions number of statements into which to split the computation of diffs when
+   *  rebuilding them into a staging table; more partitions lock fewer preference rows at a time
+   * @throws IllegalArgumentException if <code>numRebuildPartitions</code> is less than 1
+   */
+  public void setNumRebuildPartitions(int numRebuildPartitions) {
+    if (numRebuildPartitions < 1) {
+      throw new IllegalArgumentException("numRebuildPartitions must be at least 1");
+    }
+    this.numRebuildPartitions = numRebuildPartitions;
+  }
+
   @Override
   public RunningAverage getDiff(Object itemID1, Object itemID2) throws TasteException {
+    Cache<Pair<Object, Object>, RunningAverage> cache = diffCache;
+    if (cache == null) {
+      return doGetDiff(itemID1, itemID2);
+    }
+    RunningAverage average = cache.get(new Pair<Object, Object>(itemID1, itemID2));
+    return average == NO_DIFF ? null : average;
+  }
+
+  private RunningAverage doGetDiff(Object itemID1, Object itemID2) throws TasteException {
     Connection conn = null;
     PreparedStatement stmt = null;
     ResultSet rs = null;
@@ -142,6 +298,16 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
           throws TasteException {
     int size = prefs.length;
     RunningAverage[] result = new RunningAverage[size];
+    Cache<Object, UserDiffs> cache = userDiffsCache;
+    if (cache != null) {
+      Map<Object, RunningAverage> diffsToItem = cache.get(userID).diffsToItem.get(itemID);
+      if (diffsToItem != null) {
+        for (int i = 0; i < size; i++) {
+          result[i] = diffsToItem.get(prefs[i].getItem().getID());
+        }
+      }
+      return result;
+    }
     Connection conn = null;
     PreparedStatement stmt = null;
     ResultSet rs = null;
@@ -150,6 +316,10 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
       stmt = conn.prepareStatement(getDiffsSQL);
       stmt.setObject(1, itemID);
       stmt.setObject(2, userID);
+      if (getDiffsSQLTakesIDsTwice) {
+        stmt.setObject(3, itemID);
+        stmt.setObject(4, userID);
+      }
       log.debug("Executing SQL query: {}", getDiffsSQL);
       rs = stmt.executeQuery();
       // We should have up to one result for each Preference in prefs
@@ -218,6 +388,8 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
       throw new TasteException(sqle);
     } finally {
       IOUtils.quietClose(conn);
+      // Only now, so that diffs read while updating are not left in the caches
+      clearCaches();
     }
   }
 
@@ -234,8 +406,30 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
     }
   }
 
+  private void clearCaches() {
+    Cache<Pair<Object, Object>, RunningAverage> theDiffCache = diffCache;
+    if (theDiffCache != null) {
+      theDiffCache.clear();
+    }
+    Cache<Object, UserDiffs> theUserDiffsCache = userDiffsCache;
+    if (theUserDiffsCache != null) {
+      theUserDiffsCache.clear();
+    }
+  }
+
   @Override
   public Set<Item> getRecommendableItems(Object userID) throws TasteException {
+    Cache<Object, UserDiffs> cache = userDiffsCache;
+    if (cache != null) {
+      UserDiffs userDiffs = cache.get(userID);
+      Set<Item> items = new FastSet<Item>(Math.max(1, userDiffs.diffsToItem.size()));
+      for (Object itemID : userDiffs.diffsToItem.keySet()) {
+        if (!userDiffs.userItemIDs.contains(itemID)) {
+          items.add(dataModel.getItem(itemID, true));
+        }
+      }
+      return items;
+    }
     Connection conn = null;
     PreparedStatement stmt = null;
     ResultSet rs = null;
@@ -260,7 +454,95 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
     }
   }
 
+  private UserDiffs doGetUserDiffs(Object userID) throws TasteException {
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      conn = dataSource.getConnection();
+      stmt = conn.prepareStatement(getUserDiffsSQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      stmt.setObject(1, userID);
+      stmt.setObject(2, userID);
+      log.debug("Executing SQL query: {}", getUserDiffsSQL);
+      rs = stmt.executeQuery();
+      UserDiffs userDiffs = new UserDiffs();
+      while (rs.next()) {
+        String itemIDA = rs.getString(1);
+        String itemIDB = rs.getString(2);
+        int count = rs.getInt(3);
+        double average = rs.getDouble(4);
+        String userItemID = rs.getString(5);
+        userDiffs.userItemIDs.add(userItemID);
+        // Diffs are stored as the average of B's preferences minus A's; orient them from the user's item
+        if (userItemID.equals(itemIDA)) {
+          userDiffs.addDiff(userItemID, itemIDB, new FixedRunningAverage(count, average));
+        } else {
+          userDiffs.addDiff(userItemID, itemIDA, new FixedRunningAverage(count, -average));
+        }
+      }
+      return userDiffs;
+    } catch (SQLException sqle) {
+      log.warn("Exception while retrieving diffs for user", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+    }
+  }
+
   private void buildAverageDiffs() throws TasteException {
+    try {
+      if (stagedRebuilds) {
+        buildAverageDiffsStaged();
+      } else {
+        buildAverageDiffsInPlace();
+      }
+    } finally {
+      clearCaches();
+    }
+  }
+
+  private void buildAverageDiffsStaged() throws TasteException {
+    Connection conn = null;
+    try {
+      conn = dataSource.getConnection();
+      for (String sql : prepareStagingSQLs) {
+        executeUpdate(conn, sql);
+      }
+      int partitions = numRebuildPartitions;
+      for (int partition = 0; partition < partitions; partition++) {
+        PreparedStatement stmt = conn.prepareStatement(createStagedDiffsSQL);
+        try {
+          stmt.setInt(1, partitions);
+          stmt.setInt(2, partition);
+          stmt.setInt(3, minDiffCount);
+          log.debug("Executing SQL update: {}", createStagedDiffsSQL);
+          stmt.executeUpdate();
+        } finally {
+          IOUtils.quietClose(stmt);
+        }
+      }
+      for (String sql : swapStagingSQLs) {
+        executeUpdate(conn, sql);
+      }
+    } catch (SQLException sqle) {
+      log.warn("Exception while rebuilding diffs", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(conn);
+    }
+  }
+
+  private static void executeUpdate(Connection conn, String sql) throws SQLException {
+    PreparedStatement stmt = conn.prepareStatement(sql);
+    try {
+      log.debug("Executing SQL update: {}", sql);
+      stmt.executeUpdate();
+    } finally {
+      IOUtils.quietClose(stmt);
+    }
+  }
+
+  private void buildAverageDiffsInPlace() throws TasteException {
     Connection conn = null;
     try {
       conn = dataSource.getConnection();
@@ -312,6 +594,50 @@ public abstract class AbstractJDBCDiffStorage implements DiffStorage {
     refreshHelper.refresh(alreadyRefreshed);
   }
 
+  /**
+   * Stands in for a missing diff in {@link #diffCache}, which cannot hold <code>null</code>.
+   */
+  private static final RunningAverage NO_DIFF = new FixedRunningAverage(0, Double.NaN);
+
+  private final class DiffRetriever implements Retriever<Pair<Object, Object>, RunningAverage> {
+    @Override
+    public RunningAverage get(Pair<Object, Object> itemIDs) throws TasteException {
+      RunningAverage average = doGetDiff(itemIDs.getFirst(), itemIDs.getSecond());
+      return average == null ? NO_DIFF : average;
+    }
+  }
+
+  private final class UserDiffsRetriever implements Retriever<Object, UserDiffs> {
+    @Override
+    public UserDiffs get(Object userID) throws TasteException {
+      return doGetUserDiffs(userID);
+    }
+  }
+
+  /**
+   * All diffs between one user's items and any other item.
+   */
+  private static final class UserDiffs {
+
+    private final Set<Object> userItemIDs;
+    /** Item ID -> user's item ID -> diff from the user's item to that item */
+    private final Map<Object, Map<Object, RunningAverage>> diffsToItem;
+
+    private UserDiffs() {
+      userItemIDs = new FastSet<Object>();
+      diffsToItem = new FastMap<Object, Map<Object, RunningAverage>>();
+    }
+
+    private void addDiff(Object userItemID, Object itemID, RunningAverage average) {
+      Map<Object, RunningAverage> diffs = diffsToItem.get(itemID);
+      if (diffs == null) {
+        diffs = new FastMap<Object, RunningAverage>();
+        diffsToItem.put(itemID, diffs);
+      }
+      diffs.put(userItemID, average);
+    }
+  }
+
   private static class FixedRunningAverage implements RunningAverage {
 
     private final int count;
@@ -51,6 +51,12 @@ import org.apache.mahout.cf.taste.impl.model.jdbc.AbstractJDBCDataModel;
  *   INDEX (item_id_b)
  * )
  * </pre>
+ *
+ * <p>If {@link #setStagedRebuilds(boolean)} is set, diffs are rebuilt into a table of the same name plus
+ * "_staging", created as needed, which is then renamed into place with MySQL's atomic
+ * <code>RENAME TABLE</code>, so the user must be allowed to create, rename and drop tables. Each partition
+ * of the rebuild (see {@link #setNumRebuildPartitions(int)}) handles the item pairs whose first item hashes
+ * into it.</p>
  */
 public final class MySQLJDBCDiffStorage extends AbstractJDBCDiffStorage {
 
@@ -73,6 +79,19 @@ public final class MySQLJDBCDiffStorage extends AbstractJDBCDiffStorage {
                               String countColumn,
                               String avgColumn,
                               int minDiffCount) throws TasteException {
+    this(dataModel, diffsTable, diffsTable + "_staging", diffsTable + "_old",
+         itemIDAColumn, itemIDBColumn, countColumn, avgColumn, minDiffCount);
+  }
+
+  private MySQLJDBCDiffStorage(AbstractJDBCDataModel dataModel,
+                               String diffsTable,
+                               String stagingTable,
+                               String oldTable,
+                               String itemIDAColumn,
+                               String itemIDBColumn,
+                               String countColumn,
+                               String avgColumn,
+                               int minDiffCount) throws TasteException {
     super(dataModel,
           // getDiffSQL
           "SELECT " + countColumn + ", " + avgColumn + " FROM " + diffsTable +
@@ -80,9 +99,22 @@ public final class MySQLJDBCDiffStorage extends AbstractJDBCDiffStorage {
           "SELECT " + countColumn + ", " + avgColumn + " FROM " + diffsTable +
           " WHERE " + itemIDAColumn + "=? AND " + itemIDBColumn + "=?",
           // getDiffsSQL
-          "SELECT " + countColumn + ", " + avgColumn + ", " + itemIDAColumn + " FROM " + diffsTable + ", " +
+          // Diffs are stored as B's preferences minus A's; those where the user's item is B are negated
+          "SELECT " + countColumn + ", " + avgColumn + ", " + itemIDAColumn + " AS user_item_id FROM " + diffsTable + ", " +
           dataModel.getPreferenceTable() + " WHERE " + itemIDBColumn + "=? AND " + itemIDAColumn + " = " + dataModel.getItemIDColumn() +
-          " AND " + dataModel.getUserIDColumn() + "=? ORDER BY " + itemIDAColumn,
+          " AND " + dataModel.getUserIDColumn() + "=? UNION ALL " +
+          "SELECT " + countColumn + ", -" + avgColumn + ", " + itemIDBColumn + " FROM " + diffsTable + ", " +
+          dataModel.getPreferenceTable() + " WHERE " + itemIDAColumn + "=? AND " + itemIDBColumn + " = " + dataModel.getItemIDColumn() +
+          " AND " + dataModel.getUserIDColumn() + "=? ORDER BY user_item_id",
+          // getUserDiffsSQL
+          "SELECT " + itemIDAColumn + ", " + itemIDBColumn + ", " + countColumn + ", " + avgColumn + ", " +
+          dataModel.getItemIDColumn() + " FROM " + diffsTable + ", " + dataModel.getPreferenceTable() +
+          " WHERE " + itemIDAColumn + " = " + dataModel.getItemIDColumn() + " AND " + dataModel.getUserIDColumn() +
+          "=? UNION ALL " +
+          "SELECT " + itemIDAColumn + ", " + itemIDBColumn + ", " + countColumn + ", " + avgColumn + ", " +
+          dataModel.getItemIDColumn() + " FROM " + diffsTable + ", " + dataModel.getPreferenceTable() +
+          " WHERE " + itemIDBColumn + " = " + dataModel.getItemIDColumn() + " AND " + dataModel.getUserIDColumn() +
+          "=?",
           // getAverageItemPrefSQL
           "SELECT COUNT(1), AVG(" + dataModel.getPreferenceColumn() + ") FROM " + dataModel.getPreferenceTable() +
           " WHERE " + dataModel.getItemIDColumn() + "=?",
@@ -103,13 +135,15 @@ public final class MySQLJDBCDiffStorage extends AbstractJDBCDiffStorage {
                   " AS DECIMAL)) - ? / CAST(" + countColumn + " AS DECIMAL) WHERE " + itemIDBColumn + "=?"
           },
           // getRecommendableItemsSQL
+          // Excludes the user's own items with an outer join rather than NOT IN, which MySQL executes poorly
           "SELECT id FROM " +
           "(SELECT " + itemIDAColumn + " AS id FROM " + diffsTable + ", " + dataModel.getPreferenceTable() +
           " WHERE " + itemIDBColumn + " = " + dataModel.getItemIDColumn() + " AND " + dataModel.getUserIDColumn() + "=? UNION DISTINCT" +
           " SELECT " + itemIDBColumn + " AS id FROM " + diffsTable + ", " + dataModel.getPreferenceTable() +
           " WHERE " + itemIDAColumn + " = " + dataModel.getItemIDColumn() + " AND " + dataModel.getUserIDColumn() +
-          "=?) possible_item_ids WHERE id NOT IN (SELECT " + dataModel.getItemIDColumn() + " FROM " + dataModel.getPreferenceTable() +
-          " WHERE " + dataModel.getUserIDColumn() + "=?)",
+          "=?) possible_item_ids LEFT JOIN " + dataModel.getPreferenceTable() + " user_prefs ON (id = user_prefs." +
+          dataModel.getItemIDColumn() + " AND user_prefs." + dataModel.getUserIDColumn() + "=?) WHERE user_prefs." +
+          dataModel.getItemIDColumn() + " IS NULL",
           // deleteDiffsSQL
           "DELETE FROM " + diffsTable,
           // createDiffsSQL
@@ -120,6 +154,26 @@ public final class MySQLJDBCDiffStorage extends AbstractJDBCDiffStorage {
           dataModel.getUserIDColumn() + " = prefsB." + dataModel.getUserIDColumn() + " AND prefsA." + dataModel.getItemIDColumn() + " < prefsB." +
           dataModel.getItemIDColumn() + ' ' + " GROUP BY prefsA." + dataModel.getItemIDColumn() +
           ", prefsB." + dataModel.getItemIDColumn() + " HAVING count >=?",
+          // prepareStagingSQLs
+          new String[]{
+                  "DROP TABLE IF EXISTS " + stagingTable,
+                  "CREATE TABLE " + stagingTable + " LIKE " + diffsTable
+          },
+          // createStagedDiffsSQL
+          "INSERT INTO " + stagingTable + " (" + itemIDAColumn + ", " + itemIDBColumn + ", " + avgColumn +
+          ", " + countColumn + ") SELECT prefsA." + dataModel.getItemIDColumn() + ", prefsB." + dataModel.getItemIDColumn() + ',' +
+          " AVG(prefsB." + dataModel.getPreferenceColumn() + " - prefsA." + dataModel.getPreferenceColumn() + ")," +
+          " COUNT(1) AS count FROM " + dataModel.getPreferenceTable() + " prefsA, " + dataModel.getPreferenceTable() + " prefsB WHERE prefsA." +
+          dataModel.getUserIDColumn() + " = prefsB." + dataModel.getUserIDColumn() + " AND prefsA." + dataModel.getItemIDColumn() + " < prefsB." +
+          dataModel.getItemIDColumn() + " AND MOD(CRC32(prefsA." + dataModel.getItemIDColumn() + "), ?) = ?" +
+          " GROUP BY prefsA." + dataModel.getItemIDColumn() +
+          ", prefsB." + dataModel.getItemIDColumn() + " HAVING count >=?",
+          // swapStagingSQLs
+          new String[]{
+                  "DROP TABLE IF EXISTS " + oldTable,
+                  "RENAME TABLE " + diffsTable + " TO " + oldTable + ", " + stagingTable + " TO " + diffsTable,
+                  "DROP TABLE " + oldTable
+          },
           // diffsExistSQL
           "SELECT COUNT(1) FROM " + diffsTable,
           minDiffCount);
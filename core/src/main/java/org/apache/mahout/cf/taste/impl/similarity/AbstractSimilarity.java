@@ -24,6 +24,10 @@ import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
+import org.apache.mahout.cf.taste.impl.model.CompactUser;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Item;
 import org.apache.mahout.cf.taste.model.Preference;
@@ -37,8 +41,13 @@ import java.util.Collection;
 import java.util.concurrent.Callable;
 
 /**
- * Abstract superclass encapsulating functionality that is common to most
- * implementations in this package.
+ * <p>Abstract superclass encapsulating functionality that is common to most
+ * implementations in this package.</p>
+ *
+ * <p>When users are {@link CompactUser}s, or the {@link DataModel} is a {@link CompactDataModel}, the
+ * similarity is computed directly over their sorted primitive ID and value arrays rather than over
+ * {@link Preference} objects. This does not apply to user similarity when a {@link PreferenceInferrer}
+ * or {@link PreferenceTransform} is set, since those work on {@link Preference}s.</p>
  */
 abstract class AbstractSimilarity implements UserSimilarity, ItemSimilarity {
 
@@ -150,6 +159,17 @@ abstract class AbstractSimilarity implements UserSimilarity, ItemSimilarity {
       throw new IllegalArgumentException("user1 or user2 is null");
     }
 
+    if (inferrer == null && prefTransform == null &&
+        user1 instanceof CompactUser && user2 instanceof CompactUser) {
+      // Nothing needs Preference objects, so work on the primitive arrays directly
+      GenericUserPreferenceArray xArray = ((CompactUser) user1).getPreferenceArray();
+      GenericUserPreferenceArray yArray = ((CompactUser) user2).getPreferenceArray();
+      return similarityOverArrays(user1, user2,
+                                  xArray.getItemIDs(), xArray.getValues(),
+                                  yArray.getItemIDs(), yArray.getValues(),
+                                  cachedNumItems);
+    }
+
     Preference[] xPrefs = user1.getPreferencesAsArray();
     Preference[] yPrefs = user2.getPreferencesAsArray();
 
@@ -228,27 +248,7 @@ abstract class AbstractSimilarity implements UserSimilarity, ItemSimilarity {
       }
     }
 
-    // "Center" the data. If my math is correct, this'll do it.
-    double n = (double) count;
-    double meanX = sumX / n;
-    double meanY = sumY / n;
-    // double centeredSumXY = sumXY - meanY * sumX - meanX * sumY + n * meanX * meanY;
-    double centeredSumXY = sumXY - meanY * sumX;
-    // double centeredSumX2 = sumX2 - 2.0 * meanX * sumX + n * meanX * meanX;
-    double centeredSumX2 = sumX2 - meanX * sumX;
-    // double centeredSumY2 = sumY2 - 2.0 * meanY * sumY + n * meanY * meanY;
-    double centeredSumY2 = sumY2 - meanY * sumY;
-
-    double result = computeResult(count, centeredSumXY, centeredSumX2, centeredSumY2, sumXYdiff2);
-
-    if (similarityTransform != null) {
-      result = similarityTransform.transformSimilarity(user1, user2, result);
-    }
-
-    if (!Double.isNaN(result)) {
-      result = normalizeWeightResult(result, count, cachedNumItems);
-    }
-    return result;
+    return finishResult(user1, user2, count, sumX, sumY, sumX2, sumY2, sumXY, sumXYdiff2, cachedNumItems);
   }
 
   @Override
@@ -258,6 +258,19 @@ abstract class AbstractSimilarity implements UserSimilarity, ItemSimilarity {
       throw new IllegalArgumentException("item1 or item2 is null");
     }
 
+    if (dataModel instanceof CompactDataModel) {
+      CompactDataModel compactDataModel = (CompactDataModel) dataModel;
+      GenericItemPreferenceArray xArray = getPreferenceArrayForItem(compactDataModel, item1);
+      GenericItemPreferenceArray yArray = getPreferenceArrayForItem(compactDataModel, item2);
+      if (xArray == null || yArray == null) {
+        return Double.NaN;
+      }
+      return similarityOverArrays(item1, item2,
+                                  xArray.getUserIDs(), xArray.getValues(),
+                                  yArray.getUserIDs(), yArray.getValues(),
+                                  cachedNumUsers);
+    }
+
     Preference[] xPrefs = dataModel.getPreferencesForItemAsArray(item1.getID());
     Preference[] yPrefs = dataModel.getPreferencesForItemAsArray(item2.getID());
 
@@ -313,7 +326,75 @@ abstract class AbstractSimilarity implements UserSimilarity, ItemSimilarity {
       }
     }
 
-    // See comments above on these computations
+    return finishResult(item1, item2, count, sumX, sumY, sumX2, sumY2, sumXY, sumXYdiff2, cachedNumUsers);
+  }
+
+  private static GenericItemPreferenceArray getPreferenceArrayForItem(CompactDataModel compactDataModel,
+                                                                      Item item) {
+    long itemID;
+    try {
+      itemID = CompactDataModel.toLongID(item.getID());
+    } catch (IllegalArgumentException iae) {
+      return null;
+    }
+    GenericItemPreferenceArray prefs = compactDataModel.getPreferenceArrayForItem(itemID);
+    return prefs == null || prefs.length() == 0 ? null : prefs;
+  }
+
+  /**
+   * <p>Like the loops in {@link #userSimilarity(User, User)} and {@link #itemSimilarity(Item, Item)}, but
+   * over parallel ID and value arrays, each sorted by ID, as held by {@link CompactDataModel}. This
+   * allocates nothing and makes no virtual calls per element.</p>
+   */
+  private double similarityOverArrays(Object thing1, Object thing2,
+                                      long[] xIDs, float[] xValues,
+                                      long[] yIDs, float[] yValues,
+                                      int num) {
+    int xLength = xIDs.length;
+    int yLength = yIDs.length;
+    if (xLength == 0 || yLength == 0) {
+      return Double.NaN;
+    }
+
+    double sumX = 0.0;
+    double sumX2 = 0.0;
+    double sumY = 0.0;
+    double sumY2 = 0.0;
+    double sumXY = 0.0;
+    double sumXYdiff2 = 0.0;
+    int count = 0;
+
+    int i = 0;
+    int j = 0;
+    while (i < xLength && j < yLength) {
+      long xID = xIDs[i];
+      long yID = yIDs[j];
+      if (xID < yID) {
+        i++;
+      } else if (xID > yID) {
+        j++;
+      } else {
+        double x = xValues[i++];
+        double y = yValues[j++];
+        sumXY += x * y;
+        sumX += x;
+        sumX2 += x * x;
+        sumY += y;
+        sumY2 += y * y;
+        double diff = x - y;
+        sumXYdiff2 += diff * diff;
+        count++;
+      }
+    }
+
+    return finishResult(thing1, thing2, count, sumX, sumY, sumX2, sumY2, sumXY, sumXYdiff2, num);
+  }
+
+  private double finishResult(Object thing1, Object thing2, int count,
+                              double sumX, double sumY, double sumX2, double sumY2,
+                              double sumXY, double sumXYdiff2, int num) {
+
+    // "Center" the data. If my math is correct, this'll do it.
     double n = (double) count;
     double meanX = sumX / n;
     double meanY = sumY / n;
@@ -327,11 +408,11 @@ abstract class AbstractSimilarity implements UserSimilarity, ItemSimilarity {
     double result = computeResult(count, centeredSumXY, centeredSumX2, centeredSumY2, sumXYdiff2);
 
     if (similarityTransform != null) {
-      result = similarityTransform.transformSimilarity(item1, item2, result);
+      result = similarityTransform.transformSimilarity(thing1, thing2, result);
     }
 
     if (!Double.isNaN(result)) {
-      result = normalizeWeightResult(result, count, cachedNumUsers);
+      result = normalizeWeightResult(result, count, num);
     }
     return result;
   }
@@ -21,18 +21,26 @@ import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
 import org.apache.mahout.cf.taste.impl.common.Pair;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.Retriever;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.PreferenceChangeListener;
 
 import java.util.Collection;
 
 /**
- * Caches the results from an underlying {@link org.apache.mahout.cf.taste.similarity.ItemSimilarity} implementation.
+ * <p>Caches the results from an underlying {@link org.apache.mahout.cf.taste.similarity.ItemSimilarity}
+ * implementation.</p>
+ *
+ * <p>{@link #refresh(Collection)} clears the whole cache. Registered as a {@link PreferenceChangeListener} with
+ * a {@link DataModel} which applies changes in place, it instead discards just the similarities involving
+ * changed items as the changes are applied. It is then enough to refresh the {@link DataModel} alone to pick
+ * up such changes.</p>
  */
-public final class CachingItemSimilarity implements ItemSimilarity {
+public final class CachingItemSimilarity implements ItemSimilarity, PreferenceChangeListener {
 
   private final ItemSimilarity similarity;
   private final Cache<Pair<Item, Item>, Double> similarityCache;
@@ -61,6 +69,13 @@ public final class CachingItemSimilarity implements ItemSimilarity {
     RefreshHelper.maybeRefresh(alreadyRefreshed, similarity);
   }
 
+  @Override
+  public void preferencesChanged(DataModel dataModel, Collection<Object> userIDs, Collection<Object> itemIDs) {
+    if (!itemIDs.isEmpty()) {
+      similarityCache.removeKeysMatching(new ItemPairMatchPredicate(new FastSet<Object>(itemIDs)));
+    }
+  }
+
   private static final class SimilarityRetriever implements Retriever<Pair<Item, Item>, Double> {
     private final ItemSimilarity similarity;
 
@@ -74,4 +89,17 @@ public final class CachingItemSimilarity implements ItemSimilarity {
     }
   }
 
+  private static final class ItemPairMatchPredicate implements Cache.MatchPredicate<Pair<Item, Item>> {
+    private final Collection<Object> itemIDs;
+
+    private ItemPairMatchPredicate(Collection<Object> itemIDs) {
+      this.itemIDs = itemIDs;
+    }
+
+    @Override
+    public boolean matches(Pair<Item, Item> pair) {
+      return itemIDs.contains(pair.getFirst().getID()) || itemIDs.contains(pair.getSecond().getID());
+    }
+  }
+
 }
\ No newline at end of file
@@ -22,18 +22,26 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastSet;
 import org.apache.mahout.cf.taste.impl.common.Pair;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.Retriever;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceChangeListener;
 import org.apache.mahout.cf.taste.model.User;
 
 import java.util.Collection;
 
 /**
- * Caches the results from an underlying {@link org.apache.mahout.cf.taste.similarity.UserSimilarity} implementation.
+ * <p>Caches the results from an underlying {@link org.apache.mahout.cf.taste.similarity.UserSimilarity}
+ * implementation.</p>
+ *
+ * <p>{@link #refresh(Collection)} clears the whole cache. Registered as a {@link PreferenceChangeListener} with
+ * a {@link DataModel} which applies changes in place, it instead discards just the similarities involving
+ * changed users as the changes are applied. It is then enough to refresh the {@link DataModel} alone to pick
+ * up such changes.</p>
  */
-public final class CachingUserSimilarity implements UserSimilarity {
+public final class CachingUserSimilarity implements UserSimilarity, PreferenceChangeListener {
 
   private final UserSimilarity similarity;
   private final Cache<Pair<User, User>, Double> similarityCache;
@@ -68,6 +76,13 @@ public final class CachingUserSimilarity implements UserSimilarity {
     RefreshHelper.maybeRefresh(alreadyRefreshed, similarity);
   }
 
+  @Override
+  public void preferencesChanged(DataModel dataModel, Collection<Object> userIDs, Collection<Object> itemIDs) {
+    if (!userIDs.isEmpty()) {
+      similarityCache.removeKeysMatching(new UserPairMatchPredicate(new FastSet<Object>(userIDs)));
+    }
+  }
+
   private static final class SimilarityRetriever implements Retriever<Pair<User, User>, Double> {
     private final UserSimilarity similarity;
 
@@ -81,4 +96,17 @@ public final class CachingUserSimilarity implements UserSimilarity {
     }
   }
 
+  private static final class UserPairMatchPredicate implements Cache.MatchPredicate<Pair<User, User>> {
+    private final Collection<Object> userIDs;
+
+    private UserPairMatchPredicate(Collection<Object> userIDs) {
+      this.userIDs = userIDs;
+    }
+
+    @Override
+    public boolean matches(Pair<User, User> pair) {
+      return userIDs.contains(pair.getFirst().getID()) || userIDs.contains(pair.getSecond().getID());
+    }
+  }
+
 }
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.MappedFile;
+import org.apache.mahout.cf.taste.impl.common.SortedIDIndex;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Collection;
+
+/**
+ * <p>An {@link ItemSimilarity} which serves precomputed similarities from a file written by
+ * {@link PrecomputedItemSimilarityBuilder}. The file is memory-mapped, so it is available almost
+ * immediately on startup, survives restarts, and may be shared by several JVMs through the page cache.</p>
+ *
+ * <p>The file holds, for each item, only its most similar items. Like {@link GenericItemSimilarity}, this
+ * treats similarity as symmetric, returns 1.0 for an item and itself, and {@link Double#NaN} for pairs
+ * it knows nothing about. Items are identified by the {@link String} form of their IDs.</p>
+ *
+ * <p>{@link #refresh(Collection)} maps the file again if it has changed.
+ * {@link PrecomputedItemSimilarityBuilder} writes a new file next to the old one and renames it over it, so it may
+ * replace a file which is in use. Do the same to replace it by other means; rewriting the mapped file in
+ * place has undefined results.</p>
+ */
+public final class MappedItemSimilarity implements ItemSimilarity {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedItemSimilarity.class);
+
+  static final int MAGIC = 0x5453494D; // "TSIM"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 4 * 4;
+
+  private final File file;
+  private long lastModified;
+  private long lastLength;
+  private volatile Index index;
+
+  /**
+   * @param file file written by {@link PrecomputedItemSimilarityBuilder}
+   * @throws FileNotFoundException if file does not exist
+   * @throws IOException if the file can't be mapped, or is not a valid similarity file
+   */
+  public MappedItemSimilarity(File file) throws IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("file is null");
+    }
+    if (!file.exists() || file.isDirectory()) {
+      throw new FileNotFoundException(file.toString());
+    }
+    this.file = file.getAbsoluteFile();
+    this.lastModified = file.lastModified();
+    this.lastLength = file.length();
+    this.index = new Index(this.file);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  Index getIndex() {
+    return index;
+  }
+
+  @Override
+  public double itemSimilarity(Item item1, Item item2) {
+    Index index = this.index;
+    int index1 = index.ids.indexOf(item1.getID().toString());
+    if (index1 < 0) {
+      return Double.NaN;
+    }
+    int index2 = index.ids.indexOf(item2.getID().toString());
+    if (index2 < 0) {
+      return Double.NaN;
+    }
+    if (index1 == index2) {
+      return 1.0;
+    }
+    // Either item may have the other among its most similar items
+    double similarity = index.similarity(index1, index2);
+    return Double.isNaN(similarity) ? index.similarity(index2, index1) : similarity;
+  }
+
+  @Override
+  public synchronized void refresh(Collection<Refreshable> alreadyRefreshed) {
+    long modified = file.lastModified();
+    long length = file.length();
+    // Any difference means a new file; its time may be older, or within the clock's resolution
+    if (modified != lastModified || length != lastLength) {
+      log.debug("Similarity file has changed; mapping again...");
+      try {
+        index = new Index(file);
+        lastModified = modified;
+        lastLength = length;
+      } catch (IOException ioe) {
+        log.warn("Unable to map new similarity file; keeping the old one", ioe);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MappedItemSimilarity[file:" + file + ']';
+  }
+
+  /**
+   * The mapped contents of one similarity file: for each item, in order of ID, the indices of its most
+   * similar items in ascending order, and the similarity to each.
+   */
+  static final class Index {
+
+    final int numItems;
+    final IntBuffer rowStarts;
+    final IntBuffer neighbors;
+    final FloatBuffer values;
+    final SortedIDIndex ids;
+
+    private Index(File file) throws IOException {
+      MappedFile mapped = new MappedFile(file, "Similarity file");
+      ByteBuffer buffer = mapped.getBuffer();
+      if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a similarity file: " + file);
+      }
+      int version = buffer.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("Unsupported similarity file version " + version + ": " + file);
+      }
+      numItems = buffer.getInt(8);
+      int numEntries = buffer.getInt(12);
+
+      mapped.seek(HEADER_BYTES);
+      rowStarts = mapped.nextSection(4L * (numItems + 1)).asIntBuffer();
+      neighbors = mapped.nextSection(4L * numEntries).asIntBuffer();
+      values = mapped.nextSection(4L * numEntries).asFloatBuffer();
+      IntBuffer idStarts = mapped.nextSection(4L * (numItems + 1)).asIntBuffer();
+      CharBuffer idChars = mapped.nextSection(2L * idStarts.get(numItems)).asCharBuffer();
+      ids = new SortedIDIndex(idStarts, idChars);
+    }
+
+    /**
+     * @return similarity of the item at index to the item at otherIndex, if the latter is among the
+     *  former's most similar items, or {@link Double#NaN} otherwise
+     */
+    double similarity(int index, int otherIndex) {
+      int low = rowStarts.get(index);
+      int high = rowStarts.get(index + 1) - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int midIndex = neighbors.get(mid);
+        if (midIndex < otherIndex) {
+          low = mid + 1;
+        } else if (midIndex > otherIndex) {
+          high = mid - 1;
+        } else {
+          return values.get(mid);
+        }
+      }
+      return Double.NaN;
+    }
+
+  }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.NeighborRowsBuilder;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * <p>Computes, for every item in a {@link DataModel}, its most similar items according to some
+ * {@link ItemSimilarity}, and writes them to a compact binary file which {@link MappedItemSimilarity} can
+ * serve. Unlike {@link GenericItemSimilarity#GenericItemSimilarity(ItemSimilarity, DataModel, int)}, which
+ * keeps the overall most similar pairs, this keeps up to a fixed number of neighbors for each item, and uses
+ * several threads.</p>
+ *
+ * <p>After preferences for some items change, {@link #rebuild(MappedItemSimilarity, Collection, File)}
+ * produces a new file from the old one, recomputing only what the changes may affect, as described in
+ * {@link NeighborRowsBuilder}, which also describes the file format. Each item's neighbors are stored in
+ * ascending order of index.</p>
+ */
+public final class PrecomputedItemSimilarityBuilder {
+
+  private final ItemSimilarity similarity;
+  private final DataModel dataModel;
+  private final int maxNeighbors;
+  private final double minSimilarity;
+  private final int numThreads;
+
+  /**
+   * @param similarity {@link ItemSimilarity} to compute similarities with
+   * @param dataModel {@link DataModel} to get {@link Item}s from
+   * @param maxNeighbors maximum number of most similar items to keep for each item
+   * @param minSimilarity similarities below this are not kept
+   * @param numThreads number of threads to compute with
+   */
+  public PrecomputedItemSimilarityBuilder(ItemSimilarity similarity,
+                                          DataModel dataModel,
+                                          int maxNeighbors,
+                                          double minSimilarity,
+                                          int numThreads) {
+    if (similarity == null || dataModel == null) {
+      throw new IllegalArgumentException("similarity or dataModel is null");
+    }
+    if (maxNeighbors < 1) {
+      throw new IllegalArgumentException("maxNeighbors must be at least 1");
+    }
+    if (Double.isNaN(minSimilarity)) {
+      throw new IllegalArgumentException("minSimilarity is NaN");
+    }
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
+    this.similarity = similarity;
+    this.dataModel = dataModel;
+    this.maxNeighbors = maxNeighbors;
+    this.minSimilarity = minSimilarity;
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * Computes most similar items for all items and writes them to the given file.
+   *
+   * @throws TasteException if an error occurs while accessing the {@link DataModel} or computing similarity
+   * @throws IOException if an error occurs while writing the file
+   */
+  public void build(File file) throws TasteException, IOException {
+    rebuild(null, Collections.emptySet(), file);
+  }
+
+  /**
+   * Writes a new file based on a previously built one, given the IDs of items whose preferences have changed
+   * since. Items added to or removed from the {@link DataModel} since should be included.
+   *
+   * @param previous previously built similarities, or <code>null</code> to compute everything
+   * @param changedItemIDs IDs of items whose preferences have changed
+   * @param file file to write to, which may be the file previous is reading from
+   * @throws TasteException if an error occurs while accessing the {@link DataModel} or computing similarity
+   * @throws IOException if an error occurs while writing the file
+   */
+  public void rebuild(MappedItemSimilarity previous, Collection<?> changedItemIDs, File file)
+      throws TasteException, IOException {
+    NeighborRowsBuilder.PreviousRows previousRows = null;
+    if (previous != null) {
+      MappedItemSimilarity.Index index = previous.getIndex();
+      previousRows = new NeighborRowsBuilder.PreviousRows(index.rowStarts, index.neighbors, index.values, index.ids);
+    }
+    new ItemRowsBuilder().build(dataModel.getItems(), previousRows, changedItemIDs, file);
+  }
+
+  private final class ItemRowsBuilder extends NeighborRowsBuilder<Item> {
+
+    private ItemRowsBuilder() {
+      super(MappedItemSimilarity.MAGIC, MappedItemSimilarity.VERSION, maxNeighbors, minSimilarity, numThreads,
+            false);
+    }
+
+    @Override
+    protected Object getID(Item item) {
+      return item.getID();
+    }
+
+    @Override
+    protected double similarity(Item item1, Item item2) throws TasteException {
+      return similarity.itemSimilarity(item1, item2);
+    }
+  }
+
+}
@@ -24,13 +24,16 @@ import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.model.ByItemPreferenceComparator;
 import org.apache.mahout.cf.taste.impl.model.ByValuePreferenceComparator;
+import org.apache.mahout.cf.taste.impl.model.CompactUser;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.User;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 
 /**
  * <p>Like {@link PearsonCorrelationSimilarity}, but compares relative ranking of preference values instead of preference
@@ -61,8 +64,39 @@ public final class SpearmanCorrelationSimilarity implements UserSimilarity {
     if (user1 == null || user2 == null) {
       throw new IllegalArgumentException("user1 or user2 is null");
     }
-    return rankingUserSimilarity.userSimilarity(new RankedPreferenceUser(user1),
-                                                  new RankedPreferenceUser(user2));
+    return rankingUserSimilarity.userSimilarity(rank(user1), rank(user2));
+  }
+
+  /**
+   * @return a {@link User} whose preference values are the ranks of the given {@link User}'s. A
+   *  {@link CompactUser} is ranked into another {@link CompactUser}, so that the ranking similarity can
+   *  work on its primitive arrays.
+   */
+  private static User rank(User user) {
+    if (!(user instanceof CompactUser)) {
+      return new RankedPreferenceUser(user);
+    }
+    CompactUser compactUser = (CompactUser) user;
+    GenericUserPreferenceArray prefs = compactUser.getPreferenceArray();
+    final float[] values = prefs.getValues();
+    int length = values.length;
+    Integer[] byValue = new Integer[length];
+    for (int i = 0; i < length; i++) {
+      byValue[i] = i;
+    }
+    // Stable, like the sort in RankedPreferenceUser, so ties are ranked in order of item ID
+    Arrays.sort(byValue, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Float.compare(values[a], values[b]);
+      }
+    });
+    float[] ranks = new float[length];
+    for (int i = 0; i < length; i++) {
+      ranks[byValue[i]] = (float) (i + 1);
+    }
+    // Item IDs are already sorted and are not modified, so they can be shared
+    return new CompactUser(compactUser.getUserID(), new GenericUserPreferenceArray(prefs.getItemIDs(), ranks));
   }
 
   @Override
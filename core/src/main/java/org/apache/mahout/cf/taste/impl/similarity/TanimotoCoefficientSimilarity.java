@@ -23,6 +23,7 @@ import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.model.CompactUser;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Item;
 import org.apache.mahout.cf.taste.model.Preference;
@@ -65,6 +66,11 @@ public final class TanimotoCoefficientSimilarity implements UserSimilarity, Item
       throw new IllegalArgumentException("user1 or user2 is null");
     }
 
+    if (user1 instanceof CompactUser && user2 instanceof CompactUser) {
+      return userSimilarity(((CompactUser) user1).getPreferenceArray().getItemIDs(),
+                            ((CompactUser) user2).getPreferenceArray().getItemIDs());
+    }
+
     Preference[] xPrefs = user1.getPreferencesAsArray();
     Preference[] yPrefs = user2.getPreferencesAsArray();
 
@@ -109,6 +115,35 @@ public final class TanimotoCoefficientSimilarity implements UserSimilarity, Item
     return (double) intersectionSize / (double) unionSize;
   }
 
+  /**
+   * Same as above, over sorted item IDs.
+   */
+  private static double userSimilarity(long[] xItemIDs, long[] yItemIDs) {
+    int xLength = xItemIDs.length;
+    int yLength = yItemIDs.length;
+    if (xLength == 0 && yLength == 0) {
+      return Double.NaN;
+    }
+    int intersectionSize = 0;
+    int i = 0;
+    int j = 0;
+    while (i < xLength && j < yLength) {
+      long xItemID = xItemIDs[i];
+      long yItemID = yItemIDs[j];
+      if (xItemID < yItemID) {
+        i++;
+      } else if (xItemID > yItemID) {
+        j++;
+      } else {
+        intersectionSize++;
+        i++;
+        j++;
+      }
+    }
+    int unionSize = xLength + yLength - intersectionSize;
+    return (double) intersectionSize / (double) unionSize;
+  }
+
   @Override
   public double itemSimilarity(Item item1, Item item2) throws TasteException {
     if (item1 == null || item2 == null) {
@@ -19,10 +19,15 @@ package org.apache.mahout.cf.taste.model;
 
 /**
  * An alternate representation of an array of {@link Preference}. Implementations, in theory,
- * can produce a more memory-efficient representation. This is not used yet.
+ * can produce a more memory-efficient representation.
  */
 public interface PreferenceArray {
 
+  /**
+   * @return number of {@link Preference}s represented
+   */
+  int length();
+
   Preference get(int i);
 
   void set(int i, Preference pref);
@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.model;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+
+import java.util.Collection;
+
+/**
+ * <p>Implementations are notified when a {@link DataModel} changes some of its data in place, rather than
+ * reloading all of it. This lets dependents that cache derived data discard just what was affected by the
+ * change, instead of waiting for, or performing, a full {@link Refreshable#refresh(Collection)}.</p>
+ */
+public interface PreferenceChangeListener {
+
+  /**
+   * @param dataModel {@link DataModel} whose data changed
+   * @param userIDs IDs of {@link User}s whose preferences were added, changed or removed
+   * @param itemIDs IDs of {@link Item}s for which preferences were added, changed or removed
+   */
+  void preferencesChanged(DataModel dataModel, Collection<Object> userIDs, Collection<Object> itemIDs);
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.util.Set;
+
+/**
+ * <p>Used by a {@link Recommender} to choose which {@link Item}s are worth estimating a preference for,
+ * when recommending to a {@link User}. Considering every {@link Item} in the {@link DataModel} is simple,
+ * but on a large catalog most of those estimates are wasted; a strategy can restrict the candidates to
+ * {@link Item}s which are plausibly related to what the {@link User} already prefers.</p>
+ */
+public interface CandidateItemsStrategy {
+
+  /**
+   * @param user {@link User} being recommended to
+   * @param dataModel {@link DataModel} to draw {@link Item}s from
+   * @return {@link Item}s to consider recommending, which should not include any the {@link User} already
+   *  expresses a preference for
+   * @throws TasteException if an error occurs while accessing the {@link DataModel}
+   */
+  Set<Item> getCandidateItems(User user, DataModel dataModel) throws TasteException;
+
+}
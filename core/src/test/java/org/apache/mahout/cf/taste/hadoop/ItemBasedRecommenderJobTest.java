@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Tests {@link ItemBasedRecommenderJob} in Hadoop's local mode.</p>
+ */
+public final class ItemBasedRecommenderJobTest extends TasteTestCase {
+
+  private File testDir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    testDir = File.createTempFile("itembased", "");
+    testDir.delete();
+    testDir.mkdirs();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    delete(testDir);
+    super.tearDown();
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  public void testRecommendations() throws Exception {
+    File prefsFile = new File(testDir, "prefs.csv");
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(prefsFile), Charset.forName("UTF-8")));
+    try {
+      writer.write("u1,a,1.0\nu1,b,2.0\n");
+      writer.write("u2,a,3.0\nu2,c,4.0\n");
+      writer.write("u3,b,5.0\nu3,c,1.0\n");
+      writer.write("u4,a,2.0\nu4,b,1.0\nu4,c,3.0\nu4,d,5.0\n");
+    } finally {
+      writer.close();
+    }
+    File outputDir = new File(testDir, "output");
+    ItemBasedRecommenderJob.runJobs(prefsFile.getAbsolutePath(),
+                                    outputDir.getAbsolutePath(),
+                                    new File(testDir, "temp").getAbsolutePath(),
+                                    2,
+                                    10);
+
+    Map<String, String> recommendations = readOutput(new File(outputDir, "part-00000"));
+    // Estimates are sums of preference times co-occurrence count, over the user's items
+    assertEquals("[c:6.0,d:3.0]", recommendations.get("u1"));
+    assertEquals("[b:14.0,d:7.0]", recommendations.get("u2"));
+    assertEquals("[a:12.0,d:6.0]", recommendations.get("u3"));
+    // u4 already has everything
+    assertEquals("[]", recommendations.get("u4"));
+  }
+
+  private static Map<String, String> readOutput(File file) throws IOException {
+    Map<String, String> output = new HashMap<String, String>();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] tokens = line.split("\t");
+        output.put(tokens[0], tokens[1]);
+      }
+    } finally {
+      reader.close();
+    }
+    return output;
+  }
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunner;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Tests {@link RecommenderJob}, {@link RecommenderMapper} and {@link RecommenderMapRunner} in Hadoop's
+ * local mode.</p>
+ */
+public final class RecommenderJobTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 40;
+
+  private File testDir;
+  private File dataFile;
+  private File userIDFile;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    testDir = File.createTempFile("recommender", "");
+    testDir.delete();
+    testDir.mkdirs();
+    dataFile = new File(testDir, "data.csv");
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(dataFile), Charset.forName("UTF-8")));
+    try {
+      for (int user = 0; user < NUM_USERS; user++) {
+        for (int item = 0; item < 10; item++) {
+          if ((user + item) % 3 != 0) {
+            writer.write("u" + user + ",i" + item + ',' + ((user * 7 + item * 3) % 5 + 1) + ".0\n");
+          }
+        }
+      }
+    } finally {
+      writer.close();
+    }
+    userIDFile = new File(testDir, "users.txt");
+    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(userIDFile), Charset.forName("UTF-8")));
+    try {
+      for (int user = 0; user < NUM_USERS; user++) {
+        writer.write("u" + user + '\n');
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    delete(testDir);
+    super.tearDown();
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  public void testBuildJobConf() throws Exception {
+    JobConf jobConf = buildJobConf("output", 5, 4);
+    assertEquals(5, jobConf.getNumMapTasks());
+    assertEquals(RecommenderMapRunner.class, jobConf.getMapRunnerClass());
+    assertEquals(4, jobConf.getInt(RecommenderMapRunner.NUM_THREADS, 0));
+    jobConf = buildJobConf("output", 0, 1);
+    assertEquals(MapRunner.class, jobConf.getMapRunnerClass());
+  }
+
+  public void testMapRunnerMatchesMapper() throws Exception {
+    JobClient.runJob(buildJobConf("mapperOutput", 0, 1));
+    JobClient.runJob(buildJobConf("runnerOutput", 0, 3));
+    List<String> mapperOutput = readOutput(new File(testDir, "mapperOutput/part-00000"));
+    List<String> runnerOutput = readOutput(new File(testDir, "runnerOutput/part-00000"));
+    assertEquals(NUM_USERS, mapperOutput.size());
+    int numRecommended = 0;
+    for (String line : mapperOutput) {
+      if (!line.endsWith("[]")) {
+        numRecommended++;
+      }
+    }
+    assertTrue(numRecommended > NUM_USERS / 2);
+    assertEquals(mapperOutput, runnerOutput);
+  }
+
+  public void testSharedRecommender() throws Exception {
+    JobConf jobConf = buildJobConf("output", 0, 1);
+    RecommenderMapper mapper1 = new RecommenderMapper();
+    mapper1.configure(jobConf);
+    RecommenderMapper mapper2 = new RecommenderMapper();
+    mapper2.configure(jobConf);
+    assertSame(mapper1.getRecommender(), mapper2.getRecommender());
+
+    File otherDataFile = new File(testDir, "other.csv");
+    assertTrue(dataFile.renameTo(otherDataFile));
+    jobConf.set(RecommenderMapper.DATA_MODEL_FILE, otherDataFile.getAbsolutePath());
+    RecommenderMapper mapper3 = new RecommenderMapper();
+    mapper3.configure(jobConf);
+    assertNotSame(mapper1.getRecommender(), mapper3.getRecommender());
+  }
+
+  private JobConf buildJobConf(String outputDir, int numMapTasks, int numThreads) throws IOException {
+    return RecommenderJob.buildJobConf(SlopeOneRecommender.class.getName(),
+                                       3,
+                                       userIDFile.getAbsolutePath(),
+                                       dataFile.getAbsolutePath(),
+                                       new File(testDir, outputDir).getAbsolutePath(),
+                                       numMapTasks,
+                                       numThreads);
+  }
+
+  private static List<String> readOutput(File file) throws IOException {
+    List<String> output = new ArrayList<String>();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        output.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return output;
+  }
+
+}
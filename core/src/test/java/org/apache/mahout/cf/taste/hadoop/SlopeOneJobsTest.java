@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Tests {@link SlopeOnePrefsToDiffsJob} and {@link SlopeOneDiffsToAveragesJob} in Hadoop's local mode.</p>
+ */
+public final class SlopeOneJobsTest extends TasteTestCase {
+
+  private File testDir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    testDir = File.createTempFile("slopeone", "");
+    testDir.delete();
+    testDir.mkdirs();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    delete(testDir);
+    super.tearDown();
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  public void testRawComparator() throws Exception {
+    ItemItemWritable[] pairs = {
+        new ItemItemWritable("a", "b"),
+        new ItemItemWritable("a", "bb"),
+        new ItemItemWritable("ab", "a"),
+        new ItemItemWritable("b", ""),
+    };
+    WritableComparator comparator = WritableComparator.get(ItemItemWritable.class);
+    assertTrue(comparator instanceof ItemItemWritable.Comparator);
+    for (ItemItemWritable first : pairs) {
+      byte[] firstBytes = serialize(first);
+      for (ItemItemWritable second : pairs) {
+        byte[] secondBytes = serialize(second);
+        int raw = comparator.compare(firstBytes, 0, firstBytes.length, secondBytes, 0, secondBytes.length);
+        assertEquals(Integer.signum(first.compareTo(second)), Integer.signum(raw));
+      }
+    }
+  }
+
+  private static byte[] serialize(ItemItemWritable writable) throws IOException {
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    writable.write(buffer);
+    byte[] bytes = new byte[buffer.getLength()];
+    System.arraycopy(buffer.getData(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  public void testAverageDiffs() throws Exception {
+    File prefsFile = new File(testDir, "prefs.csv");
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(prefsFile), Charset.forName("UTF-8")));
+    try {
+      writer.write("u1,a,1.0\nu1,b,2.0\nu1,c,3.0\n");
+      writer.write("u2,a,3.0\nu2,b,1.0\n");
+      writer.write("u3,b,4.0\nu3,c,5.0\n");
+    } finally {
+      writer.close();
+    }
+    File diffsDir = new File(testDir, "diffs");
+    File outputDir = new File(testDir, "output");
+    JobConf diffsConf = SlopeOnePrefsToDiffsJob.buildJobConf(prefsFile.getAbsolutePath(), diffsDir.getAbsolutePath());
+    // Flush after every user, so the same pair is output more than once
+    diffsConf.setInt(SlopeOnePrefsToDiffsReducer.MAX_BUFFERED_PAIRS, 1);
+    JobClient.runJob(diffsConf);
+    JobClient.runJob(SlopeOneDiffsToAveragesJob.buildJobConf(diffsDir.getAbsolutePath(), outputDir.getAbsolutePath()));
+
+    Map<String, String> averages = readOutput(new File(outputDir, "part-00000"));
+    assertEquals(3, averages.size());
+    assertEquals("-0.5", averages.get("a\tb"));
+    assertEquals("2.0", averages.get("a\tc"));
+    assertEquals("1.0", averages.get("b\tc"));
+  }
+
+  public void testSampleIsRepeatable() throws Exception {
+    List<ItemPrefWritable> prefs = new ArrayList<ItemPrefWritable>();
+    for (int i = 0; i < 20; i++) {
+      prefs.add(new ItemPrefWritable("i" + i, (double) i));
+    }
+    Map<String, String> first = reduceSampled(prefs);
+    Collections.reverse(prefs);
+    Map<String, String> second = reduceSampled(prefs);
+    // 5 of the 20 preferences, so 10 pairs
+    assertEquals(10, first.size());
+    assertEquals(first, second);
+  }
+
+  private static Map<String, String> reduceSampled(List<ItemPrefWritable> prefs) throws IOException {
+    JobConf jobConf = new JobConf();
+    jobConf.setInt(SlopeOnePrefsToDiffsReducer.MAX_PREFS_PER_USER, 5);
+    SlopeOnePrefsToDiffsReducer reducer = new SlopeOnePrefsToDiffsReducer();
+    reducer.configure(jobConf);
+    final Map<String, String> output = new HashMap<String, String>();
+    reducer.reduce(new Text("u1"), prefs.iterator(), new OutputCollector<ItemItemWritable, DiffStatsWritable>() {
+      @Override
+      public void collect(ItemItemWritable key, DiffStatsWritable value) {
+        output.put(key.toString(), value.toString());
+      }
+    }, Reporter.NULL);
+    reducer.close();
+    return output;
+  }
+
+  private static Map<String, String> readOutput(File file) throws IOException {
+    Map<String, String> output = new HashMap<String, String>();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int lastTab = line.lastIndexOf('\t');
+        output.put(line.substring(0, lastTab), line.substring(lastTab + 1));
+      }
+    } finally {
+      reader.close();
+    }
+    return output;
+  }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.benchmark;
+
+/**
+ * <p>One operation to be timed by {@link BenchmarkRunner}.</p>
+ */
+abstract class Benchmark {
+
+  private final String name;
+  private final int operationsPerRun;
+
+  /**
+   * @param name benchmark name, reported with its results
+   * @param operationsPerRun number of operations each call to {@link #run()} performs, so that results
+   *  can be reported per operation
+   */
+  Benchmark(String name, int operationsPerRun) {
+    if (operationsPerRun < 1) {
+      throw new IllegalArgumentException("operationsPerRun must be at least 1");
+    }
+    this.name = name;
+    this.operationsPerRun = operationsPerRun;
+  }
+
+  final String getName() {
+    return name;
+  }
+
+  final int getOperationsPerRun() {
+    return operationsPerRun;
+  }
+
+  /**
+   * Performs the operations being timed.
+   *
+   * @return any value computed from the results, which the runner keeps so that the JIT compiler can't
+   *  discard the work as unused
+   */
+  abstract double run() throws Exception;
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+}
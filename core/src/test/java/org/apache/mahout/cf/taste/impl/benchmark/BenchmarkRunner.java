@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.benchmark;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * <p>Times {@link Benchmark}s. Each benchmark is first run for a number of warmup iterations, whose
+ * results are discarded, so that the JIT compiler has compiled the code being measured, and then for a
+ * number of measured iterations. An iteration calls {@link Benchmark#run()} repeatedly until at least
+ * the given time has passed, and yields the mean time per operation in that iteration.</p>
+ *
+ * <p>Results are written one line per benchmark, as comma-separated values, after a header line:
+ * benchmark name, data parameters, number of iterations, number of operations measured, and the mean,
+ * standard deviation, minimum and maximum over iterations of nanoseconds per operation.</p>
+ */
+final class BenchmarkRunner {
+
+  private static final Logger log = LoggerFactory.getLogger(BenchmarkRunner.class);
+
+  static final String HEADER = "benchmark,params,iterations,operations,meanNanos,stdDevNanos,minNanos,maxNanos";
+
+  private final int warmupIterations;
+  private final int measuredIterations;
+  private final long iterationNanos;
+  private final String params;
+  private final PrintWriter out;
+  /** Last sum of benchmark results; a volatile write can't be optimized away, and so neither can the work. */
+  private volatile double blackhole;
+
+  /**
+   * @param warmupIterations number of iterations to run before measuring
+   * @param measuredIterations number of iterations to measure
+   * @param iterationMillis minimum length of each iteration
+   * @param params description of the data benchmarked, reported with each result
+   * @param out where results are written
+   */
+  BenchmarkRunner(int warmupIterations, int measuredIterations, long iterationMillis, String params,
+                  PrintWriter out) {
+    if (warmupIterations < 0 || measuredIterations < 1 || iterationMillis < 1L) {
+      throw new IllegalArgumentException("Invalid iterations or iteration length");
+    }
+    this.warmupIterations = warmupIterations;
+    this.measuredIterations = measuredIterations;
+    this.iterationNanos = iterationMillis * 1000000L;
+    this.params = params;
+    this.out = out;
+  }
+
+  void writeHeader() {
+    out.println(HEADER);
+    out.flush();
+  }
+
+  void run(Benchmark benchmark) throws Exception {
+    log.info("Running {}", benchmark);
+    for (int i = 0; i < warmupIterations; i++) {
+      iteration(benchmark);
+    }
+    double sum = 0.0;
+    double sumOfSquares = 0.0;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    long totalOperations = 0L;
+    for (int i = 0; i < measuredIterations; i++) {
+      long[] result = iteration(benchmark);
+      long operations = result[1];
+      double nanosPerOperation = (double) result[0] / (double) operations;
+      sum += nanosPerOperation;
+      sumOfSquares += nanosPerOperation * nanosPerOperation;
+      min = Math.min(min, nanosPerOperation);
+      max = Math.max(max, nanosPerOperation);
+      totalOperations += operations;
+    }
+    double mean = sum / measuredIterations;
+    double variance = Math.max(0.0, sumOfSquares / measuredIterations - mean * mean);
+    out.println(String.format(Locale.ENGLISH, "%s,%s,%d,%d,%.1f,%.1f,%.1f,%.1f",
+                              benchmark.getName(), params, measuredIterations, totalOperations,
+                              mean, Math.sqrt(variance), min, max));
+    out.flush();
+    log.info("{}: {} ns/op", benchmark, mean);
+  }
+
+  /**
+   * @return elapsed nanoseconds, and number of operations performed
+   */
+  private long[] iteration(Benchmark benchmark) throws Exception {
+    double results = 0.0;
+    long operations = 0L;
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      results += benchmark.run();
+      operations += benchmark.getOperationsPerRun();
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < iterationNanos);
+    blackhole = results;
+    return new long[] {elapsed, operations};
+  }
+
+}
@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.benchmark;
+
+import org.apache.mahout.cf.taste.impl.common.FastSet;
+import org.apache.mahout.cf.taste.impl.model.GenericItem;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUser;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <p>Generates random preference data with a given number of users and items, and density (fraction of all
+ * user-item pairs for which there is a preference). To look more like real data than uniformly random
+ * data, item popularity follows a power law, the number of preferences per user varies, and preference
+ * values are 1 to 5, shifted by a per-user and per-item bias.</p>
+ *
+ * <p>User and item IDs are the numbers from 0, as {@link String}s, so the same data can be loaded into any
+ * of the {@link org.apache.mahout.cf.taste.model.DataModel} implementations.</p>
+ */
+final class SyntheticDataModelGenerator {
+
+  private static final double POPULARITY_EXPONENT = 0.8;
+
+  private final int numUsers;
+  private final int numItems;
+  private final double density;
+  private final long seed;
+
+  SyntheticDataModelGenerator(int numUsers, int numItems, double density, long seed) {
+    if (numUsers < 1 || numItems < 1) {
+      throw new IllegalArgumentException("numUsers and numItems must be at least 1");
+    }
+    if (Double.isNaN(density) || density <= 0.0 || density > 1.0) {
+      throw new IllegalArgumentException("density must be in (0,1]");
+    }
+    this.numUsers = numUsers;
+    this.numItems = numItems;
+    this.density = density;
+    this.seed = seed;
+  }
+
+  int getNumUsers() {
+    return numUsers;
+  }
+
+  int getNumItems() {
+    return numItems;
+  }
+
+  double getDensity() {
+    return density;
+  }
+
+  /**
+   * @return the same {@link User}s each time, for the same parameters and seed
+   */
+  List<User> generateUsers() {
+    Random random = new Random(seed);
+
+    // Cumulative popularity of items, so that item i is picked with probability proportional to
+    // 1 / (i + 1)^POPULARITY_EXPONENT
+    double[] cumulative = new double[numItems];
+    double total = 0.0;
+    for (int i = 0; i < numItems; i++) {
+      total += 1.0 / Math.pow(i + 1, POPULARITY_EXPONENT);
+      cumulative[i] = total;
+    }
+    double[] itemBias = new double[numItems];
+    List<Item> items = new ArrayList<Item>(numItems);
+    for (int i = 0; i < numItems; i++) {
+      items.add(new GenericItem<String>(String.valueOf(i)));
+      itemBias[i] = random.nextGaussian() * 0.5;
+    }
+
+    double meanPrefsPerUser = density * numItems;
+    List<User> users = new ArrayList<User>(numUsers);
+    for (int u = 0; u < numUsers; u++) {
+      // Exponentially distributed around the mean, but at least 1 and at most all items
+      int numPrefs = (int) Math.round(-meanPrefsPerUser * Math.log(1.0 - random.nextDouble()));
+      numPrefs = Math.max(1, Math.min(numItems, numPrefs));
+      double userBias = random.nextGaussian() * 0.5;
+      Set<Integer> chosen = new FastSet<Integer>(numPrefs);
+      List<Preference> prefs = new ArrayList<Preference>(numPrefs);
+      while (chosen.size() < numPrefs) {
+        int itemIndex;
+        if (numPrefs > numItems / 2) {
+          // Rejection sampling by popularity would take too long to fill most of the items
+          itemIndex = random.nextInt(numItems);
+        } else {
+          itemIndex = pick(cumulative, random.nextDouble() * total);
+        }
+        if (chosen.add(itemIndex)) {
+          double value = 3.0 + userBias + itemBias[itemIndex] + random.nextGaussian();
+          value = Math.max(1.0, Math.min(5.0, Math.rint(value)));
+          prefs.add(new GenericPreference(null, items.get(itemIndex), value));
+        }
+      }
+      users.add(new GenericUser<String>(String.valueOf(u), prefs));
+    }
+    return users;
+  }
+
+  private static int pick(double[] cumulative, double target) {
+    int low = 0;
+    int high = cumulative.length - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (cumulative[mid] < target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Writes the generated data in the format read by
+   * {@link org.apache.mahout.cf.taste.impl.model.file.FileDataModel}.
+   */
+  void writeFile(File file) throws IOException {
+    PrintWriter writer =
+        new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+    try {
+      for (User user : generateUsers()) {
+        Object userID = user.getID();
+        for (Preference pref : user.getPreferencesAsArray()) {
+          writer.print(userID);
+          writer.print(',');
+          writer.print(pref.getItem().getID());
+          writer.print(',');
+          writer.println(pref.getValue());
+        }
+      }
+    } finally {
+      writer.close();
+    }
+    if (writer.checkError()) {
+      throw new IOException("Error while writing " + file);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "users=" + numUsers + ";items=" + numItems + ";density=" + density + ";seed=" + seed;
+  }
+
+}
@@ -0,0 +1,336 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.benchmark;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.neighborhood.ThresholdUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.MemoryDiffStorage;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.EuclideanDistanceSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.SpearmanCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Micro-benchmarks of the hot paths in Taste: loading data models, each similarity metric, user
+ * neighborhoods, {@link TopItems}, and building and using slope-one diffs. Unlike {@link
+ * org.apache.mahout.cf.taste.impl.LoadTest}, this reports the time per operation of each piece separately,
+ * so that results can be compared across builds to catch regressions.</p>
+ *
+ * <p>Run it with arguments of the form <code>name=value</code>:</p>
+ *
+ * <ul>
+ *  <li><code>users</code>, <code>items</code>, <code>density</code>, <code>seed</code>: data to generate
+ *   with {@link SyntheticDataModelGenerator}; default 2000 users, 1000 items, density 0.02</li>
+ *  <li><code>warmup</code>, <code>iterations</code>, <code>iterationMillis</code>: see
+ *   {@link BenchmarkRunner}; default 5, 10 and 500</li>
+ *  <li><code>filter</code>: regular expression; only benchmarks whose names it finds are run</li>
+ *  <li><code>output</code>: file to append results to as comma-separated values; default standard output</li>
+ * </ul>
+ */
+public final class TasteBenchmarks {
+
+  private static final int NUM_SAMPLES = 1000;
+  private static final int HOW_MANY = 10;
+
+  private final SyntheticDataModelGenerator generator;
+  private final DataModel genericModel;
+  private final DataModel compactModel;
+  private final File dataFile;
+  private final Object[][] userPairs;
+  private final Item[][] itemPairs;
+  private final Object[] sampleUserIDs;
+  private final Object[] sampleItemIDs;
+
+  private TasteBenchmarks(SyntheticDataModelGenerator generator) throws IOException, TasteException {
+    this.generator = generator;
+    List<User> users = generator.generateUsers();
+    genericModel = new GenericDataModel(users);
+    compactModel = new CompactDataModel(genericModel);
+    dataFile = File.createTempFile("tasteBenchmark", ".txt");
+    dataFile.deleteOnExit();
+    generator.writeFile(dataFile);
+
+    List<Item> items = new ArrayList<Item>(genericModel.getNumItems());
+    for (Item item : genericModel.getItems()) {
+      items.add(item);
+    }
+    Random random = new Random(generator.getNumUsers() * 31L + generator.getNumItems());
+    userPairs = new Object[NUM_SAMPLES][2];
+    itemPairs = new Item[NUM_SAMPLES][2];
+    sampleUserIDs = new Object[NUM_SAMPLES];
+    sampleItemIDs = new Object[NUM_SAMPLES];
+    for (int i = 0; i < NUM_SAMPLES; i++) {
+      userPairs[i][0] = users.get(random.nextInt(users.size())).getID();
+      userPairs[i][1] = users.get(random.nextInt(users.size())).getID();
+      itemPairs[i][0] = items.get(random.nextInt(items.size()));
+      itemPairs[i][1] = items.get(random.nextInt(items.size()));
+      sampleUserIDs[i] = users.get(random.nextInt(users.size())).getID();
+      sampleItemIDs[i] = items.get(random.nextInt(items.size())).getID();
+    }
+  }
+
+  private List<Benchmark> getBenchmarks() throws TasteException {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+    final List<User> users = generator.generateUsers();
+    benchmarks.add(new Benchmark("load.GenericDataModel", 1) {
+      @Override
+      double run() {
+        return new GenericDataModel(users).getNumItems();
+      }
+    });
+    benchmarks.add(new Benchmark("load.CompactDataModel", 1) {
+      @Override
+      double run() {
+        return new CompactDataModel(users).getNumItems();
+      }
+    });
+    benchmarks.add(new Benchmark("load.FileDataModel", 1) {
+      @Override
+      double run() throws TasteException, IOException {
+        return new FileDataModel(dataFile).getNumItems();
+      }
+    });
+    final int numThreads = Runtime.getRuntime().availableProcessors();
+    benchmarks.add(new Benchmark("load.FileDataModel.threads" + numThreads, 1) {
+      @Override
+      double run() throws TasteException, IOException {
+        return new FileDataModel(dataFile, false, numThreads).getNumItems();
+      }
+    });
+
+    addSimilarityBenchmarks(benchmarks, "Generic", genericModel);
+    addSimilarityBenchmarks(benchmarks, "Compact", compactModel);
+
+    UserSimilarity pearson = new PearsonCorrelationSimilarity(genericModel);
+    addNeighborhoodBenchmark(benchmarks, "neighborhood.NearestN",
+                             new NearestNUserNeighborhood(HOW_MANY, pearson, genericModel));
+    addNeighborhoodBenchmark(benchmarks, "neighborhood.Threshold",
+                             new ThresholdUserNeighborhood(0.7, pearson, genericModel));
+
+    final List<Item> allItems = new ArrayList<Item>();
+    for (Item item : genericModel.getItems()) {
+      allItems.add(item);
+    }
+    final TopItems.Estimator<Item> estimator = new TopItems.Estimator<Item>() {
+      @Override
+      public double estimate(Item item) {
+        // Cheap but not monotonic in iteration order, so that the queue sees real churn
+        return (double) ((item.hashCode() * 0x9E3779B9) >>> 8);
+      }
+    };
+    benchmarks.add(new Benchmark("topItems.getTopItems", 1) {
+      @Override
+      double run() throws TasteException {
+        List<RecommendedItem> top = TopItems.getTopItems(HOW_MANY, allItems, null, estimator);
+        return top.get(0).getValue();
+      }
+    });
+
+    benchmarks.add(new Benchmark("slopeOne.buildDiffs", 1) {
+      @Override
+      double run() throws TasteException {
+        MemoryDiffStorage storage = new MemoryDiffStorage(genericModel, Weighting.WEIGHTED, false, Long.MAX_VALUE);
+        return storage.getAverageItemPref(sampleItemIDs[0]).getCount();
+      }
+    });
+    final Recommender slopeOne = new SlopeOneRecommender(genericModel);
+    benchmarks.add(new Benchmark("slopeOne.estimatePreference", NUM_SAMPLES) {
+      @Override
+      double run() throws TasteException {
+        double total = 0.0;
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+          double estimate = slopeOne.estimatePreference(sampleUserIDs[i], sampleItemIDs[i]);
+          if (!Double.isNaN(estimate)) {
+            total += estimate;
+          }
+        }
+        return total;
+      }
+    });
+
+    return benchmarks;
+  }
+
+  private void addSimilarityBenchmarks(List<Benchmark> benchmarks, String modelName, final DataModel model)
+      throws TasteException {
+    Map<String, Object> similarities = new FastMap<String, Object>();
+    similarities.put("Pearson", new PearsonCorrelationSimilarity(model));
+    similarities.put("Euclidean", new EuclideanDistanceSimilarity(model));
+    similarities.put("Spearman", new SpearmanCorrelationSimilarity(model));
+    similarities.put("Tanimoto", new TanimotoCoefficientSimilarity(model));
+    similarities.put("LogLikelihood", new LogLikelihoodSimilarity(model));
+
+    // Look users up front, so that only the similarity computation is timed
+    final User[][] users = new User[NUM_SAMPLES][2];
+    final Item[][] items = new Item[NUM_SAMPLES][2];
+    for (int i = 0; i < NUM_SAMPLES; i++) {
+      users[i][0] = model.getUser(userPairs[i][0]);
+      users[i][1] = model.getUser(userPairs[i][1]);
+      items[i][0] = model.getItem(itemPairs[i][0].getID());
+      items[i][1] = model.getItem(itemPairs[i][1].getID());
+    }
+
+    for (Map.Entry<String, Object> entry : similarities.entrySet()) {
+      Object similarity = entry.getValue();
+      if (similarity instanceof UserSimilarity) {
+        final UserSimilarity userSimilarity = (UserSimilarity) similarity;
+        benchmarks.add(new Benchmark("similarity.user." + entry.getKey() + '.' + modelName, NUM_SAMPLES) {
+          @Override
+          double run() throws TasteException {
+            return sumFinite(userSimilarity, users);
+          }
+        });
+      }
+      if (similarity instanceof ItemSimilarity) {
+        final ItemSimilarity itemSimilarity = (ItemSimilarity) similarity;
+        benchmarks.add(new Benchmark("similarity.item." + entry.getKey() + '.' + modelName, NUM_SAMPLES) {
+          @Override
+          double run() throws TasteException {
+            return sumFinite(itemSimilarity, items);
+          }
+        });
+      }
+    }
+  }
+
+  private static double sumFinite(UserSimilarity similarity, User[][] pairs) throws TasteException {
+    double total = 0.0;
+    for (User[] pair : pairs) {
+      double value = similarity.userSimilarity(pair[0], pair[1]);
+      if (!Double.isNaN(value)) {
+        total += value;
+      }
+    }
+    return total;
+  }
+
+  private static double sumFinite(ItemSimilarity similarity, Item[][] pairs) throws TasteException {
+    double total = 0.0;
+    for (Item[] pair : pairs) {
+      double value = similarity.itemSimilarity(pair[0], pair[1]);
+      if (!Double.isNaN(value)) {
+        total += value;
+      }
+    }
+    return total;
+  }
+
+  private void addNeighborhoodBenchmark(List<Benchmark> benchmarks, String name,
+                                        final UserNeighborhood neighborhood) {
+    // Each operation compares one user against all others, so use only a few
+    final int numUsers = Math.min(NUM_SAMPLES, 20);
+    benchmarks.add(new Benchmark(name, numUsers) {
+      @Override
+      double run() throws TasteException {
+        double total = 0.0;
+        for (int i = 0; i < numUsers; i++) {
+          total += neighborhood.getUserNeighborhood(sampleUserIDs[i]).size();
+        }
+        return total;
+      }
+    });
+  }
+
+  public static void main(String... args) throws Exception {
+    Map<String, String> options = new FastMap<String, String>();
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (equals <= 0) {
+        throw new IllegalArgumentException("Arguments must be of the form name=value: " + arg);
+      }
+      options.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+
+    SyntheticDataModelGenerator generator =
+        new SyntheticDataModelGenerator(Integer.parseInt(option(options, "users", "2000")),
+                                        Integer.parseInt(option(options, "items", "1000")),
+                                        Double.parseDouble(option(options, "density", "0.02")),
+                                        Long.parseLong(option(options, "seed", "1234")));
+    Pattern filter = Pattern.compile(option(options, "filter", ""));
+    String output = options.get("output");
+
+    PrintWriter out;
+    boolean newFile = false;
+    if (output == null) {
+      out = new PrintWriter(new OutputStreamWriter(System.out, Charset.forName("UTF-8")));
+    } else {
+      File outputFile = new File(output);
+      newFile = !outputFile.exists() || outputFile.length() == 0L;
+      out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFile, true),
+                                                   Charset.forName("UTF-8")));
+    }
+    try {
+      BenchmarkRunner runner =
+          new BenchmarkRunner(Integer.parseInt(option(options, "warmup", "5")),
+                              Integer.parseInt(option(options, "iterations", "10")),
+                              Long.parseLong(option(options, "iterationMillis", "500")),
+                              generator.toString(),
+                              out);
+      if (output == null || newFile) {
+        runner.writeHeader();
+      }
+      for (Benchmark benchmark : new TasteBenchmarks(generator).getBenchmarks()) {
+        if (filter.matcher(benchmark.getName()).find()) {
+          runner.run(benchmark);
+        }
+      }
+    } finally {
+      if (output == null) {
+        out.flush();
+      } else {
+        out.close();
+      }
+    }
+  }
+
+  private static String option(Map<String, String> options, String name, String defaultValue) {
+    String value = options.get(name);
+    return value == null ? defaultValue : value;
+  }
+
+}
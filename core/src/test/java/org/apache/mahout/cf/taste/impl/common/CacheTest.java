@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Tests {@link Cache}.</p>
+ */
+public final class CacheTest extends TasteTestCase {
+
+  public void testLazyRetrieval() throws Exception {
+    CountingRetriever retriever = new CountingRetriever();
+    Cache<String, String> cache = new Cache<String, String>(retriever);
+    assertEquals("foo!", cache.get("foo"));
+    assertEquals("foo!", cache.get("foo"));
+    assertEquals(1, retriever.getCount());
+    assertEquals(1L, cache.getHitCount());
+    assertEquals(1L, cache.getMissCount());
+    assertEquals(1, cache.size());
+  }
+
+  public void testRemoveAndClear() throws Exception {
+    CountingRetriever retriever = new CountingRetriever();
+    Cache<String, String> cache = new Cache<String, String>(retriever);
+    cache.get("foo");
+    cache.get("bar");
+    cache.remove("foo");
+    assertEquals(1, cache.size());
+    cache.get("foo");
+    assertEquals(3, retriever.getCount());
+    cache.clear();
+    assertEquals(0, cache.size());
+    cache.get("bar");
+    assertEquals(4, retriever.getCount());
+  }
+
+  public void testRemoveKeysMatching() throws Exception {
+    CountingRetriever retriever = new CountingRetriever();
+    Cache<String, String> cache = new Cache<String, String>(retriever);
+    cache.get("foo");
+    cache.get("bar");
+    cache.get("baz");
+    cache.removeKeysMatching(new Cache.MatchPredicate<String>() {
+      @Override
+      public boolean matches(String key) {
+        return key.startsWith("ba");
+      }
+    });
+    assertEquals(1, cache.size());
+    assertEquals("foo!", cache.peek("foo"));
+    assertNull(cache.peek("bar"));
+    cache.get("foo");
+    cache.get("bar");
+    assertEquals(4, retriever.getCount());
+  }
+
+  public void testMaxEntries() throws Exception {
+    Cache<String, String> cache = new Cache<String, String>(new CountingRetriever(), 1);
+    cache.get("foo");
+    cache.get("bar");
+    assertEquals(1, cache.size());
+    assertEquals(1L, cache.getEvictionCount());
+  }
+
+  public void testMaxEntriesAcrossStripes() throws Exception {
+    Cache<String, String> cache = new Cache<String, String>(new CountingRetriever(), 16);
+    // However keys fall into stripes, nothing is evicted until the cache as a whole is full
+    for (int i = 0; i < 16; i++) {
+      cache.get(String.valueOf(i));
+    }
+    assertEquals(16, cache.size());
+    assertEquals(0L, cache.getEvictionCount());
+    for (int i = 16; i < 100; i++) {
+      cache.get(String.valueOf(i));
+      assertEquals(16, cache.size());
+      assertNotNull(cache.peek(String.valueOf(i)));
+    }
+    assertEquals(84L, cache.getEvictionCount());
+  }
+
+  public void testExpiration() throws Exception {
+    CountingRetriever retriever = new CountingRetriever();
+    Cache<String, String> cache = new Cache<String, String>(retriever, Cache.NO_MAX_SIZE, 50L);
+    cache.get("foo");
+    cache.get("foo");
+    assertEquals(1, retriever.getCount());
+    Thread.sleep(100L);
+    cache.get("foo");
+    assertEquals(2, retriever.getCount());
+  }
+
+  public void testRetrieverException() throws Exception {
+    Cache<String, String> cache = new Cache<String, String>(new Retriever<String, String>() {
+      @Override
+      public String get(String key) throws TasteException {
+        throw new TasteException(key);
+      }
+    });
+    try {
+      cache.get("foo");
+      fail("Should have thrown TasteException");
+    } catch (TasteException te) {
+      assertEquals("foo", te.getMessage());
+    }
+    assertEquals(0, cache.size());
+  }
+
+  public void testSingleLoadPerKey() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger loads = new AtomicInteger();
+    final Cache<String, String> cache = new Cache<String, String>(new Retriever<String, String>() {
+      @Override
+      public String get(String key) throws TasteException {
+        loads.incrementAndGet();
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+        return key;
+      }
+    });
+    int numThreads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<String>> futures = new ArrayList<Future<String>>(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      futures.add(executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws TasteException {
+          return cache.get("foo");
+        }
+      }));
+    }
+    Thread.sleep(200L);
+    release.countDown();
+    for (Future<String> future : futures) {
+      assertEquals("foo", future.get());
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10L, TimeUnit.SECONDS));
+    assertEquals(1, loads.get());
+  }
+
+  public void testRecursiveGet() throws Exception {
+    final List<Cache<String, String>> holder = new ArrayList<Cache<String, String>>(1);
+    Cache<String, String> cache = new Cache<String, String>(new Retriever<String, String>() {
+      @Override
+      public String get(String key) throws TasteException {
+        // Other keys are fine; the same key can't be loaded while loading it
+        return key.length() > 1 ? holder.get(0).get(key.substring(1)) : key;
+      }
+    });
+    holder.add(cache);
+    assertEquals("c", cache.get("abc"));
+    holder.set(0, new Cache<String, String>(new Retriever<String, String>() {
+      @Override
+      public String get(String key) throws TasteException {
+        return holder.get(0).get(key);
+      }
+    }));
+    try {
+      holder.get(0).get("foo");
+      fail("Should have thrown IllegalStateException");
+    } catch (IllegalStateException ise) {
+      // good
+    }
+    assertEquals(0, holder.get(0).size());
+  }
+
+  private static final class CountingRetriever implements Retriever<String, String> {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public String get(String key) {
+      count.incrementAndGet();
+      return key + '!';
+    }
+
+    int getCount() {
+      return count.get();
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>Tests {@link FastByIDDoubleMap}.</p>
+ */
+public final class FastByIDDoubleMapTest extends TasteTestCase {
+
+  public void testPutAndGet() {
+    FastByIDDoubleMap map = new FastByIDDoubleMap();
+    assertTrue(Double.isNaN(map.get(500000L)));
+    assertTrue(Double.isNaN(map.put(500000L, 2.0)));
+    assertEquals(2.0, map.get(500000L));
+    assertEquals(2.0, map.put(500000L, 3.0));
+    assertEquals(3.0, map.get(500000L));
+  }
+
+  public void testRemove() {
+    FastByIDDoubleMap map = new FastByIDDoubleMap();
+    map.put(-1L, 1.0);
+    assertEquals(1.0, map.remove(-1L));
+    assertEquals(0, map.size());
+    assertTrue(map.isEmpty());
+    assertTrue(Double.isNaN(map.get(-1L)));
+  }
+
+  public void testIncrement() {
+    FastByIDDoubleMap map = new FastByIDDoubleMap();
+    assertEquals(0.5, map.increment(1L, 0.5));
+    assertEquals(1.5, map.increment(1L, 1.0));
+    assertEquals(1, map.size());
+    assertEquals(1.5, map.get(1L));
+  }
+
+  public void testNaN() {
+    FastByIDDoubleMap map = new FastByIDDoubleMap();
+    try {
+      map.put(1L, Double.NaN);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+    assertTrue(map.isEmpty());
+  }
+
+  public void testIncrementNaN() {
+    FastByIDDoubleMap map = new FastByIDDoubleMap();
+    try {
+      map.increment(1L, Double.NaN);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey(1L));
+    map.increment(2L, Double.POSITIVE_INFINITY);
+    try {
+      map.increment(2L, Double.NEGATIVE_INFINITY);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+    assertEquals(Double.POSITIVE_INFINITY, map.get(2L));
+  }
+
+  public void testKeySetIterator() {
+    FastByIDDoubleMap map = new FastByIDDoubleMap();
+    map.put(1L, 1.0);
+    map.put(2L, 2.0);
+    LongPrimitiveIterator it = map.keySetIterator();
+    double sum = 0.0;
+    while (it.hasNext()) {
+      sum += map.get(it.nextLong());
+    }
+    assertEquals(3.0, sum);
+  }
+
+  public void testVersusHashMap() {
+    FastByIDDoubleMap actual = new FastByIDDoubleMap(1, 1000000);
+    Map<Long, Double> expected = new HashMap<Long, Double>(1000000);
+    Random r = RandomUtils.getRandom();
+    for (int i = 0; i < 1000000; i++) {
+      double d = r.nextDouble();
+      long key = r.nextInt(100);
+      if (d < 0.4) {
+        Double expectedValue = expected.get(key);
+        assertEquals(expectedValue == null ? Double.NaN : expectedValue, actual.get(key));
+      } else {
+        if (d < 0.7) {
+          Double expectedValue = expected.put(key, d);
+          assertEquals(expectedValue == null ? Double.NaN : expectedValue, actual.put(key, d));
+        } else {
+          Double expectedValue = expected.remove(key);
+          assertEquals(expectedValue == null ? Double.NaN : expectedValue, actual.remove(key));
+        }
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+      }
+    }
+  }
+
+  public void testMaxSize() {
+    FastByIDDoubleMap map = new FastByIDDoubleMap(1, 1);
+    map.put(4L, 1.0);
+    assertEquals(1, map.size());
+    map.put(47L, 2.0);
+    assertEquals(1, map.size());
+    assertTrue(Double.isNaN(map.get(4L)));
+    map.put(47L, 3.0);
+    assertEquals(1, map.size());
+    assertEquals(3.0, map.get(47L));
+  }
+
+}
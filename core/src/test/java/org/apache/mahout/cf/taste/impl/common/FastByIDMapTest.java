@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>Tests {@link FastByIDMap}.</p>
+ */
+public final class FastByIDMapTest extends TasteTestCase {
+
+  public void testPutAndGet() {
+    FastByIDMap<String> map = new FastByIDMap<String>();
+    assertNull(map.get(500000L));
+    map.put(500000L, "bar");
+    assertEquals("bar", map.get(500000L));
+  }
+
+  public void testRemove() {
+    FastByIDMap<String> map = new FastByIDMap<String>();
+    map.put(-1L, "bar");
+    map.remove(-1L);
+    assertEquals(0, map.size());
+    assertTrue(map.isEmpty());
+    assertNull(map.get(-1L));
+  }
+
+  public void testClear() {
+    FastByIDMap<String> map = new FastByIDMap<String>();
+    map.put(1L, "bar");
+    map.clear();
+    assertEquals(0, map.size());
+    assertTrue(map.isEmpty());
+    assertNull(map.get(1L));
+  }
+
+  public void testSizeEmpty() {
+    FastByIDMap<String> map = new FastByIDMap<String>();
+    assertEquals(0, map.size());
+    assertTrue(map.isEmpty());
+    map.put(1L, "bar");
+    assertEquals(1, map.size());
+    assertFalse(map.isEmpty());
+    map.remove(1L);
+    assertEquals(0, map.size());
+    assertTrue(map.isEmpty());
+  }
+
+  public void testContains() {
+    FastByIDMap<String> map = buildTestFastMap();
+    assertTrue(map.containsKey(500000L));
+    assertTrue(map.containsKey(47L));
+    assertTrue(map.containsKey(2L));
+    assertTrue(map.containsValue("alpha"));
+    assertTrue(map.containsValue("bang"));
+    assertTrue(map.containsValue("beta"));
+    assertFalse(map.containsKey(999L));
+    assertFalse(map.containsValue("something"));
+  }
+
+  public void testReserved() {
+    FastByIDMap<String> map = new FastByIDMap<String>();
+    try {
+      map.put(Long.MIN_VALUE, "bar");
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+    try {
+      map.put(Long.MAX_VALUE, "bar");
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+    try {
+      map.put(1L, null);
+      fail("Should have thrown NullPointerException");
+    } catch (NullPointerException npe) {
+      // good
+    }
+    assertNull(map.get(Long.MIN_VALUE));
+    assertFalse(map.containsKey(Long.MAX_VALUE));
+  }
+
+  public void testRehash() {
+    FastByIDMap<String> map = buildTestFastMap();
+    map.remove(500000L);
+    map.rehash();
+    assertNull(map.get(500000L));
+    assertEquals("bang", map.get(47L));
+  }
+
+  public void testGrow() {
+    FastByIDMap<String> map = new FastByIDMap<String>(1, FastByIDMap.NO_MAX_SIZE);
+    map.put(500000L, "alpha");
+    map.put(47L, "bang");
+    assertEquals("alpha", map.get(500000L));
+    assertEquals("bang", map.get(47L));
+  }
+
+  public void testKeySetIterator() {
+    FastByIDMap<String> map = buildTestFastMap();
+    Collection<Long> expected = new HashSet<Long>(3);
+    expected.add(500000L);
+    expected.add(47L);
+    expected.add(2L);
+    LongPrimitiveIterator it = map.keySetIterator();
+    while (it.hasNext()) {
+      assertTrue(expected.remove(it.nextLong()));
+    }
+    assertTrue(expected.isEmpty());
+  }
+
+  public void testValues() {
+    FastByIDMap<String> map = buildTestFastMap();
+    Collection<String> expected = new HashSet<String>(3);
+    expected.add("alpha");
+    expected.add("bang");
+    expected.add("beta");
+    Collection<String> actual = map.values();
+    assertTrue(expected.containsAll(actual));
+    assertTrue(actual.containsAll(expected));
+  }
+
+  public void testVersusHashMap() {
+    FastByIDMap<String> actual = new FastByIDMap<String>(1, 1000000);
+    Map<Long, String> expected = new HashMap<Long, String>(1000000);
+    Random r = RandomUtils.getRandom();
+    for (int i = 0; i < 1000000; i++) {
+      double d = r.nextDouble();
+      Long key = (long) r.nextInt(100);
+      if (d < 0.4) {
+        assertEquals(expected.get(key), actual.get(key));
+      } else {
+        if (d < 0.7) {
+          assertEquals(expected.put(key, "bang"), actual.put(key, "bang"));
+        } else {
+          assertEquals(expected.remove(key), actual.remove(key));
+        }
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+      }
+    }
+  }
+
+  public void testMaxSize() {
+    FastByIDMap<String> map = new FastByIDMap<String>(1, 1);
+    map.put(4L, "bang");
+    assertEquals(1, map.size());
+    map.put(47L, "bang");
+    assertEquals(1, map.size());
+    assertNull(map.get(4L));
+    map.put(47L, "buzz");
+    assertEquals(1, map.size());
+    assertEquals("buzz", map.get(47L));
+  }
+
+  private static FastByIDMap<String> buildTestFastMap() {
+    FastByIDMap<String> map = new FastByIDMap<String>();
+    map.put(500000L, "alpha");
+    map.put(47L, "bang");
+    map.put(2L, "beta");
+    return map;
+  }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <p>Tests {@link FastIDSet}.</p>
+ */
+public final class FastIDSetTest extends TasteTestCase {
+
+  public void testContainsAndAdd() {
+    FastIDSet set = new FastIDSet();
+    assertFalse(set.contains(1L));
+    set.add(1L);
+    assertTrue(set.contains(1L));
+  }
+
+  public void testRemove() {
+    FastIDSet set = new FastIDSet();
+    set.add(-1L);
+    set.remove(-1L);
+    assertEquals(0, set.size());
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(-1L));
+  }
+
+  public void testClear() {
+    FastIDSet set = new FastIDSet();
+    set.add(1L);
+    set.clear();
+    assertEquals(0, set.size());
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(1L));
+  }
+
+  public void testSizeEmpty() {
+    FastIDSet set = new FastIDSet();
+    assertEquals(0, set.size());
+    assertTrue(set.isEmpty());
+    set.add(1L);
+    assertEquals(1, set.size());
+    assertFalse(set.isEmpty());
+    set.remove(1L);
+    assertEquals(0, set.size());
+    assertTrue(set.isEmpty());
+  }
+
+  public void testContains() {
+    FastIDSet set = buildTestFastSet();
+    assertTrue(set.contains(1L));
+    assertTrue(set.contains(2L));
+    assertTrue(set.contains(3L));
+    assertFalse(set.contains(4L));
+  }
+
+  public void testReserved() {
+    FastIDSet set = new FastIDSet();
+    try {
+      set.add(Long.MIN_VALUE);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+    assertFalse(set.contains(Long.MIN_VALUE));
+    assertFalse(set.contains(Long.MAX_VALUE));
+  }
+
+  public void testRehash() {
+    FastIDSet set = buildTestFastSet();
+    set.remove(1L);
+    set.rehash();
+    assertFalse(set.contains(1L));
+    assertTrue(set.contains(2L));
+  }
+
+  public void testIterator() {
+    FastIDSet set = buildTestFastSet();
+    Collection<Long> expected = new HashSet<Long>(3);
+    expected.add(1L);
+    expected.add(2L);
+    expected.add(3L);
+    LongPrimitiveIterator it = set.iterator();
+    while (it.hasNext()) {
+      expected.remove(it.nextLong());
+    }
+    assertTrue(expected.isEmpty());
+  }
+
+  public void testSetOperations() {
+    FastIDSet set = buildTestFastSet();
+    FastIDSet other = new FastIDSet();
+    other.add(3L);
+    other.add(4L);
+    assertEquals(1, set.intersectionSize(other));
+    FastIDSet union = set.clone();
+    assertTrue(union.addAll(other));
+    assertEquals(4, union.size());
+    assertEquals(3, set.size());
+    assertTrue(set.retainAll(other));
+    assertEquals(1, set.size());
+    assertTrue(set.contains(3L));
+    assertEquals(1, set.toArray().length);
+  }
+
+  public void testVersusHashSet() {
+    FastIDSet actual = new FastIDSet(1);
+    Set<Long> expected = new HashSet<Long>(1000000);
+    Random r = RandomUtils.getRandom();
+    for (int i = 0; i < 1000000; i++) {
+      double d = r.nextDouble();
+      long key = r.nextInt(100);
+      if (d < 0.4) {
+        assertEquals(expected.contains(key), actual.contains(key));
+      } else {
+        if (d < 0.7) {
+          assertEquals(expected.add(key), actual.add(key));
+        } else {
+          assertEquals(expected.remove(key), actual.remove(key));
+        }
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+      }
+    }
+  }
+
+  private static FastIDSet buildTestFastSet() {
+    FastIDSet set = new FastIDSet();
+    set.add(1L);
+    set.add(2L);
+    set.add(3L);
+    return set;
+  }
+
+}
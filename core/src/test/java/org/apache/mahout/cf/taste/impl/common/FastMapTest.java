@@ -188,6 +188,17 @@ public final class FastMapTest extends TasteTestCase {
     assertEquals("buzz", map.get("baz"));
   }
 
+  public void testPutAfterRemovingAll() {
+    Map<String, String> map = new FastMap<String, String>(1);
+    for (int i = 0; i < 10; i++) {
+      map.put("foo", "bar");
+      map.remove("foo");
+    }
+    assertTrue(map.isEmpty());
+    map.put("baz", "bang");
+    assertEquals("bang", map.get("baz"));
+  }
+
   private static FastMap<String, String> buildTestFastMap() {
     FastMap<String, String> map = new FastMap<String, String>();
     map.put("foo", "bar");
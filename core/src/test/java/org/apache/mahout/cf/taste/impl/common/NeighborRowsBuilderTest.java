@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Tests {@link NeighborRowsBuilder}, with rows which are similar as their values are close.</p>
+ */
+public final class NeighborRowsBuilderTest extends TasteTestCase {
+
+  private static final int MAGIC = 0x54455354; // "TEST"
+  private static final String[] IDS = {"a", "b", "c", "d", "e", "f"};
+
+  private File file;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("neighbors", ".bin");
+    file.deleteOnExit();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  public void testMaxNeighborsAndMinSimilarity() throws Exception {
+    new TestBuilder(values(0.1, 0.2, 0.4, 0.5, 0.9, 0.3), 2, 0.8, false).build(Arrays.asList(IDS), null, null, file);
+    Rows rows = new Rows(file);
+    assertEquals(6, rows.rowStarts.length - 1);
+    for (int i = 0; i < 6; i++) {
+      assertTrue(rows.rowStarts[i + 1] - rows.rowStarts[i] <= 2);
+      for (int j = rows.rowStarts[i]; j < rows.rowStarts[i + 1]; j++) {
+        assertTrue(rows.neighbors[j] != i);
+        assertTrue(rows.values[j] >= 0.8f);
+      }
+    }
+    // "e" is far from everything else
+    assertEquals(rows.rowStarts[4], rows.rowStarts[5]);
+  }
+
+  public void testOrder() throws Exception {
+    Map<String, Double> values = values(0.1, 0.2, 0.4, 0.5, 0.9, 0.3);
+    new TestBuilder(values, 3, 0.0, false).build(Arrays.asList(IDS), null, null, file);
+    Rows rows = new Rows(file);
+    assertEquals(Arrays.asList(1, 2, 5), rows.neighborsOf(0));
+    new TestBuilder(values, 3, 0.0, true).build(Arrays.asList(IDS), null, null, file);
+    rows = new Rows(file);
+    assertEquals(Arrays.asList(1, 5, 2), rows.neighborsOf(0));
+    for (int i = 0; i < 6; i++) {
+      for (int j = rows.rowStarts[i] + 1; j < rows.rowStarts[i + 1]; j++) {
+        assertTrue(rows.values[j - 1] >= rows.values[j]);
+      }
+    }
+  }
+
+  public void testRebuildMatchesBuild() throws Exception {
+    new TestBuilder(values(0.1, 0.2, 0.4, 0.5, 0.9, 0.3), 2, 0.0, false).build(Arrays.asList(IDS), null, null,
+                                                                               file);
+    NeighborRowsBuilder.PreviousRows previous = new Rows(file).toPreviousRows();
+    // "b" moves away from "a" and "f", and "c" close to "e"
+    TestBuilder builder = new TestBuilder(values(0.1, 0.7, 0.85, 0.5, 0.9, 0.3), 2, 0.0, false);
+    File rebuiltFile = File.createTempFile("neighbors", ".bin");
+    rebuiltFile.deleteOnExit();
+    File fullFile = File.createTempFile("neighbors", ".bin");
+    fullFile.deleteOnExit();
+    try {
+      builder.build(Arrays.asList(IDS), previous, Arrays.asList("b", "c"), rebuiltFile);
+      builder.build(Arrays.asList(IDS), null, null, fullFile);
+      Rows rebuilt = new Rows(rebuiltFile);
+      Rows full = new Rows(fullFile);
+      assertTrue(Arrays.equals(full.rowStarts, rebuilt.rowStarts));
+      assertTrue(Arrays.equals(full.neighbors, rebuilt.neighbors));
+      assertTrue(Arrays.equals(full.values, rebuilt.values));
+    } finally {
+      rebuiltFile.delete();
+      fullFile.delete();
+    }
+  }
+
+  public void testRebuildOverSameFile() throws Exception {
+    new TestBuilder(values(0.1, 0.2, 0.4, 0.5, 0.9, 0.3), 2, 0.0, false).build(Arrays.asList(IDS), null, null,
+                                                                               file);
+    TestBuilder builder = new TestBuilder(values(0.1, 0.7, 0.85, 0.5, 0.9, 0.3), 2, 0.0, false);
+    File fullFile = File.createTempFile("neighbors", ".bin");
+    fullFile.deleteOnExit();
+    try {
+      builder.build(Arrays.asList(IDS), new Rows(file).toPreviousRows(), Arrays.asList("b", "c"), file);
+      builder.build(Arrays.asList(IDS), null, null, fullFile);
+      Rows rebuilt = new Rows(file);
+      Rows full = new Rows(fullFile);
+      assertTrue(Arrays.equals(full.rowStarts, rebuilt.rowStarts));
+      assertTrue(Arrays.equals(full.neighbors, rebuilt.neighbors));
+      assertTrue(Arrays.equals(full.values, rebuilt.values));
+    } finally {
+      fullFile.delete();
+    }
+    // Nothing is left behind next to the file
+    for (File sibling : file.getAbsoluteFile().getParentFile().listFiles()) {
+      assertFalse(sibling.getName().startsWith(file.getName() + '.'));
+    }
+  }
+
+  private static Map<String, Double> values(double... values) {
+    Map<String, Double> result = new FastMap<String, Double>();
+    for (int i = 0; i < values.length; i++) {
+      result.put(IDS[i], values[i]);
+    }
+    return result;
+  }
+
+  private static final class TestBuilder extends NeighborRowsBuilder<String> {
+
+    private final Map<String, Double> values;
+
+    private TestBuilder(Map<String, Double> values, int maxNeighbors, double minSimilarity, boolean mostSimilarFirst) {
+      super(MAGIC, 1, maxNeighbors, minSimilarity, 2, mostSimilarFirst);
+      this.values = values;
+    }
+
+    @Override
+    protected Object getID(String row) {
+      return row;
+    }
+
+    @Override
+    protected double similarity(String row1, String row2) {
+      return 1.0 - Math.abs(values.get(row1) - values.get(row2));
+    }
+  }
+
+  /**
+   * Reads back a file written by {@link NeighborRowsBuilder}.
+   */
+  private static final class Rows {
+
+    private final int[] rowStarts;
+    private final int[] neighbors;
+    private final float[] values;
+    private final int[] idStarts;
+    private final char[] idChars;
+
+    private Rows(File file) throws IOException {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        assertEquals(MAGIC, in.readInt());
+        assertEquals(1, in.readInt());
+        int numRows = in.readInt();
+        int numNeighbors = in.readInt();
+        rowStarts = new int[numRows + 1];
+        for (int i = 0; i <= numRows; i++) {
+          rowStarts[i] = in.readInt();
+        }
+        neighbors = new int[numNeighbors];
+        for (int i = 0; i < numNeighbors; i++) {
+          neighbors[i] = in.readInt();
+        }
+        values = new float[numNeighbors];
+        for (int i = 0; i < numNeighbors; i++) {
+          values[i] = in.readFloat();
+        }
+        idStarts = new int[numRows + 1];
+        for (int i = 0; i <= numRows; i++) {
+          idStarts[i] = in.readInt();
+        }
+        idChars = new char[idStarts[numRows]];
+        for (int i = 0; i < idChars.length; i++) {
+          idChars[i] = in.readChar();
+        }
+      } finally {
+        IOUtils.quietClose(in);
+      }
+    }
+
+    private List<Integer> neighborsOf(int row) {
+      List<Integer> result = new ArrayList<Integer>();
+      for (int j = rowStarts[row]; j < rowStarts[row + 1]; j++) {
+        result.add(neighbors[j]);
+      }
+      return result;
+    }
+
+    private NeighborRowsBuilder.PreviousRows toPreviousRows() {
+      return new NeighborRowsBuilder.PreviousRows(IntBuffer.wrap(rowStarts), IntBuffer.wrap(neighbors),
+                                                  FloatBuffer.wrap(values),
+                                                  new SortedIDIndex(IntBuffer.wrap(idStarts), CharBuffer.wrap(idChars)));
+    }
+  }
+
+}
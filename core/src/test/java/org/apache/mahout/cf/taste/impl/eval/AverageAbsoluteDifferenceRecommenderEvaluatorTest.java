@@ -41,4 +41,19 @@ public final class AverageAbsoluteDifferenceRecommenderEvaluatorTest extends Tas
     assertEquals(0.2234257618121795, eval, EPSILON);
   }
 
+  public void testEvaluateMultithreaded() throws Exception {
+    DataModel model = getDataModel();
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        return new SlopeOneRecommender(dataModel);
+      }
+    };
+    AverageAbsoluteDifferenceRecommenderEvaluator evaluator =
+            new AverageAbsoluteDifferenceRecommenderEvaluator();
+    evaluator.setNumThreads(3);
+    double eval = evaluator.evaluate(builder, model, 0.85, 1.0);
+    assertEquals(0.2234257618121795, eval, EPSILON);
+  }
+
 }
@@ -22,7 +22,9 @@ import org.apache.mahout.cf.taste.eval.IRStatistics;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 
@@ -44,4 +46,22 @@ public final class GenericRecommenderIRStatsEvaluatorImplTest extends TasteTestC
     assertEquals(0.6666666666666666, stats.getF1Measure(), EPSILON);
   }
 
+  public void testIncrementalMatchesRebuilding() throws Exception {
+    DataModel model = getDataModel();
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        return new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+      }
+    };
+    GenericRecommenderIRStatsEvaluator evaluator = new GenericRecommenderIRStatsEvaluator();
+    IRStatistics expected = evaluator.evaluate(builder, model, null, 2, 0.2, 1.0);
+    evaluator.setIncremental(true);
+    evaluator.setNumThreads(3);
+    IRStatistics stats = evaluator.evaluate(builder, model, null, 2, 0.2, 1.0);
+    assertEquals(expected.getPrecision(), stats.getPrecision(), EPSILON);
+    assertEquals(expected.getRecall(), stats.getRecall(), EPSILON);
+    assertEquals(expected.getFallOut(), stats.getFallOut(), EPSILON);
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+
+/**
+ * <p>Tests {@link LatencyHistogram}.</p>
+ */
+public final class LatencyHistogramTest extends TasteTestCase {
+
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0L, histogram.getCount());
+    assertTrue(Double.isNaN(histogram.getPercentileMS(50.0)));
+  }
+
+  public void testInvalidPercentile() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.add(1L);
+    try {
+      histogram.getPercentileMS(0.0);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+  }
+
+  public void testSmallLatenciesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long nanos = 1L; nanos <= 100L; nanos++) {
+      histogram.add(nanos);
+    }
+    assertEquals(100L, histogram.getCount());
+    assertEquals(50.0 / 1000000.0, histogram.getPercentileMS(50.0), EPSILON);
+    assertEquals(99.0 / 1000000.0, histogram.getPercentileMS(99.0), EPSILON);
+    assertEquals(100.0 / 1000000.0, histogram.getPercentileMS(100.0), EPSILON);
+  }
+
+  public void testLargeLatenciesAreClose() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    long[] latencies = new long[1000];
+    for (int i = 0; i < latencies.length; i++) {
+      // From 1 microsecond to about 16 seconds
+      latencies[i] = (long) Math.pow(10.0, 3.0 + 7.2 * i / latencies.length);
+      histogram.add(latencies[i]);
+    }
+    for (double percentile : new double[] {1.0, 50.0, 90.0, 99.0, 99.9, 100.0}) {
+      int rank = (int) Math.ceil(percentile / 100.0 * latencies.length);
+      double exact = latencies[rank - 1] / 1000000.0;
+      assertEquals(exact, histogram.getPercentileMS(percentile), exact * 0.01);
+    }
+    histogram.add(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE / 1000000.0, histogram.getPercentileMS(100.0), Long.MAX_VALUE / 1000000.0 * 0.01);
+  }
+
+  public void testAddAll() {
+    LatencyHistogram first = new LatencyHistogram();
+    LatencyHistogram second = new LatencyHistogram();
+    for (long nanos = 1L; nanos <= 50L; nanos++) {
+      first.add(nanos);
+      second.add(nanos + 50L);
+    }
+    first.addAll(second);
+    assertEquals(100L, first.getCount());
+    assertEquals(50.0 / 1000000.0, first.getPercentileMS(50.0), EPSILON);
+    assertEquals(100.0 / 1000000.0, first.getPercentileMS(100.0), EPSILON);
+  }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericItem;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUser;
+import org.apache.mahout.cf.taste.impl.recommender.ItemAverageRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class PreferenceMaskingDataModelTest extends TasteTestCase {
+
+  private static final Item ITEM1 = new GenericItem<String>("i1");
+  private static final Item ITEM2 = new GenericItem<String>("i2");
+
+  private DataModel delegate;
+  private PreferenceMaskingDataModel model;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    List<User> users = new ArrayList<User>();
+    users.add(buildUser(1L, 0.9, 0.5));
+    users.add(buildUser(2L, 0.3, 0.4));
+    users.add(buildUser(3L, 0.3, Double.NaN));
+    delegate = new GenericDataModel(users);
+    model = new PreferenceMaskingDataModel(delegate);
+  }
+
+  private static User buildUser(long id, double value1, double value2) {
+    List<Preference> prefs = new ArrayList<Preference>();
+    prefs.add(new GenericPreference(null, ITEM1, value1));
+    if (!Double.isNaN(value2)) {
+      prefs.add(new GenericPreference(null, ITEM2, value2));
+    }
+    return new GenericUser<Long>(id, prefs);
+  }
+
+  public void testMask() throws Exception {
+    model.mask(delegate.getUser(1L), Collections.singleton(ITEM1));
+    try {
+      User masked = model.getUser(1L);
+      assertEquals(Long.valueOf(1L), masked.getID());
+      assertNull(masked.getPreferenceFor("i1"));
+      assertEquals(0.5, masked.getPreferenceFor("i2").getValue(), EPSILON);
+      assertSame(masked, masked.getPreferencesAsArray()[0].getUser());
+      assertEquals(2, model.getPreferencesForItemAsArray("i1").length);
+      assertEquals(1, model.getNumUsersWithPreferenceFor("i1", "i2"));
+    } finally {
+      model.unmask();
+    }
+    assertNotNull(model.getUser(1L).getPreferenceFor("i1"));
+    assertEquals(3, model.getPreferencesForItemAsArray("i1").length);
+  }
+
+  public void testMaskIsPerThread() throws Exception {
+    model.mask(delegate.getUser(1L), Collections.singleton(ITEM1));
+    try {
+      final List<Object> seen = new ArrayList<Object>();
+      Thread other = new Thread() {
+        @Override
+        public void run() {
+          try {
+            seen.add(model.getUser(1L).getPreferenceFor("i1"));
+          } catch (Exception e) {
+            seen.add(e);
+          }
+        }
+      };
+      other.start();
+      other.join();
+      assertTrue(seen.get(0) instanceof Preference);
+    } finally {
+      model.unmask();
+    }
+  }
+
+  public void testPrecomputedRecommenderSeesMaskedPreferences() throws Exception {
+    // Built, and its item averages computed, before masking
+    Recommender recommender = new ItemAverageRecommender(model);
+    assertEquals(0.45, recommender.estimatePreference(3L, "i2"), EPSILON);
+    model.mask(delegate.getUser(1L), Collections.singleton(ITEM1));
+    try {
+      // The model hides user 1's 0.9 for i1, but the precomputed average still includes it...
+      assertEquals(0.5, recommender.estimatePreference(1L, "i1"), EPSILON);
+      // ...unlike a recommender built on the masked model
+      assertEquals(0.3, new ItemAverageRecommender(model).estimatePreference(1L, "i1"), EPSILON);
+    } finally {
+      model.unmask();
+    }
+  }
+
+}
@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.recommender.ItemAverageRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <p>Tests {@link StreamingRecommenderEvaluator} and {@link FoldDataModel}.</p>
+ */
+public final class StreamingRecommenderEvaluatorTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 20;
+  private static final int NUM_ITEMS = 10;
+
+  private File file;
+  private int numPrefs;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("prefs", ".csv");
+    file.deleteOnExit();
+    numPrefs = writePrefs(file, true);
+  }
+
+  /**
+   * @return number of distinct preferences written
+   */
+  private static int writePrefs(File file, boolean withTimestamps) throws IOException {
+    PrintWriter writer =
+        new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+    try {
+      int count = 0;
+      for (int u = 0; u < NUM_USERS; u++) {
+        for (int i = 0; i < NUM_ITEMS; i++) {
+          if ((u + i) % 3 != 0) {
+            writer.println("u" + u + ",i" + i + ',' + ((u * 7 + i * 3) % 5 + 1) +
+                           (withTimestamps ? "," + count : ""));
+            count++;
+          }
+        }
+      }
+      if (withTimestamps) {
+        // Supersedes the earlier line for the same user and item. FileDataModel would keep both, so this
+        // is left out of the log it is compared with.
+        writer.println("u0,i1,2.0," + count);
+      }
+      return count;
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  private static final RecommenderBuilder ITEM_AVERAGE = new RecommenderBuilder() {
+    @Override
+    public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+      return new ItemAverageRecommender(dataModel);
+    }
+  };
+
+  public void testFoldDataModelMatchesFileDataModel() throws Exception {
+    File untimedFile = File.createTempFile("prefs", ".csv");
+    untimedFile.deleteOnExit();
+    writePrefs(untimedFile, false);
+    DataModel expected = new FileDataModel(untimedFile);
+    DataModel actual = new FoldDataModel(new PreferenceLog(untimedFile), new PreferenceLog.Filter() {
+      @Override
+      public boolean accept(int pref) {
+        return true;
+      }
+    });
+    assertEquals(expected.getNumUsers(), actual.getNumUsers());
+    assertEquals(expected.getNumItems(), actual.getNumItems());
+    Iterator<? extends User> actualUsers = actual.getUsers().iterator();
+    for (User expectedUser : expected.getUsers()) {
+      User actualUser = actualUsers.next();
+      assertEquals(expectedUser, actualUser);
+      assertPrefsEqual(expectedUser.getPreferencesAsArray(), actualUser.getPreferencesAsArray());
+    }
+    assertFalse(actualUsers.hasNext());
+    for (Item item : expected.getItems()) {
+      assertPrefsEqual(expected.getPreferencesForItemAsArray(item.getID()),
+                       actual.getPreferencesForItemAsArray(item.getID()));
+    }
+    assertEquals(expected.getNumUsersWithPreferenceFor("i1", "i2"), actual.getNumUsersWithPreferenceFor("i1", "i2"));
+    // Gathered once, then kept
+    assertSame(actual.getUser("u0").getPreferencesAsArray(), actual.getUser("u0").getPreferencesAsArray());
+    assertSame(actual.getPreferencesForItemAsArray("i1"), actual.getPreferencesForItemAsArray("i1"));
+    untimedFile.delete();
+  }
+
+  private static void assertPrefsEqual(Preference[] expected, Preference[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i].getUser(), actual[i].getUser());
+      assertEquals(expected[i].getItem(), actual[i].getItem());
+      assertEquals(expected[i].getValue(), actual[i].getValue(), EPSILON);
+    }
+  }
+
+  public void testKFold() throws Exception {
+    StreamingRecommenderEvaluator evaluator = new StreamingRecommenderEvaluator(file);
+    evaluator.setNumThreads(2);
+    evaluator.setAt(3);
+    evaluator.setRelevanceThreshold(3.0);
+    StreamingEvaluationResult result = evaluator.evaluateKFold(ITEM_AVERAGE, 4);
+    assertEquals(4, result.getFoldResults().size());
+    // Each preference is tested in exactly one fold
+    assertEquals(numPrefs, result.getNumEstimates() + result.getNumUnestimated());
+    assertTrue(result.getRMSE() >= result.getMeanAbsoluteError());
+    assertTrue(result.getMeanAbsoluteError() > 0.0);
+    assertTrue(result.getPrecision() >= 0.0 && result.getPrecision() <= 1.0);
+    assertTrue(result.getRecall() >= 0.0 && result.getRecall() <= 1.0);
+    assertTrue(result.getEstimateLatencyMS(50.0) <= result.getEstimateLatencyMS(99.0));
+    assertTrue(result.getRecommendLatencyMS(99.0) <= result.getRecommendLatencyMS(100.0));
+  }
+
+  public void testTimeSplit() throws Exception {
+    final List<Integer> trainingSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        int size = 0;
+        for (User user : dataModel.getUsers()) {
+          size += user.getPreferencesAsArray().length;
+        }
+        trainingSizes.add(size);
+        return new ItemAverageRecommender(dataModel);
+      }
+    };
+    StreamingRecommenderEvaluator evaluator = new StreamingRecommenderEvaluator(file);
+    StreamingEvaluationResult result = evaluator.evaluateTimeSplit(builder, 60L, 100L);
+    assertEquals(2, result.getFoldResults().size());
+    Collections.sort(trainingSizes);
+    // u0,i1 was last rated at the end, so is not in either training set
+    assertEquals(59, trainingSizes.get(0).intValue());
+    assertEquals(99, trainingSizes.get(1).intValue());
+    assertEquals(numPrefs - 59, result.getNumEstimates() + result.getNumUnestimated());
+  }
+
+  public void testLastLineCounts() throws Exception {
+    DataModel dataModel = new FoldDataModel(new PreferenceLog(file), new PreferenceLog.Filter() {
+      @Override
+      public boolean accept(int pref) {
+        return true;
+      }
+    });
+    assertEquals(2.0, dataModel.getUser("u0").getPreferenceFor("i1").getValue(), EPSILON);
+    int size = 0;
+    for (User user : dataModel.getUsers()) {
+      size += user.getPreferencesAsArray().length;
+    }
+    assertEquals(numPrefs, size);
+  }
+
+  public void testTimeSplitNeedsTimestamps() throws Exception {
+    PrintWriter writer =
+        new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+    try {
+      writer.println("u0,i0,1.0");
+    } finally {
+      writer.close();
+    }
+    try {
+      new StreamingRecommenderEvaluator(file).evaluateTimeSplit(ITEM_AVERAGE, 1L);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <p>Tests {@link CompactDataModel}.</p>
+ */
+public final class CompactDataModelTest extends TasteTestCase {
+
+  private static List<User> getNumericUsers() {
+    List<User> users = new ArrayList<User>(4);
+    users.add(getUser("4", 0.7, 0.3, 0.8));
+    users.add(getUser("1", 0.1, 0.3));
+    users.add(getUser("3", 0.4, 0.3, 0.5));
+    users.add(getUser("2", 0.2, 0.3, 0.3));
+    return users;
+  }
+
+  public void testUsers() throws Exception {
+    DataModel model = new CompactDataModel(getNumericUsers());
+    assertEquals(4, model.getNumUsers());
+    assertEquals(3, model.getNumItems());
+    Iterator<? extends User> it = model.getUsers().iterator();
+    for (long id = 1L; id <= 4L; id++) {
+      assertTrue(it.hasNext());
+      assertEquals(id, it.next().getID());
+    }
+    assertFalse(it.hasNext());
+    User user = model.getUser(3L);
+    assertEquals(user, model.getUser("3"));
+    Preference[] prefs = user.getPreferencesAsArray();
+    assertEquals(3, prefs.length);
+    assertEquals(0L, prefs[0].getItem().getID());
+    assertEquals(0.4, prefs[0].getValue(), EPSILON);
+    assertSame(user, prefs[0].getUser());
+    assertEquals(0.5, user.getPreferenceFor(2L).getValue(), EPSILON);
+    assertNull(user.getPreferenceFor(5L));
+    try {
+      model.getUser(5L);
+      fail("Should have thrown NoSuchUserException");
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+    try {
+      model.getUser("test1");
+      fail("Should have thrown NoSuchUserException");
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+  }
+
+  public void testItems() throws Exception {
+    DataModel model = new CompactDataModel(getNumericUsers());
+    Iterator<? extends Item> it = model.getItems().iterator();
+    for (long id = 0L; id <= 2L; id++) {
+      assertTrue(it.hasNext());
+      assertEquals(id, it.next().getID());
+    }
+    assertFalse(it.hasNext());
+    assertEquals(2L, model.getItem("2").getID());
+    try {
+      model.getItem(3L);
+      fail("Should have thrown NoSuchItemException");
+    } catch (NoSuchItemException nsie) {
+      // good
+    }
+  }
+
+  public void testPreferenceItemsAreModelItems() throws Exception {
+    List<Preference> prefs = new ArrayList<Preference>(2);
+    prefs.add(new GenericPreference(null, new GenericItem<String>("1", false), 0.5));
+    prefs.add(new GenericPreference(null, new GenericItem<String>("2"), 0.7));
+    List<User> users = new ArrayList<User>(1);
+    users.add(new GenericUser<String>("1", prefs));
+    DataModel model = new CompactDataModel(users);
+    Preference[] userPrefs = model.getUser(1L).getPreferencesAsArray();
+    assertSame(model.getItem(1L), userPrefs[0].getItem());
+    assertFalse(userPrefs[0].getItem().isRecommendable());
+    assertSame(model.getItem(2L), userPrefs[1].getItem());
+    assertTrue(userPrefs[1].getItem().isRecommendable());
+  }
+
+  public void testPreferencesForItem() throws Exception {
+    DataModel model = new CompactDataModel(getNumericUsers());
+    Preference[] prefs = model.getPreferencesForItemAsArray(2L);
+    assertEquals(3, prefs.length);
+    assertEquals(2L, prefs[0].getUser().getID());
+    assertEquals(0.3, prefs[0].getValue(), EPSILON);
+    assertEquals(3L, prefs[1].getUser().getID());
+    assertEquals(0.5, prefs[1].getValue(), EPSILON);
+    assertEquals(4L, prefs[2].getUser().getID());
+    assertSame(model.getUser(4L), prefs[2].getUser());
+    assertEquals(0, model.getPreferencesForItemAsArray(3L).length);
+    assertEquals(4, model.getNumUsersWithPreferenceFor(0L));
+    assertEquals(4, model.getNumUsersWithPreferenceFor(1L, 0L));
+    assertEquals(3, model.getNumUsersWithPreferenceFor("1", "2"));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(3L, 0L));
+  }
+
+  public void testRecommender() throws Exception {
+    DataModel model = new CompactDataModel(getNumericUsers());
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(model);
+    UserNeighborhood neighborhood = new NearestNUserNeighborhood(2, similarity, model);
+    Recommender recommender = new GenericUserBasedRecommender(model, neighborhood, similarity);
+    List<RecommendedItem> recommended = recommender.recommend(1L, 1);
+    assertEquals(1, recommended.size());
+    assertEquals(2L, recommended.get(0).getItem().getID());
+    assertEquals(0.3, recommended.get(0).getValue(), EPSILON);
+  }
+
+  public void testSameSimilarityAsGeneric() throws Exception {
+    DataModel generic = new GenericDataModel(getNumericUsers());
+    DataModel compact = new CompactDataModel(generic);
+    UserSimilarity genericSimilarity = new PearsonCorrelationSimilarity(generic);
+    UserSimilarity compactSimilarity = new PearsonCorrelationSimilarity(compact);
+    assertEquals(genericSimilarity.userSimilarity(generic.getUser("2"), generic.getUser("3")),
+                 compactSimilarity.userSimilarity(compact.getUser(2L), compact.getUser(3L)),
+                 EPSILON);
+  }
+
+  public void testUnsupported() throws Exception {
+    DataModel model = new CompactDataModel(getNumericUsers());
+    try {
+      model.setPreference(1L, 1L, 0.0);
+      fail("Should have thrown UnsupportedOperationException");
+    } catch (UnsupportedOperationException uoe) {
+      // good
+    }
+  }
+
+}
@@ -17,15 +17,20 @@
 
 package org.apache.mahout.cf.taste.impl.model.file;
 
+import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.similarity.CachingUserSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Item;
 import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceChangeListener;
+import org.apache.mahout.cf.taste.model.User;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 
@@ -33,9 +38,13 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.nio.charset.Charset;
 
 /**
@@ -179,6 +188,143 @@ public final class FileDataModelTest extends TasteTestCase {
     assertEquals(4, model.getNumUsers());
   }
 
+  public void testIncrementalUpdate() throws Exception {
+    File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+    File tmpLoc = new File(tmpDir, "fileDataModelIncremental" + System.nanoTime());
+    tmpLoc.mkdirs();
+    tmpLoc.deleteOnExit();
+    File testFile = new File(tmpLoc, "data.txt");
+    testFile.deleteOnExit();
+    writeLines(testFile, DATA);
+    FileDataModel incrementalModel = new FileDataModel(testFile, true);
+    final List<Object> changedUserIDs = new ArrayList<Object>();
+    final List<Object> changedItemIDs = new ArrayList<Object>();
+    incrementalModel.addPreferenceChangeListener(new PreferenceChangeListener() {
+      @Override
+      public void preferencesChanged(DataModel dataModel, Collection<Object> userIDs, Collection<Object> itemIDs) {
+        changedUserIDs.addAll(userIDs);
+        changedItemIDs.addAll(itemIDs);
+      }
+    });
+    assertEquals(4, incrementalModel.getNumUsers());
+    User a123 = incrementalModel.getUser("A123");
+    Preference[] oldPrefsFor789 = incrementalModel.getPreferencesForItemAsArray("789");
+
+    File updateFile = new File(tmpLoc, "data.1.txt");
+    updateFile.deleteOnExit();
+    writeLines(updateFile, new String[] {"A123,456,", "A123,111,0.9", "E567,111,0.2", "D456,456,"});
+    incrementalModel.refresh(null);
+
+    assertEquals(5, incrementalModel.getNumUsers());
+    // 456 is gone, 111 is new
+    assertEquals(5, incrementalModel.getNumItems());
+    User newA123 = incrementalModel.getUser("A123");
+    assertNotSame(a123, newA123);
+    assertNull(newA123.getPreferenceFor("456"));
+    assertEquals(0.9, newA123.getPreferenceFor("111").getValue(), EPSILON);
+    assertEquals(0.6, newA123.getPreferenceFor("789").getValue(), EPSILON);
+    assertSame(newA123, incrementalModel.getPreferencesForItemAsArray("789")[0].getUser());
+    // Data already read is not changed
+    assertSame(a123, a123.getPreferenceFor("789").getUser());
+    assertSame(a123, oldPrefsFor789[0].getUser());
+    assertEquals(0, incrementalModel.getPreferencesForItemAsArray("456").length);
+    assertEquals(2, incrementalModel.getNumUsersWithPreferenceFor("111"));
+    assertEquals(0, incrementalModel.getUser("D456").getPreferencesAsArray().length);
+    // Unchanged users are untouched
+    assertEquals(4, incrementalModel.getUser("C345").getPreferencesAsArray().length);
+
+    assertEquals(3, changedUserIDs.size());
+    assertTrue(changedUserIDs.contains("E567"));
+    assertEquals(2, changedItemIDs.size());
+  }
+
+  public void testIncrementalUpdateEvictsCachedSimilarities() throws Exception {
+    File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+    File tmpLoc = new File(tmpDir, "fileDataModelIncremental" + System.nanoTime());
+    tmpLoc.mkdirs();
+    tmpLoc.deleteOnExit();
+    File testFile = new File(tmpLoc, "data.txt");
+    testFile.deleteOnExit();
+    writeLines(testFile, DATA);
+    FileDataModel incrementalModel = new FileDataModel(testFile, true);
+    final UserSimilarity pearson = new PearsonCorrelationSimilarity(incrementalModel);
+    final AtomicInteger computed = new AtomicInteger();
+    UserSimilarity counting = new UserSimilarity() {
+      @Override
+      public double userSimilarity(User user1, User user2) throws TasteException {
+        computed.incrementAndGet();
+        return pearson.userSimilarity(user1, user2);
+      }
+      @Override
+      public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+        pearson.setPreferenceInferrer(inferrer);
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+        pearson.refresh(alreadyRefreshed);
+      }
+    };
+    CachingUserSimilarity similarity = new CachingUserSimilarity(counting, incrementalModel);
+    incrementalModel.addPreferenceChangeListener(similarity);
+
+    User c345 = incrementalModel.getUser("C345");
+    assertEquals(1.0, similarity.userSimilarity(incrementalModel.getUser("A123"), c345), EPSILON);
+    assertEquals(-1.0, similarity.userSimilarity(incrementalModel.getUser("B234"), c345), EPSILON);
+    assertEquals(2, computed.get());
+
+    File updateFile = new File(tmpLoc, "data.1.txt");
+    updateFile.deleteOnExit();
+    writeLines(updateFile, new String[] {"A123,654,0.1"});
+    incrementalModel.refresh(null);
+
+    // Only the similarity involving the changed user is computed again
+    c345 = incrementalModel.getUser("C345");
+    assertEquals(-1.0, similarity.userSimilarity(incrementalModel.getUser("A123"), c345), EPSILON);
+    assertEquals(-1.0, similarity.userSimilarity(incrementalModel.getUser("B234"), c345), EPSILON);
+    assertEquals(3, computed.get());
+  }
+
+  public void testParallelLoad() throws Exception {
+    File testFile = File.createTempFile("parallel", ".txt");
+    testFile.deleteOnExit();
+    String[] lines = new String[1000];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = "U" + (i % 37) + ',' + (i % 101) + ',' + (i % 5);
+    }
+    // Removes a preference added in an earlier part of the file
+    lines[lines.length - 1] = "U0,0,";
+    writeLines(testFile, lines);
+    DataModel sequentialModel = new FileDataModel(testFile);
+    DataModel parallelModel = new FileDataModel(testFile, false, 4);
+    assertEquals(sequentialModel.getNumUsers(), parallelModel.getNumUsers());
+    assertEquals(sequentialModel.getNumItems(), parallelModel.getNumItems());
+    for (User user : sequentialModel.getUsers()) {
+      Preference[] expected = user.getPreferencesAsArray();
+      Preference[] actual = parallelModel.getUser(user.getID()).getPreferencesAsArray();
+      assertEquals(expected.length, actual.length);
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(expected[i].getItem(), actual[i].getItem());
+        assertEquals(expected[i].getValue(), actual[i].getValue(), EPSILON);
+      }
+    }
+    for (Item item : sequentialModel.getItems()) {
+      assertEquals(sequentialModel.getPreferencesForItemAsArray(item.getID()).length,
+                   parallelModel.getPreferencesForItemAsArray(item.getID()).length);
+    }
+  }
+
+  private static void writeLines(File file, String[] lines) throws Exception {
+    PrintWriter writer =
+        new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+    try {
+      for (String line : lines) {
+        writer.println(line);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
   public void testToString() {
     assertTrue(model.toString().length() > 0);
   }
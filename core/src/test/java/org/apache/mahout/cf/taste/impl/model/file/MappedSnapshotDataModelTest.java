@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * <p>Tests {@link SnapshotCompiler} and {@link MappedSnapshotDataModel}.</p>
+ */
+public final class MappedSnapshotDataModelTest extends TasteTestCase {
+
+  private static final String[] DATA = {
+          "A123,456,0.1",
+          "A123,789,0.6",
+          "A123,654,0.7",
+          "B234,123,0.5",
+          "B234,234,1.0",
+          "C345,789,0.6",
+          "C345,654,0.7",
+          "C345,123,1.0",
+          "C345,234,0.5",
+          "D456,456,0.1"};
+
+  private File snapshotFile;
+  private DataModel model;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+    File tmpLoc = new File(tmpDir, "mappedSnapshotDataModel");
+    tmpLoc.mkdirs();
+    File testFile = File.createTempFile("test", ".txt", tmpLoc);
+    testFile.deleteOnExit();
+    PrintWriter writer =
+        new PrintWriter(new OutputStreamWriter(new FileOutputStream(testFile), Charset.forName("UTF-8")));
+    try {
+      for (String data : DATA) {
+        writer.println(data);
+      }
+    } finally {
+      writer.close();
+    }
+    snapshotFile = File.createTempFile("test", ".snapshot");
+    snapshotFile.deleteOnExit();
+    SnapshotCompiler.compile(new FileDataModel(testFile), snapshotFile);
+    model = new MappedSnapshotDataModel(snapshotFile);
+  }
+
+  public void testRecommend() throws Exception {
+    UserSimilarity userSimilarity = new PearsonCorrelationSimilarity(model);
+    UserNeighborhood neighborhood = new NearestNUserNeighborhood(2, userSimilarity, model);
+    Recommender recommender = new GenericUserBasedRecommender(model, neighborhood, userSimilarity);
+    assertEquals(2, recommender.recommend("A123", 3).size());
+    assertEquals(2, recommender.recommend("B234", 3).size());
+    assertEquals(1, recommender.recommend("C345", 3).size());
+  }
+
+  public void testUser() throws Exception {
+    User user = model.getUser("C345");
+    assertEquals("C345", user.getID());
+    Preference[] prefs = user.getPreferencesAsArray();
+    assertEquals(4, prefs.length);
+    assertEquals("123", prefs[0].getItem().getID());
+    assertEquals("789", prefs[3].getItem().getID());
+    assertEquals(0.7, user.getPreferenceFor("654").getValue(), EPSILON);
+    assertNull(user.getPreferenceFor("456"));
+    assertNull(user.getPreferenceFor("111"));
+    try {
+      model.getUser("E567");
+      fail("Should have thrown NoSuchUserException");
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+  }
+
+  public void testGetItems() throws Exception {
+    Iterator<? extends Item> it = model.getItems().iterator();
+    assertEquals("123", it.next().getID());
+    assertEquals("234", it.next().getID());
+    assertEquals("456", it.next().getID());
+    assertEquals("654", it.next().getID());
+    assertEquals("789", it.next().getID());
+    assertFalse(it.hasNext());
+    assertEquals(5, model.getNumItems());
+    assertEquals(4, model.getNumUsers());
+  }
+
+  public void testPreferencesForItem() throws Exception {
+    Preference[] prefs = model.getPreferencesForItemAsArray("456");
+    assertEquals(2, prefs.length);
+    assertEquals("A123", prefs[0].getUser().getID());
+    assertEquals("D456", prefs[1].getUser().getID());
+    assertEquals(0.1, prefs[1].getValue(), EPSILON);
+    assertEquals(0, model.getPreferencesForItemAsArray("111").length);
+  }
+
+  public void testNumUsersPreferring() throws Exception {
+    assertEquals(2, model.getNumUsersWithPreferenceFor("456"));
+    assertEquals(0, model.getNumUsersWithPreferenceFor("111"));
+    assertEquals(0, model.getNumUsersWithPreferenceFor("111", "456"));
+    assertEquals(2, model.getNumUsersWithPreferenceFor("123", "234"));
+  }
+
+  public void testRecompile() throws Exception {
+    SnapshotCompiler.compile(getDataModel(getUser("test1", 0.1, 0.2)), snapshotFile);
+    // The model already open keeps reading the snapshot it mapped
+    assertEquals(4, model.getNumUsers());
+    assertEquals(0.7, model.getUser("C345").getPreferenceFor("654").getValue(), EPSILON);
+    DataModel recompiled = new MappedSnapshotDataModel(snapshotFile);
+    assertEquals(1, recompiled.getNumUsers());
+    assertEquals(2, recompiled.getNumItems());
+    File[] leftovers = snapshotFile.getParentFile().listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(snapshotFile.getName()) && name.endsWith(".tmp");
+      }
+    });
+    assertEquals(0, leftovers.length);
+  }
+
+  public void testNotASnapshot() throws Exception {
+    File badFile = File.createTempFile("test", ".snapshot");
+    badFile.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(badFile);
+    try {
+      out.write(new byte[32]);
+    } finally {
+      out.close();
+    }
+    try {
+      new MappedSnapshotDataModel(badFile);
+      fail("Should have thrown IOException");
+    } catch (IOException ioe) {
+      // good
+    }
+  }
+
+}
@@ -0,0 +1,318 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs {@link AbstractJDBCDataModel} against a {@link MockDatabase} holding a preference table, whose rows
+ * are user ID, item ID and preference value, ordered by user and then item.
+ */
+public final class AbstractJDBCDataModelTest extends TasteTestCase {
+
+  public void testGetUsersPadsBatch() throws Exception {
+    MockJDBCDataModel model = new MockJDBCDataModel(
+        new Object[] {"u1", "i1", 0.1}, new Object[] {"u1", "i2", 0.2},
+        new Object[] {"u2", "i1", 0.3},
+        new Object[] {"u3", "i2", 0.4}, new Object[] {"u3", "i3", 0.5});
+    Map<Object, User> users = model.getUsers(Arrays.asList("u1", "u3", "u4"));
+    // Padded to a power of two by repeating the last ID
+    assertEquals(Collections.singletonList("getUsersByID:4[u1, u3, u4, u4]"), model.database.getExecuted());
+    assertEquals(2, users.size());
+    assertUserPrefs(users.get("u1"), "i1", 0.1, "i2", 0.2);
+    assertUserPrefs(users.get("u3"), "i2", 0.4, "i3", 0.5);
+    assertFalse(users.containsKey("u4"));
+    assertEquals(0, model.database.getOpenResources());
+  }
+
+  public void testGetUsersSplitsBatches() throws Exception {
+    int numUsers = AbstractJDBCDataModel.MAX_IDS_PER_QUERY + 100;
+    List<Object[]> rows = new ArrayList<Object[]>();
+    List<String> userIDs = new ArrayList<String>();
+    for (int i = 0; i < numUsers; i++) {
+      String userID = String.format("u%04d", i);
+      rows.add(new Object[] {userID, "i1", 0.1});
+      rows.add(new Object[] {userID, "i2", 0.2});
+      userIDs.add(userID);
+    }
+    MockJDBCDataModel model = new MockJDBCDataModel(rows.toArray(new Object[rows.size()][]));
+    Map<Object, User> users = model.getUsers(userIDs);
+    assertEquals(numUsers, users.size());
+    for (String userID : userIDs) {
+      assertUserPrefs(users.get(userID), "i1", 0.1, "i2", 0.2);
+    }
+    List<String> executed = model.database.getExecuted();
+    assertEquals(2, executed.size());
+    assertTrue(executed.get(0).startsWith("getUsersByID:" + AbstractJDBCDataModel.MAX_IDS_PER_QUERY + "[u0000, "));
+    // The remaining 100 IDs are padded to 128 by repeating the last
+    List<String> lastBatch = new ArrayList<String>(userIDs.subList(AbstractJDBCDataModel.MAX_IDS_PER_QUERY, numUsers));
+    while (lastBatch.size() < 128) {
+      lastBatch.add("u0599");
+    }
+    assertEquals("getUsersByID:128" + lastBatch, executed.get(1));
+    assertEquals(0, model.database.getOpenResources());
+  }
+
+  public void testGetPreferencesForItems() throws Exception {
+    MockJDBCDataModel model = new MockJDBCDataModel(
+        new Object[] {"u1", "i1", 0.1}, new Object[] {"u1", "i2", 0.2},
+        new Object[] {"u2", "i1", 0.3},
+        new Object[] {"u3", "i2", 0.4}, new Object[] {"u3", "i3", 0.5});
+    Map<Object, Preference[]> prefs = model.getPreferencesForItems(Arrays.asList("i1", "i2", "i9"));
+    assertEquals(Collections.singletonList("getPrefsForItemsByID:4[i1, i2, i9, i9]"), model.database.getExecuted());
+    assertEquals(2, prefs.size());
+    assertItemPrefs(prefs.get("i1"), "u1", 0.1, "u2", 0.3);
+    assertItemPrefs(prefs.get("i2"), "u1", 0.2, "u3", 0.4);
+    assertEquals(0, model.database.getOpenResources());
+  }
+
+  public void testUserCache() throws Exception {
+    MockJDBCDataModel model = new MockJDBCDataModel(new Object[] {"u1", "i1", 0.1}, new Object[] {"u2", "i1", 0.2});
+    model.getUser("u1");
+    model.getUser("u1");
+    assertEquals(2, model.database.count("getUser["));
+
+    model.setMaxCachedUsers(10);
+    User user = model.getUser("u1");
+    assertSame(user, model.getUser("u1"));
+    assertEquals(3, model.database.count("getUser["));
+
+    // Setting a preference forgets only that user
+    model.getUser("u2");
+    model.setPreference("u1", "i2", 0.5);
+    assertUserPrefs(model.getUser("u1"), "i1", 0.1, "i2", 0.5);
+    model.getUser("u2");
+    assertEquals(5, model.database.count("getUser["));
+
+    model.removePreference("u1", "i2");
+    assertUserPrefs(model.getUser("u1"), "i1", 0.1);
+    assertEquals(6, model.database.count("getUser["));
+
+    model.refresh(null);
+    model.getUser("u1");
+    model.getUser("u2");
+    assertEquals(8, model.database.count("getUser["));
+    assertEquals(0, model.database.getOpenResources());
+  }
+
+  public void testUserIterator() throws Exception {
+    // Single-row users first and last, and a user with several rows in between
+    MockJDBCDataModel model = new MockJDBCDataModel(
+        new Object[] {"u1", "i1", 0.1},
+        new Object[] {"u2", "i1", 0.2}, new Object[] {"u2", "i2", 0.3}, new Object[] {"u2", "i3", 0.4},
+        new Object[] {"u3", "i2", 0.5});
+    Iterator<? extends User> users = model.getUsers().iterator();
+    assertEquals(3, model.database.getOpenResources());
+    assertTrue(users.hasNext());
+    assertTrue(users.hasNext());
+    assertUserPrefs(users.next(), "i1", 0.1);
+    assertUserPrefs(users.next(), "i1", 0.2, "i2", 0.3, "i3", 0.4);
+    assertTrue(users.hasNext());
+    assertUserPrefs(users.next(), "i2", 0.5);
+    // Released as soon as the last user is read
+    assertEquals(0, model.database.getOpenResources());
+    assertFalse(users.hasNext());
+    try {
+      users.next();
+      fail();
+    } catch (NoSuchElementException nsee) {
+      // good
+    }
+  }
+
+  public void testEmptyUserIterator() throws Exception {
+    MockJDBCDataModel model = new MockJDBCDataModel();
+    Iterator<? extends User> users = model.getUsers().iterator();
+    assertFalse(users.hasNext());
+    assertEquals(0, model.database.getOpenResources());
+  }
+
+  public void testItemIterator() throws Exception {
+    MockJDBCDataModel model = new MockJDBCDataModel(
+        new Object[] {"u1", "i1", 0.1}, new Object[] {"u1", "i2", 0.2}, new Object[] {"u2", "i3", 0.3});
+    Iterator<? extends Item> items = model.getItems().iterator();
+    List<Object> itemIDs = new ArrayList<Object>();
+    while (items.hasNext()) {
+      assertTrue(items.hasNext());
+      itemIDs.add(items.next().getID());
+    }
+    assertEquals(Arrays.<Object>asList("i1", "i2", "i3"), itemIDs);
+    assertEquals(0, model.database.getOpenResources());
+
+    items = model.getItems().iterator();
+    items.next();
+    items.next();
+    items.next();
+    assertEquals(0, model.database.getOpenResources());
+  }
+
+  private static void assertUserPrefs(User user, Object... itemIDsAndValues) {
+    Preference[] prefs = user.getPreferencesAsArray();
+    assertEquals(itemIDsAndValues.length / 2, prefs.length);
+    for (int i = 0; i < prefs.length; i++) {
+      assertEquals(itemIDsAndValues[2 * i], prefs[i].getItem().getID());
+      assertEquals((Double) itemIDsAndValues[2 * i + 1], prefs[i].getValue(), EPSILON);
+    }
+  }
+
+  private static void assertItemPrefs(Preference[] prefs, Object... userIDsAndValues) {
+    assertEquals(userIDsAndValues.length / 2, prefs.length);
+    for (int i = 0; i < prefs.length; i++) {
+      assertEquals(userIDsAndValues[2 * i], prefs[i].getUser().getID());
+      assertEquals((Double) userIDsAndValues[2 * i + 1], prefs[i].getValue(), EPSILON);
+    }
+  }
+
+  /**
+   * Answers each statement from a list of preference rows, kept ordered by user and then item.
+   */
+  private static final class MockJDBCDataModel extends AbstractJDBCDataModel {
+
+    private final MockDatabase database;
+
+    private MockJDBCDataModel(Object[]... rows) {
+      this(new MockDatabase(), new ArrayList<Object[]>(Arrays.asList(rows)));
+    }
+
+    private MockJDBCDataModel(MockDatabase database, final List<Object[]> rows) {
+      super(database.getDataSource(), "getUser", "getNumItems", "getNumUsers", "setPreference",
+            "removePreference", "getUsers", "getItems", "getItem", "getPrefsForItem",
+            "getNumPreferenceForItem", "getNumPreferenceForItems");
+      this.database = database;
+      database.addQuery("getUser", new MockDatabase.Query() {
+        @Override
+        public List<Object[]> run(List<Object> params) {
+          List<Object[]> result = new ArrayList<Object[]>();
+          for (Object[] row : rows) {
+            if (row[0].equals(params.get(0))) {
+              result.add(new Object[] {row[1], row[2]});
+            }
+          }
+          return result;
+        }
+      });
+      database.addQuery("getUsers", new MockDatabase.Query() {
+        @Override
+        public List<Object[]> run(List<Object> params) {
+          List<Object[]> result = new ArrayList<Object[]>();
+          for (Object[] row : rows) {
+            result.add(new Object[] {row[1], row[2], row[0]});
+          }
+          return result;
+        }
+      });
+      database.addQuery("getUsersByID", new MockDatabase.Query() {
+        @Override
+        public List<Object[]> run(List<Object> params) {
+          List<Object[]> result = new ArrayList<Object[]>();
+          for (Object[] row : rows) {
+            if (params.contains(row[0])) {
+              result.add(new Object[] {row[1], row[2], row[0]});
+            }
+          }
+          return result;
+        }
+      });
+      database.addQuery("getPrefsForItemsByID", new MockDatabase.Query() {
+        @Override
+        public List<Object[]> run(List<Object> params) {
+          List<Object[]> result = new ArrayList<Object[]>();
+          for (Object itemID : new TreeSet<Object>(params)) {
+            for (Object[] row : rows) {
+              if (row[1].equals(itemID)) {
+                result.add(new Object[] {row[2], row[0], row[1]});
+              }
+            }
+          }
+          return result;
+        }
+      });
+      database.addQuery("getItems", new MockDatabase.Query() {
+        @Override
+        public List<Object[]> run(List<Object> params) {
+          Set<Object> itemIDs = new TreeSet<Object>();
+          for (Object[] row : rows) {
+            itemIDs.add(row[1]);
+          }
+          List<Object[]> result = new ArrayList<Object[]>();
+          for (Object itemID : itemIDs) {
+            result.add(new Object[] {itemID});
+          }
+          return result;
+        }
+      });
+      database.addQuery("setPreference", new MockDatabase.Query() {
+        @Override
+        public List<Object[]> run(List<Object> params) {
+          removeRow(rows, params.get(0), params.get(1));
+          rows.add(new Object[] {params.get(0), params.get(1), params.get(2)});
+          Collections.sort(rows, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+              int compare = ((String) a[0]).compareTo((String) b[0]);
+              return compare == 0 ? ((String) a[1]).compareTo((String) b[1]) : compare;
+            }
+          });
+          return null;
+        }
+      });
+      database.addQuery("removePreference", new MockDatabase.Query() {
+        @Override
+        public List<Object[]> run(List<Object> params) {
+          removeRow(rows, params.get(0), params.get(1));
+          return null;
+        }
+      });
+    }
+
+    private static void removeRow(List<Object[]> rows, Object userID, Object itemID) {
+      for (Iterator<Object[]> it = rows.iterator(); it.hasNext();) {
+        Object[] row = it.next();
+        if (row[0].equals(userID) && row[1].equals(itemID)) {
+          it.remove();
+        }
+      }
+    }
+
+    @Override
+    protected String buildGetUsersByIDSQL(int numIDs) {
+      return "getUsersByID:" + numIDs;
+    }
+
+    @Override
+    protected String buildGetPrefsForItemsByIDSQL(int numIDs) {
+      return "getPrefsForItemsByID:" + numIDs;
+    }
+  }
+
+}
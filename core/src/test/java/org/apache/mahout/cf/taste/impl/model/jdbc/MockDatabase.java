@@ -0,0 +1,251 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A mock database behind a {@link DataSource} proxy. Each statement runs the {@link Query} registered for
+ * the longest prefix of its SQL, for queries and updates alike. Every statement run is recorded as its SQL
+ * followed by its parameters, and connections, statements and result sets not yet closed are counted.</p>
+ */
+final class MockDatabase {
+
+  interface Query {
+    /**
+     * @param params statement parameters, from the first
+     * @return rows of the result, or anything for an update
+     */
+    List<Object[]> run(List<Object> params) throws SQLException;
+  }
+
+  private final Map<String, Query> queries;
+  private final List<String> executed;
+  private final AtomicInteger openResources;
+  private final DataSource dataSource;
+
+  MockDatabase() {
+    queries = new LinkedHashMap<String, Query>();
+    executed = new ArrayList<String>();
+    openResources = new AtomicInteger();
+    dataSource = (DataSource) mock(DataSource.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if ("getConnection".equals(method.getName())) {
+          return open(Connection.class, new ConnectionHandler());
+        }
+        return objectMethod(proxy, method, args);
+      }
+    });
+  }
+
+  void addQuery(String sqlPrefix, Query query) {
+    queries.put(sqlPrefix, query);
+  }
+
+  DataSource getDataSource() {
+    return dataSource;
+  }
+
+  List<String> getExecuted() {
+    return executed;
+  }
+
+  void clearExecuted() {
+    executed.clear();
+  }
+
+  /**
+   * @return number of statements run whose SQL starts with the given prefix
+   */
+  int count(String sqlPrefix) {
+    int count = 0;
+    for (String statement : executed) {
+      if (statement.startsWith(sqlPrefix)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  int getOpenResources() {
+    return openResources.get();
+  }
+
+  private List<Object[]> run(String sql, List<Object> params) throws SQLException {
+    executed.add(sql + params);
+    String bestPrefix = null;
+    for (String prefix : queries.keySet()) {
+      if (sql.startsWith(prefix) && (bestPrefix == null || prefix.length() > bestPrefix.length())) {
+        bestPrefix = prefix;
+      }
+    }
+    if (bestPrefix == null) {
+      throw new SQLException("Unexpected SQL: " + sql);
+    }
+    return queries.get(bestPrefix).run(params);
+  }
+
+  private Object open(Class<?> type, ResourceHandler handler) {
+    openResources.incrementAndGet();
+    return mock(type, handler);
+  }
+
+  private static Object mock(Class<?> type, InvocationHandler handler) {
+    return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+  }
+
+  private static Object objectMethod(Object proxy, Method method, Object[] args) {
+    String name = method.getName();
+    if ("toString".equals(name)) {
+      return "MockDatabase";
+    }
+    if ("hashCode".equals(name)) {
+      return System.identityHashCode(proxy);
+    }
+    if ("equals".equals(name)) {
+      return proxy == args[0];
+    }
+    Class<?> returnType = method.getReturnType();
+    if (returnType == boolean.class) {
+      return false;
+    }
+    if (returnType == int.class) {
+      return 0;
+    }
+    return null;
+  }
+
+  /**
+   * Counts itself closed once, however often it is closed.
+   */
+  private abstract class ResourceHandler implements InvocationHandler {
+
+    private boolean closed;
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+      if ("close".equals(method.getName())) {
+        if (!closed) {
+          closed = true;
+          openResources.decrementAndGet();
+        }
+        return null;
+      }
+      if (closed) {
+        throw new SQLException("Already closed");
+      }
+      return handle(proxy, method, args);
+    }
+
+    abstract Object handle(Object proxy, Method method, Object[] args) throws SQLException;
+  }
+
+  private final class ConnectionHandler extends ResourceHandler {
+    @Override
+    Object handle(Object proxy, Method method, Object[] args) {
+      if ("prepareStatement".equals(method.getName())) {
+        return open(PreparedStatement.class, new StatementHandler((String) args[0]));
+      }
+      return objectMethod(proxy, method, args);
+    }
+  }
+
+  private final class StatementHandler extends ResourceHandler {
+
+    private final String sql;
+    private final List<Object> params;
+
+    private StatementHandler(String sql) {
+      this.sql = sql;
+      params = new ArrayList<Object>();
+    }
+
+    @Override
+    Object handle(Object proxy, Method method, Object[] args) throws SQLException {
+      String name = method.getName();
+      if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer) {
+        int index = (Integer) args[0];
+        while (params.size() < index) {
+          params.add(null);
+        }
+        params.set(index - 1, args[1]);
+        return null;
+      }
+      if ("executeQuery".equals(name)) {
+        return open(ResultSet.class, new ResultSetHandler(run(sql, params).iterator()));
+      }
+      if ("executeUpdate".equals(name)) {
+        run(sql, params);
+        return 1;
+      }
+      return objectMethod(proxy, method, args);
+    }
+  }
+
+  private final class ResultSetHandler extends ResourceHandler {
+
+    private final Iterator<Object[]> rows;
+    private Object[] row;
+
+    private ResultSetHandler(Iterator<Object[]> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    Object handle(Object proxy, Method method, Object[] args) throws SQLException {
+      String name = method.getName();
+      if ("next".equals(name)) {
+        row = rows.hasNext() ? rows.next() : null;
+        return row != null;
+      }
+      if (!name.startsWith("get") || args == null || args.length != 1) {
+        return objectMethod(proxy, method, args);
+      }
+      if (row == null) {
+        throw new SQLException("No current row");
+      }
+      Object value = row[(Integer) args[0] - 1];
+      if ("getString".equals(name)) {
+        return value == null ? null : value.toString();
+      }
+      if ("getInt".equals(name)) {
+        return ((Number) value).intValue();
+      }
+      if ("getDouble".equals(name)) {
+        return ((Number) value).doubleValue();
+      }
+      return value;
+    }
+  }
+
+}
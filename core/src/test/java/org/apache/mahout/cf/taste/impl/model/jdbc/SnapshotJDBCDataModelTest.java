@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceChangeListener;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public final class SnapshotJDBCDataModelTest extends TasteTestCase {
+
+  public void testApplyChange() throws Exception {
+    SnapshotJDBCDataModel model = new SnapshotJDBCDataModel(new MockJDBCDataModel(getMockUsers()));
+    User oldTest2 = model.getUser("test2");
+    Preference[] oldPrefsFor0 = model.getPreferencesForItemAsArray("0");
+
+    model.setPreference("test2", "1", 0.9);
+
+    User test2 = model.getUser("test2");
+    assertNotSame(oldTest2, test2);
+    assertEquals(0.9, test2.getPreferenceFor("1").getValue(), EPSILON);
+    assertEquals(0.2, test2.getPreferenceFor("0").getValue(), EPSILON);
+    // Readers of the old data still see the old user
+    assertSame(oldTest2, oldTest2.getPreferenceFor("0").getUser());
+    assertEquals(0.3, oldTest2.getPreferenceFor("1").getValue(), EPSILON);
+    assertSame(oldTest2, oldPrefsFor0[1].getUser());
+
+    // Item views refer to the new user, for changed and unchanged preferences
+    for (String itemID : new String[] {"0", "1", "2"}) {
+      Preference[] prefs = model.getPreferencesForItemAsArray(itemID);
+      boolean found = false;
+      for (Preference pref : prefs) {
+        if ("test2".equals(pref.getUser().getID())) {
+          assertSame(test2, pref.getUser());
+          assertEquals(test2.getPreferenceFor(itemID).getValue(), pref.getValue(), EPSILON);
+          found = true;
+        }
+      }
+      assertTrue(found);
+    }
+  }
+
+  public void testRemoveAllPreferences() throws Exception {
+    SnapshotJDBCDataModel model = new SnapshotJDBCDataModel(new MockJDBCDataModel(getMockUsers()));
+    model.removePreference("test1", "0");
+    assertEquals(1, model.getUser("test1").getPreferencesAsArray().length);
+    assertEquals(3, model.getPreferencesForItemAsArray("0").length);
+    model.removePreference("test1", "1");
+    assertEquals(3, model.getNumUsers());
+    try {
+      model.getUser("test1");
+      fail("Should have thrown NoSuchUserException");
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+    assertEquals(3, model.getPreferencesForItemAsArray("1").length);
+  }
+
+  public void testRefreshAppliesChangedRows() throws Exception {
+    MockDatabase database = new MockDatabase();
+    // User ID, item ID, preference value and update sequence number of rows changed since loading
+    final List<Object[]> rows = new ArrayList<Object[]>();
+    rows.add(new Object[] {"test1", "0", 0.1, 5});
+    database.addQuery("SELECT MAX(", new MockDatabase.Query() {
+      @Override
+      public List<Object[]> run(List<Object> params) {
+        int max = 0;
+        for (Object[] row : rows) {
+          max = Math.max(max, (Integer) row[3]);
+        }
+        return Collections.singletonList(new Object[] {max});
+      }
+    });
+    database.addQuery("SELECT user_id, item_id, preference, updated FROM taste_preferences WHERE updated",
+                      new MockDatabase.Query() {
+      @Override
+      public List<Object[]> run(List<Object> params) {
+        List<Object[]> result = new ArrayList<Object[]>();
+        for (Object[] row : rows) {
+          if ((Integer) row[3] >= (Integer) params.get(0)) {
+            result.add(row);
+          }
+        }
+        return result;
+      }
+    });
+    SnapshotJDBCDataModel model =
+        new SnapshotJDBCDataModel(new MockJDBCDataModel(getMockUsers(), database), "updated");
+    final List<Collection<Object>> changes = new ArrayList<Collection<Object>>();
+    model.addPreferenceChangeListener(new PreferenceChangeListener() {
+      @Override
+      public void preferencesChanged(DataModel dataModel, Collection<Object> userIDs, Collection<Object> itemIDs) {
+        changes.add(new HashSet<Object>(userIDs));
+        changes.add(new HashSet<Object>(itemIDs));
+      }
+    });
+    User test1 = model.getUser("test1");
+
+    // The row at the high-water mark is already in memory
+    model.refresh(null);
+    assertEquals("SELECT user_id, item_id, preference, updated FROM taste_preferences WHERE updated>=?[5]",
+                 database.getExecuted().get(1));
+    assertTrue(changes.isEmpty());
+    assertSame(test1, model.getUser("test1"));
+
+    rows.add(new Object[] {"test2", "1", 0.9, 6});
+    rows.add(new Object[] {"test5", "0", 0.4, 6});
+    model.refresh(null);
+    assertEquals(Arrays.<Collection<Object>>asList(new HashSet<Object>(Arrays.asList("test2", "test5")),
+                                                   new HashSet<Object>(Arrays.asList("0", "1"))),
+                 changes);
+    assertSame(test1, model.getUser("test1"));
+    assertEquals(0.9, model.getUser("test2").getPreferenceFor("1").getValue(), EPSILON);
+    assertEquals(0.4, model.getUser("test5").getPreferenceFor("0").getValue(), EPSILON);
+    assertEquals(5, model.getNumUsers());
+    assertEquals(5, model.getPreferencesForItemAsArray("0").length);
+
+    // Rows at the new high-water mark are read again, but not applied again
+    model.refresh(null);
+    assertTrue(database.getExecuted().get(3).endsWith("[6]"));
+    assertEquals(2, changes.size());
+    assertEquals(0, database.getOpenResources());
+  }
+
+  private static final class MockJDBCDataModel extends AbstractJDBCDataModel {
+
+    private final List<User> users;
+
+    private MockJDBCDataModel(List<User> users) {
+      this(users, new MockDatabase());
+    }
+
+    private MockJDBCDataModel(List<User> users, MockDatabase database) {
+      super(database.getDataSource(), "-", "-", "-", "-", "-", "-", "-", "-", "-", "-", "-");
+      this.users = users;
+    }
+
+    @Override
+    public Iterable<? extends User> getUsers() {
+      return users;
+    }
+
+    @Override
+    public void setPreference(Object userID, Object itemID, double value) {
+      // Nothing to write to
+    }
+
+    @Override
+    public void removePreference(Object userID, Object itemID) {
+      // Nothing to write to
+    }
+
+  }
+
+}
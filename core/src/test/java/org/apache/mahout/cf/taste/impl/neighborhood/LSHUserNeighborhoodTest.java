@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Tests {@link LSHUserNeighborhood}.</p>
+ */
+public final class LSHUserNeighborhoodTest extends TasteTestCase {
+
+  public void testNeighborhood() throws Exception {
+
+    List<User> users = getMockUsers();
+    DataModel dataModel = new GenericDataModel(users);
+
+    // With many one-row bands, users sharing most of their items are all but certain to be candidates
+    Collection<User> neighborhood = new LSHUserNeighborhood(1, Double.NEGATIVE_INFINITY,
+        new DummySimilarity(), dataModel, 20, 1).getUserNeighborhood("test1");
+    assertNotNull(neighborhood);
+    assertEquals(1, neighborhood.size());
+    assertTrue(neighborhood.contains(users.get(1)));
+
+    Collection<User> neighborhood2 = new LSHUserNeighborhood(4, Double.NEGATIVE_INFINITY,
+        new DummySimilarity(), dataModel, 20, 1).getUserNeighborhood("test4");
+    assertNotNull(neighborhood2);
+    assertEquals(3, neighborhood2.size());
+    assertTrue(neighborhood2.contains(users.get(0)));
+    assertTrue(neighborhood2.contains(users.get(1)));
+    assertTrue(neighborhood2.contains(users.get(2)));
+
+  }
+
+  public void testDisjointUsersNotCandidates() throws Exception {
+    List<User> users = new ArrayList<User>(getMockUsers());
+    User loner = getUser("test5", null, null, null, null, 0.5, 0.6);
+    users.add(loner);
+    DataModel dataModel = new GenericDataModel(users);
+    LSHUserNeighborhood neighborhood =
+        new LSHUserNeighborhood(4, Double.NEGATIVE_INFINITY, new DummySimilarity(), dataModel, 20, 1);
+    assertTrue(neighborhood.getUserNeighborhood("test5").isEmpty());
+    assertFalse(neighborhood.getUserNeighborhood("test1").contains(loner));
+  }
+
+  public void testRefresh() throws Exception {
+    // Make sure this doesn't throw an exception
+    DataModel dataModel = new GenericDataModel(Collections.singletonList(getUser("test1", 0.1)));
+    new LSHUserNeighborhood(1, Double.NEGATIVE_INFINITY, new DummySimilarity(), dataModel, 4, 2).refresh(null);
+  }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * <p>Tests {@link PrecomputedUserNeighborhoodBuilder} and {@link MappedUserNeighborhood}.</p>
+ */
+public final class MappedUserNeighborhoodTest extends TasteTestCase {
+
+  private File file;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("neighborhood", ".bin");
+    file.deleteOnExit();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  private static DataModel getTestDataModel(double changed) {
+    User user1 = getUser("test1", 1.0, 2.0, 3.0, 1.0);
+    User user2 = getUser("test2", 2.0, 5.0, 1.0, 4.0);
+    User user3 = getUser("test3", 3.0, 6.0, 4.0, changed);
+    User user4 = getUser("test4", 5.0, 1.0, 2.0, 2.0);
+    User user5 = getUser("test5", 1.0, 3.0, 2.0, 5.0);
+    return getDataModel(user1, user2, user3, user4, user5);
+  }
+
+  private static void assertSameNeighborhoods(DataModel dataModel,
+                                              UserNeighborhood expected,
+                                              UserNeighborhood actual) throws Exception {
+    for (User user : dataModel.getUsers()) {
+      Collection<User> expectedNeighbors = expected.getUserNeighborhood(user.getID());
+      Collection<User> actualNeighbors = actual.getUserNeighborhood(user.getID());
+      assertEquals(new HashSet<User>(expectedNeighbors), new HashSet<User>(actualNeighbors));
+    }
+  }
+
+  public void testMatchesNearestN() throws Exception {
+    DataModel dataModel = getTestDataModel(3.0);
+    UserSimilarity pearson = new PearsonCorrelationSimilarity(dataModel);
+    new PrecomputedUserNeighborhoodBuilder(2, -1.0, pearson, dataModel, 2).build(file);
+    UserNeighborhood mapped = new MappedUserNeighborhood(file, dataModel);
+    assertSameNeighborhoods(dataModel, new NearestNUserNeighborhood(2, -1.0, pearson, dataModel), mapped);
+    assertTrue(mapped.getUserNeighborhood("foo").isEmpty());
+  }
+
+  public void testRebuild() throws Exception {
+    DataModel before = getTestDataModel(3.0);
+    new PrecomputedUserNeighborhoodBuilder(2, -1.0, new PearsonCorrelationSimilarity(before), before, 2).build(file);
+    MappedUserNeighborhood previous = new MappedUserNeighborhood(file, before);
+
+    DataModel after = getTestDataModel(-2.0);
+    UserSimilarity pearson = new PearsonCorrelationSimilarity(after);
+    PrecomputedUserNeighborhoodBuilder builder = new PrecomputedUserNeighborhoodBuilder(2, -1.0, pearson, after, 2);
+    File rebuiltFile = File.createTempFile("neighborhood", ".bin");
+    rebuiltFile.deleteOnExit();
+    try {
+      builder.rebuild(previous, Collections.singleton("test3"), rebuiltFile);
+      assertSameNeighborhoods(after,
+                              new NearestNUserNeighborhood(2, -1.0, pearson, after),
+                              new MappedUserNeighborhood(rebuiltFile, after));
+    } finally {
+      rebuiltFile.delete();
+    }
+  }
+
+  public void testRebuildOnRefresh() throws Exception {
+    File dir = new File(System.getProperty("java.io.tmpdir"), "mappedUserNeighborhood" + System.nanoTime());
+    dir.mkdirs();
+    dir.deleteOnExit();
+    File dataFile = new File(dir, "data.txt");
+    dataFile.deleteOnExit();
+    writeLines(dataFile, getTestDataModel(3.0));
+    FileDataModel dataModel = new FileDataModel(dataFile, true);
+    UserSimilarity pearson = new PearsonCorrelationSimilarity(dataModel);
+    PrecomputedUserNeighborhoodBuilder builder = new PrecomputedUserNeighborhoodBuilder(2, -1.0, pearson, dataModel, 2);
+    builder.build(file);
+    MappedUserNeighborhood mapped = new MappedUserNeighborhood(file, dataModel, builder);
+    dataModel.addPreferenceChangeListener(mapped);
+    assertSameNeighborhoods(dataModel, new NearestNUserNeighborhood(2, -1.0, pearson, dataModel), mapped);
+
+    File updateFile = new File(dir, "data.1.txt");
+    updateFile.deleteOnExit();
+    PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(updateFile), "UTF-8"));
+    try {
+      writer.println("test3,3,-2.0");
+    } finally {
+      writer.close();
+    }
+    mapped.refresh(null);
+    assertSameNeighborhoods(getTestDataModel(-2.0),
+                            new NearestNUserNeighborhood(2, -1.0, pearson, dataModel),
+                            mapped);
+  }
+
+  private static void writeLines(File file, DataModel dataModel) throws Exception {
+    PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      for (User user : dataModel.getUsers()) {
+        for (Preference pref : user.getPreferences()) {
+          writer.println(user.getID() + "," + pref.getItem().getID() + "," + pref.getValue());
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+}
@@ -19,9 +19,12 @@ package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.apache.mahout.cf.taste.recommender.Rescorer;
 
+import java.io.File;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -77,4 +80,80 @@ public final class CachingRecommenderTest extends TasteTestCase {
     assertEquals(11, recommendCount.get());
   }
 
+  public void testWarming() throws Exception {
+    AtomicInteger recommendCount = new AtomicInteger();
+    CachingRecommender cachingRecommender = new CachingRecommender(new MockRecommender(recommendCount));
+    cachingRecommender.setWarming(1, 2);
+    try {
+      cachingRecommender.recommend("1", 1);
+      cachingRecommender.recommend("2", 1);
+      assertEquals(2, recommendCount.get());
+
+      // Only the most recently seen user, "2", is recomputed
+      cachingRecommender.refresh(null);
+      awaitCount(recommendCount, 3);
+      awaitWarmed(cachingRecommender);
+      cachingRecommender.recommend("2", 1);
+      assertEquals(3, recommendCount.get());
+      assertEquals(0L, cachingRecommender.getStaleServedCount());
+
+      // "1" is served the old result, and recomputed in the background
+      assertNotNull(cachingRecommender.recommend("1", 1));
+      assertEquals(1L, cachingRecommender.getStaleServedCount());
+      awaitCount(recommendCount, 4);
+      assertTrue(cachingRecommender.getHitRate() > 0.0);
+    } finally {
+      cachingRecommender.stopWarming();
+    }
+  }
+
+  public void testWriteAndReadRecommendations() throws Exception {
+    File file = File.createTempFile("recommendations", ".txt");
+    file.deleteOnExit();
+    try {
+      CachingRecommender before = new CachingRecommender(new ItemAverageRecommender(getDataModel()));
+      before.setWarming(10, 1);
+      List<RecommendedItem> expected = before.recommend("test1", 1);
+      before.writeRecommendations(file);
+      before.stopWarming();
+
+      CachingRecommender after = new CachingRecommender(new ItemAverageRecommender(getDataModel()));
+      try {
+        after.readRecommendations(file);
+        fail("Should have thrown IllegalStateException");
+      } catch (IllegalStateException ise) {
+        // good; nothing would ever recompute them
+      }
+      after.setWarming(10, 1);
+      try {
+        after.readRecommendations(file);
+        List<RecommendedItem> actual = after.recommend("test1", 1);
+        assertEquals(1L, after.getStaleServedCount());
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.get(0).getItem(), actual.get(0).getItem());
+        assertEquals(expected.get(0).getValue(), actual.get(0).getValue(), EPSILON);
+      } finally {
+        after.stopWarming();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (count.get() < expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    assertEquals(expected, count.get());
+  }
+
+  private static void awaitWarmed(CachingRecommender cachingRecommender) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (cachingRecommender.getWarmingProgress() < 1.0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    assertEquals(1.0, cachingRecommender.getWarmingProgress(), EPSILON);
+  }
+
 }
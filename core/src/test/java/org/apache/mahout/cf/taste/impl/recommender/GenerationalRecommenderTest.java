@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Tests {@link GenerationalRecommender}.</p>
+ */
+public final class GenerationalRecommenderTest extends TasteTestCase {
+
+  public void testRefreshPublishesNewGeneration() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    GenerationalRecommender recommender = new GenerationalRecommender(builder);
+    try {
+      Recommender first = recommender.getCurrentRecommender();
+      assertEquals(0L, recommender.getGeneration());
+      recommender.refreshAndWait();
+      assertEquals(1L, recommender.getGeneration());
+      assertEquals(2, builder.builds.get());
+      assertNotSame(first, recommender.getCurrentRecommender());
+      assertNotNull(recommender.recommend("test1", 1));
+      assertTrue(recommender.getAverageBuildTimeMS() >= 0.0);
+    } finally {
+      recommender.close();
+    }
+  }
+
+  public void testConcurrentRequestsCoalesce() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    GenerationalRecommender recommender = new GenerationalRecommender(builder);
+    try {
+      builder.block = new CountDownLatch(1);
+      recommender.requestRefresh();
+      builder.started.await(10L, TimeUnit.SECONDS);
+      Recommender old = recommender.getCurrentRecommender();
+      // The running build must not hold up requests
+      assertNotNull(recommender.recommend("test1", 1));
+      assertSame(old, recommender.getCurrentRecommender());
+      recommender.requestRefresh();
+      recommender.requestRefresh();
+      recommender.requestRefresh();
+      builder.block.countDown();
+      long deadline = System.currentTimeMillis() + 10000L;
+      while (recommender.getGeneration() < 2L && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10L);
+      }
+      // Initial build, blocked build, and one for the three requests
+      assertEquals(2L, recommender.getGeneration());
+      assertEquals(3, builder.builds.get());
+      assertEquals(2, recommender.getNumCoalescedRefreshes());
+    } finally {
+      recommender.close();
+    }
+  }
+
+  public void testFailedBuildKeepsGeneration() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    GenerationalRecommender recommender = new GenerationalRecommender(builder);
+    try {
+      Recommender first = recommender.getCurrentRecommender();
+      builder.fail = true;
+      try {
+        recommender.refreshAndWait();
+        fail("Should have thrown TasteException");
+      } catch (TasteException te) {
+        // good
+      }
+      assertSame(first, recommender.getCurrentRecommender());
+      assertEquals(0L, recommender.getGeneration());
+      assertEquals(1, recommender.getNumFailedBuilds());
+    } finally {
+      recommender.close();
+    }
+  }
+
+  public void testErrorDoesNotStopRefreshes() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    GenerationalRecommender recommender = new GenerationalRecommender(builder);
+    try {
+      builder.error = true;
+      try {
+        recommender.refreshAndWait();
+        fail("Should have thrown TasteException");
+      } catch (TasteException te) {
+        // good
+      }
+      builder.error = false;
+      recommender.refreshAndWait();
+      assertEquals(1L, recommender.getGeneration());
+      assertEquals(1, recommender.getNumFailedBuilds());
+    } finally {
+      recommender.close();
+    }
+  }
+
+  public void testEarlierFailureDoesNotFailLaterRequest() throws Exception {
+    final CountingBuilder builder = new CountingBuilder();
+    final GenerationalRecommender recommender = new GenerationalRecommender(builder);
+    try {
+      // The second build fails, but the request made while it runs is satisfied by the third
+      builder.failOnBuild = 2;
+      builder.block = new CountDownLatch(1);
+      recommender.requestRefresh();
+      builder.started.await(10L, TimeUnit.SECONDS);
+      final AtomicReference<Exception> thrown = new AtomicReference<Exception>();
+      Thread waiter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            recommender.refreshAndWait();
+          } catch (Exception e) {
+            thrown.set(e);
+          }
+        }
+      };
+      waiter.start();
+      long deadline = System.currentTimeMillis() + 10000L;
+      while (waiter.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10L);
+      }
+      builder.block.countDown();
+      waiter.join(10000L);
+      assertNull(thrown.get());
+      assertEquals(1, recommender.getNumFailedBuilds());
+      assertEquals(1L, recommender.getGeneration());
+    } finally {
+      recommender.close();
+    }
+  }
+
+  private static final class CountingBuilder implements Callable<Recommender> {
+
+    private final AtomicInteger builds = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(2);
+    private volatile CountDownLatch block;
+    private volatile boolean fail;
+    private volatile boolean error;
+    private volatile int failOnBuild;
+
+    @Override
+    public Recommender call() throws Exception {
+      int build = builds.incrementAndGet();
+      started.countDown();
+      CountDownLatch theBlock = block;
+      if (theBlock != null) {
+        theBlock.await();
+      }
+      if (error) {
+        throw new Error("error");
+      }
+      if (fail || build == failOnBuild) {
+        throw new TasteException("fail");
+      }
+      return new ItemAverageRecommender(getDataModel());
+    }
+  }
+
+}
@@ -32,6 +32,7 @@ import org.apache.mahout.cf.taste.recommender.Recommender;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 /**
  * <p>Tests {@link GenericItemBasedRecommender}.</p>
@@ -179,6 +180,34 @@ public final class GenericItemBasedRecommenderTest extends TasteTestCase {
     assertEquals(0.2, third.getValue(), EPSILON);
   }
 
+  public void testPreferredItemsNeighborhoodCandidates() throws Exception {
+    DataModel dataModel = getDataModel(getUser("test1", 0.1, 0.2),
+                                       getUser("test2", 0.3, null, 0.4),
+                                       getUser("test3", null, null, null, 0.5, 0.6));
+    Set<Item> candidates =
+        new PreferredItemsNeighborhoodCandidateItemsStrategy().getCandidateItems(dataModel.getUser("test1"), dataModel);
+    assertEquals(1, candidates.size());
+    assertTrue(candidates.contains(new GenericItem<String>("2")));
+    assertEquals(3, new AllItemsCandidateItemsStrategy().getCandidateItems(dataModel.getUser("test1"), dataModel).size());
+  }
+
+  public void testRecommendWithCandidateItemsStrategy() throws Exception {
+    DataModel dataModel = new GenericDataModel(getMockUsers());
+    Collection<GenericItemSimilarity.ItemItemSimilarity> similarities =
+            new ArrayList<GenericItemSimilarity.ItemItemSimilarity>(2);
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(new GenericItem<String>("0"),
+                                                                   new GenericItem<String>("1"), 1.0));
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(new GenericItem<String>("0"),
+                                                                   new GenericItem<String>("2"), 0.5));
+    Recommender recommender = new GenericItemBasedRecommender(dataModel,
+                                                              new GenericItemSimilarity(similarities),
+                                                              new PreferredItemsNeighborhoodCandidateItemsStrategy());
+    List<RecommendedItem> recommended = recommender.recommend("test1", 1);
+    assertEquals(1, recommended.size());
+    assertEquals(new GenericItem<String>("2"), recommended.get(0).getItem());
+    assertEquals(0.1, recommended.get(0).getValue(), EPSILON);
+  }
+
   private static ItemBasedRecommender buildRecommender() {
     DataModel dataModel = new GenericDataModel(getMockUsers());
     Collection<GenericItemSimilarity.ItemItemSimilarity> similarities =
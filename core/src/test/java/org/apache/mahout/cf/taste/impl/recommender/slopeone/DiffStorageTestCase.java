@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+
+import java.util.HashSet;
+
+abstract class DiffStorageTestCase extends TasteTestCase {
+
+  /**
+   * Asserts that two {@link DiffStorage}s built from, or updated with, the same data agree on every diff, every
+   * item's average preference and the items recommendable to "test1".
+   *
+   * @param stdDev whether to compare the standard deviations of diffs too
+   */
+  static void assertSameDiffs(DataModel model, DiffStorage expected, DiffStorage actual, boolean stdDev)
+      throws Exception {
+    for (Item item1 : model.getItems()) {
+      Object itemID1 = item1.getID();
+      assertEquals(expected.getAverageItemPref(itemID1).getAverage(),
+                   actual.getAverageItemPref(itemID1).getAverage(), EPSILON);
+      for (Item item2 : model.getItems()) {
+        Object itemID2 = item2.getID();
+        RunningAverage expectedDiff = expected.getDiff(itemID1, itemID2);
+        RunningAverage actualDiff = actual.getDiff(itemID1, itemID2);
+        if (expectedDiff == null) {
+          assertNull(actualDiff);
+        } else {
+          assertEquals(expectedDiff.getCount(), actualDiff.getCount());
+          assertEquals(expectedDiff.getAverage(), actualDiff.getAverage(), EPSILON);
+          if (stdDev) {
+            assertEquals(((RunningAverageAndStdDev) expectedDiff).getStandardDeviation(),
+                         ((RunningAverageAndStdDev) actualDiff).getStandardDeviation(), EPSILON);
+          }
+        }
+      }
+    }
+    assertNull(actual.getDiff("1", "nonexistent"));
+    assertEquals(new HashSet<Item>(expected.getRecommendableItems("test1")),
+                 new HashSet<Item>(actual.getRecommendableItems("test1")));
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+
+import java.io.File;
+
+/**
+ * Tests {@link DiffMatrixBuilder} and {@link MappedDiffStorage}.
+ */
+public final class MappedDiffStorageTest extends DiffStorageTestCase {
+
+  private File file;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("diffs", ".bin");
+    file.delete();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  public void testSameAsMemoryDiffStorage() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    assertSameDiffs(model, new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE),
+                    new MappedDiffStorage(model, Weighting.UNWEIGHTED, file), false);
+  }
+
+  public void testSameAsMemoryDiffStorageWithStdDev() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    assertSameDiffs(model, new MemoryDiffStorage(model, Weighting.WEIGHTED, false, Long.MAX_VALUE),
+                    new MappedDiffStorage(model, Weighting.WEIGHTED, file), true);
+  }
+
+  public void testReuseFile() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    new MappedDiffStorage(model, Weighting.UNWEIGHTED, file);
+    assertTrue(file.exists());
+    // Make it look older, so that we can tell whether it's written again
+    assertTrue(file.setLastModified(file.lastModified() - 10000L));
+    long lastModified = file.lastModified();
+    DiffStorage storage = new MappedDiffStorage(model, Weighting.UNWEIGHTED, file);
+    assertEquals(lastModified, file.lastModified());
+    assertEquals(3, storage.getDiff("1", "2").getCount());
+    // Different settings need a different file
+    new MappedDiffStorage(model, Weighting.WEIGHTED, file);
+    assertFalse(lastModified == file.lastModified());
+  }
+
+  public void testRefresh() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    DiffStorage storage = new MappedDiffStorage(model, Weighting.UNWEIGHTED, file);
+    RunningAverage before = storage.getDiff("1", "2");
+    storage.refresh(null);
+    RunningAverage after = storage.getDiff("1", "2");
+    assertEquals(before.getCount(), after.getCount());
+    assertEquals(before.getAverage(), after.getAverage(), EPSILON);
+  }
+
+  public void testRecommender() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    Recommender memory = new SlopeOneRecommender(model);
+    Recommender mapped = new SlopeOneRecommender(model, Weighting.WEIGHTED, Weighting.WEIGHTED,
+                                                 new MappedDiffStorage(model, Weighting.WEIGHTED, file));
+    for (Item item : model.getItems()) {
+      double expected = memory.estimatePreference("test1", item.getID());
+      double actual = mapped.estimatePreference("test1", item.getID());
+      if (Double.isNaN(expected)) {
+        assertTrue(Double.isNaN(actual));
+      } else {
+        assertEquals(expected, actual, EPSILON);
+      }
+    }
+  }
+
+}
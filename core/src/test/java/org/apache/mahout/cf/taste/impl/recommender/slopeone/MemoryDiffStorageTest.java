@@ -18,7 +18,6 @@
 package org.apache.mahout.cf.taste.impl.recommender.slopeone;
 
 import org.apache.mahout.cf.taste.common.Weighting;
-import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -26,7 +25,7 @@ import org.apache.mahout.cf.taste.model.DataModel;
 /**
  * Tests {@link MemoryDiffStorage}.
  */
-public class MemoryDiffStorageTest extends TasteTestCase {
+public class MemoryDiffStorageTest extends DiffStorageTestCase {
 
   public void testGetDiff() throws Exception {
     DataModel model = new GenericDataModel(getMockUsers());
@@ -54,4 +53,67 @@ public class MemoryDiffStorageTest extends TasteTestCase {
     assertEquals(2, average.getCount());
   }
 
+  public void testUpdateSecondItem() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    MemoryDiffStorage storage = new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE);
+    double before = storage.getDiff("1", "2").getAverage();
+    storage.updateItemPref("2", 0.3, false);
+    assertEquals(before + 0.1, storage.getDiff("1", "2").getAverage(), EPSILON);
+    assertEquals(before + 0.1, -storage.getDiff("2", "1").getAverage(), EPSILON);
+  }
+
+  public void testBatchedUpdate() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    MemoryDiffStorage one = new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE, 2);
+    MemoryDiffStorage batched = new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE, 2);
+    Object[] itemIDs = {"1", "2", "1", "3"};
+    double[] prefDeltas = {0.5, -0.2, 0.1, 0.3};
+    for (int i = 0; i < itemIDs.length; i++) {
+      one.updateItemPref(itemIDs[i], prefDeltas[i], false);
+    }
+    batched.updateItemPrefs(itemIDs, prefDeltas, false);
+    assertSameDiffs(model, one, batched, false);
+  }
+
+  public void testBatchedRemove() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    MemoryDiffStorage one = new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE);
+    MemoryDiffStorage batched = new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE);
+    Object[] itemIDs = {"1", "3"};
+    double[] prefDeltas = {0.5, 0.4};
+    for (int i = 0; i < itemIDs.length; i++) {
+      one.updateItemPref(itemIDs[i], prefDeltas[i], true);
+    }
+    batched.updateItemPrefs(itemIDs, prefDeltas, true);
+    assertSameDiffs(model, one, batched, false);
+    assertEquals(2, batched.getDiff("1", "2").getCount());
+  }
+
+  public void testBatchedUpdateMismatchedArrays() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    MemoryDiffStorage storage = new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE);
+    try {
+      storage.updateItemPrefs(new Object[] {"1"}, new double[0], false);
+      fail();
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+  }
+
+  public void testParallelBuild() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    MemoryDiffStorage serial = new MemoryDiffStorage(model, Weighting.WEIGHTED, false, Long.MAX_VALUE);
+    MemoryDiffStorage parallel = new MemoryDiffStorage(model, Weighting.WEIGHTED, false, Long.MAX_VALUE, 3);
+    assertSameDiffs(model, serial, parallel, true);
+  }
+
+  public void testRefreshDoesNotAccumulate() throws Exception {
+    DataModel model = new GenericDataModel(getMockUsers());
+    MemoryDiffStorage storage = new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE, 2);
+    int count = storage.getAverageItemPref("1").getCount();
+    storage.refresh(null);
+    assertEquals(count, storage.getAverageItemPref("1").getCount());
+    assertEquals(3, storage.getDiff("1", "2").getCount());
+  }
+
 }
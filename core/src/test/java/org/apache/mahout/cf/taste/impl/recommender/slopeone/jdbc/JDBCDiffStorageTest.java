@@ -0,0 +1,453 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone.jdbc;
+
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.MemoryDiffStorage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.JDBCDataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.User;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs {@link AbstractJDBCDiffStorage} against a mock database which answers its queries as the
+ * constructor documents them, with diffs from {@link MemoryDiffStorage} stored as item A, item B,
+ * count and average of B's preferences minus A's.
+ */
+public final class JDBCDiffStorageTest extends TasteTestCase {
+
+  public void testCachedUserDiffsMatchUncached() throws Exception {
+    DataModel model = getTestDataModel();
+    MemoryDiffStorage memoryStorage = new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE);
+    MockDiffStorage uncached = new MockDiffStorage(new MockDatabase(model));
+    MockDiffStorage cached = new MockDiffStorage(new MockDatabase(model));
+    cached.setMaxCachedUserDiffs(10);
+    int compared = 0;
+    for (User user : model.getUsers()) {
+      Preference[] prefs = user.getPreferencesAsArray();
+      for (int i = 0; i < 4; i++) {
+        String itemID = String.valueOf(i);
+        RunningAverage[] expected = memoryStorage.getDiffs(user.getID(), itemID, prefs);
+        RunningAverage[] uncachedDiffs = uncached.getDiffs(user.getID(), itemID, prefs);
+        RunningAverage[] cachedDiffs = cached.getDiffs(user.getID(), itemID, prefs);
+        for (int j = 0; j < prefs.length; j++) {
+          if (prefs[j].getItem().getID().equals(itemID)) {
+            continue;
+          }
+          assertSameDiff(expected[j], uncachedDiffs[j]);
+          assertSameDiff(expected[j], cachedDiffs[j]);
+          compared++;
+        }
+      }
+    }
+    assertTrue(compared > 0);
+  }
+
+  public void testDiffCache() throws Exception {
+    MockDatabase database = new MockDatabase(getTestDataModel());
+    MockDiffStorage storage = new MockDiffStorage(database);
+    storage.setMaxCachedDiffs(10);
+    RunningAverage diff = storage.getDiff("0", "1");
+    assertNotNull(diff);
+    assertSameDiff(diff, storage.getDiff("0", "1"));
+    assertEquals(1, database.count("getDiff["));
+    // Missing diffs are cached too
+    assertNull(storage.getDiff("0", "9"));
+    assertNull(storage.getDiff("0", "9"));
+    assertEquals(2, database.count("getDiff["));
+  }
+
+  public void testRecommendableItemsCache() throws Exception {
+    DataModel model = getTestDataModel();
+    MockDatabase database = new MockDatabase(model);
+    MockDiffStorage uncached = new MockDiffStorage(database);
+    MockDiffStorage cached = new MockDiffStorage(database);
+    cached.setMaxCachedUserDiffs(10);
+    for (User user : model.getUsers()) {
+      Set<Item> expected = new HashSet<Item>(uncached.getRecommendableItems(user.getID()));
+      assertEquals(expected, new HashSet<Item>(cached.getRecommendableItems(user.getID())));
+      assertEquals(expected, new HashSet<Item>(cached.getRecommendableItems(user.getID())));
+    }
+    assertEquals(Collections.singleton(model.getItem("2")),
+                 new HashSet<Item>(cached.getRecommendableItems("test1")));
+    assertEquals(4, database.count("getRecommendableItems["));
+    assertEquals(4, database.count("getUserDiffs["));
+  }
+
+  public void testUpdateClearsCaches() throws Exception {
+    DataModel model = getTestDataModel();
+    MockDatabase database = new MockDatabase(model);
+    final MockDiffStorage storage = new MockDiffStorage(database);
+    storage.setMaxCachedDiffs(10);
+    storage.setMaxCachedUserDiffs(10);
+    final Preference[] prefs = model.getUser("test2").getPreferencesAsArray();
+    assertEquals("0", prefs[0].getItem().getID());
+    RunningAverage diffBefore = storage.getDiff("0", "1");
+    RunningAverage userDiffBefore = storage.getDiffs("test2", "1", prefs)[0];
+    // Diffs read while the update runs must not stay cached after it
+    database.setUpdateListener(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        storage.getDiff("0", "1");
+        storage.getDiffs("test2", "1", prefs);
+        return null;
+      }
+    });
+    // Diffs to item 1 change in the second statement of the update
+    storage.updateItemPref("1", 0.5, false);
+    database.setUpdateListener(null);
+    assertEquals(diffBefore.getAverage() + 0.5 / diffBefore.getCount(),
+                 storage.getDiff("0", "1").getAverage(), EPSILON);
+    assertEquals(userDiffBefore.getAverage() + 0.5 / userDiffBefore.getCount(),
+                 storage.getDiffs("test2", "1", prefs)[0].getAverage(), EPSILON);
+  }
+
+  public void testStagedRebuild() throws Exception {
+    MockDatabase database = new MockDatabase(getTestDataModel());
+    MockDiffStorage storage = new MockDiffStorage(database);
+    storage.setMaxCachedDiffs(10);
+    storage.getDiff("0", "1");
+    storage.setStagedRebuilds(true);
+    storage.setNumRebuildPartitions(3);
+    database.clearStatements();
+    storage.refresh(null);
+    assertEquals(Arrays.asList("prepareStaging1[]", "prepareStaging2[]",
+                               "createStagedDiffs[3, 0, 1]", "createStagedDiffs[3, 1, 1]",
+                               "createStagedDiffs[3, 2, 1]", "swapStaging[]"),
+                 database.getStatements());
+    // The rebuild cleared cached diffs
+    storage.getDiff("0", "1");
+    assertEquals(1, database.count("getDiff["));
+  }
+
+  public void testShortConstructor() throws Exception {
+    DataModel model = getTestDataModel();
+    MockDatabase database = new MockDatabase(model);
+    ShortMockDiffStorage storage = new ShortMockDiffStorage(database);
+    Preference[] prefs = model.getUser("test1").getPreferencesAsArray();
+    RunningAverage[] diffs = storage.getDiffs("test1", "2", prefs);
+    assertEquals(Collections.singletonList("getDiffsOneWay[2, test1]"), database.getStatements().subList(1, 2));
+    assertNotNull(diffs[0]);
+    try {
+      storage.setMaxCachedUserDiffs(1);
+      fail();
+    } catch (UnsupportedOperationException uoe) {
+      // good
+    }
+    try {
+      storage.setStagedRebuilds(true);
+      fail();
+    } catch (UnsupportedOperationException uoe) {
+      // good
+    }
+  }
+
+  private static DataModel getTestDataModel() {
+    return getDataModel(getUser("test1", 0.1, 0.3, null, 0.9),
+                        getUser("test2", 0.2, null, 0.3, 0.6),
+                        getUser("test3", 0.4, 0.3, 0.5, null),
+                        getUser("test4", 0.7, 0.3, 0.8, 0.1));
+  }
+
+  private static void assertSameDiff(RunningAverage expected, RunningAverage actual) {
+    if (expected == null) {
+      assertNull(actual);
+    } else {
+      assertNotNull(actual);
+      assertEquals(expected.getCount(), actual.getCount());
+      assertEquals(expected.getAverage(), actual.getAverage(), EPSILON);
+    }
+  }
+
+  private static final class MockDiffStorage extends AbstractJDBCDiffStorage {
+    private MockDiffStorage(MockDatabase database) throws Exception {
+      super(mockDataModel(database),
+            "getDiff", "getDiffs", "getUserDiffs", "getAverageItemPref",
+            new String[] {"updateDiffA", "updateDiffB"}, new String[] {"removeDiffA", "removeDiffB"},
+            "getRecommendableItems", "deleteDiffs", "createDiffs",
+            new String[] {"prepareStaging1", "prepareStaging2"}, "createStagedDiffs",
+            new String[] {"swapStaging"}, "diffsExist", 1);
+    }
+  }
+
+  private static final class ShortMockDiffStorage extends AbstractJDBCDiffStorage {
+    private ShortMockDiffStorage(MockDatabase database) throws Exception {
+      super(mockDataModel(database),
+            "getDiff", "getDiffsOneWay", "getAverageItemPref",
+            new String[] {"updateDiffA", "updateDiffB"}, new String[] {"removeDiffA", "removeDiffB"},
+            "getRecommendableItems", "deleteDiffs", "createDiffs", "diffsExist", 1);
+    }
+  }
+
+  private static JDBCDataModel mockDataModel(final MockDatabase database) {
+    final DataSource dataSource = (DataSource) mock(DataSource.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return mock(java.sql.Connection.class, database);
+      }
+    });
+    return (JDBCDataModel) mock(JDBCDataModel.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+        String name = method.getName();
+        if ("getDataSource".equals(name)) {
+          return dataSource;
+        }
+        if ("getItem".equals(name)) {
+          return database.model.getItem(args[0]);
+        }
+        if ("hashCode".equals(name)) {
+          return System.identityHashCode(proxy);
+        }
+        if ("equals".equals(name)) {
+          return proxy == args[0];
+        }
+        return null;
+      }
+    });
+  }
+
+  private static Object mock(Class<?> type, InvocationHandler handler) {
+    return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+  }
+
+  /**
+   * Mocks a {@link java.sql.Connection}; each statement it prepares runs the query or update named by its
+   * SQL, and is recorded with its parameters.
+   */
+  private static final class MockDatabase implements InvocationHandler {
+
+    private final DataModel model;
+    private final List<Object[]> diffRows;
+    private final List<String> statements;
+    private Callable<?> updateListener;
+
+    private MockDatabase(DataModel model) throws Exception {
+      this.model = model;
+      diffRows = new ArrayList<Object[]>();
+      MemoryDiffStorage memoryStorage = new MemoryDiffStorage(model, Weighting.UNWEIGHTED, false, Long.MAX_VALUE);
+      for (int a = 0; a < 4; a++) {
+        for (int b = a + 1; b < 4; b++) {
+          RunningAverage diff = memoryStorage.getDiff(String.valueOf(a), String.valueOf(b));
+          if (diff != null) {
+            diffRows.add(new Object[] {String.valueOf(a), String.valueOf(b), diff.getCount(), diff.getAverage()});
+          }
+        }
+      }
+      statements = new ArrayList<String>();
+    }
+
+    private List<String> getStatements() {
+      return statements;
+    }
+
+    private void clearStatements() {
+      statements.clear();
+    }
+
+    private int count(String prefix) {
+      int count = 0;
+      for (String statement : statements) {
+        if (statement.startsWith(prefix)) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * @param updateListener called before each update is applied, as if by another thread reading meanwhile
+     */
+    private void setUpdateListener(Callable<?> updateListener) {
+      this.updateListener = updateListener;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if ("prepareStatement".equals(method.getName())) {
+        return mock(java.sql.PreparedStatement.class, new MockStatement(this, (String) args[0]));
+      }
+      return null;
+    }
+
+    private List<Object[]> query(String sql, List<Object> params) throws Exception {
+      statements.add(sql + params);
+      List<Object[]> rows = new ArrayList<Object[]>();
+      if ("diffsExist".equals(sql)) {
+        rows.add(new Object[] {diffRows.size()});
+      } else if ("getDiff".equals(sql)) {
+        for (Object[] row : diffRows) {
+          if ((row[0].equals(params.get(0)) && row[1].equals(params.get(1))) ||
+              (row[0].equals(params.get(2)) && row[1].equals(params.get(3)))) {
+            rows.add(new Object[] {row[2], row[3]});
+          }
+        }
+      } else if ("getDiffs".equals(sql) || "getDiffsOneWay".equals(sql)) {
+        boolean bothWays = "getDiffs".equals(sql);
+        assertEquals(bothWays ? 4 : 2, params.size());
+        Object itemID = params.get(0);
+        for (Preference pref : model.getUser(params.get(1)).getPreferencesAsArray()) {
+          Object userItemID = pref.getItem().getID();
+          for (Object[] row : diffRows) {
+            if (row[0].equals(userItemID) && row[1].equals(itemID)) {
+              rows.add(new Object[] {row[2], row[3], userItemID});
+            } else if (bothWays && row[1].equals(userItemID) && row[0].equals(itemID)) {
+              rows.add(new Object[] {row[2], -((Double) row[3]), userItemID});
+            }
+          }
+        }
+        Collections.sort(rows, new Comparator<Object[]>() {
+          @Override
+          public int compare(Object[] a, Object[] b) {
+            return ((String) a[2]).compareTo((String) b[2]);
+          }
+        });
+      } else if ("getUserDiffs".equals(sql)) {
+        for (Preference pref : model.getUser(params.get(0)).getPreferencesAsArray()) {
+          Object userItemID = pref.getItem().getID();
+          for (Object[] row : diffRows) {
+            if (row[0].equals(userItemID) || row[1].equals(userItemID)) {
+              rows.add(new Object[] {row[0], row[1], row[2], row[3], userItemID});
+            }
+          }
+        }
+      } else if ("getRecommendableItems".equals(sql)) {
+        User user = model.getUser(params.get(0));
+        Set<Object> itemIDs = new HashSet<Object>();
+        for (Preference pref : user.getPreferencesAsArray()) {
+          Object userItemID = pref.getItem().getID();
+          for (Object[] row : diffRows) {
+            if (row[0].equals(userItemID)) {
+              itemIDs.add(row[1]);
+            } else if (row[1].equals(userItemID)) {
+              itemIDs.add(row[0]);
+            }
+          }
+        }
+        for (Object itemID : itemIDs) {
+          if (user.getPreferenceFor(itemID) == null) {
+            rows.add(new Object[] {itemID});
+          }
+        }
+      } else {
+        throw new UnsupportedOperationException(sql);
+      }
+      return rows;
+    }
+
+    private int update(String sql, List<Object> params) throws Exception {
+      statements.add(sql + params);
+      if (updateListener != null) {
+        updateListener.call();
+      }
+      if ("updateDiffA".equals(sql) || "updateDiffB".equals(sql)) {
+        // As MySQLJDBCDiffStorage: diffs from the item lose, and diffs to it gain, delta / count
+        int itemColumn = "updateDiffA".equals(sql) ? 0 : 1;
+        double sign = itemColumn == 0 ? -1.0 : 1.0;
+        for (Object[] row : diffRows) {
+          if (row[itemColumn].equals(params.get(1))) {
+            row[3] = (Double) row[3] + sign * (Double) params.get(0) / (Integer) row[2];
+          }
+        }
+      }
+      return 0;
+    }
+  }
+
+  private static final class MockStatement implements InvocationHandler {
+
+    private final MockDatabase database;
+    private final String sql;
+    private final List<Object> params;
+
+    private MockStatement(MockDatabase database, String sql) {
+      this.database = database;
+      this.sql = sql;
+      params = new ArrayList<Object>();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+      String name = method.getName();
+      if (name.startsWith("set") && args.length == 2 && args[0] instanceof Integer) {
+        int index = (Integer) args[0];
+        while (params.size() < index) {
+          params.add(null);
+        }
+        params.set(index - 1, args[1]);
+      } else if ("executeQuery".equals(name)) {
+        return mock(java.sql.ResultSet.class, new MockResultSet(database.query(sql, params).iterator()));
+      } else if ("executeUpdate".equals(name)) {
+        return database.update(sql, params);
+      }
+      return null;
+    }
+  }
+
+  private static final class MockResultSet implements InvocationHandler {
+
+    private final Iterator<Object[]> rows;
+    private Object[] row;
+
+    private MockResultSet(Iterator<Object[]> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String name = method.getName();
+      if ("next".equals(name)) {
+        row = rows.hasNext() ? rows.next() : null;
+        return row != null;
+      }
+      if ("close".equals(name)) {
+        return null;
+      }
+      Object value = row[(Integer) args[0] - 1];
+      if ("getString".equals(name)) {
+        return value.toString();
+      }
+      if ("getInt".equals(name)) {
+        return ((Number) value).intValue();
+      }
+      if ("getDouble".equals(name)) {
+        return ((Number) value).doubleValue();
+      }
+      return value;
+    }
+  }
+
+}
@@ -20,10 +20,12 @@ package org.apache.mahout.cf.taste.impl.similarity;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.common.Weighting;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericItem;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUser;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.User;
 
@@ -182,4 +184,25 @@ public final class EuclideanDistanceSimilarityTest extends SimilarityTestCase {
     new EuclideanDistanceSimilarity(getDataModel()).refresh(null);
   }
 
+  public void testCompactDataModel() throws Exception {
+    DataModel dataModel = getNumericDataModel();
+    DataModel compactDataModel = new CompactDataModel(dataModel);
+    EuclideanDistanceSimilarity similarity = new EuclideanDistanceSimilarity(dataModel);
+    EuclideanDistanceSimilarity compactSimilarity = new EuclideanDistanceSimilarity(compactDataModel);
+    for (User user1 : dataModel.getUsers()) {
+      for (User user2 : dataModel.getUsers()) {
+        assertSimilarityEquals(similarity.userSimilarity(user1, user2),
+                               compactSimilarity.userSimilarity(compactDataModel.getUser(user1.getID()),
+                                                                compactDataModel.getUser(user2.getID())));
+      }
+    }
+    for (Item item1 : dataModel.getItems()) {
+      for (Item item2 : dataModel.getItems()) {
+        assertSimilarityEquals(similarity.itemSimilarity(item1, item2),
+                               compactSimilarity.itemSimilarity(compactDataModel.getItem(item1.getID()),
+                                                                compactDataModel.getItem(item2.getID())));
+      }
+    }
+  }
+
 }
\ No newline at end of file
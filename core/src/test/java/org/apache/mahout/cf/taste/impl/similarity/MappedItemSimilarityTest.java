@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.model.GenericItem;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
+import org.apache.mahout.cf.taste.model.User;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+
+import java.io.File;
+import java.util.Collections;
+
+/**
+ * <p>Tests {@link PrecomputedItemSimilarityBuilder} and {@link MappedItemSimilarity}.</p>
+ */
+public final class MappedItemSimilarityTest extends TasteTestCase {
+
+  private File file;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("similarity", ".bin");
+    file.deleteOnExit();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  private static DataModel getTestDataModel(double changed) {
+    User user1 = getUser("test1", 1.0, 2.0, 3.0, 1.0);
+    User user2 = getUser("test2", 2.0, 5.0, 1.0, 4.0);
+    User user3 = getUser("test3", 3.0, 6.0, 4.0, changed);
+    User user4 = getUser("test4", 5.0, 1.0, 2.0, 2.0);
+    return getDataModel(user1, user2, user3, user4);
+  }
+
+  public void testAllNeighbors() throws Exception {
+    DataModel dataModel = getTestDataModel(3.0);
+    ItemSimilarity pearson = new PearsonCorrelationSimilarity(dataModel);
+    new PrecomputedItemSimilarityBuilder(pearson, dataModel, 10, -1.0, 2).build(file);
+    ItemSimilarity mapped = new MappedItemSimilarity(file);
+    for (Item item1 : dataModel.getItems()) {
+      for (Item item2 : dataModel.getItems()) {
+        assertEquals(pearson.itemSimilarity(item1, item2), mapped.itemSimilarity(item1, item2), EPSILON);
+      }
+    }
+    assertTrue(Double.isNaN(mapped.itemSimilarity(dataModel.getItem("0"), new GenericItem<String>("foo"))));
+  }
+
+  public void testRebuild() throws Exception {
+    DataModel before = getTestDataModel(3.0);
+    new PrecomputedItemSimilarityBuilder(new PearsonCorrelationSimilarity(before), before, 2, -1.0, 2).build(file);
+    MappedItemSimilarity previous = new MappedItemSimilarity(file);
+
+    DataModel after = getTestDataModel(-2.0);
+    ItemSimilarity pearson = new PearsonCorrelationSimilarity(after);
+    PrecomputedItemSimilarityBuilder builder = new PrecomputedItemSimilarityBuilder(pearson, after, 2, -1.0, 2);
+    File rebuiltFile = File.createTempFile("similarity", ".bin");
+    rebuiltFile.deleteOnExit();
+    File fullFile = File.createTempFile("similarity", ".bin");
+    fullFile.deleteOnExit();
+    try {
+      builder.rebuild(previous, Collections.singleton("3"), rebuiltFile);
+      builder.build(fullFile);
+      ItemSimilarity rebuilt = new MappedItemSimilarity(rebuiltFile);
+      ItemSimilarity full = new MappedItemSimilarity(fullFile);
+      for (Item item1 : after.getItems()) {
+        for (Item item2 : after.getItems()) {
+          double expected = full.itemSimilarity(item1, item2);
+          double actual = rebuilt.itemSimilarity(item1, item2);
+          if (Double.isNaN(expected)) {
+            assertTrue(Double.isNaN(actual));
+          } else {
+            assertEquals(expected, actual, EPSILON);
+          }
+        }
+      }
+    } finally {
+      rebuiltFile.delete();
+      fullFile.delete();
+    }
+  }
+
+  public void testRebuildInPlace() throws Exception {
+    DataModel before = getTestDataModel(3.0);
+    new PrecomputedItemSimilarityBuilder(new PearsonCorrelationSimilarity(before), before, 2, -1.0, 2).build(file);
+    MappedItemSimilarity mapped = new MappedItemSimilarity(file);
+    long lastModified = file.lastModified();
+
+    DataModel after = getTestDataModel(-2.0);
+    PrecomputedItemSimilarityBuilder builder =
+        new PrecomputedItemSimilarityBuilder(new PearsonCorrelationSimilarity(after), after, 2, -1.0, 2);
+    builder.rebuild(mapped, Collections.singleton("3"), file);
+    // A replacement may carry an older modification time, as when copied from elsewhere
+    assertTrue(file.setLastModified(lastModified - 10000L));
+    mapped.refresh(null);
+
+    File fullFile = File.createTempFile("similarity", ".bin");
+    fullFile.deleteOnExit();
+    try {
+      builder.build(fullFile);
+      ItemSimilarity full = new MappedItemSimilarity(fullFile);
+      for (Item item1 : after.getItems()) {
+        for (Item item2 : after.getItems()) {
+          double expected = full.itemSimilarity(item1, item2);
+          double actual = mapped.itemSimilarity(item1, item2);
+          if (Double.isNaN(expected)) {
+            assertTrue(Double.isNaN(actual));
+          } else {
+            assertEquals(expected, actual, EPSILON);
+          }
+        }
+      }
+    } finally {
+      fullFile.delete();
+    }
+  }
+
+}
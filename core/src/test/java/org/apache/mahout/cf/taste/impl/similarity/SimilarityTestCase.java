@@ -18,9 +18,36 @@
 package org.apache.mahout.cf.taste.impl.similarity;
 
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.User;
 
 abstract class SimilarityTestCase extends TasteTestCase {
 
+  /**
+   * @return a {@link DataModel} with numeric IDs, some missing preferences and some tied values, suitable
+   *  for comparing results against a {@link CompactDataModel} made from it
+   */
+  static DataModel getNumericDataModel() {
+    User user1 = getUser("1", 1.0, 2.0, null, 4.0, 3.0);
+    User user2 = getUser("2", 2.0, 5.0, 1.0, null, 2.0);
+    User user3 = getUser("3", 3.0, 6.0, 4.0, 4.0, null);
+    User user4 = getUser("4", null, 1.0, 2.0, 2.0, 5.0);
+    User user5 = getUser("5", 5.0);
+    return getDataModel(user1, user2, user3, user4, user5);
+  }
+
+  /**
+   * Like {@link #assertEquals(double, double, double)}, but also accepts when both are {@link Double#NaN}.
+   */
+  static void assertSimilarityEquals(double expected, double actual) {
+    if (Double.isNaN(expected)) {
+      assertTrue("Expected NaN but was " + actual, Double.isNaN(actual));
+    } else {
+      assertEquals(expected, actual, EPSILON);
+    }
+  }
+
   static void assertCorrelationEquals(double expected, double actual) {
     assertTrue("Correlation is NaN", !Double.isNaN(actual));
     assertTrue("Correlation > 1.0", actual <= 1.0);
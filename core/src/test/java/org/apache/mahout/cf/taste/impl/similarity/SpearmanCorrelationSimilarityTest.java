@@ -18,6 +18,7 @@
 package org.apache.mahout.cf.taste.impl.similarity;
 
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.User;
 
@@ -63,4 +64,18 @@ public final class SpearmanCorrelationSimilarityTest extends SimilarityTestCase
     new SpearmanCorrelationSimilarity(getDataModel()).refresh(null);
   }
 
+  public void testCompactDataModel() throws Exception {
+    DataModel dataModel = getNumericDataModel();
+    DataModel compactDataModel = new CompactDataModel(dataModel);
+    SpearmanCorrelationSimilarity similarity = new SpearmanCorrelationSimilarity(dataModel);
+    SpearmanCorrelationSimilarity compactSimilarity = new SpearmanCorrelationSimilarity(compactDataModel);
+    for (User user1 : dataModel.getUsers()) {
+      for (User user2 : dataModel.getUsers()) {
+        assertSimilarityEquals(similarity.userSimilarity(user1, user2),
+                               compactSimilarity.userSimilarity(compactDataModel.getUser(user1.getID()),
+                                                                compactDataModel.getUser(user2.getID())));
+      }
+    }
+  }
+
 }
@@ -17,7 +17,9 @@
 
 package org.apache.mahout.cf.taste.impl.similarity;
 
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Item;
 import org.apache.mahout.cf.taste.model.User;
 
 /**
@@ -86,4 +88,25 @@ public final class TanimotoCoefficientSimilarityTest extends SimilarityTestCase
     new TanimotoCoefficientSimilarity(getDataModel()).refresh(null);
   }
 
+  public void testCompactDataModel() throws Exception {
+    DataModel dataModel = getNumericDataModel();
+    DataModel compactDataModel = new CompactDataModel(dataModel);
+    TanimotoCoefficientSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    TanimotoCoefficientSimilarity compactSimilarity = new TanimotoCoefficientSimilarity(compactDataModel);
+    for (User user1 : dataModel.getUsers()) {
+      for (User user2 : dataModel.getUsers()) {
+        assertSimilarityEquals(similarity.userSimilarity(user1, user2),
+                               compactSimilarity.userSimilarity(compactDataModel.getUser(user1.getID()),
+                                                                compactDataModel.getUser(user2.getID())));
+      }
+    }
+    for (Item item1 : dataModel.getItems()) {
+      for (Item item2 : dataModel.getItems()) {
+        assertSimilarityEquals(similarity.itemSimilarity(item1, item2),
+                               compactSimilarity.itemSimilarity(compactDataModel.getItem(item1.getID()),
+                                                                compactDataModel.getItem(item2.getID())));
+      }
+    }
+  }
+
 }
\ No newline at end of file